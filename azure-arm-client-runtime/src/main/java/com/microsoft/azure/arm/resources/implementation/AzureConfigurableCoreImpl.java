@@ -9,6 +9,7 @@ package com.microsoft.azure.arm.resources.implementation;
 import com.microsoft.azure.AzureEnvironment;
 import com.microsoft.azure.AzureResponseBuilder;
 import com.microsoft.azure.arm.resources.AzureConfigurable;
+import com.microsoft.azure.arm.utils.ResourceManagerQuotaPacingInterceptor;
 import com.microsoft.azure.arm.utils.ResourceManagerThrottlingInterceptor;
 import com.microsoft.azure.credentials.AzureTokenCredentials;
 import com.microsoft.azure.serializer.AzureJacksonAdapter;
@@ -104,6 +105,7 @@ public class AzureConfigurableCoreImpl<T extends AzureConfigurable<T>>
         RestClient client =  restClientBuilder
                 .withBaseUrl(credentials.environment(), endpoint)
                 .withCredentials(credentials)
+                .withInterceptor(new ResourceManagerQuotaPacingInterceptor())
                 .withInterceptor(new ResourceManagerThrottlingInterceptor())
                 .build();
         if (client.httpClient().proxy() != null) {
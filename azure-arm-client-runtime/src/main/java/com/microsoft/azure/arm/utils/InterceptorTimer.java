@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.arm.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.Interceptor;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The timer shared by the Azure Resource Manager interceptors that hold requests back. A single
+ * daemon thread releases the queued requests, and waiting calls give up as soon as they are canceled.
+ */
+final class InterceptorTimer {
+    /**
+     * How often a waiting call checks whether it was canceled, in milliseconds.
+     */
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    /**
+     * The scheduler releasing the queued requests.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("azure-arm-interceptor-timer-%d").build());
+
+    /**
+     * The timer as an Rx scheduler.
+     */
+    private static final Scheduler SCHEDULER = Schedulers.from(TIMER);
+
+    /**
+     * Hidden constructor for utility class.
+     */
+    private InterceptorTimer() { }
+
+    /**
+     * Runs a task on the timer after a delay.
+     *
+     * @param task the task to run
+     * @param delayMillis the delay in milliseconds
+     */
+    static void schedule(Runnable task, long delayMillis) {
+        TIMER.schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the timer as an Rx scheduler
+     */
+    static Scheduler scheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Waits until a queued request is released.
+     *
+     * @param released the future completed when the request is released
+     * @param chain the interceptor chain of the request
+     * @param <T> the type of the value the request is released with
+     * @return the value the request is released with
+     * @throws IOException thrown if the call is canceled or the thread interrupted while waiting
+     */
+    static <T> T await(Future<T> released, Interceptor.Chain chain) throws IOException {
+        try {
+            while (true) {
+                try {
+                    return released.get(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (chain.call().isCanceled()) {
+                        throw new IOException("Canceled");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to be released");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
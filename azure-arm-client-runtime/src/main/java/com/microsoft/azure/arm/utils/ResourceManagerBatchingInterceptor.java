@@ -0,0 +1,395 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.arm.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An interceptor packing concurrent GET requests into calls to the batch endpoint of Azure Resource Manager.
+ * <p>
+ * The first GET for a host opens a batch and waits for a short window, during which the GETs for the same
+ *   host join it. The batch is sent when the window ends or when it is full, as a single POST to the /batch
+ *   endpoint, and each request gets back its own response, as if it had been sent alone. Each request
+ *   carries its own headers into the batch. A request alone in its batch is sent as is, and requests whose
+ *   batch fails, or which are answered with a status worth retrying, are sent one by one, so that the
+ *   retry policy of the client applies to them.
+ * <p>
+ * The batch call goes through the interceptors following this one, so it is authenticated like the
+ *   requests it carries.
+ */
+public class ResourceManagerBatchingInterceptor implements Interceptor {
+    /**
+     * The largest number of requests the batch endpoint accepts in a call.
+     */
+    public static final int MAX_BATCH_SIZE = 20;
+
+    /**
+     * The API version of the batch endpoint.
+     */
+    private static final String BATCH_API_VERSION = "2020-06-01";
+
+    /**
+     * The media type of the batch calls and of the responses rebuilt from them.
+     */
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    /**
+     * The mapper reading and writing the batch calls.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The batches being filled, by host.
+     */
+    private final ConcurrentMap<String, Batch> openBatches = new ConcurrentHashMap<>();
+
+    /**
+     * How long a batch waits for more requests, in milliseconds.
+     */
+    private long windowMillis = 10;
+
+    /**
+     * The number of requests after which a batch is sent without waiting for the end of its window.
+     */
+    private int maxBatchSize = MAX_BATCH_SIZE;
+
+    /**
+     * The number of requests answered from a batch.
+     */
+    private final AtomicLong batchedRequestCount = new AtomicLong();
+
+    /**
+     * The number of batch calls sent.
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * The number of requests sent on their own because their batch failed.
+     */
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    /**
+     * Sets how long a batch waits for more requests.
+     *
+     * @param window the batching window, at least one millisecond
+     * @param unit the time unit of the window
+     * @return the interceptor itself
+     */
+    public ResourceManagerBatchingInterceptor withWindow(long window, TimeUnit unit) {
+        long millis = unit.toMillis(window);
+        if (millis < 1) {
+            throw new IllegalArgumentException("The batching window must be at least one millisecond.");
+        }
+        this.windowMillis = millis;
+        return this;
+    }
+
+    /**
+     * Sets the number of requests after which a batch is sent without waiting for the end of its window.
+     *
+     * @param maxBatchSize the batch size, at most {@link #MAX_BATCH_SIZE}
+     * @return the interceptor itself
+     */
+    public ResourceManagerBatchingInterceptor withMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("The batch size must be between 1 and " + MAX_BATCH_SIZE + ".");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * @return the number of requests answered from a batch
+     */
+    public long batchedRequestCount() {
+        return batchedRequestCount.get();
+    }
+
+    /**
+     * @return the number of batch calls sent
+     */
+    public long batchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return the number of requests sent on their own because their batch failed
+     */
+    public long fallbackCount() {
+        return fallbackCount.get();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+        String host = request.url().scheme() + "://" + request.url().host() + ":" + request.url().port();
+        Entry entry = new Entry(request);
+        while (true) {
+            Batch batch = openBatches.get(host);
+            if (batch == null) {
+                Batch created = new Batch();
+                created.add(entry);
+                if (openBatches.putIfAbsent(host, created) == null) {
+                    return lead(created, host, entry, chain);
+                }
+            } else if (batch.add(entry)) {
+                Response response = InterceptorTimer.await(entry.response, chain);
+                if (response == null) {
+                    fallbackCount.incrementAndGet();
+                    return chain.proceed(request);
+                }
+                return response;
+            } else {
+                openBatches.remove(host, batch);
+            }
+        }
+    }
+
+    /**
+     * Waits for the batch opened by a request to fill up, sends it and hands the responses out.
+     *
+     * @param batch the batch
+     * @param host the host the batch is for
+     * @param entry the request which opened the batch
+     * @param chain the interceptor chain of the request which opened the batch
+     * @return the response of the request which opened the batch
+     * @throws IOException thrown if the request fails
+     */
+    private Response lead(Batch batch, String host, Entry entry, Chain chain) throws IOException {
+        try {
+            batch.full.get(windowMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The window is over
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        openBatches.remove(host, batch);
+        List<Entry> entries = batch.close();
+        if (entries.size() == 1) {
+            return chain.proceed(entry.request);
+        }
+        try {
+            send(entries, chain);
+        } finally {
+            // Requests left without a response are sent on their own
+            for (Entry other : entries) {
+                other.response.set(null);
+            }
+        }
+        Response response = Futures.getUnchecked(entry.response);
+        if (response == null) {
+            fallbackCount.incrementAndGet();
+            return chain.proceed(entry.request);
+        }
+        return response;
+    }
+
+    /**
+     * Sends a batch call and completes the requests of the batch with their responses.
+     *
+     * @param entries the requests of the batch
+     * @param chain the interceptor chain used to send the batch call
+     */
+    private void send(List<Entry> entries, Chain chain) {
+        HttpUrl firstUrl = entries.get(0).request.url();
+        ObjectNode batchBody = MAPPER.createObjectNode();
+        ArrayNode requests = batchBody.putArray("requests");
+        for (int i = 0; i < entries.size(); i++) {
+            Request request = entries.get(i).request;
+            ObjectNode item = requests.addObject()
+                    .put("httpMethod", "GET")
+                    .put("name", String.valueOf(i))
+                    .put("url", request.url().toString());
+            if (request.headers().size() > 0) {
+                ObjectNode headers = item.putObject("headers");
+                for (String name : request.headers().names()) {
+                    headers.put(name, Joiner.on(", ").join(request.headers(name)));
+                }
+            }
+        }
+        Request batchRequest = chain.request().newBuilder()
+                .url(new HttpUrl.Builder()
+                        .scheme(firstUrl.scheme())
+                        .host(firstUrl.host())
+                        .port(firstUrl.port())
+                        .addPathSegment("batch")
+                        .addQueryParameter("api-version", BATCH_API_VERSION)
+                        .build())
+                .post(RequestBody.create(JSON, batchBody.toString()))
+                .build();
+        batchCount.incrementAndGet();
+        try {
+            Response batchResponse = chain.proceed(batchRequest);
+            try {
+                if (batchResponse.code() != 200 || batchResponse.body() == null) {
+                    return;
+                }
+                JsonNode responses = MAPPER.readTree(batchResponse.body().string()).path("responses");
+                for (JsonNode item : responses) {
+                    int index = Integer.parseInt(item.path("name").asText("-1"));
+                    if (index < 0 || index >= entries.size() || !item.has("httpStatusCode")
+                            || isRetryable(item.get("httpStatusCode").asInt())) {
+                        // Sent on its own, through the retry policy of the client
+                        continue;
+                    }
+                    Entry entry = entries.get(index);
+                    if (entry.response.set(response(entry.request, batchResponse, item))) {
+                        batchedRequestCount.incrementAndGet();
+                    }
+                }
+            } finally {
+                batchResponse.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The requests of the batch are sent on their own
+        }
+    }
+
+    /**
+     * Checks whether a status answering a request of a batch is worth retrying: the batch call is sent
+     * through the interceptors following this one, so the retry handler only sees the batch response.
+     *
+     * @param code the status code
+     * @return true if the request should be sent again on its own
+     */
+    private static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || (code >= 500 && code != 501 && code != 505);
+    }
+
+    /**
+     * Rebuilds the response of a request from its item in the response of a batch call.
+     *
+     * @param request the request
+     * @param batchResponse the response of the batch call
+     * @param item the item of the request in the batch response
+     * @return the response of the request
+     */
+    private static Response response(Request request, Response batchResponse, JsonNode item) {
+        Headers.Builder headers = new Headers.Builder();
+        Iterator<Map.Entry<String, JsonNode>> fields = item.path("headers").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            headers.add(field.getKey(), field.getValue().asText());
+        }
+        JsonNode content = item.get("content");
+        String body;
+        if (content == null || content.isNull()) {
+            body = "";
+        } else {
+            // A text body comes as a JSON string, which is not the body itself
+            body = content.isTextual() ? content.asText() : content.toString();
+        }
+        return new Response.Builder()
+                .request(request)
+                .protocol(batchResponse.protocol())
+                .code(item.get("httpStatusCode").asInt())
+                .message("")
+                .headers(headers.build())
+                .sentRequestAtMillis(batchResponse.sentRequestAtMillis())
+                .receivedResponseAtMillis(batchResponse.receivedResponseAtMillis())
+                .body(ResponseBody.create(JSON, body))
+                .build();
+    }
+
+    /**
+     * A request waiting in a batch.
+     */
+    private static final class Entry {
+        /**
+         * The request.
+         */
+        private final Request request;
+
+        /**
+         * The response of the request, null if the request must be sent on its own.
+         */
+        private final SettableFuture<Response> response = SettableFuture.create();
+
+        Entry(Request request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * The requests gathered for a batch call.
+     */
+    private final class Batch {
+        /**
+         * The requests of the batch, guarded by this.
+         */
+        private final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * Completed when the batch is full.
+         */
+        private final SettableFuture<Void> full = SettableFuture.create();
+
+        /**
+         * Whether the batch takes no more requests, guarded by this.
+         */
+        private boolean closed;
+
+        /**
+         * Adds a request to the batch, unless it is already closed.
+         *
+         * @param entry the request
+         * @return true if the request was added
+         */
+        synchronized boolean add(Entry entry) {
+            if (closed) {
+                return false;
+            }
+            entries.add(entry);
+            if (entries.size() >= maxBatchSize) {
+                closed = true;
+                full.set(null);
+            }
+            return true;
+        }
+
+        /**
+         * Closes the batch to new requests.
+         *
+         * @return the requests of the batch
+         */
+        synchronized List<Entry> close() {
+            closed = true;
+            return new ArrayList<>(entries);
+        }
+    }
+}
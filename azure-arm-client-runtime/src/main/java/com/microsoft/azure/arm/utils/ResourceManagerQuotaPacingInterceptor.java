@@ -0,0 +1,391 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.arm.utils;
+
+import com.google.common.util.concurrent.SettableFuture;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An interceptor spreading out requests before Azure Resource Manager starts throttling them.
+ * <p>
+ * Azure Resource Manager reports the read and write requests left in the quota of the subscription
+ *   and of the tenant on every response. Once what is left of a quota falls under a threshold, the
+ *   requests using it are paced so that the remaining requests are spread over the replenish window
+ *   instead of being sent until the service answers with 429. The time left between two requests is
+ *   capped, 3 seconds by default, so a nearly exhausted quota slows requests down to about the rate
+ *   the service refills it at rather than holding them back for the rest of the window. Requests held
+ *   back are queued per subscription and tenant, and queued reads are always released before queued
+ *   writes; requests whose own quota is not paced are never held back.
+ */
+public class ResourceManagerQuotaPacingInterceptor implements Interceptor {
+    /**
+     * The header holding the read requests left in the quota of the subscription.
+     */
+    public static final String REMAINING_SUBSCRIPTION_READS_HEADER = "x-ms-ratelimit-remaining-subscription-reads";
+
+    /**
+     * The header holding the write requests left in the quota of the subscription.
+     */
+    public static final String REMAINING_SUBSCRIPTION_WRITES_HEADER = "x-ms-ratelimit-remaining-subscription-writes";
+
+    /**
+     * The header holding the read requests left in the quota of the tenant.
+     */
+    public static final String REMAINING_TENANT_READS_HEADER = "x-ms-ratelimit-remaining-tenant-reads";
+
+    /**
+     * The header holding the write requests left in the quota of the tenant.
+     */
+    public static final String REMAINING_TENANT_WRITES_HEADER = "x-ms-ratelimit-remaining-tenant-writes";
+
+    /**
+     * The key of the tenant quotas, which cannot clash with a subscription ID.
+     */
+    private static final String TENANT_SCOPE = "/tenant";
+
+    /**
+     * The time over which the remaining requests are spread, in milliseconds.
+     */
+    private long replenishWindowMillis = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The fraction of the largest remaining count seen for a quota under which requests are paced.
+     */
+    private double pacingThreshold = 0.2;
+
+    /**
+     * The longest time left between two requests using a quota, in milliseconds.
+     */
+    private long maxPacingIntervalMillis = TimeUnit.SECONDS.toMillis(3);
+
+    /**
+     * The pacers, by subscription ID and for the tenant.
+     */
+    private final ConcurrentMap<String, Pacer> pacers = new ConcurrentHashMap<>();
+
+    /**
+     * The number of requests that were held back.
+     */
+    private final AtomicLong pacedRequestCount = new AtomicLong();
+
+    /**
+     * The total time requests were held back, in milliseconds.
+     */
+    private final AtomicLong pacingDelayMillis = new AtomicLong();
+
+    /**
+     * Sets the time over which the remaining requests of a quota are spread. Azure Resource Manager
+     * documents its limits per hour, which is the default.
+     *
+     * @param window the replenish window
+     * @param unit the time unit of the window
+     * @return the interceptor itself
+     */
+    public ResourceManagerQuotaPacingInterceptor withReplenishWindow(long window, TimeUnit unit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("The replenish window must be positive.");
+        }
+        this.replenishWindowMillis = unit.toMillis(window);
+        return this;
+    }
+
+    /**
+     * Sets the fraction of the largest remaining count seen for a quota under which requests are
+     * paced. The default is 0.2.
+     *
+     * @param pacingThreshold the fraction, between 0 and 1
+     * @return the interceptor itself
+     */
+    public ResourceManagerQuotaPacingInterceptor withPacingThreshold(double pacingThreshold) {
+        if (pacingThreshold < 0 || pacingThreshold > 1) {
+            throw new IllegalArgumentException("The pacing threshold must be between 0 and 1.");
+        }
+        this.pacingThreshold = pacingThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the longest time left between two requests using a quota. The default of 3 seconds is the
+     * rate at which Azure Resource Manager refills its smallest quota, 1200 writes per hour.
+     *
+     * @param maxPacingInterval the longest time between two requests
+     * @param unit the time unit of the interval
+     * @return the interceptor itself
+     */
+    public ResourceManagerQuotaPacingInterceptor withMaxPacingInterval(long maxPacingInterval, TimeUnit unit) {
+        if (maxPacingInterval <= 0) {
+            throw new IllegalArgumentException("The maximum pacing interval must be positive.");
+        }
+        this.maxPacingIntervalMillis = unit.toMillis(maxPacingInterval);
+        return this;
+    }
+
+    /**
+     * @return the number of requests that were held back
+     */
+    public long pacedRequestCount() {
+        return pacedRequestCount.get();
+    }
+
+    /**
+     * @return the total time requests were held back, in milliseconds
+     */
+    public long pacingDelayMillis() {
+        return pacingDelayMillis.get();
+    }
+
+    /**
+     * Gets the read requests left in a quota, as last reported by the service.
+     *
+     * @param subscriptionId the subscription ID, or null for the quota of the tenant
+     * @return the read requests left, or -1 if the service has not reported it yet
+     */
+    public long remainingReads(String subscriptionId) {
+        Pacer pacer = pacers.get(subscriptionId == null ? TENANT_SCOPE : subscriptionId);
+        return pacer == null ? -1 : pacer.reads.remaining;
+    }
+
+    /**
+     * Gets the write requests left in a quota, as last reported by the service.
+     *
+     * @param subscriptionId the subscription ID, or null for the quota of the tenant
+     * @return the write requests left, or -1 if the service has not reported it yet
+     */
+    public long remainingWrites(String subscriptionId) {
+        Pacer pacer = pacers.get(subscriptionId == null ? TENANT_SCOPE : subscriptionId);
+        return pacer == null ? -1 : pacer.writes.remaining;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean read = "GET".equals(request.method()) || "HEAD".equals(request.method());
+        String subscriptionId = ResourceManagerThrottlingInterceptor.subscriptionId(request);
+        Pacer subscription = subscriptionId == null ? null : pacer(subscriptionId);
+        Pacer tenant = pacer(TENANT_SCOPE);
+
+        long delayMillis = tenant.acquire(read, chain);
+        if (subscription != null) {
+            delayMillis += subscription.acquire(read, chain);
+        }
+        if (delayMillis > 0) {
+            pacedRequestCount.incrementAndGet();
+            pacingDelayMillis.addAndGet(delayMillis);
+        }
+
+        Response response = chain.proceed(request);
+        tenant.update(read, response.header(read ? REMAINING_TENANT_READS_HEADER : REMAINING_TENANT_WRITES_HEADER));
+        if (subscription != null) {
+            subscription.update(read, response.header(read ? REMAINING_SUBSCRIPTION_READS_HEADER : REMAINING_SUBSCRIPTION_WRITES_HEADER));
+        }
+        return response;
+    }
+
+    /**
+     * Gets the pacer of a subscription or of the tenant, creating it on first use.
+     *
+     * @param scope the subscription ID, or the tenant scope
+     * @return the pacer
+     */
+    private Pacer pacer(String scope) {
+        Pacer pacer = pacers.get(scope);
+        if (pacer == null) {
+            Pacer created = new Pacer();
+            pacer = pacers.putIfAbsent(scope, created);
+            if (pacer == null) {
+                pacer = created;
+            }
+        }
+        return pacer;
+    }
+
+    /**
+     * The requests left in a read or write quota, and when the next request may use it.
+     */
+    private final class Quota {
+        /**
+         * The requests left as last reported by the service, -1 until it reports it.
+         */
+        private volatile long remaining = -1;
+
+        /**
+         * The largest remaining count reported, taken as the size of the quota.
+         */
+        private volatile long capacity;
+
+        /**
+         * The earliest time the next request may be sent, in milliseconds since the epoch.
+         * Guarded by the pacer owning the quota.
+         */
+        private long nextSlotAt;
+
+        /**
+         * The requests queued for the quota, guarded by the pacer owning the quota.
+         */
+        private final Queue<SettableFuture<Void>> queue = new ArrayDeque<>();
+
+        /**
+         * The number of queued requests, read without locking on the fast path.
+         */
+        private final AtomicInteger queued = new AtomicInteger();
+
+        /**
+         * Records the remaining count reported on a response.
+         *
+         * @param header the value of the remaining count header, may be null
+         */
+        void update(String header) {
+            if (header == null) {
+                return;
+            }
+            long reported;
+            try {
+                reported = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                return;
+            }
+            remaining = reported;
+            if (reported > capacity) {
+                capacity = reported;
+            }
+        }
+
+        /**
+         * @return the time to leave between two requests using the quota in milliseconds, 0 when not pacing
+         */
+        long interval() {
+            long left = remaining;
+            if (left < 0 || left >= capacity * pacingThreshold) {
+                return 0;
+            }
+            // Spreading what is left over the whole window keeps the quota from running out even if it is not refilled
+            // in between, but only down to the refill rate: slower than that would just leave the refilled quota unused
+            return Math.min(replenishWindowMillis / Math.max(left, 1), maxPacingIntervalMillis);
+        }
+    }
+
+    /**
+     * Paces the requests of a subscription or of the tenant. Requests which cannot be sent yet are
+     * queued and released by the shared timer, reads before writes.
+     */
+    private final class Pacer implements Runnable {
+        /**
+         * The read quota.
+         */
+        private final Quota reads = new Quota();
+
+        /**
+         * The write quota.
+         */
+        private final Quota writes = new Quota();
+
+        /**
+         * The time the release scheduled on the timer is due at, 0 when none is, guarded by this.
+         */
+        private long releaseAt;
+
+        /**
+         * Waits until a request may use its quota.
+         *
+         * @param read whether the request is a read
+         * @param chain the interceptor chain of the request
+         * @return the time the request was held back, in milliseconds
+         * @throws IOException thrown if the call is canceled or the thread interrupted while waiting
+         */
+        long acquire(boolean read, Chain chain) throws IOException {
+            Quota quota = read ? reads : writes;
+            // Only requests queued for the same quota are ahead: an unpaced read does not wait for paced writes
+            if (quota.interval() == 0 && quota.queued.get() == 0) {
+                return 0;
+            }
+            SettableFuture<Void> ticket = SettableFuture.create();
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (quota.queued.get() == 0 && quota.nextSlotAt <= now) {
+                    quota.nextSlotAt = now + quota.interval();
+                    return 0;
+                }
+                quota.queue.add(ticket);
+                quota.queued.incrementAndGet();
+                scheduleRelease(now);
+            }
+            long start = System.currentTimeMillis();
+            try {
+                InterceptorTimer.await(ticket, chain);
+            } finally {
+                synchronized (this) {
+                    if (quota.queue.remove(ticket)) {
+                        quota.queued.decrementAndGet();
+                    }
+                }
+            }
+            return System.currentTimeMillis() - start;
+        }
+
+        /**
+         * Records the remaining count reported on a response.
+         *
+         * @param read whether the request was a read
+         * @param header the value of the remaining count header, may be null
+         */
+        void update(boolean read, String header) {
+            (read ? reads : writes).update(header);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                release(reads, now);
+                if (reads.queue.isEmpty()) {
+                    release(writes, now);
+                }
+                scheduleRelease(now);
+            }
+        }
+
+        /**
+         * Releases the queued requests of a quota whose slot has come. Must hold the lock on this.
+         */
+        private void release(Quota quota, long now) {
+            while (!quota.queue.isEmpty() && quota.nextSlotAt <= now) {
+                quota.queue.poll().set(null);
+                quota.queued.decrementAndGet();
+                quota.nextSlotAt = now + quota.interval();
+            }
+        }
+
+        /**
+         * Schedules the next release for the slot of the requests first in line, unless a release is
+         * already due by then. Must hold the lock on this.
+         */
+        private void scheduleRelease(long now) {
+            Quota next = !reads.queue.isEmpty() ? reads : !writes.queue.isEmpty() ? writes : null;
+            if (next == null) {
+                return;
+            }
+            long dueAt = Math.max(next.nextSlotAt, now);
+            if (releaseAt > now && releaseAt <= dueAt) {
+                return;
+            }
+            // A release due later, such as the slot of a write when a read queues up, runs anyway and finds nothing to release
+            releaseAt = dueAt;
+            InterceptorTimer.schedule(this, dueAt - now);
+        }
+    }
+}
@@ -6,9 +6,10 @@
 
 package com.microsoft.azure.arm.utils;
 
-import com.microsoft.azure.arm.resources.ResourceUtilsCore;
+import com.google.common.util.concurrent.SettableFuture;
 import com.microsoft.rest.DateTimeRfc1123;
 import okhttp3.Interceptor;
+import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.Buffer;
@@ -16,12 +17,14 @@ import okio.BufferedSource;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.LoggerFactory;
+import rx.functions.Action1;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,100 +33,224 @@ import java.util.regex.Pattern;
  * <p>
  * For each subscription and tenant, Azure Resource Manager limits read requests to 15,000 per hour and
  *   write requests to 1,200 per hour. These limits apply to each Azure Resource Manager instance.
+ * <p>
+ * When a request is throttled, the gate of its subscription is closed until the time given by the
+ *   service, and the shared interceptor timer opens it again, through the delay provider of
+ *   {@link SdkContext} so that the one set for playback applies. Requests for that subscription, the
+ *   throttled one included, are queued at the gate and released together when it opens, while
+ *   requests for other subscriptions go through untouched.
  */
 public class ResourceManagerThrottlingInterceptor implements Interceptor {
     private static final String LOGGING_HEADER = "x-ms-logging-context";
-    private static final ConcurrentMap<String, ReentrantLock> REENTRANT_LOCK_MAP = new ConcurrentHashMap<>();
+    private static final String GLOBAL_GATE = "global";
+    private static final int RESUME_PADDING_MILLIS = 100;
+    private static final Pattern RETRY_AFTER_MINUTES = Pattern.compile("try again after '([0-9]*)' minutes", Pattern.CASE_INSENSITIVE);
+    private static final Pattern RETRY_AFTER_SECONDS = Pattern.compile("try again after '([0-9]*)' seconds", Pattern.CASE_INSENSITIVE);
+    private static final ConcurrentMap<String, Gate> GATES = new ConcurrentHashMap<>();
 
     @Override
     public Response intercept(Chain chain) throws IOException {
-        // Gate control
-        String subscriptionId = ResourceUtilsCore.extractFromResourceId(chain.request().url().url().getPath(), "subscriptions");
-        if (subscriptionId == null) {
-            subscriptionId = "global";
-        }
-        REENTRANT_LOCK_MAP.putIfAbsent(subscriptionId, new ReentrantLock());
-        try {
-            synchronized (REENTRANT_LOCK_MAP.get(subscriptionId)) {
-                if (REENTRANT_LOCK_MAP.get(subscriptionId).isLocked()) {
-                    REENTRANT_LOCK_MAP.get(subscriptionId).wait();
-                }
-            }
-        } catch (InterruptedException e) {
-            throw new IOException(e);
-        }
+        String subscriptionId = subscriptionId(chain.request());
+        Gate gate = gate(subscriptionId == null ? GLOBAL_GATE : subscriptionId);
+        gate.await(chain);
         Response response = chain.proceed(chain.request());
         if (response.code() != 429) {
             return response;
         }
 
-        try {
-            synchronized (REENTRANT_LOCK_MAP.get(subscriptionId)) {
-                if (REENTRANT_LOCK_MAP.get(subscriptionId).isLocked()) {
-                    REENTRANT_LOCK_MAP.get(subscriptionId).wait();
-                    return chain.proceed(chain.request());
-                } else {
-                    REENTRANT_LOCK_MAP.get(subscriptionId).lock();
-                }
+        long retryAfter = retryAfterSeconds(response);
+        response.close();
+        if (retryAfter > 0) {
+            String context = chain.request().header(LOGGING_HEADER);
+            if (context == null) {
+                context = "";
+            }
+            LoggerFactory.getLogger(context)
+                    .info("Azure Resource Manager read/write per hour limit reached. Will retry in: " + retryAfter + " seconds");
+            gate.closeFor(TimeUnit.SECONDS.toMillis(retryAfter) + RESUME_PADDING_MILLIS);
+        }
+        gate.await(chain);
+        return chain.proceed(chain.request());
+    }
+
+    /**
+     * Gets the gate of a subscription, creating it on first use.
+     *
+     * @param subscriptionId the subscription ID
+     * @return the gate of the subscription
+     */
+    private static Gate gate(String subscriptionId) {
+        Gate gate = GATES.get(subscriptionId);
+        if (gate == null) {
+            Gate created = new Gate();
+            gate = GATES.putIfAbsent(subscriptionId, created);
+            if (gate == null) {
+                gate = created;
+            }
+        }
+        return gate;
+    }
+
+    /**
+     * Finds the subscription a request is addressed to from the segments of its path.
+     *
+     * @param request the request
+     * @return the subscription ID, or null if the request is not scoped to a subscription
+     */
+    static String subscriptionId(Request request) {
+        List<String> segments = request.url().pathSegments();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if ("subscriptions".equalsIgnoreCase(segments.get(i)) && !segments.get(i + 1).isEmpty()) {
+                return segments.get(i + 1);
             }
-        } catch (InterruptedException e) {
-            throw new IOException(e);
         }
+        return null;
+    }
 
-        try {
-            String retryAfterHeader = response.header("Retry-After");
-            int retryAfter = 0;
-            if (retryAfterHeader != null) {
-                DateTime retryWhen = null;
+    /**
+     * Reads how long to wait before retrying a throttled request, from the Retry-After header
+     * or otherwise from the error message in the body.
+     *
+     * @param response the throttled response
+     * @return the delay in seconds, or 0 if the service gave none
+     * @throws IOException thrown if the body cannot be read
+     */
+    private static long retryAfterSeconds(Response response) throws IOException {
+        String retryAfterHeader = response.header("Retry-After");
+        long retryAfter = 0;
+        if (retryAfterHeader != null) {
+            try {
+                retryAfter = Long.parseLong(retryAfterHeader.trim());
+            } catch (NumberFormatException e) {
                 try {
-                    retryWhen = new DateTimeRfc1123(retryAfterHeader).dateTime();
-                } catch (Exception e) { }
-                if (retryWhen == null) {
-                    retryAfter = Integer.parseInt(retryAfterHeader);
-                } else {
+                    DateTime retryWhen = new DateTimeRfc1123(retryAfterHeader).dateTime();
                     retryAfter = new Duration(null, retryWhen).toStandardSeconds().getSeconds();
-                }
+                } catch (Exception ignored) { }
             }
-            if (retryAfter <= 0) {
-                Pattern pattern = Pattern.compile("try again after '([0-9]*)' minutes", Pattern.CASE_INSENSITIVE);
-                Matcher matcher = pattern.matcher(content(response.body()));
+        }
+        if (retryAfter <= 0) {
+            String content = content(response.body());
+            if (content != null) {
+                Matcher matcher = RETRY_AFTER_MINUTES.matcher(content);
                 if (matcher.find()) {
-                    retryAfter = (int) TimeUnit.MINUTES.toSeconds(Integer.parseInt(matcher.group(1)));
+                    retryAfter = TimeUnit.MINUTES.toSeconds(Long.parseLong(matcher.group(1)));
                 } else {
-                    pattern = Pattern.compile("try again after '([0-9]*)' seconds", Pattern.CASE_INSENSITIVE);
-                    matcher = pattern.matcher(content(response.body()));
+                    matcher = RETRY_AFTER_SECONDS.matcher(content);
                     if (matcher.find()) {
-                        retryAfter = Integer.parseInt(matcher.group(1));
+                        retryAfter = Long.parseLong(matcher.group(1));
                     }
                 }
             }
-            if (retryAfter > 0) {
-                String context = chain.request().header(LOGGING_HEADER);
-                if (context == null) {
-                    context = "";
-                }
-                LoggerFactory.getLogger(context)
-                        .info("Azure Resource Manager read/write per hour limit reached. Will retry in: " + retryAfter + " seconds");
-                SdkContext.sleep((int) (TimeUnit.SECONDS.toMillis(retryAfter) + 100));
-            }
-            return chain.proceed(chain.request());
-        } catch (Throwable t) {
-            throw new IOException(t);
-        } finally {
-            synchronized (REENTRANT_LOCK_MAP.get(subscriptionId)) {
-                REENTRANT_LOCK_MAP.get(subscriptionId).unlock();
-                REENTRANT_LOCK_MAP.get(subscriptionId).notifyAll();
-            }
         }
+        return retryAfter;
     }
 
-    private String content(ResponseBody responseBody) throws IOException {
+    private static String content(ResponseBody responseBody) throws IOException {
         if (responseBody == null) {
             return null;
         }
         BufferedSource source = responseBody.source();
         source.request(Long.MAX_VALUE); // Buffer the entire body.
         Buffer buffer = source.buffer();
-        return buffer.readUtf8();
+        return buffer.clone().readUtf8();
+    }
+
+    /**
+     * The throttling gate of a subscription. Throttled requests push back the time it resumes at and
+     * close it; the timer opens it once that time has come. Requests check an open gate without any
+     * locking, and requests arriving at a closed gate wait until it opens.
+     */
+    private static final class Gate {
+        /**
+         * The time the gate opens at, in milliseconds since the epoch.
+         */
+        private final AtomicLong resumeAt = new AtomicLong();
+
+        /**
+         * Completed when the gate opens again, null when it is open. Written under the lock on this.
+         */
+        private volatile SettableFuture<Void> opened;
+
+        /**
+         * Closes the gate for a delay, or keeps it closed until then if it already is.
+         *
+         * @param delayMillis the delay in milliseconds
+         */
+        void closeFor(long delayMillis) {
+            long target = System.currentTimeMillis() + delayMillis;
+            long current;
+            do {
+                current = resumeAt.get();
+                if (current >= target) {
+                    return;
+                }
+            } while (!resumeAt.compareAndSet(current, target));
+            synchronized (this) {
+                if (opened != null) {
+                    // The opening already scheduled moves on to the new time
+                    return;
+                }
+                opened = SettableFuture.create();
+            }
+            openAfter(target, delayMillis);
+        }
+
+        /**
+         * Schedules the opening of the gate.
+         *
+         * @param target the time the gate resumes at, in milliseconds since the epoch
+         * @param delayMillis the delay in milliseconds
+         */
+        private void openAfter(long target, long delayMillis) {
+            SdkContext.delayedEmitAsync(target, (int) delayMillis, InterceptorTimer.scheduler())
+                    .subscribe(new Action1<Long>() {
+                        @Override
+                        public void call(Long target) {
+                            open(target);
+                        }
+                    }, new Action1<Throwable>() {
+                        @Override
+                        public void call(Throwable throwable) {
+                            open(resumeAt.get());
+                        }
+                    });
+        }
+
+        /**
+         * Opens the gate and releases the waiting requests, unless it was closed for longer meanwhile.
+         *
+         * @param target the time the opening was scheduled for, in milliseconds since the epoch
+         */
+        private void open(long target) {
+            SettableFuture<Void> released = null;
+            long later;
+            synchronized (this) {
+                // Read under the lock, so that a request closing it for longer either is seen here or closes it anew
+                later = resumeAt.get();
+                if (later <= target) {
+                    released = opened;
+                    opened = null;
+                }
+            }
+            if (released != null) {
+                released.set(null);
+            } else if (later > target) {
+                // Measured from the time scheduled rather than the clock, so that playback delays stay skipped
+                openAfter(later, later - target);
+            }
+        }
+
+        /**
+         * Waits for the gate to open before a request is sent.
+         *
+         * @param chain the interceptor chain of the request
+         * @throws IOException thrown if the call is canceled or the thread interrupted while waiting
+         */
+        void await(Chain chain) throws IOException {
+            SettableFuture<Void> released = opened;
+            if (released != null) {
+                InterceptorTimer.await(released, chain);
+            }
+        }
     }
 }
@@ -10,6 +10,8 @@ import rx.Observable;
 import rx.Scheduler;
 import rx.schedulers.Schedulers;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * The class to contain the common factory methods required for SDK framework.
  */
@@ -102,6 +104,24 @@ public class SdkContext {
         return delayProvider.delayedEmitAsync(event, milliseconds);
     }
 
+    /**
+     * Delayed emission on a scheduler, based on delayProvider. The default delay provider sleeps
+     * the subscribing thread, so the delay is served by the scheduler instead; an overridden one,
+     * such as the one of playback tests, still decides how long to wait.
+     *
+     * @param event the event to emit
+     * @param milliseconds the delay in milliseconds
+     * @param scheduler the scheduler serving the delay of the default delay provider
+     * @param <T> the type of event
+     * @return delayed observable
+     */
+    static <T> Observable<T> delayedEmitAsync(T event, int milliseconds, Scheduler scheduler) {
+        if (delayProvider.getClass() == DelayProvider.class) {
+            return Observable.just(event).delay(milliseconds, TimeUnit.MILLISECONDS, scheduler);
+        }
+        return delayProvider.delayedEmitAsync(event, milliseconds);
+    }
+
     /**
      * Gets the current Rx Scheduler for the SDK framework.
      * @return current rx scheduler.
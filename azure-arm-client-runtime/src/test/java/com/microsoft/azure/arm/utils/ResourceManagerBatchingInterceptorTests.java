@@ -0,0 +1,358 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.arm.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.http.GET;
+import retrofit2.http.Path;
+import rx.Observable;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ResourceManagerBatchingInterceptorTests {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private BatchServer server;
+
+    interface VirtualMachines {
+        @GET("subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/{name}?api-version=2018-06-01")
+        Observable<ResponseBody> get(@Path("name") String name);
+    }
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void concurrentGetsShareOneBatchCall() throws Exception {
+        ResourceManagerBatchingInterceptor batching = new ResourceManagerBatchingInterceptor()
+                .withWindow(500, TimeUnit.MILLISECONDS);
+        server = new BatchServer(false);
+        VirtualMachines service = service(batching);
+
+        List<Observable<String>> names = new ArrayList<>();
+        for (int i = 0; i < ResourceManagerBatchingInterceptor.MAX_BATCH_SIZE; i++) {
+            names.add(service.get("vm" + i).subscribeOn(Schedulers.io()).map(new Func1<ResponseBody, String>() {
+                @Override
+                public String call(ResponseBody body) {
+                    try {
+                        return MAPPER.readTree(body.string()).get("name").asText();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        List<String> results = Observable.merge(names).toList().toBlocking().single();
+
+        Assert.assertEquals(ResourceManagerBatchingInterceptor.MAX_BATCH_SIZE, results.size());
+        for (int i = 0; i < ResourceManagerBatchingInterceptor.MAX_BATCH_SIZE; i++) {
+            Assert.assertTrue(results.contains("vm" + i));
+        }
+        // The batch is sent as soon as it is full, without waiting for the end of the window
+        Assert.assertEquals(1, server.batchCalls.get());
+        Assert.assertEquals(0, server.singleCalls.get());
+        Assert.assertEquals(1, batching.batchCount());
+        Assert.assertEquals(ResourceManagerBatchingInterceptor.MAX_BATCH_SIZE, batching.batchedRequestCount());
+    }
+
+    @Test
+    public void keepsTheStatusOfEachResponse() throws Exception {
+        ResourceManagerBatchingInterceptor batching = new ResourceManagerBatchingInterceptor()
+                .withWindow(200, TimeUnit.MILLISECONDS)
+                .withMaxBatchSize(2);
+        server = new BatchServer(false);
+        final OkHttpClient client = client(batching);
+        final AtomicReference<Response> missingResponse = new AtomicReference<>();
+
+        Thread missing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    missingResponse.set(client.newCall(server.get("missing")).execute());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        missing.start();
+        Response response = client.newCall(server.get("vm1")).execute();
+        missing.join();
+
+        Assert.assertEquals(404, missingResponse.get().code());
+        Assert.assertEquals("missing", missingResponse.get().header("x-ms-resource-name"));
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals("vm1", MAPPER.readTree(response.body().string()).get("name").asText());
+        Assert.assertEquals(1, server.batchCalls.get());
+    }
+
+    @Test
+    public void fallsBackToSingleCallsWhenBatchFails() throws Exception {
+        ResourceManagerBatchingInterceptor batching = new ResourceManagerBatchingInterceptor()
+                .withWindow(200, TimeUnit.MILLISECONDS)
+                .withMaxBatchSize(2);
+        server = new BatchServer(true);
+        final OkHttpClient client = client(batching);
+        final AtomicReference<Response> otherResponse = new AtomicReference<>();
+
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    otherResponse.set(client.newCall(server.get("vm2")).execute());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        other.start();
+        Assert.assertEquals(200, client.newCall(server.get("vm1")).execute().code());
+        other.join();
+
+        Assert.assertEquals(200, otherResponse.get().code());
+
+        Assert.assertEquals(1, server.batchCalls.get());
+        Assert.assertEquals(2, server.singleCalls.get());
+        Assert.assertEquals(2, batching.fallbackCount());
+    }
+
+    @Test
+    public void carriesTheHeadersAndRetriesItemsOnTheirOwn() throws Exception {
+        ResourceManagerBatchingInterceptor batching = new ResourceManagerBatchingInterceptor()
+                .withWindow(200, TimeUnit.MILLISECONDS)
+                .withMaxBatchSize(2);
+        server = new BatchServer(false);
+        final OkHttpClient client = client(batching);
+        final AtomicReference<Response> busyResponse = new AtomicReference<>();
+
+        Thread busy = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busyResponse.set(client.newCall(server.get("busy")).execute());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        busy.start();
+        Response response = client.newCall(server.get("vm1").newBuilder()
+                .header("x-ms-client-request-id", "request-1")
+                .header("accept-language", "fr-FR")
+                .build()).execute();
+        busy.join();
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals("request-1", server.itemHeaders.get("vm1").get("x-ms-client-request-id").asText());
+        Assert.assertEquals("fr-FR", server.itemHeaders.get("vm1").get("accept-language").asText());
+        Assert.assertNull(server.itemHeaders.get("busy"));
+
+        // The 503 answering it in the batch is left to the retry policy: it is sent on its own
+        Assert.assertEquals(200, busyResponse.get().code());
+        Assert.assertEquals("busy", MAPPER.readTree(busyResponse.get().body().string()).get("name").asText());
+        Assert.assertEquals(1, server.batchCalls.get());
+        Assert.assertEquals(1, server.singleCalls.get());
+        Assert.assertEquals(1, batching.batchedRequestCount());
+        Assert.assertEquals(1, batching.fallbackCount());
+    }
+
+    @Test
+    public void unwrapsTextContent() throws Exception {
+        ResourceManagerBatchingInterceptor batching = new ResourceManagerBatchingInterceptor()
+                .withWindow(200, TimeUnit.MILLISECONDS)
+                .withMaxBatchSize(2);
+        server = new BatchServer(false);
+        final OkHttpClient client = client(batching);
+        final AtomicReference<Response> notesResponse = new AtomicReference<>();
+
+        Thread notes = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    notesResponse.set(client.newCall(server.get("notes")).execute());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        notes.start();
+        Response response = client.newCall(server.get("vm1")).execute();
+        notes.join();
+
+        Assert.assertEquals("vm1", MAPPER.readTree(response.body().string()).get("name").asText());
+        Assert.assertEquals("plain text", notesResponse.get().body().string());
+        Assert.assertEquals(1, server.batchCalls.get());
+    }
+
+    @Test
+    public void rejectsAWindowBelowOneMillisecond() {
+        ResourceManagerBatchingInterceptor batching = new ResourceManagerBatchingInterceptor();
+        for (long window : new long[] {0, -1}) {
+            try {
+                batching.withWindow(window, TimeUnit.MILLISECONDS);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().contains("window"));
+            }
+        }
+        try {
+            batching.withWindow(500, TimeUnit.MICROSECONDS);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("window"));
+        }
+    }
+
+    private static OkHttpClient client(ResourceManagerBatchingInterceptor batching) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(batching)
+                .build();
+    }
+
+    private VirtualMachines service(ResourceManagerBatchingInterceptor batching) {
+        return new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .client(client(batching))
+                .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                .build()
+                .create(VirtualMachines.class);
+    }
+
+    /**
+     * A local batch endpoint: answers each request of a batch with the resource named by its URL,
+     * 404 for the resource named "missing", 503 for the resource named "busy" or a text body for
+     * the resource named "notes".
+     */
+    private static class BatchServer implements HttpHandler {
+        private final boolean failBatches;
+        private final HttpServer server;
+        private final AtomicInteger batchCalls = new AtomicInteger();
+        private final AtomicInteger singleCalls = new AtomicInteger();
+        private final Map<String, JsonNode> itemHeaders = new ConcurrentHashMap<>();
+
+        BatchServer(boolean failBatches) throws IOException {
+            this.failBatches = failBatches;
+            // Answer without waiting for delayed acknowledgments, which add tens of milliseconds to each request
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", this);
+            server.start();
+        }
+
+        String url(String path) {
+            return "http://localhost:" + server.getAddress().getPort() + path;
+        }
+
+        Request get(String name) {
+            return new Request.Builder()
+                    .url(url("/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/"
+                            + name + "?api-version=2018-06-01"))
+                    .get()
+                    .build();
+        }
+
+        void stop() {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdown();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            HttpUrl requestUrl = HttpUrl.parse(url(exchange.getRequestURI().toString()));
+            if (!"POST".equals(exchange.getRequestMethod()) || !requestUrl.encodedPath().equals("/batch")) {
+                singleCalls.incrementAndGet();
+                respond(exchange, 200, resource(requestUrl).toString());
+                return;
+            }
+            batchCalls.incrementAndGet();
+            JsonNode batch;
+            try (InputStream in = exchange.getRequestBody()) {
+                batch = MAPPER.readTree(in);
+            }
+            if (failBatches) {
+                respond(exchange, 500, "{}");
+                return;
+            }
+            ObjectNode batchResponse = MAPPER.createObjectNode();
+            ArrayNode responses = batchResponse.putArray("responses");
+            for (JsonNode item : batch.get("requests")) {
+                HttpUrl url = HttpUrl.parse(item.get("url").asText());
+                ObjectNode response = responses.addObject();
+                response.put("name", item.get("name").asText());
+                String name = url.pathSegments().get(url.pathSegments().size() - 1);
+                if (item.has("headers")) {
+                    itemHeaders.put(name, item.get("headers"));
+                }
+                if (name.equals("busy")) {
+                    response.put("httpStatusCode", 503);
+                } else if (name.equals("missing")) {
+                    response.put("httpStatusCode", 404);
+                    response.putObject("headers").put("x-ms-resource-name", name);
+                    response.putObject("content").putObject("error").put("code", "ResourceNotFound");
+                } else if (name.equals("notes")) {
+                    response.put("httpStatusCode", 200);
+                    response.put("content", "plain text");
+                } else {
+                    response.put("httpStatusCode", 200);
+                    response.set("content", resource(url));
+                }
+            }
+            respond(exchange, 200, batchResponse.toString());
+        }
+
+        private static JsonNode resource(HttpUrl url) {
+            ObjectNode resource = MAPPER.createObjectNode();
+            resource.put("id", url.encodedPath());
+            resource.put("name", url.pathSegments().get(url.pathSegments().size() - 1));
+            return resource;
+        }
+
+        private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
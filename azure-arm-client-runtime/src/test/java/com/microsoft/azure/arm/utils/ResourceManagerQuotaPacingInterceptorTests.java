@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.arm.utils;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResourceManagerQuotaPacingInterceptorTests {
+    @Test
+    public void pacesRequestsWhenQuotaRunsLow() throws Exception {
+        ResourceManagerQuotaPacingInterceptor pacing = new ResourceManagerQuotaPacingInterceptor()
+                .withReplenishWindow(1, TimeUnit.SECONDS)
+                .withPacingThreshold(0.5);
+        QuotaServer server = new QuotaServer(100, 4);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(pacing)
+                .addInterceptor(server)
+                .build();
+
+        // Plenty left, then 4 out of 100 left: 1 request every 250 ms
+        client.newCall(request("GET")).execute().close();
+        client.newCall(request("GET")).execute().close();
+        Assert.assertEquals(4, pacing.remainingReads("00000000-0000-0000-0000-000000000000"));
+        Assert.assertEquals(0, pacing.pacedRequestCount());
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            client.newCall(request("GET")).execute().close();
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 450);
+        Assert.assertEquals(2, pacing.pacedRequestCount());
+        Assert.assertTrue(pacing.pacingDelayMillis() >= 450);
+
+        // The write quota is not low, so writes are not held back
+        start = System.currentTimeMillis();
+        client.newCall(request("PUT")).execute().close();
+        Assert.assertTrue(System.currentTimeMillis() - start < 200);
+        Assert.assertEquals(2, pacing.pacedRequestCount());
+    }
+
+    @Test
+    public void releasesQueuedReadsBeforeWrites() throws Exception {
+        ResourceManagerQuotaPacingInterceptor pacing = new ResourceManagerQuotaPacingInterceptor()
+                .withReplenishWindow(1, TimeUnit.SECONDS)
+                .withPacingThreshold(1);
+        QuotaServer server = new QuotaServer(10, 5);
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(pacing)
+                .addInterceptor(server)
+                .build();
+
+        // Bring both quotas down to 5 out of 10, then take the next slot of each: 1 request every 200 ms
+        for (String method : Arrays.asList("GET", "PUT", "GET", "PUT", "GET", "PUT")) {
+            client.newCall(request(method)).execute().close();
+        }
+        server.methods.clear();
+
+        List<Thread> callers = new ArrayList<>();
+        for (String method : Arrays.asList("PUT", "PUT", "PUT", "GET", "GET", "GET")) {
+            final String callerMethod = method;
+            Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.newCall(request(callerMethod)).execute().close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            caller.start();
+            callers.add(caller);
+            Thread.sleep(10);
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        // The writes queued first, yet wait for the reads; the last read is released together with the first write
+        Assert.assertEquals(6, server.methods.size());
+        Assert.assertEquals(Arrays.asList("GET", "GET"), server.methods.subList(0, 2));
+        Assert.assertTrue(server.methods.subList(2, 4).contains("GET"));
+        Assert.assertEquals(Arrays.asList("PUT", "PUT"), server.methods.subList(4, 6));
+        Assert.assertEquals(6, pacing.pacedRequestCount());
+    }
+
+    @Test
+    public void capsTheTimeBetweenRequests() throws Exception {
+        ResourceManagerQuotaPacingInterceptor pacing = new ResourceManagerQuotaPacingInterceptor()
+                .withPacingThreshold(0.5)
+                .withMaxPacingInterval(200, TimeUnit.MILLISECONDS);
+        QuotaServer server = new QuotaServer(100, 1);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(pacing)
+                .addInterceptor(server)
+                .build();
+
+        // 1 out of 100 left would spread the last request over the whole hour
+        client.newCall(request("GET")).execute().close();
+        client.newCall(request("GET")).execute().close();
+
+        long start = System.currentTimeMillis();
+        client.newCall(request("GET")).execute().close();
+        client.newCall(request("GET")).execute().close();
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue(elapsed >= 150);
+        Assert.assertTrue(elapsed < 2000);
+        Assert.assertEquals(1, pacing.pacedRequestCount());
+    }
+
+    @Test
+    public void readsDoNotWaitForPacedWrites() throws Exception {
+        ResourceManagerQuotaPacingInterceptor pacing = new ResourceManagerQuotaPacingInterceptor()
+                .withReplenishWindow(2, TimeUnit.SECONDS)
+                .withPacingThreshold(0.5);
+        // Reads are not paced, writes are: 1 every 2 seconds
+        QuotaServer server = new QuotaServer(100, 100, 1);
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(pacing)
+                .addInterceptor(server)
+                .build();
+        client.newCall(request("PUT")).execute().close();
+        client.newCall(request("PUT")).execute().close();
+
+        List<Thread> writers = startCallers(client, "PUT", "PUT", "PUT");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            client.newCall(request("GET")).execute().close();
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Assert.assertEquals(2, pacing.pacedRequestCount());
+    }
+
+    @Test
+    public void pacedReadsAreReleasedAtTheirOwnSlot() throws Exception {
+        ResourceManagerQuotaPacingInterceptor pacing = new ResourceManagerQuotaPacingInterceptor()
+                .withReplenishWindow(2, TimeUnit.SECONDS)
+                .withPacingThreshold(1);
+        // Both quotas are paced: 1 read every 100 ms and 1 write every 2 seconds
+        QuotaServer server = new QuotaServer(100, 20, 1);
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(pacing)
+                .addInterceptor(server)
+                .build();
+        for (String method : Arrays.asList("GET", "PUT", "GET", "PUT")) {
+            client.newCall(request(method)).execute().close();
+        }
+
+        // The second write queues up and schedules a release 2 seconds out
+        List<Thread> writers = startCallers(client, "PUT", "PUT");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            client.newCall(request("GET")).execute().close();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue(elapsed >= 150);
+        Assert.assertTrue(elapsed < 1000);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+
+    private static List<Thread> startCallers(final OkHttpClient client, String... methods) throws InterruptedException {
+        List<Thread> callers = new ArrayList<>();
+        for (String method : methods) {
+            final String callerMethod = method;
+            Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.newCall(request(callerMethod)).execute().close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            caller.start();
+            callers.add(caller);
+            Thread.sleep(10);
+        }
+        return callers;
+    }
+
+    private static Request request(String method) {
+        Request.Builder builder = new Request.Builder()
+                .url("https://management.azure.com/subscriptions/00000000-0000-0000-0000-000000000000/resourceGroups/rg1?api-version=2018-05-01");
+        if ("GET".equals(method)) {
+            return builder.get().build();
+        }
+        return builder.method(method, RequestBody.create(MediaType.parse("application/json"), "{}")).build();
+    }
+
+    /**
+     * Reports a full quota on the first read and the first write, and a low one afterwards.
+     */
+    private static class QuotaServer implements Interceptor {
+        private final int capacity;
+        private final int remainingReads;
+        private final int remainingWrites;
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger writes = new AtomicInteger();
+        private final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+
+        QuotaServer(int capacity, int remaining) {
+            this(capacity, remaining, remaining);
+        }
+
+        QuotaServer(int capacity, int remainingReads, int remainingWrites) {
+            this.capacity = capacity;
+            this.remainingReads = remainingReads;
+            this.remainingWrites = remainingWrites;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            boolean read = "GET".equals(chain.request().method());
+            methods.add(chain.request().method());
+            int count = (read ? reads : writes).incrementAndGet();
+            return new Response.Builder()
+                    .request(chain.request())
+                    .code(200)
+                    .message("OK")
+                    .protocol(Protocol.HTTP_1_1)
+                    .header(read ? ResourceManagerQuotaPacingInterceptor.REMAINING_SUBSCRIPTION_READS_HEADER
+                            : ResourceManagerQuotaPacingInterceptor.REMAINING_SUBSCRIPTION_WRITES_HEADER,
+                            String.valueOf(count == 1 ? capacity : read ? remainingReads : remainingWrites))
+                    .body(ResponseBody.create(MediaType.parse("application/json"), "{}"))
+                    .build();
+        }
+    }
+}
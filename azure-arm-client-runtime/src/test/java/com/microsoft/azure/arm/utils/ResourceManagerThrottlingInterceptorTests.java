@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.arm.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import rx.Observable;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResourceManagerThrottlingInterceptorTests {
+    private static final int CALLERS = 8;
+    private static final int REQUESTS_PER_CALLER = 25;
+
+    @Test
+    public void throttledSubscriptionQueuesWithoutGrowingThreads() throws Exception {
+        final ScriptedServer server = new ScriptedServer("throttled-load", 1);
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new ResourceManagerThrottlingInterceptor())
+                .build();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // Each subscription gets its own callers, so that callers held up by throttling do not delay the other one
+        ExecutorService throttledCallers = Executors.newFixedThreadPool(CALLERS / 2);
+        ExecutorService healthyCallers = Executors.newFixedThreadPool(CALLERS / 2);
+        // Warm up the callers so that only threads created by the interceptor show up below
+        List<Future<?>> warmUps = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            warmUps.add((i % 2 == 0 ? throttledCallers : healthyCallers).submit(new Runnable() {
+                @Override
+                public void run() { }
+            }));
+        }
+        for (Future<?> warmUp : warmUps) {
+            warmUp.get();
+        }
+        // Also start the connection pool of the client
+        client.newCall(server.get("warm-up")).execute().close();
+        int baseline = threads.getThreadCount();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger peak = new AtomicInteger(baseline);
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    peak.set(Math.max(peak.get(), threads.getThreadCount()));
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        sampler.start();
+
+        long start = System.currentTimeMillis();
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS * REQUESTS_PER_CALLER; i++) {
+            final String subscription = i % 2 == 0 ? "throttled-load" : "healthy-load";
+            results.add((i % 2 == 0 ? throttledCallers : healthyCallers).submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Response response = client.newCall(server.get(subscription)).execute();
+                    Assert.assertEquals(200, response.code());
+                    response.close();
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        done.set(true);
+        sampler.join();
+        throttledCallers.shutdown();
+        healthyCallers.shutdown();
+        server.stop();
+
+        // Only the shared timer and the sampler may have been added to the callers
+        Assert.assertTrue("peak " + peak.get() + " over baseline " + baseline, peak.get() <= baseline + 2);
+        Assert.assertEquals(1, server.throttled.get());
+        // Only requests already past the gate when the 429 came back may reach the server before it opens
+        Assert.assertTrue(server.sentWhileThrottled.get() < CALLERS);
+        // The warm-up request, every request once and the throttled one again
+        Assert.assertEquals(CALLERS * REQUESTS_PER_CALLER + 2, server.requests.get());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+        Assert.assertTrue("healthy " + (server.lastHealthyAt.get() - start), server.lastHealthyAt.get() - start < 1000);
+    }
+
+    @Test
+    public void readsRetryAfterFromErrorMessage() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new ResourceManagerThrottlingInterceptor())
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        if (requests.incrementAndGet() == 1) {
+                            return response(chain.request(), 429,
+                                    "{\"error\":{\"message\":\"Please try again after '1' seconds.\"}}");
+                        }
+                        return response(chain.request(), 200, "{}");
+                    }
+                })
+                .build();
+
+        long start = System.currentTimeMillis();
+        Response response = client.newCall(get("message-retry")).execute();
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals(2, requests.get());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    public void waitsThroughTheDelayProvider() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger delayed = new AtomicInteger();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new ResourceManagerThrottlingInterceptor())
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        if (requests.incrementAndGet() == 1) {
+                            return response(chain.request(), 429, "{}").newBuilder()
+                                    .header("Retry-After", "30")
+                                    .build();
+                        }
+                        return response(chain.request(), 200, "{}");
+                    }
+                })
+                .build();
+
+        SdkContext.setDelayProvider(new DelayProvider() {
+            @Override
+            public <T> Observable<T> delayedEmitAsync(T event, int milliseconds) {
+                delayed.addAndGet(milliseconds);
+                return Observable.just(event);
+            }
+        });
+        try {
+            long start = System.currentTimeMillis();
+            Response response = client.newCall(get("playback-retry")).execute();
+
+            Assert.assertEquals(200, response.code());
+            Assert.assertEquals(2, requests.get());
+            Assert.assertEquals(30100, delayed.get());
+            Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+        } finally {
+            SdkContext.setDelayProvider(new DelayProvider());
+        }
+    }
+
+    private static Request get(String subscription) {
+        return new Request.Builder()
+                .url("https://management.azure.com/subscriptions/" + subscription + "/resourceGroups?api-version=2018-05-01")
+                .get()
+                .build();
+    }
+
+    private static Response response(Request request, int code, String body) {
+        return new Response.Builder()
+                .request(request)
+                .code(code)
+                .message("Scripted")
+                .protocol(Protocol.HTTP_1_1)
+                .body(ResponseBody.create(MediaType.parse("application/json"), body))
+                .build();
+    }
+
+    /**
+     * A local server throttling the first request of a subscription for the given number of seconds
+     * and answering every other request after a short latency. Its handler threads are started
+     * upfront, so that they do not show up in the thread count.
+     */
+    private static class ScriptedServer implements HttpHandler {
+        private final String throttledSubscription;
+        private final int retryAfterSeconds;
+        private final HttpServer server;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger throttled = new AtomicInteger();
+        private final AtomicInteger sentWhileThrottled = new AtomicInteger();
+        private final AtomicLong throttledUntil = new AtomicLong();
+        private final AtomicLong lastHealthyAt = new AtomicLong();
+
+        ScriptedServer(String throttledSubscription, int retryAfterSeconds) throws IOException {
+            this.throttledSubscription = throttledSubscription;
+            this.retryAfterSeconds = retryAfterSeconds;
+            // Answer without waiting for delayed acknowledgments, which add tens of milliseconds to each request
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            ThreadPoolExecutor handlers = (ThreadPoolExecutor) Executors.newFixedThreadPool(CALLERS);
+            handlers.prestartAllCoreThreads();
+            this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(handlers);
+            server.createContext("/", this);
+            server.start();
+        }
+
+        Request get(String subscription) {
+            return new Request.Builder()
+                    .url("http://localhost:" + server.getAddress().getPort() + "/subscriptions/" + subscription
+                            + "/resourceGroups?api-version=2018-05-01")
+                    .get()
+                    .build();
+        }
+
+        void stop() {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdown();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            boolean isThrottled = exchange.getRequestURI().getPath().contains(throttledSubscription);
+            if (isThrottled) {
+                if (throttled.get() == 0 && throttled.compareAndSet(0, 1)) {
+                    throttledUntil.set(System.currentTimeMillis() + retryAfterSeconds * 1000);
+                    exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+                    respond(exchange, 429);
+                    return;
+                }
+                if (System.currentTimeMillis() < throttledUntil.get()) {
+                    sentWhileThrottled.incrementAndGet();
+                }
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (!isThrottled) {
+                lastHealthyAt.set(System.currentTimeMillis());
+            }
+            respond(exchange, 200);
+        }
+
+        private static void respond(HttpExchange exchange, int code) throws IOException {
+            byte[] body = "{}".getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(code, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        }
+    }
+}
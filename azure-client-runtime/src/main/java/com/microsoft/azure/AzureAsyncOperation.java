@@ -6,11 +6,13 @@
 
 package com.microsoft.azure;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.microsoft.rest.protocol.SerializerAdapter;
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 
@@ -112,15 +114,16 @@ final class AzureAsyncOperation {
     }
 
     /**
-     * Async operation in string format.
+     * The body the async operation was read from.
      */
-    private String rawString;
+    @JsonIgnore
+    private PollingResponseBody body;
 
     /**
-     * @return the raw string
+     * @return the body the async operation was read from
      */
-    String rawString() {
-        return this.rawString;
+    PollingResponseBody body() {
+        return this.body;
     }
 
     /**
@@ -133,22 +136,27 @@ final class AzureAsyncOperation {
      */
     static AzureAsyncOperation fromResponse(SerializerAdapter<?> serializerAdapter, Response<ResponseBody> response) throws CloudException {
         AzureAsyncOperation asyncOperation = null;
-        String rawString = null;
+        PollingResponseBody body = null;
+        String content = null;
         if (response.body() != null) {
             try {
-                rawString = response.body().string();
-                asyncOperation = serializerAdapter.deserialize(rawString, AzureAsyncOperation.class);
+                byte[] bytes = response.body().bytes();
+                content = new String(bytes, Charset.forName("UTF-8"));
+                body = PollingResponseBody.parse(serializerAdapter, bytes);
+                if (body.status() != null) {
+                    asyncOperation = new AzureAsyncOperation();
+                    asyncOperation.status = body.status();
+                    asyncOperation.error = body.error();
+                    asyncOperation.body = body;
+                }
             } catch (IOException exception) {
                 // Exception will be handled below
             } finally {
                 response.body().close();
             }
         }
-        if (asyncOperation == null || asyncOperation.status() == null) {
-            throw new CloudException("polling response does not contain a valid body: " + rawString, response);
-        }
-        else {
-            asyncOperation.rawString = rawString;
+        if (asyncOperation == null) {
+            throw new CloudException("polling response does not contain a valid body: " + content, response);
         }
         return asyncOperation;
     }
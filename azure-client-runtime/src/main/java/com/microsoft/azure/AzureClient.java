@@ -6,6 +6,7 @@
 
 package com.microsoft.azure;
 
+import com.microsoft.rest.HeaderBinder;
 import com.microsoft.rest.ServiceResponse;
 import com.microsoft.rest.ServiceResponseWithHeaders;
 import okhttp3.ResponseBody;
@@ -16,6 +17,7 @@ import retrofit2.http.Url;
 import rx.Observable;
 import rx.Single;
 import rx.exceptions.Exceptions;
+import rx.functions.Action1;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 
@@ -23,8 +25,9 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 /**
  * An instance of this class defines a ServiceClient that handles polling and
@@ -36,6 +39,11 @@ public final class AzureClient extends AzureServiceClient {
      */
     private int longRunningOperationRetryTimeout = -1;
 
+    /**
+     * The store the states of the long running operations are saved to, null if they are not saved.
+     */
+    private volatile PollingStateStore pollingStateStore;
+
     /**
      * The user agent from the service client that owns this Azure Client.
      */
@@ -73,6 +81,60 @@ public final class AzureClient extends AzureServiceClient {
         this.longRunningOperationRetryTimeout = longRunningOperationRetryTimeout;
     }
 
+    /**
+     * Gets the store the states of the long running operations are saved to.
+     *
+     * @return the polling state store, null if the states are not saved.
+     */
+    public PollingStateStore pollingStateStore() {
+        return pollingStateStore;
+    }
+
+    /**
+     * Sets the store the states of the long running operations are saved to. The state of an operation
+     * is saved when it starts and whenever its status changes, and removed once the operation is over,
+     * so that the operations in progress can be resumed with {@link #resumePendingOperationsAsync(Func1)}
+     * after the process restarts.
+     *
+     * @param pollingStateStore the polling state store, null to stop saving the states.
+     */
+    public void setPollingStateStore(PollingStateStore pollingStateStore) {
+        this.pollingStateStore = pollingStateStore;
+    }
+
+    /**
+     * Gets the operations left in progress in the polling state store, for instance by a previous run
+     * of the process. The states can be polled with {@link #pollAsync(PollingState, Type)} or tracked
+     * with an {@link LroTracker}, once their resource type is known from their operation type.
+     *
+     * @return the polling states of the pending operations, empty if no store is set.
+     */
+    public List<PollingState<Object>> pendingOperations() {
+        List<PollingState<Object>> operations = new ArrayList<>();
+        PollingStateStore store = this.pollingStateStore;
+        if (store != null) {
+            for (String serialized : store.pendingOperations().values()) {
+                operations.add(PollingState.createFromJSONString(serialized));
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Resumes polling all the operations left in progress in the polling state store, until each of them
+     * terminates.
+     *
+     * @param resourceTypes gives the java.lang.reflect.Type of the resource of an operation, from its polling state.
+     * @return the observable emitting the terminal state of each operation, and the failures once all are over.
+     */
+    public Observable<PollingState<Object>> resumePendingOperationsAsync(final Func1<PollingState<Object>, Type> resourceTypes) {
+        List<Observable<PollingState<Object>>> operations = new ArrayList<>();
+        for (PollingState<Object> pollingState : pendingOperations()) {
+            operations.add(pollAsync(pollingState, resourceTypes.call(pollingState)).last());
+        }
+        return Observable.mergeDelayError(operations);
+    }
+
     /**
      * Handles an initial response from a PUT or PATCH operation response by polling
      * the status of the operation until the long running operation terminates.
@@ -106,9 +168,9 @@ public final class AzureClient extends AzureServiceClient {
      */
     public <T, THeader> ServiceResponseWithHeaders<T, THeader> getPutOrPatchResultWithHeaders(Observable<Response<ResponseBody>> observable, Type resourceType, Class<THeader> headerType) throws CloudException, InterruptedException, IOException {
         ServiceResponse<T> bodyResponse = getPutOrPatchResult(observable, resourceType);
-        return new ServiceResponseWithHeaders<>(
+        return ServiceResponseWithHeaders.withLazyHeaders(
                 bodyResponse.body(),
-                restClient().serializerAdapter().<THeader>deserialize(restClient().serializerAdapter().serialize(bodyResponse.response().headers()), headerType),
+                HeaderBinder.forType(headerType).lazyBind(bodyResponse.response().headers(), restClient().serializerAdapter()),
                 bodyResponse.response()
         );
     }
@@ -123,7 +185,21 @@ public final class AzureClient extends AzureServiceClient {
      * @return          the observable of which a subscription will lead to a final response.
      */
     public <T> Observable<ServiceResponse<T>> getPutOrPatchResultAsync(Observable<Response<ResponseBody>> observable, final Type resourceType) {
-        return this.<T>beginPutOrPatchAsync(observable, resourceType)
+        return this.<T>getPutOrPatchResultAsync(observable, LongRunningOperationOptions.DEFAULT, resourceType);
+    }
+
+    /**
+     * Handles an initial response from a PUT or PATCH operation response by polling the status of the operation
+     * asynchronously, once the operation finishes emits the final response.
+     *
+     * @param observable the initial observable from the PUT or PATCH operation.
+     * @param lroOptions long running operation options.
+     * @param resourceType the java.lang.reflect.Type of the resource.
+     * @param <T>       the return type of the caller.
+     * @return          the observable of which a subscription will lead to a final response.
+     */
+    public <T> Observable<ServiceResponse<T>> getPutOrPatchResultAsync(Observable<Response<ResponseBody>> observable, final LongRunningOperationOptions lroOptions, final Type resourceType) {
+        return this.<T>beginPutOrPatchAsync(observable, lroOptions, resourceType)
                 .toObservable()
                 .flatMap(new Func1<PollingState<T>, Observable<PollingState<T>>>() {
                     @Override
@@ -154,6 +230,21 @@ public final class AzureClient extends AzureServiceClient {
      * @return the observable of which a subscription will lead PUT or PATCH action.
      */
     public <T> Single<PollingState<T>> beginPutOrPatchAsync(Observable<Response<ResponseBody>> observable, final Type resourceType) {
+        return this.<T>beginPutOrPatchAsync(observable, LongRunningOperationOptions.DEFAULT, resourceType);
+    }
+
+    /**
+     * Given an observable representing a deferred PUT or PATCH action, this method returns {@link Single} object,
+     * when subscribed to it, the deferred action will be performed and emits the polling state containing information
+     * to track the progress of the action.
+     *
+     * @param observable an observable representing a deferred PUT or PATCH operation.
+     * @param lroOptions long running operation options.
+     * @param resourceType the java.lang.reflect.Type of the resource.
+     * @param <T> the type of the resource
+     * @return the observable of which a subscription will lead PUT or PATCH action.
+     */
+    public <T> Single<PollingState<T>> beginPutOrPatchAsync(Observable<Response<ResponseBody>> observable, final LongRunningOperationOptions lroOptions, final Type resourceType) {
         return observable.map(new Func1<Response<ResponseBody>, PollingState<T>>() {
             @Override
             public PollingState<T> call(Response<ResponseBody> response) {
@@ -162,10 +253,11 @@ public final class AzureClient extends AzureServiceClient {
                     throw  exception;
                 }
                 try {
-                    final PollingState<T> pollingState = PollingState.create(response, LongRunningOperationOptions.DEFAULT, longRunningOperationRetryTimeout(), resourceType, restClient().serializerAdapter());
+                    final PollingState<T> pollingState = PollingState.create(response, lroOptions, longRunningOperationRetryTimeout(), resourceType, restClient().serializerAdapter());
                     pollingState.withPollingUrlFromResponse(response);
                     pollingState.withPollingRetryTimeoutFromResponse(response);
                     pollingState.withPutOrPatchResourceUri(response.raw().request().url().toString());
+                    checkpoint(pollingState, false);
                     return pollingState;
                 } catch (IOException ioException) {
                     throw Exceptions.propagate(ioException);
@@ -192,14 +284,16 @@ public final class AzureClient extends AzureServiceClient {
         pollingState.withSerializerAdapter(restClient().serializerAdapter());
         if (pollingState.isStatusTerminal()) {
             if (pollingState.isStatusSucceeded() && pollingState.resource() == null) {
-                return updateStateFromGetResourceOperationAsync(pollingState, pollingState.putOrPatchResourceUri()).toSingle();
+                return checkpointed(this.<T>updateStateFromGetResourceOperationAsync(pollingState, pollingState.putOrPatchResourceUri()).toSingle());
             }
-            return Single.just(pollingState);
+            return checkpointed(Single.just(pollingState));
         }
-        return putOrPatchPollingDispatcher(pollingState, pollingState.putOrPatchResourceUri())
+        return checkpointed(putOrPatchPollingDispatcher(pollingState, pollingState.putOrPatchResourceUri())
                 .map(new Func1<PollingState<T>, PollingState<T>>() {
                     @Override
                     public PollingState<T> call(PollingState<T> tPollingState) {
+                        tPollingState.recordPoll();
+                        checkpoint(tPollingState, false);
                         tPollingState.throwCloudExceptionIfInFailedState();
                         return tPollingState;
                     }
@@ -213,7 +307,7 @@ public final class AzureClient extends AzureServiceClient {
                         return Observable.just(tPollingState);
                     }
                 })
-                .toSingle();
+                .toSingle());
     }
 
     /**
@@ -235,7 +329,9 @@ public final class AzureClient extends AzureServiceClient {
                 .flatMap(new Func1<Boolean, Observable<PollingState<T>>>() {
                     @Override
                     public Observable<PollingState<T>> call(Boolean aBoolean) {
-                        return pollPutOrPatchSingleAsync(pollingState, resourceType).toObservable();
+                        // Off the polling timer thread, which only fires the delays
+                        return pollPutOrPatchSingleAsync(pollingState, resourceType).toObservable()
+                                .subscribeOn(Schedulers.io());
                     }
                 }).repeatWhen(new Func1<Observable<? extends Void>, Observable<?>>() {
                     @Override
@@ -243,8 +339,7 @@ public final class AzureClient extends AzureServiceClient {
                         return observable.flatMap(new Func1<Void, Observable<Long>>() {
                             @Override
                             public Observable<Long> call(Void aVoid) {
-                                return Observable.timer(pollingState.delayInMilliseconds(),
-                                        TimeUnit.MILLISECONDS, Schedulers.immediate());
+                                return PollingTimer.SHARED.delay(pollingState.delayInMilliseconds());
                             }
                         });
                     }
@@ -274,14 +369,10 @@ public final class AzureClient extends AzureServiceClient {
                 .flatMap(new Func1<ServiceResponse<T>, Observable<ServiceResponseWithHeaders<T, THeader>>>() {
                     @Override
                     public Observable<ServiceResponseWithHeaders<T, THeader>> call(ServiceResponse<T> serviceResponse) {
-                        try {
-                            return Observable
-                                    .just(new ServiceResponseWithHeaders<>(serviceResponse.body(),
-                                            restClient().serializerAdapter().<THeader>deserialize(restClient().serializerAdapter().serialize(serviceResponse.response().headers()), headerType),
-                                            serviceResponse.response()));
-                        } catch (IOException e) {
-                            return Observable.error(e);
-                        }
+                        return Observable
+                                .just(ServiceResponseWithHeaders.<T, THeader>withLazyHeaders(serviceResponse.body(),
+                                        HeaderBinder.forType(headerType).lazyBind(serviceResponse.response().headers(), restClient().serializerAdapter()),
+                                        serviceResponse.response()));
                     }
                 });
     }
@@ -319,9 +410,9 @@ public final class AzureClient extends AzureServiceClient {
      */
     public <T, THeader> ServiceResponseWithHeaders<T, THeader> getPostOrDeleteResultWithHeaders(Observable<Response<ResponseBody>> observable, Type resourceType, Class<THeader> headerType) throws CloudException, InterruptedException, IOException {
         ServiceResponse<T> bodyResponse = getPostOrDeleteResult(observable, resourceType);
-        return new ServiceResponseWithHeaders<>(
+        return ServiceResponseWithHeaders.withLazyHeaders(
                 bodyResponse.body(),
-                restClient().serializerAdapter().<THeader>deserialize(restClient().serializerAdapter().serialize(bodyResponse.response().headers()), headerType),
+                HeaderBinder.forType(headerType).lazyBind(bodyResponse.response().headers(), restClient().serializerAdapter()),
                 bodyResponse.response()
         );
     }
@@ -392,6 +483,7 @@ public final class AzureClient extends AzureServiceClient {
                     final PollingState<T> pollingState = PollingState.create(response, lroOptions, longRunningOperationRetryTimeout(), resourceType, restClient().serializerAdapter());
                     pollingState.withPollingUrlFromResponse(response);
                     pollingState.withPollingRetryTimeoutFromResponse(response);
+                    checkpoint(pollingState, false);
                     return pollingState;
                 } catch (IOException ioException) {
                     throw Exceptions.propagate(ioException);
@@ -415,14 +507,16 @@ public final class AzureClient extends AzureServiceClient {
         pollingState.withSerializerAdapter(restClient().serializerAdapter());
         if (pollingState.isStatusTerminal()) {
             if (pollingState.resourcePending()) {
-                return updateStateFromLocationHeaderOnPostOrDeleteAsync(pollingState).toSingle();
+                return checkpointed(this.<T>updateStateFromLocationHeaderOnPostOrDeleteAsync(pollingState).toSingle());
             }
-            return Single.just(pollingState);
+            return checkpointed(Single.just(pollingState));
         }
-        return postOrDeletePollingDispatcher(pollingState)
+        return checkpointed(postOrDeletePollingDispatcher(pollingState)
                 .map(new Func1<PollingState<T>, PollingState<T>>() {
                     @Override
                     public PollingState<T> call(PollingState<T> tPollingState) {
+                        tPollingState.recordPoll();
+                        checkpoint(tPollingState, false);
                         tPollingState.throwCloudExceptionIfInFailedState();
                         return tPollingState;
                     }
@@ -436,7 +530,7 @@ public final class AzureClient extends AzureServiceClient {
                         return Observable.just(pollingState);
                     }
                 })
-                .toSingle();
+                .toSingle());
     }
 
     /**
@@ -456,7 +550,9 @@ public final class AzureClient extends AzureServiceClient {
                 .flatMap(new Func1<Boolean, Observable<PollingState<T>>>() {
                     @Override
                     public Observable<PollingState<T>> call(Boolean aBoolean) {
-                        return pollPostOrDeleteSingleAsync(pollingState, resourceType).toObservable();
+                        // Off the polling timer thread, which only fires the delays
+                        return pollPostOrDeleteSingleAsync(pollingState, resourceType).toObservable()
+                                .subscribeOn(Schedulers.io());
                     }
                 }).repeatWhen(new Func1<Observable<? extends Void>, Observable<?>>() {
                     @Override
@@ -464,8 +560,7 @@ public final class AzureClient extends AzureServiceClient {
                         return observable.flatMap(new Func1<Void, Observable<Long>>() {
                             @Override
                             public Observable<Long> call(Void aVoid) {
-                                return Observable.timer(pollingState.delayInMilliseconds(),
-                                        TimeUnit.MILLISECONDS, Schedulers.immediate());
+                                return PollingTimer.SHARED.delay(pollingState.delayInMilliseconds());
                             }
                         });
                     }
@@ -495,14 +590,10 @@ public final class AzureClient extends AzureServiceClient {
                 .flatMap(new Func1<ServiceResponse<T>, Observable<ServiceResponseWithHeaders<T, THeader>>>() {
                     @Override
                     public Observable<ServiceResponseWithHeaders<T, THeader>> call(ServiceResponse<T> serviceResponse) {
-                        try {
-                            return Observable
-                                    .just(new ServiceResponseWithHeaders<>(serviceResponse.body(),
-                                            restClient().serializerAdapter().<THeader>deserialize(restClient().serializerAdapter().serialize(serviceResponse.response().headers()), headerType),
-                                            serviceResponse.response()));
-                        } catch (IOException e) {
-                            return Observable.error(e);
-                        }
+                        return Observable
+                                .just(ServiceResponseWithHeaders.<T, THeader>withLazyHeaders(serviceResponse.body(),
+                                        HeaderBinder.forType(headerType).lazyBind(serviceResponse.response().headers(), restClient().serializerAdapter()),
+                                        serviceResponse.response()));
                     }
                 });
     }
@@ -681,12 +772,16 @@ public final class AzureClient extends AzureServiceClient {
                         pollingState.withStatus(asyncOperation.status());
                         pollingState.withErrorBody(asyncOperation.getError());
                         pollingState.withResponse(response);
-                        try {
-                            T resource = restClient().serializerAdapter().deserialize(asyncOperation.rawString(), pollingState.resourceType());
-                            pollingState.withResource(resource);
-                        } catch (IOException e) {
-                            // Ignore and let resource be null
+                        T resource = null;
+                        if (pollingState.isStatusTerminal()) {
+                            // The body of an operation in progress is not a resource
+                            try {
+                                resource = asyncOperation.body().resource(pollingState.resourceType());
+                            } catch (IOException e) {
+                                // Ignore and let resource be null
+                            }
                         }
+                        pollingState.withResource(resource);
                         return Observable.just(pollingState);
                     }
                 });
@@ -750,6 +845,44 @@ public final class AzureClient extends AzureServiceClient {
         return null;
     }
 
+    /**
+     * Saves the state of an operation to the polling state store if it changed, or removes it once the
+     * operation is over.
+     *
+     * @param pollingState the polling state
+     * @param resultReceived whether the final result of the operation was received, if it succeeded
+     */
+    private void checkpoint(PollingState<?> pollingState, boolean resultReceived) {
+        PollingStateStore store = this.pollingStateStore;
+        if (store == null || pollingState.operationId() == null) {
+            return;
+        }
+        if (pollingState.isStatusFailed() || (resultReceived && pollingState.isStatusTerminal())) {
+            store.remove(pollingState.operationId());
+        } else if (pollingState.changedSinceCheckpoint()) {
+            store.save(pollingState.operationId(), pollingState.serialize());
+        }
+    }
+
+    /**
+     * Saves the state emitted by a poll to the polling state store.
+     *
+     * @param poll the poll
+     * @param <T> the type of the resource
+     * @return the poll saving its state
+     */
+    private <T> Single<PollingState<T>> checkpointed(Single<PollingState<T>> poll) {
+        if (this.pollingStateStore == null) {
+            return poll;
+        }
+        return poll.doOnSuccess(new Action1<PollingState<T>>() {
+            @Override
+            public void call(PollingState<T> pollingState) {
+                checkpoint(pollingState, true);
+            }
+        });
+    }
+
     private <T> Observable<PollingState<T>> putOrPatchPollingDispatcher(PollingState<T> pollingState, String url) {
         if (pollingState.azureAsyncOperationHeaderLink() != null) {
             return updateStateFromAzureAsyncOperationHeaderOnPutAsync(pollingState);
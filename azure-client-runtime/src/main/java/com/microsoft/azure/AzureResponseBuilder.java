@@ -7,6 +7,7 @@
 package com.microsoft.azure;
 
 import com.google.common.reflect.TypeToken;
+import com.microsoft.rest.HeaderBinder;
 import com.microsoft.rest.RestException;
 import com.microsoft.rest.ServiceResponse;
 import com.microsoft.rest.ServiceResponseBuilder;
@@ -17,7 +18,6 @@ import okhttp3.ResponseBody;
 import retrofit2.Response;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Type;
 
 /**
@@ -30,6 +30,9 @@ public final class AzureResponseBuilder<T, E extends RestException> implements R
     /** The base response builder for handling most scenarios. */
     private ServiceResponseBuilder<T, E> baseBuilder;
 
+    /** The serializer for the header values. */
+    private final SerializerAdapter<?> serializerAdapter;
+
     /**
      * Create a ServiceResponseBuilder instance.
      *
@@ -37,6 +40,7 @@ public final class AzureResponseBuilder<T, E extends RestException> implements R
      */
     private AzureResponseBuilder(SerializerAdapter<?> serializer) {
         baseBuilder = new ServiceResponseBuilder.Factory().newInstance(serializer);
+        serializerAdapter = serializer;
     }
 
     @Override
@@ -67,13 +71,7 @@ public final class AzureResponseBuilder<T, E extends RestException> implements R
                 return new ServiceResponse<>(response);
             }
         } else {
-            try {
-                throw baseBuilder.exceptionType().getConstructor(String.class, Response.class)
-                        .newInstance("Status code " + statusCode, response);
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                throw new IOException("Invalid status code " + statusCode + ", but an instance of " + baseBuilder.exceptionType().getCanonicalName()
-                        + " cannot be created.", e);
-            }
+            throw baseBuilder.exceptionFactory().create(statusCode, "Status code " + statusCode, response);
         }
     }
 
@@ -85,8 +83,9 @@ public final class AzureResponseBuilder<T, E extends RestException> implements R
     @Override
     public <THeader> ServiceResponseWithHeaders<T, THeader> buildEmptyWithHeaders(Response<Void> response, Class<THeader> headerType) throws IOException {
         ServiceResponse<T> bodyResponse = buildEmpty(response);
-        ServiceResponseWithHeaders<T, THeader> baseResponse = baseBuilder.buildEmptyWithHeaders(response, headerType);
-        ServiceResponseWithHeaders<T, THeader> serviceResponse = new ServiceResponseWithHeaders<>(baseResponse.headers(), bodyResponse.headResponse());
+        ServiceResponseWithHeaders<T, THeader> serviceResponse = ServiceResponseWithHeaders.withLazyHeaders(
+                HeaderBinder.forType(headerType).lazyBind(response.headers(), serializerAdapter),
+                bodyResponse.headResponse());
         serviceResponse.withBody(bodyResponse.body());
         return serviceResponse;
     }
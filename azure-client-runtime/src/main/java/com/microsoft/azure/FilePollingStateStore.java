@@ -0,0 +1,383 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link PollingStateStore} keeping the polling states in an append-only
+ * journal file. Each save or removal appends a line to the journal, and the
+ * journal is rewritten with only the pending operations when it is opened and
+ * when it holds too many stale lines.
+ *
+ * The lines are not written by the threads saving the states: a single writer
+ * thread appends everything queued during a flush interval with one write and
+ * one fsync, so saving a state never waits for the disk. A state is durable
+ * once the batch holding it is flushed, at most a flush interval later, or
+ * when {@link #flush()} returns. A failed write is reported by the next call
+ * to {@link #flush()} or {@link #close()}.
+ */
+public final class FilePollingStateStore implements PollingStateStore, Closeable {
+    /**
+     * The default time the writer gathers lines before writing them, in milliseconds.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+
+    /**
+     * The number of stale lines above which the journal is rewritten, on top of twice the pending operations.
+     */
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    /**
+     * The encoding of the journal.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The first field of the lines saving a state.
+     */
+    private static final String SAVE = "S";
+
+    /**
+     * The first field of the lines removing a state.
+     */
+    private static final String REMOVE = "R";
+
+    /**
+     * The journal file.
+     */
+    private final File journal;
+
+    /**
+     * The time the writer gathers lines before writing them, in milliseconds.
+     */
+    private final long flushIntervalMillis;
+
+    /**
+     * The serialized states of the pending operations, by operation ID, including the ones not written yet.
+     */
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+    /**
+     * The lines waiting to be written.
+     */
+    private final BlockingQueue<Line> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The writer thread.
+     */
+    private final Thread writer;
+
+    /**
+     * The journal opened for appending, only accessed by the writer thread once started.
+     */
+    private FileChannel channel;
+
+    /**
+     * The number of lines in the journal, only accessed by the writer thread once started.
+     */
+    private long journalLines;
+
+    /**
+     * The first write failure, reported by flush and close.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Whether the store was closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The number of batches written.
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * The number of lines written.
+     */
+    private final AtomicLong lineCount = new AtomicLong();
+
+    /**
+     * Opens a journal with the default flush interval, creating it if it does not exist.
+     *
+     * @param journal the journal file
+     * @throws IOException thrown if the journal cannot be read or written
+     */
+    public FilePollingStateStore(File journal) throws IOException {
+        this(journal, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a journal, creating it if it does not exist.
+     *
+     * @param journal the journal file
+     * @param flushInterval the time the writer gathers lines before writing them
+     * @param unit the time unit of the flush interval
+     * @throws IOException thrown if the journal cannot be read or written
+     */
+    public FilePollingStateStore(File journal, long flushInterval, TimeUnit unit) throws IOException {
+        this.journal = journal;
+        this.flushIntervalMillis = unit.toMillis(flushInterval);
+        load();
+        compact();
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "azure-polling-state-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void save(String operationId, String pollingState) {
+        if (closed) {
+            throw new IllegalStateException("The polling state store is closed.");
+        }
+        pending.put(operationId, pollingState);
+        queue.add(new Line(SAVE + "\t" + operationId + "\t" + pollingState + "\n"));
+    }
+
+    @Override
+    public void remove(String operationId) {
+        if (closed) {
+            throw new IllegalStateException("The polling state store is closed.");
+        }
+        if (pending.remove(operationId) != null) {
+            queue.add(new Line(REMOVE + "\t" + operationId + "\n"));
+        }
+    }
+
+    @Override
+    public Map<String, String> pendingOperations() {
+        return Collections.unmodifiableMap(new HashMap<>(pending));
+    }
+
+    /**
+     * @return the number of batches written
+     */
+    public long batchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return the number of lines written
+     */
+    public long lineCount() {
+        return lineCount.get();
+    }
+
+    /**
+     * Waits until the states saved and removed so far are written and synced to the disk.
+     *
+     * @throws IOException thrown if a write failed
+     */
+    public void flush() throws IOException {
+        if (!closed) {
+            Line marker = new Line(null);
+            queue.add(marker);
+            try {
+                marker.written.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while flushing the polling state journal");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes the lines queued and closes the journal.
+     *
+     * @throws IOException thrown if a write failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            Line marker = new Line(null);
+            marker.last = true;
+            queue.add(marker);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while closing the polling state journal");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes the queued lines in batches until the store is closed.
+     */
+    private void write() {
+        boolean last = false;
+        while (!last) {
+            List<Line> batch = new ArrayList<>();
+            Line first;
+            try {
+                first = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            batch.add(first);
+            if (first.text != null && flushIntervalMillis > 0) {
+                try {
+                    // Gathers the lines of the other operations into the same write and fsync
+                    Thread.sleep(flushIntervalMillis);
+                } catch (InterruptedException e) {
+                    // writes the lines gathered so far without waiting any longer
+                }
+            }
+            queue.drainTo(batch);
+
+            StringBuilder text = new StringBuilder();
+            int lines = 0;
+            for (Line line : batch) {
+                if (line.text != null) {
+                    text.append(line.text);
+                    lines++;
+                }
+                last |= line.last;
+            }
+            try {
+                if (lines > 0) {
+                    ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(UTF_8));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                    journalLines += lines;
+                    lineCount.addAndGet(lines);
+                    batchCount.incrementAndGet();
+                }
+                if (last) {
+                    channel.close();
+                } else if (journalLines > 2L * pending.size() + COMPACTION_THRESHOLD) {
+                    compact();
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            for (Line line : batch) {
+                line.written.countDown();
+            }
+        }
+    }
+
+    /**
+     * Reads the pending operations from the journal. Only lines ending with a
+     * line feed are complete: the last line, cut short by a crash, is ignored
+     * even if it holds all its fields.
+     *
+     * @throws IOException thrown if the journal cannot be read
+     */
+    private void load() throws IOException {
+        if (!journal.exists()) {
+            return;
+        }
+        String text = new String(Files.readAllBytes(journal.toPath()), UTF_8);
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            String[] fields = text.substring(start, end).split("\t", 3);
+            if (fields.length == 3 && SAVE.equals(fields[0])) {
+                pending.put(fields[1], fields[2]);
+            } else if (fields.length == 2 && REMOVE.equals(fields[0])) {
+                pending.remove(fields[1]);
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the pending operations, then reopens it for appending.
+     * The lines still queued are appended afterwards, which is harmless since a line saving
+     * or removing a state can be replayed.
+     *
+     * @throws IOException thrown if the journal cannot be written
+     */
+    private void compact() throws IOException {
+        File compacted = new File(journal.getPath() + ".tmp");
+        StringBuilder text = new StringBuilder();
+        int lines = 0;
+        for (Map.Entry<String, String> operation : pending.entrySet()) {
+            text.append(SAVE).append('\t').append(operation.getKey()).append('\t').append(operation.getValue()).append('\n');
+            lines++;
+        }
+        FileChannel out = FileChannel.open(compacted.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        } finally {
+            out.close();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(compacted.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalLines = lines;
+    }
+
+    /**
+     * A line waiting to be written, or a marker waiting for the lines queued before it.
+     */
+    private static final class Line {
+        /**
+         * The text of the line, null for a marker.
+         */
+        private final String text;
+
+        /**
+         * Released once the batch holding the line is written.
+         */
+        private final CountDownLatch written = new CountDownLatch(1);
+
+        /**
+         * Whether the writer stops after this line.
+         */
+        private boolean last;
+
+        Line(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -20,6 +20,11 @@ public final class LongRunningOperationOptions {
      */
     private LongRunningFinalState finalStateVia;
 
+    /**
+     * Computes the delay between two polls, null to use the retry timeouts.
+     */
+    private LongRunningOperationPollingPolicy pollingPolicy;
+
     /**
      * @return indicates how to retrieve the final state of LRO.
      */
@@ -37,4 +42,23 @@ public final class LongRunningOperationOptions {
         this.finalStateVia = finalStateVia;
         return this;
     }
+
+    /**
+     * @return the policy computing the delay between two polls, null if the retry timeouts are used.
+     */
+    public LongRunningOperationPollingPolicy pollingPolicy() {
+        return this.pollingPolicy;
+    }
+
+    /**
+     * Sets the policy computing the delay between two polls. Without one, the delay is the
+     * Retry-After of the service or the retry timeout of the client.
+     *
+     * @param pollingPolicy the polling policy.
+     * @return LongRunningOperationOptions
+     */
+    public LongRunningOperationOptions withPollingPolicy(LongRunningOperationPollingPolicy pollingPolicy) {
+        this.pollingPolicy = pollingPolicy;
+        return this;
+    }
 }
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long to wait before the next poll of a long running operation.
+ * A policy is set with {@link LongRunningOperationOptions#withPollingPolicy}; without
+ * one, the delay is the Retry-After of the service or the retry timeout of the client.
+ *
+ * A policy may be shared by many operations running at the same time, so it must be
+ * thread safe.
+ */
+public abstract class LongRunningOperationPollingPolicy {
+    /**
+     * Computes the delay before the next poll of an operation, once a poll has ended
+     * and the operation is not in a terminal state yet.
+     *
+     * @param pollingState the state of the operation
+     * @return the delay in milliseconds
+     */
+    public abstract long delayInMilliseconds(PollingState<?> pollingState);
+
+    /**
+     * Called once when an operation polled with the policy reaches a terminal state.
+     *
+     * @param pollingState the state of the operation
+     */
+    public void onTerminalState(PollingState<?> pollingState) {
+    }
+
+    /**
+     * Creates a policy doubling the delay after each poll, up to a maximum.
+     *
+     * @param initialDelay the delay after the first poll
+     * @param maxDelay the largest delay
+     * @param unit the time unit of the delays
+     * @return the policy
+     */
+    public static LongRunningOperationPollingPolicy exponential(long initialDelay, long maxDelay, TimeUnit unit) {
+        return new Exponential(unit.toMillis(initialDelay), unit.toMillis(maxDelay));
+    }
+
+    /**
+     * Creates a policy waiting for the Retry-After of the service when the last response
+     * has one, and using another policy otherwise.
+     *
+     * @param fallback the policy used when the service sends no Retry-After
+     * @return the policy
+     */
+    public static LongRunningOperationPollingPolicy retryAfterFirst(LongRunningOperationPollingPolicy fallback) {
+        return new RetryAfterFirst(fallback);
+    }
+
+    /**
+     * Creates a policy learning how long the operations of each type take, to poll
+     * sparsely at their start and densely around their expected end.
+     *
+     * @param minDelay the smallest delay, used around the expected end
+     * @param maxDelay the largest delay
+     * @param unit the time unit of the delays
+     * @return the policy
+     */
+    public static HistoryBased historyBased(long minDelay, long maxDelay, TimeUnit unit) {
+        return new HistoryBased(unit.toMillis(minDelay), unit.toMillis(maxDelay));
+    }
+
+    /**
+     * Doubles the delay after each poll, up to a maximum.
+     */
+    private static final class Exponential extends LongRunningOperationPollingPolicy {
+        /**
+         * The delay after the first poll, in milliseconds.
+         */
+        private final long initialDelayMillis;
+
+        /**
+         * The largest delay, in milliseconds.
+         */
+        private final long maxDelayMillis;
+
+        Exponential(long initialDelayMillis, long maxDelayMillis) {
+            if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+                throw new IllegalArgumentException("The initial delay must be positive and not larger than the maximum delay.");
+            }
+            this.initialDelayMillis = initialDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+        }
+
+        @Override
+        public long delayInMilliseconds(PollingState<?> pollingState) {
+            long delay = initialDelayMillis;
+            for (int i = 1; i < pollingState.pollCount() && delay < maxDelayMillis; i++) {
+                delay *= 2;
+            }
+            return Math.min(delay, maxDelayMillis);
+        }
+    }
+
+    /**
+     * Waits for the Retry-After of the service when there is one.
+     */
+    private static final class RetryAfterFirst extends LongRunningOperationPollingPolicy {
+        /**
+         * The policy used when the service sends no Retry-After.
+         */
+        private final LongRunningOperationPollingPolicy fallback;
+
+        RetryAfterFirst(LongRunningOperationPollingPolicy fallback) {
+            if (fallback == null) {
+                throw new IllegalArgumentException("The fallback policy cannot be null.");
+            }
+            this.fallback = fallback;
+        }
+
+        @Override
+        public long delayInMilliseconds(PollingState<?> pollingState) {
+            if (pollingState.retryAfterInMilliseconds() >= 0) {
+                return pollingState.retryAfterInMilliseconds();
+            }
+            return fallback.delayInMilliseconds(pollingState);
+        }
+
+        @Override
+        public void onTerminalState(PollingState<?> pollingState) {
+            fallback.onTerminalState(pollingState);
+        }
+    }
+
+    /**
+     * Polls according to how long the operations of the same type took before.
+     * <p>
+     * The duration of an operation type is a moving average of the durations of its
+     * operations which succeeded. Before the expected end, the policy waits half of the
+     * time left, so the polls get closer as the end nears; past it, the policy waits a
+     * quarter of the overrun, so an operation much slower than usual is not polled at
+     * the smallest delay for long. Operation types without history are polled with a
+     * delay doubling from the smallest delay. Delays always stay between the smallest
+     * and the largest delay.
+     */
+    public static final class HistoryBased extends LongRunningOperationPollingPolicy {
+        /**
+         * The weight of the latest duration in the moving average.
+         */
+        private static final double WEIGHT = 0.2;
+
+        /**
+         * The smallest delay, in milliseconds.
+         */
+        private final long minDelayMillis;
+
+        /**
+         * The largest delay, in milliseconds.
+         */
+        private final long maxDelayMillis;
+
+        /**
+         * The policy used for the operation types without history.
+         */
+        private final Exponential noHistory;
+
+        /**
+         * The expected duration of the operations in milliseconds, by operation type.
+         */
+        private final ConcurrentMap<String, Long> expectedDurations = new ConcurrentHashMap<>();
+
+        HistoryBased(long minDelayMillis, long maxDelayMillis) {
+            this.noHistory = new Exponential(minDelayMillis, maxDelayMillis);
+            this.minDelayMillis = minDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+        }
+
+        /**
+         * Gets the duration expected for the operations of a type.
+         *
+         * @param operationType the operation type, as in {@link PollingState#operationType()}
+         * @return the expected duration in milliseconds, or -1 if no operation of the type succeeded yet
+         */
+        public long expectedDurationMillis(String operationType) {
+            Long expected = expectedDurations.get(operationType);
+            return expected == null ? -1 : expected;
+        }
+
+        /**
+         * Records the duration of an operation type, for instance from a previous run.
+         *
+         * @param operationType the operation type, as in {@link PollingState#operationType()}
+         * @param durationMillis the duration of an operation of the type, in milliseconds
+         * @return the policy itself
+         */
+        public HistoryBased withObservedDuration(String operationType, long durationMillis) {
+            while (true) {
+                Long expected = expectedDurations.get(operationType);
+                if (expected == null) {
+                    if (expectedDurations.putIfAbsent(operationType, durationMillis) == null) {
+                        return this;
+                    }
+                } else {
+                    long updated = Math.round(expected * (1 - WEIGHT) + durationMillis * WEIGHT);
+                    if (expectedDurations.replace(operationType, expected, updated)) {
+                        return this;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long delayInMilliseconds(PollingState<?> pollingState) {
+            long expected = expectedDurationMillis(pollingState.operationType());
+            if (expected < 0) {
+                return noHistory.delayInMilliseconds(pollingState);
+            }
+            long elapsed = pollingState.elapsedMillis();
+            long delay = elapsed < expected ? (expected - elapsed) / 2 : (elapsed - expected) / 4;
+            return Math.max(minDelayMillis, Math.min(maxDelayMillis, delay));
+        }
+
+        @Override
+        public void onTerminalState(PollingState<?> pollingState) {
+            if (pollingState.isStatusSucceeded()) {
+                withObservedDuration(pollingState.operationType(), pollingState.elapsedMillis());
+            }
+        }
+    }
+}
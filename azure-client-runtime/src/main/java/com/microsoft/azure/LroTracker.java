@@ -0,0 +1,453 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import rx.Observable;
+import rx.subjects.AsyncSubject;
+
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks many long running operations at once, polling them from a fixed
+ * number of worker threads instead of giving each operation its own polling
+ * chain. The operations wait in a single queue ordered by the time their next
+ * poll is due, and a worker takes the first one due, polls it once with
+ * {@link AzureClient#pollSingleAsync(PollingState, Type)} and puts it back in
+ * the queue until it reaches a terminal state.
+ *
+ * Operations registered with the same polling URL and resource type are
+ * polled once and share their result. The polls in flight for the same
+ * subscription are capped, so that a burst of operations on a subscription
+ * does not use its whole read quota nor starve the other subscriptions.
+ */
+public final class LroTracker {
+    /**
+     * The number of seconds over which the poll rate is measured.
+     */
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    /**
+     * The group of the operations whose polling URL has no subscription.
+     */
+    private static final String NO_SUBSCRIPTION = "";
+
+    /**
+     * The client polling the operations.
+     */
+    private final AzureClient client;
+
+    /**
+     * The operations waiting for their next poll, first due first.
+     */
+    private final DelayQueue<Operation<?>> due = new DelayQueue<>();
+
+    /**
+     * The operations tracked, by polling URL and resource type.
+     */
+    private final ConcurrentMap<String, Operation<?>> operations = new ConcurrentHashMap<>();
+
+    /**
+     * The polls in flight and the operations waiting for one to end, by subscription.
+     */
+    private final ConcurrentMap<String, SubscriptionSlots> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * The worker threads.
+     */
+    private final List<Thread> workers = new ArrayList<>();
+
+    /**
+     * The maximum number of polls in flight for a subscription.
+     */
+    private volatile int maxInFlightPollsPerSubscription = Integer.MAX_VALUE;
+
+    /**
+     * Whether the tracker was shut down.
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * The number of polls sent.
+     */
+    private final AtomicLong pollCount = new AtomicLong();
+
+    /**
+     * The second each slot of {@link #pollCounts} counts the polls of, guarded by itself.
+     */
+    private final long[] pollSeconds = new long[RATE_WINDOW_SECONDS];
+
+    /**
+     * The number of polls sent in each of the last seconds, guarded by {@link #pollSeconds}.
+     */
+    private final long[] pollCounts = new long[RATE_WINDOW_SECONDS];
+
+    /**
+     * Creates a tracker and starts its workers.
+     *
+     * @param client the client polling the operations
+     * @param workerCount the number of polls in flight at most
+     */
+    public LroTracker(AzureClient client, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("The tracker needs at least one worker.");
+        }
+        this.client = client;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "azure-lro-tracker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Sets the maximum number of polls in flight for a subscription. Operations of a
+     * subscription at its cap wait, in due order, for one of its polls to end.
+     *
+     * @param maxInFlightPollsPerSubscription the maximum number of polls, unbounded by default
+     * @return the tracker itself
+     */
+    public LroTracker withMaxInFlightPollsPerSubscription(int maxInFlightPollsPerSubscription) {
+        if (maxInFlightPollsPerSubscription < 1) {
+            throw new IllegalArgumentException("The cap must allow at least one poll.");
+        }
+        this.maxInFlightPollsPerSubscription = maxInFlightPollsPerSubscription;
+        return this;
+    }
+
+    /**
+     * Registers an operation and polls it until it reaches a terminal state. An operation
+     * with the same polling URL and resource type as one already tracked is not polled
+     * again, and both registrations get the same result.
+     *
+     * The result is emitted on a worker thread, which must not be blocked: subscribers doing
+     * blocking work should observe the result on another scheduler.
+     *
+     * @param pollingState the state of the operation, as returned by the begin methods of {@link AzureClient}
+     * @param resourceType the java.lang.reflect.Type of the resource
+     * @param <T> the type of the resource
+     * @return an observable emitting the terminal polling state, or the error which ended the operation
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Observable<PollingState<T>> track(PollingState<T> pollingState, Type resourceType) {
+        if (shutdown) {
+            return Observable.error(new IllegalStateException("The tracker is shut down."));
+        }
+        String url = pollingState.azureAsyncOperationHeaderLink() != null
+                ? pollingState.azureAsyncOperationHeaderLink()
+                : pollingState.locationHeaderLink();
+        if (url == null) {
+            url = pollingState.putOrPatchResourceUri();
+        }
+        Operation<T> operation = new Operation<>(url + " " + resourceType, pollingState, resourceType, subscriptionId(url));
+        Operation<?> tracked = operations.putIfAbsent(operation.key, operation);
+        if (tracked != null) {
+            // Same URL and same resource type, so the same type parameter
+            return ((Operation<T>) tracked).result.asObservable();
+        }
+        due.add(operation);
+        return operation.result.asObservable();
+    }
+
+    /**
+     * Stops the workers. The operations still tracked end with an {@link IllegalStateException}.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Operation<?> operation : operations.values()) {
+            if (operations.remove(operation.key, operation)) {
+                operation.result.onError(new IllegalStateException("The tracker is shut down."));
+            }
+        }
+    }
+
+    /**
+     * @return the number of operations tracked
+     */
+    public int trackedCount() {
+        return operations.size();
+    }
+
+    /**
+     * @return the number of operations whose poll is due but not sent yet, waiting for a worker
+     *     or for a poll of their subscription to end
+     */
+    public int queueDepth() {
+        int depth = 0;
+        for (Operation<?> operation : due) {
+            if (operation.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+                depth++;
+            }
+        }
+        for (SubscriptionSlots slots : subscriptions.values()) {
+            synchronized (slots) {
+                depth += slots.waiting.size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of polls sent
+     */
+    public long pollCount() {
+        return pollCount.get();
+    }
+
+    /**
+     * @return the number of polls sent per second, over the last minute
+     */
+    public double pollRate() {
+        long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        long count = 0;
+        synchronized (pollSeconds) {
+            for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+                if (second - pollSeconds[i] < RATE_WINDOW_SECONDS) {
+                    count += pollCounts[i];
+                }
+            }
+        }
+        return (double) count / RATE_WINDOW_SECONDS;
+    }
+
+    /**
+     * @return the time since the oldest operation tracked was registered in milliseconds, 0 if none is tracked
+     */
+    public long oldestOperationAgeMillis() {
+        long now = System.currentTimeMillis();
+        long oldest = 0;
+        for (Operation<?> operation : operations.values()) {
+            oldest = Math.max(oldest, now - operation.registeredAt);
+        }
+        return oldest;
+    }
+
+    /**
+     * @return the average time since the operations tracked were registered in milliseconds, 0 if none is tracked
+     */
+    public long averageOperationAgeMillis() {
+        long now = System.currentTimeMillis();
+        long total = 0;
+        int count = 0;
+        for (Operation<?> operation : operations.values()) {
+            total += now - operation.registeredAt;
+            count++;
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Takes the operations due and polls them, until the tracker is shut down.
+     */
+    private void work() {
+        while (!shutdown) {
+            Operation<?> operation;
+            try {
+                operation = due.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            SubscriptionSlots slots = slots(operation.subscriptionId);
+            synchronized (slots) {
+                if (slots.inFlight >= maxInFlightPollsPerSubscription) {
+                    // Taken in due order, so the waiting queue stays in due order
+                    slots.waiting.add(operation);
+                    continue;
+                }
+                slots.inFlight++;
+            }
+            try {
+                poll(operation);
+            } finally {
+                synchronized (slots) {
+                    slots.inFlight--;
+                    Operation<?> next = slots.waiting.poll();
+                    if (next != null) {
+                        due.add(next);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Polls an operation once, then completes it or puts it back in the queue.
+     *
+     * @param operation the operation
+     * @param <T> the type of the resource
+     */
+    private <T> void poll(Operation<T> operation) {
+        recordPoll();
+        PollingState<T> state;
+        try {
+            state = client.pollSingleAsync(operation.pollingState, operation.resourceType).toBlocking().value();
+        } catch (RuntimeException e) {
+            if (operations.remove(operation.key, operation)) {
+                operation.result.onError(e.getCause() instanceof InterruptedException ? e.getCause() : e);
+            }
+            return;
+        }
+        if (state.isStatusTerminal()) {
+            if (operations.remove(operation.key, operation)) {
+                operation.result.onNext(state);
+                operation.result.onCompleted();
+            }
+            return;
+        }
+        if (shutdown) {
+            return;
+        }
+        operation.dueAt = System.currentTimeMillis() + state.delayInMilliseconds();
+        due.add(operation);
+    }
+
+    /**
+     * Counts a poll in the current second.
+     */
+    private void recordPoll() {
+        pollCount.incrementAndGet();
+        long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        int slot = (int) (second % RATE_WINDOW_SECONDS);
+        synchronized (pollSeconds) {
+            if (pollSeconds[slot] != second) {
+                pollSeconds[slot] = second;
+                pollCounts[slot] = 0;
+            }
+            pollCounts[slot]++;
+        }
+    }
+
+    /**
+     * Gets the polls in flight of a subscription, creating them on first use.
+     *
+     * @param subscriptionId the subscription ID
+     * @return the polls in flight
+     */
+    private SubscriptionSlots slots(String subscriptionId) {
+        SubscriptionSlots slots = subscriptions.get(subscriptionId);
+        if (slots == null) {
+            SubscriptionSlots created = new SubscriptionSlots();
+            slots = subscriptions.putIfAbsent(subscriptionId, created);
+            if (slots == null) {
+                slots = created;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Finds the subscription an operation belongs to from its polling URL.
+     *
+     * @param url the polling URL, may be null
+     * @return the subscription ID, or an empty string if the URL has none
+     */
+    static String subscriptionId(String url) {
+        if (url == null) {
+            return NO_SUBSCRIPTION;
+        }
+        String[] segments = url.split("[/?]");
+        for (int i = 0; i < segments.length - 1; i++) {
+            if ("subscriptions".equalsIgnoreCase(segments[i]) && !segments[i + 1].isEmpty()) {
+                return segments[i + 1].toLowerCase();
+            }
+        }
+        return NO_SUBSCRIPTION;
+    }
+
+    /**
+     * The polls in flight for a subscription, and its operations due while it was at its cap.
+     */
+    private static final class SubscriptionSlots {
+        /**
+         * The number of polls in flight, guarded by this.
+         */
+        private int inFlight;
+
+        /**
+         * The operations waiting for a poll to end, first due first, guarded by this.
+         */
+        private final Queue<Operation<?>> waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * A tracked operation.
+     *
+     * @param <T> the type of the resource
+     */
+    private static final class Operation<T> implements Delayed {
+        /**
+         * The polling URL and resource type of the operation.
+         */
+        private final String key;
+
+        /**
+         * The state of the operation, only accessed by the worker polling it.
+         */
+        private final PollingState<T> pollingState;
+
+        /**
+         * The java.lang.reflect.Type of the resource.
+         */
+        private final Type resourceType;
+
+        /**
+         * The subscription of the operation.
+         */
+        private final String subscriptionId;
+
+        /**
+         * The time the operation was registered, in milliseconds since the epoch.
+         */
+        private final long registeredAt = System.currentTimeMillis();
+
+        /**
+         * The time the next poll is due, in milliseconds since the epoch.
+         */
+        private volatile long dueAt = registeredAt;
+
+        /**
+         * Emits the terminal state to the registrations of the operation.
+         */
+        private final AsyncSubject<PollingState<T>> result = AsyncSubject.create();
+
+        Operation(String key, PollingState<T> pollingState, Type resourceType, String subscriptionId) {
+            this.key = key;
+            this.pollingState = pollingState;
+            this.resourceType = resourceType;
+            this.subscriptionId = subscriptionId;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long diff = dueAt - ((Operation<?>) other).dueAt;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+}
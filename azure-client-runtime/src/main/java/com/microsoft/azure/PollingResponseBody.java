@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.microsoft.rest.protocol.SerializerAdapter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * The body of a response received while polling a long running operation,
+ * read in a single pass. The status of an Azure-AsyncOperation body, the
+ * provisioning state of a resource and the error are picked up while the
+ * body is tokenized, and the tokens are kept so that the resource can be
+ * deserialized from them without parsing the body again, only when it is
+ * needed: the resource of a poll which is not terminal is discarded anyway.
+ *
+ * Serializer adapters not based on Jackson are supported by deserializing
+ * the body once for each part asked for.
+ */
+final class PollingResponseBody {
+    /**
+     * The adapter the body is deserialized with.
+     */
+    private final SerializerAdapter<?> serializerAdapter;
+
+    /**
+     * The content of the body.
+     */
+    private final byte[] content;
+
+    /**
+     * The Jackson mapper of the adapter, null if the adapter is not based on Jackson.
+     */
+    private final ObjectMapper mapper;
+
+    /**
+     * The tokens of the body, null if the adapter is not based on Jackson.
+     */
+    private TokenBuffer tokens;
+
+    /**
+     * The "status" property of the body.
+     */
+    private String status;
+
+    /**
+     * The "provisioningState" property of the "properties" of the body.
+     */
+    private String provisioningState;
+
+    /**
+     * The "error" property of the body.
+     */
+    private CloudError error;
+
+    /**
+     * Whether the body was parsed.
+     */
+    private boolean parsed;
+
+    private PollingResponseBody(SerializerAdapter<?> serializerAdapter, byte[] content) {
+        this.serializerAdapter = serializerAdapter;
+        this.content = content;
+        this.mapper = serializerAdapter.serializer() instanceof ObjectMapper
+                ? (ObjectMapper) serializerAdapter.serializer()
+                : null;
+    }
+
+    /**
+     * Reads the body of a polling response.
+     *
+     * @param serializerAdapter the adapter to deserialize the body with
+     * @param content the content of the body, not empty
+     * @return the body
+     * @throws IOException thrown if the body is not valid JSON
+     */
+    static PollingResponseBody parse(SerializerAdapter<?> serializerAdapter, byte[] content) throws IOException {
+        PollingResponseBody body = new PollingResponseBody(serializerAdapter, content);
+        if (body.mapper != null) {
+            body.tokenize();
+        }
+        return body;
+    }
+
+    /**
+     * @return the content of the body as a string
+     */
+    String contentAsString() {
+        return new String(content, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * @return the "status" property of an Azure-AsyncOperation body, null if absent
+     * @throws IOException thrown by deserialization
+     */
+    String status() throws IOException {
+        fallbackParse();
+        return status;
+    }
+
+    /**
+     * @return the provisioning state of a resource body, null if absent
+     * @throws IOException thrown by deserialization
+     */
+    String provisioningState() throws IOException {
+        fallbackParse();
+        return provisioningState;
+    }
+
+    /**
+     * @return the error of an Azure-AsyncOperation body, null if absent
+     * @throws IOException thrown by deserialization
+     */
+    CloudError error() throws IOException {
+        fallbackParse();
+        return error;
+    }
+
+    /**
+     * Deserializes the body as a resource.
+     *
+     * @param resourceType the java.lang.reflect.Type of the resource
+     * @param <T> the type of the resource
+     * @return the resource
+     * @throws IOException thrown by deserialization
+     */
+    <T> T resource(Type resourceType) throws IOException {
+        if (mapper == null) {
+            return serializerAdapter.deserialize(contentAsString(), resourceType);
+        }
+        JsonParser parser = tokens.asParser(mapper);
+        try {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            return mapper.readerFor(mapper.getTypeFactory().constructType(resourceType)).readValue(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Copies the tokens of the body, picking up the status, the provisioning state and the error on the way.
+     *
+     * @throws IOException thrown if the body is not valid JSON
+     */
+    private void tokenize() throws IOException {
+        JsonParser parser = mapper.getFactory().createParser(content);
+        try {
+            tokens = new TokenBuffer(parser);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                if (parser.currentToken() != null) {
+                    tokens.copyCurrentStructure(parser);
+                }
+                parsed = true;
+                return;
+            }
+            tokens.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                tokens.writeFieldName(name);
+                if ("status".equals(name) && value == JsonToken.VALUE_STRING) {
+                    status = parser.getText();
+                    tokens.copyCurrentEvent(parser);
+                } else if ("properties".equals(name) && value == JsonToken.START_OBJECT) {
+                    tokens.writeStartObject();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String property = parser.getCurrentName();
+                        if (parser.nextToken() == JsonToken.VALUE_STRING && "provisioningState".equals(property)) {
+                            provisioningState = parser.getText();
+                        }
+                        tokens.writeFieldName(property);
+                        tokens.copyCurrentStructure(parser);
+                    }
+                    tokens.writeEndObject();
+                } else if ("error".equals(name) && value == JsonToken.START_OBJECT) {
+                    TokenBuffer errorTokens = new TokenBuffer(parser);
+                    errorTokens.copyCurrentStructure(parser);
+                    errorTokens.serialize(tokens);
+                    JsonParser errorParser = errorTokens.asParser(mapper);
+                    try {
+                        errorParser.nextToken();
+                        error = mapper.readValue(errorParser, CloudError.class);
+                    } finally {
+                        errorParser.close();
+                    }
+                } else {
+                    tokens.copyCurrentStructure(parser);
+                }
+            }
+            tokens.writeEndObject();
+            parsed = true;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Deserializes the parts of the body with an adapter not based on Jackson, on first use.
+     *
+     * @throws IOException thrown by deserialization
+     */
+    private void fallbackParse() throws IOException {
+        if (parsed) {
+            return;
+        }
+        AzureAsyncOperation asyncOperation = serializerAdapter.deserialize(contentAsString(), AzureAsyncOperation.class);
+        if (asyncOperation != null) {
+            status = asyncOperation.status();
+            error = asyncOperation.getError();
+        }
+        PollingResource resource = serializerAdapter.deserialize(contentAsString(), PollingResource.class);
+        if (resource != null && resource.properties != null) {
+            provisioningState = resource.properties.provisioningState;
+        }
+        parsed = true;
+    }
+
+    /**
+     * An instance of this class describes the status of a long running operation
+     * and is returned from server each time.
+     */
+    private static class PollingResource {
+        /** Inner properties object. */
+        @JsonProperty(value = "properties")
+        private Properties properties;
+
+        /**
+         * Inner properties class.
+         */
+        private static class Properties {
+            /** The provisioning state of the resource. */
+            @JsonProperty(value = "provisioningState")
+            private String provisioningState;
+        }
+    }
+}
@@ -9,13 +9,14 @@ package com.microsoft.azure;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.protocol.StreamingSerializerAdapter;
 import com.microsoft.rest.serializer.Base64UrlSerializer;
 import com.microsoft.rest.serializer.ByteArraySerializer;
 import com.microsoft.rest.serializer.DateTimeRfc1123Serializer;
@@ -26,6 +27,8 @@ import retrofit2.Response;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * An instance of this class defines polling status of a long running operation.
@@ -53,6 +56,14 @@ public class PollingState<T> {
     private String loggingContext;
     /** indicate how to retrieve the final state of LRO. **/
     private LongRunningFinalState finalStateVia;
+    /** The number of polls sent. **/
+    private int pollCount;
+    /** The time the operation started, in milliseconds since the epoch. **/
+    private long startedAt;
+    /** The HTTP method and the resource type of the operation. **/
+    private String operationType;
+    /** The ID of the operation in the polling state store. **/
+    private String operationId;
 
     // Non-serializable properties
     //
@@ -62,6 +73,12 @@ public class PollingState<T> {
     /** The statusCode that is used when no statusCode has been set. */
     @JsonIgnore
     private static final int DEFAULT_STATUS_CODE = 0;
+    /** The object mapper for polling states in json format, shared since it is costly to create. */
+    @JsonIgnore
+    private static final ObjectMapper MAPPER = initMapper(new ObjectMapper());
+    /** The reader for polling states in json format. */
+    @JsonIgnore
+    private static final ObjectReader READER = MAPPER.readerFor(PollingState.class);
     /** The Retrofit response object. */
     @JsonIgnore
     private Response<ResponseBody> response;
@@ -77,6 +94,15 @@ public class PollingState<T> {
     /** The adapter for a custom serializer. */
     @JsonIgnore
     private SerializerAdapter<?> serializerAdapter;
+    /** The policy computing the delay between two polls, null to use the retry timeouts. */
+    @JsonIgnore
+    private LongRunningOperationPollingPolicy pollingPolicy;
+    /** Whether the polling policy was told the operation reached a terminal state. */
+    @JsonIgnore
+    private boolean terminalStateReported;
+    /** The status and polling URLs of the state last saved in the polling state store. */
+    @JsonIgnore
+    private String checkpoint;
 
     /**
      * Default constructor.
@@ -105,21 +131,25 @@ public class PollingState<T> {
         pollingState.serializerAdapter = serializerAdapter;
         pollingState.loggingContext = response.raw().request().header(LOGGING_HEADER);
         pollingState.finalStateVia = lroOptions.finalStateVia();
+        pollingState.pollingPolicy = lroOptions.pollingPolicy();
+        pollingState.startedAt = System.currentTimeMillis();
+        pollingState.operationType = operationType(response.raw().request());
+        pollingState.operationId = UUID.randomUUID().toString();
 
-        String responseContent = null;
-        PollingResource resource = null;
+        byte[] responseContent = null;
+        String provisioningState = null;
         if (response.body() != null) {
-            responseContent = response.body().string();
-            response.body().close();
+            responseContent = response.body().bytes();
         }
-        if (responseContent != null && !responseContent.isEmpty()) {
-            pollingState.resource = serializerAdapter.deserialize(responseContent, resourceType);
-            resource = serializerAdapter.deserialize(responseContent, PollingResource.class);
+        if (responseContent != null && responseContent.length > 0) {
+            PollingResponseBody body = PollingResponseBody.parse(serializerAdapter, responseContent);
+            // Kept even when the operation is in progress, callers of the begin methods may read it
+            pollingState.resource = body.resource(resourceType);
+            provisioningState = body.provisioningState();
         }
         final int statusCode = pollingState.response.code();
-        if (resource != null && resource.properties != null
-                && resource.properties.provisioningState != null) {
-            pollingState.withStatus(resource.properties.provisioningState, statusCode);
+        if (provisioningState != null) {
+            pollingState.withStatus(provisioningState, statusCode);
         } else {
             switch (statusCode) {
                 case 202:
@@ -145,10 +175,9 @@ public class PollingState<T> {
      * @return the polling state
      */
     public static <ResultT> PollingState<ResultT> createFromJSONString(String serializedPollingState) {
-        ObjectMapper mapper = initMapper(new ObjectMapper());
         PollingState<ResultT> pollingState;
         try {
-            pollingState = mapper.readValue(serializedPollingState, PollingState.class);
+            pollingState = READER.readValue(serializedPollingState);
         } catch (IOException exception) {
             throw new RuntimeException(exception);
         }
@@ -176,6 +205,11 @@ public class PollingState<T> {
         pollingState.retryTimeout = other.retryTimeout;
         pollingState.loggingContext = other.loggingContext;
         pollingState.finalStateVia = other.finalStateVia;
+        pollingState.pollCount = other.pollCount;
+        pollingState.startedAt = other.startedAt;
+        pollingState.operationType = other.operationType;
+        pollingState.pollingPolicy = other.pollingPolicy;
+        pollingState.operationId = other.operationId;
         return pollingState;
     }
 
@@ -183,9 +217,8 @@ public class PollingState<T> {
      * @return the polling state in json string format
      */
     public String serialize() {
-        ObjectMapper mapper = initMapper(new ObjectMapper());
         try {
-            return mapper.writeValueAsString(this);
+            return MAPPER.writeValueAsString(this);
         } catch (JsonProcessingException exception) {
             throw new RuntimeException(exception);
         }
@@ -259,20 +292,19 @@ public class PollingState<T> {
      * @throws IOException thrown by deserialization
      */
     void updateFromResponseOnPutPatch(Response<ResponseBody> response) throws CloudException, IOException {
-        String responseContent = null;
+        byte[] responseContent = null;
         if (response.body() != null) {
-            responseContent = response.body().string();
-            response.body().close();
+            responseContent = response.body().bytes();
         }
 
-        if (responseContent == null || responseContent.isEmpty()) {
+        if (responseContent == null || responseContent.length == 0) {
             throw new CloudException("polling response does not contain a valid body", response);
         }
 
-        PollingResource resource = serializerAdapter.deserialize(responseContent, PollingResource.class);
+        PollingResponseBody body = PollingResponseBody.parse(serializerAdapter, responseContent);
         final int statusCode = response.code();
-        if (resource != null && resource.properties != null && resource.properties.provisioningState != null) {
-            this.withStatus(resource.properties.provisioningState, statusCode);
+        if (body.provisioningState() != null) {
+            this.withStatus(body.provisioningState(), statusCode);
         } else {
             this.withStatus(AzureAsyncOperation.SUCCESS_STATUS, statusCode);
         }
@@ -282,7 +314,8 @@ public class PollingState<T> {
         error.withCode(this.status());
         error.withMessage("Long running operation failed");
         this.withResponse(response);
-        this.withResource(serializerAdapter.<T>deserialize(responseContent, resourceType));
+        // The resource of an operation in progress is replaced by the next poll
+        this.withResource(this.isStatusTerminal() ? body.<T>resource(resourceType) : null);
     }
 
     /**
@@ -294,21 +327,95 @@ public class PollingState<T> {
 
     void updateFromResponseOnDeletePost(Response<ResponseBody> response) throws IOException {
         this.withResponse(response);
-        String responseContent = null;
+        T resource = null;
         if (response.body() != null) {
-            responseContent = response.body().string();
-            response.body().close();
+            try {
+                if (serializerAdapter instanceof StreamingSerializerAdapter) {
+                    resource = ((StreamingSerializerAdapter<?>) serializerAdapter).deserialize(response.body().byteStream(), resourceType);
+                } else {
+                    resource = serializerAdapter.deserialize(response.body().string(), resourceType);
+                }
+            } finally {
+                response.body().close();
+            }
         }
-        this.withResource(serializerAdapter.<T>deserialize(responseContent, resourceType));
+        this.withResource(resource);
         withStatus(AzureAsyncOperation.SUCCESS_STATUS, response.code());
     }
 
+    /**
+     * @return the number of polls sent for the operation
+     */
+    public int pollCount() {
+        return this.pollCount;
+    }
+
+    /**
+     * @return the time since the operation started, in milliseconds
+     */
+    public long elapsedMillis() {
+        return System.currentTimeMillis() - this.startedAt;
+    }
+
+    /**
+     * Gets the type of the operation, made of the HTTP method starting it and of the type of the
+     * resource it applies to, e.g. "PUT Microsoft.Compute/virtualMachines".
+     *
+     * @return the operation type
+     */
+    public String operationType() {
+        return this.operationType;
+    }
+
+    /**
+     * @return the ID identifying the operation in a {@link PollingStateStore}
+     */
+    public String operationId() {
+        return this.operationId;
+    }
+
+    /**
+     * @return the delay the service asked for in the Retry-After header of the last response in milliseconds, -1 if none
+     */
+    public int retryAfterInMilliseconds() {
+        return this.retryTimeout;
+    }
+
+    /**
+     * Counts a poll of the operation, and reports the terminal state to the polling policy.
+     */
+    void recordPoll() {
+        this.pollCount++;
+        if (this.pollingPolicy != null && !this.terminalStateReported && this.isStatusTerminal()) {
+            this.terminalStateReported = true;
+            this.pollingPolicy.onTerminalState(this);
+        }
+    }
+
+    /**
+     * Tells whether the status or the polling URLs changed since the last call, so that the
+     * state must be saved again.
+     *
+     * @return true if the state changed
+     */
+    boolean changedSinceCheckpoint() {
+        String current = this.status + "\n" + this.azureAsyncOperationHeaderLink + "\n" + this.locationHeaderLink;
+        if (current.equals(this.checkpoint)) {
+            return false;
+        }
+        this.checkpoint = current;
+        return true;
+    }
+
     /**
      * Gets long running operation delay in milliseconds.
      *
      * @return the delay in milliseconds.
      */
     int delayInMilliseconds() {
+        if (this.pollingPolicy != null) {
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, this.pollingPolicy.delayInMilliseconds(this)));
+        }
         if (this.retryTimeout >= 0) {
             return this.retryTimeout;
         }
@@ -545,6 +652,31 @@ public class PollingState<T> {
         }
     }
 
+    /**
+     * Builds the type of an operation from the request starting it.
+     *
+     * @param request the request starting the operation
+     * @return the HTTP method followed by the resource provider and the resource types in the URL
+     */
+    static String operationType(okhttp3.Request request) {
+        StringBuilder type = new StringBuilder(request.method());
+        List<String> segments = request.url().pathSegments();
+        int providers = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            if ("providers".equalsIgnoreCase(segments.get(i))) {
+                providers = i;
+            }
+        }
+        if (providers >= 0 && providers + 1 < segments.size()) {
+            type.append(' ').append(segments.get(providers + 1));
+            // The types and names of the resources alternate after the provider
+            for (int i = providers + 2; i < segments.size(); i += 2) {
+                type.append('/').append(segments.get(i));
+            }
+        }
+        return type.toString();
+    }
+
     /**
      * Initializes an object mapper.
      *
@@ -571,23 +703,4 @@ public class PollingState<T> {
                 .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE));
         return mapper;
     }
-
-    /**
-     * An instance of this class describes the status of a long running operation
-     * and is returned from server each time.
-     */
-    private static class PollingResource {
-        /** Inner properties object. */
-        @JsonProperty(value = "properties")
-        private Properties properties;
-
-        /**
-         * Inner properties class.
-         */
-        private static class Properties {
-            /** The provisioning state of the resource. */
-            @JsonProperty(value = "provisioningState")
-            private String provisioningState;
-        }
-    }
 }
\ No newline at end of file
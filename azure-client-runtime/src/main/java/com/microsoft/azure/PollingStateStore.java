@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import java.util.Map;
+
+/**
+ * Persists the polling states of the long running operations in progress, so
+ * that they can be resumed after the process restarts. {@link AzureClient}
+ * saves the state of an operation when it starts and whenever its status or
+ * polling URLs change, and removes it once the operation is over.
+ *
+ * The methods are called from the threads polling the operations, so they
+ * must be thread safe and should not block on I/O.
+ */
+public interface PollingStateStore {
+    /**
+     * Saves the state of an operation, replacing the previous one.
+     *
+     * @param operationId the ID of the operation, as in {@link PollingState#operationId()}
+     * @param pollingState the polling state, as serialized by {@link PollingState#serialize()}
+     */
+    void save(String operationId, String pollingState);
+
+    /**
+     * Removes the state of an operation which is over.
+     *
+     * @param operationId the ID of the operation
+     */
+    void remove(String operationId);
+
+    /**
+     * @return the serialized states of the operations saved and not removed, by operation ID
+     */
+    Map<String, String> pendingOperations();
+}
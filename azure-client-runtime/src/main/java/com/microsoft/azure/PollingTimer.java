@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import rx.Emitter;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Cancellable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed wheel timer scheduling the delays between the polls of long running
+ * operations. A single daemon thread advances the wheel one tick at a time and
+ * fires the delays of the bucket it reaches, so waiting operations hold no
+ * thread and scheduling or canceling a delay costs constant time. The thread
+ * sleeps while no delay is pending.
+ */
+final class PollingTimer {
+    /**
+     * The timer shared by all the Azure clients.
+     */
+    static final PollingTimer SHARED = new PollingTimer(10, TimeUnit.MILLISECONDS, 512);
+
+    /**
+     * The duration of a tick, in nanoseconds.
+     */
+    private final long tickNanos;
+
+    /**
+     * The buckets of the wheel, only accessed by the worker thread.
+     */
+    private final Queue<Timeout>[] wheel;
+
+    /**
+     * The delays scheduled since the last tick, waiting to be put in their bucket.
+     */
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of delays scheduled and not fired or canceled yet.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * The time the wheel started, in nanoseconds.
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * The number of ticks the wheel has advanced, only accessed by the worker thread.
+     */
+    private long tick;
+
+    /**
+     * Creates a timer and starts its thread.
+     *
+     * @param tickDuration the duration of a tick
+     * @param unit the time unit of the tick duration
+     * @param wheelSize the number of buckets of the wheel, a power of 2
+     */
+    @SuppressWarnings("unchecked")
+    PollingTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("The wheel size must be a power of 2.");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Queue[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "azure-polling-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return the number of delays scheduled and not fired or canceled yet
+     */
+    int pendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Creates an observable emitting 0 after a delay, on the timer thread. Unsubscribing
+     * before the delay is over cancels it.
+     *
+     * @param delayInMilliseconds the delay in milliseconds
+     * @return the observable
+     */
+    Observable<Long> delay(final long delayInMilliseconds) {
+        if (delayInMilliseconds <= 0) {
+            return Observable.just(0L);
+        }
+        return Observable.create(new Action1<Emitter<Long>>() {
+            @Override
+            public void call(final Emitter<Long> emitter) {
+                final Timeout timeout = schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        emitter.onNext(0L);
+                        emitter.onCompleted();
+                    }
+                }, delayInMilliseconds, TimeUnit.MILLISECONDS);
+                emitter.setCancellation(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        timeout.cancel();
+                    }
+                });
+            }
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    /**
+     * Schedules a task to run on the timer thread after a delay. The task must not block.
+     *
+     * @param task the task
+     * @param delay the delay
+     * @param unit the time unit of the delay
+     * @return the handle to cancel the task
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(delay));
+        added.add(timeout);
+        if (pending.getAndIncrement() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Advances the wheel forever, sleeping while no delay is pending.
+     */
+    private void work() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    if (pending.get() == 0) {
+                        while (pending.get() == 0) {
+                            wait();
+                        }
+                        // Only canceled delays are left in the wheel, skip the ticks spent idle
+                        tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos - 1);
+                    }
+                }
+                long sleepNanos = (tick + 1) * tickNanos - (System.nanoTime() - startNanos);
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+            } catch (InterruptedException e) {
+                // The daemon thread is never interrupted on purpose, keep ticking
+            }
+            long now = System.nanoTime() - startNanos;
+            // Process every tick elapsed, in case the thread woke up late
+            while ((tick + 1) * tickNanos <= now) {
+                tick++;
+                transferAdded();
+                expire(wheel[(int) (tick & (wheel.length - 1))], now);
+            }
+        }
+    }
+
+    /**
+     * Puts the delays scheduled since the last tick in their bucket.
+     */
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state.get() == Timeout.CANCELED) {
+                continue;
+            }
+            // Rounded up, so that the deadline is over when the wheel reaches the bucket
+            long dueTick = Math.max((timeout.deadlineNanos + tickNanos - 1) / tickNanos, tick);
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            wheel[(int) (dueTick & (wheel.length - 1))].add(timeout);
+        }
+    }
+
+    /**
+     * Fires the due delays of a bucket and drops the canceled ones.
+     *
+     * @param bucket the bucket reached by the wheel
+     * @param now the current time relative to the start of the wheel, in nanoseconds
+     */
+    private void expire(Queue<Timeout> bucket, long now) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.state.get() == Timeout.CANCELED) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0 && timeout.deadlineNanos <= now) {
+                iterator.remove();
+                timeout.expire();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * A delay scheduled on the timer.
+     */
+    final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELED = 1;
+        private static final int EXPIRED = 2;
+
+        /**
+         * The task to run when the delay is over.
+         */
+        private final Runnable task;
+
+        /**
+         * The time the delay is over, relative to the start of the wheel, in nanoseconds.
+         */
+        private final long deadlineNanos;
+
+        /**
+         * The number of turns of the wheel left before the delay is over, only accessed by the worker thread.
+         */
+        private long remainingRounds;
+
+        /**
+         * Whether the delay is waiting, canceled or over.
+         */
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancels the delay, unless it is already over.
+         *
+         * @return true if the delay was canceled
+         */
+        boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELED)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Runs the task of the delay, unless it was canceled.
+         */
+        private void expire() {
+            if (!state.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            }
+            pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // A failing task must not stop the wheel
+            }
+        }
+    }
+}
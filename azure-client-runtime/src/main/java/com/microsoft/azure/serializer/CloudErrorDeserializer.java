@@ -6,14 +6,14 @@
 
 package com.microsoft.azure.serializer;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.microsoft.azure.CloudError;
 
 import java.io.IOException;
@@ -50,16 +50,38 @@ final class CloudErrorDeserializer extends JsonDeserializer<CloudError> {
 
     @Override
     public CloudError deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-        JsonNode errorNode = p.readValueAsTree();
-        if (errorNode == null) {
-            return null;
+        JsonToken token = p.getCurrentToken();
+        if (token != JsonToken.START_OBJECT && token != JsonToken.FIELD_NAME) {
+            return mapper.readValue(p, CloudError.class);
         }
-        if (errorNode.get("error") != null) {
-            errorNode = errorNode.get("error");
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
         }
-        
-        JsonParser parser = new JsonFactory().createParser(errorNode.toString());
-        parser.setCodec(mapper);
-        return parser.readValueAs(CloudError.class);
+        // The error is either wrapped in an "error" property or is the object itself.
+        // Buffer the fields until an "error" property shows up, then read it in place.
+        TokenBuffer buffer = new TokenBuffer(p, ctxt);
+        buffer.writeStartObject();
+        boolean wrapped = false;
+        CloudError cloudError = null;
+        for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            String fieldName = p.getCurrentName();
+            p.nextToken();
+            if ("error".equals(fieldName)) {
+                wrapped = true;
+                cloudError = mapper.readValue(p, CloudError.class);
+            } else if (wrapped) {
+                p.skipChildren();
+            } else {
+                buffer.writeFieldName(fieldName);
+                buffer.copyCurrentStructure(p);
+            }
+        }
+        if (wrapped) {
+            return cloudError;
+        }
+        buffer.writeEndObject();
+        JsonParser parser = buffer.asParser(mapper);
+        parser.nextToken();
+        return mapper.readValue(parser, CloudError.class);
     }
 }
\ No newline at end of file
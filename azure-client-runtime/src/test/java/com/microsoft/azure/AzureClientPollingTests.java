@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import com.microsoft.rest.RestClient;
+import com.microsoft.rest.ServiceResponse;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import retrofit2.Response;
+import rx.Observable;
+import rx.Subscriber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AzureClientPollingTests {
+    private static final int OPERATIONS = 100;
+
+    @Test
+    public void noThreadIsHeldBetweenPolls() throws Exception {
+        PollingServer server = new PollingServer();
+        RestClient restClient = new RestClient.Builder()
+                .withBaseUrl("https://management.azure.com/")
+                .withSerializerAdapter(new AzureJacksonAdapter())
+                .withResponseBuilderFactory(new AzureResponseBuilder.Factory())
+                .withInterceptor(server)
+                .build();
+        AzureClient client = new AzureClient(new AzureServiceClient(restClient) { });
+
+        List<Observable<ServiceResponse<Map<String, Object>>>> operations = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            operations.add(client.<Map<String, Object>>getPutOrPatchResultAsync(Observable.just(initialResponse("vm" + i)), Map.class));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger succeeded = new AtomicInteger();
+        Observable.merge(operations).subscribe(new Subscriber<ServiceResponse<Map<String, Object>>>() {
+            @Override
+            public void onCompleted() {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                done.countDown();
+            }
+
+            @Override
+            public void onNext(ServiceResponse<Map<String, Object>> response) {
+                if ("Succeeded".equals(((Map<?, ?>) response.body().get("properties")).get("provisioningState"))) {
+                    succeeded.incrementAndGet();
+                }
+            }
+        });
+
+        // Every operation has been polled once and waits 1 second for the next poll
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.polls.get() < OPERATIONS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        Assert.assertEquals(OPERATIONS, PollingTimer.SHARED.pendingCount());
+        for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+            for (StackTraceElement frame : thread.getValue()) {
+                Assert.assertFalse(thread.getKey().getName() + " waits in a poll",
+                        frame.getClassName().equals(AzureClient.class.getName())
+                                || frame.getClassName().startsWith(AzureClient.class.getName() + "$"));
+            }
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(OPERATIONS, succeeded.get());
+        Assert.assertEquals(0, PollingTimer.SHARED.pendingCount());
+    }
+
+    private static Response<ResponseBody> initialResponse(String name) {
+        Request request = new Request.Builder()
+                .url("https://management.azure.com/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/" + name)
+                .put(RequestBody.create(MediaType.parse("application/json"), "{}"))
+                .build();
+        okhttp3.Response raw = new okhttp3.Response.Builder()
+                .request(request)
+                .code(201)
+                .message("Created")
+                .protocol(Protocol.HTTP_1_1)
+                .header("Azure-AsyncOperation", "https://management.azure.com/operations/" + name)
+                .build();
+        return Response.success(ResponseBody.create(MediaType.parse("application/json"),
+                "{\"name\":\"" + name + "\",\"properties\":{\"provisioningState\":\"Creating\"}}"), raw);
+    }
+
+    /**
+     * Answers each operation as in progress on the first poll, with a 1 second Retry-After,
+     * and as succeeded on the second one.
+     */
+    private static class PollingServer implements Interceptor {
+        private final Map<String, AtomicInteger> operations = new ConcurrentHashMap<>();
+        private final AtomicInteger polls = new AtomicInteger();
+
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            List<String> segments = request.url().pathSegments();
+            String name = segments.get(segments.size() - 1);
+            okhttp3.Response.Builder response = new okhttp3.Response.Builder()
+                    .request(request)
+                    .code(200)
+                    .message("OK")
+                    .protocol(Protocol.HTTP_1_1);
+            if (segments.get(0).equals("operations")) {
+                AtomicInteger count = operations.get(name);
+                if (count == null) {
+                    operations.putIfAbsent(name, new AtomicInteger());
+                    count = operations.get(name);
+                }
+                polls.incrementAndGet();
+                String status = count.incrementAndGet() == 1 ? "InProgress" : "Succeeded";
+                return response
+                        .header("Retry-After", "1")
+                        .body(ResponseBody.create(MediaType.parse("application/json"), "{\"status\":\"" + status + "\"}"))
+                        .build();
+            }
+            return response
+                    .body(ResponseBody.create(MediaType.parse("application/json"),
+                            "{\"name\":\"" + name + "\",\"properties\":{\"provisioningState\":\"Succeeded\"}}"))
+                    .build();
+        }
+    }
+}
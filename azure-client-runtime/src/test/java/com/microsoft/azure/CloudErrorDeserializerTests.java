@@ -171,4 +171,38 @@ public class CloudErrorDeserializerTests {
         Assert.assertEquals("Allowed locations", policyViolation.policyErrorInfo().getPolicyDefinitionDisplayName());
         Assert.assertEquals("westus", policyViolation.policyErrorInfo().getPolicyAssignmentParameters().get("listOfAllowedLocations").getValue().elements().next().asText());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void cloudErrorWithoutWrapperDeserialization() throws Exception {
+        SerializerAdapter<ObjectMapper> serializerAdapter = new AzureJacksonAdapter();
+        String bodyString =
+            "{" +
+            "    \"code\": \"ResourceNotFound\"," +
+            "    \"message\": \"The resource was not found.\"," +
+            "    \"details\": [{ \"code\": \"NotFound\" }]" +
+            "}";
+
+        CloudError cloudError = serializerAdapter.deserialize(bodyString, CloudError.class);
+
+        Assert.assertEquals("ResourceNotFound", cloudError.code());
+        Assert.assertEquals("The resource was not found.", cloudError.message());
+        Assert.assertEquals(1, cloudError.details().size());
+        Assert.assertEquals("NotFound", cloudError.details().get(0).code());
+    }
+
+    @Test
+    public void cloudErrorWithTrailingFieldsDeserialization() throws Exception {
+        SerializerAdapter<ObjectMapper> serializerAdapter = new AzureJacksonAdapter();
+        String bodyString =
+            "{" +
+            "    \"status\": \"Failed\"," +
+            "    \"error\": { \"code\": \"Conflict\", \"message\": \"Busy\" }," +
+            "    \"startTime\": \"2018-01-01T00:00:00Z\"" +
+            "}";
+
+        CloudError cloudError = serializerAdapter.deserialize(bodyString, CloudError.class);
+
+        Assert.assertEquals("Conflict", cloudError.code());
+        Assert.assertEquals("Busy", cloudError.message());
+    }
+}
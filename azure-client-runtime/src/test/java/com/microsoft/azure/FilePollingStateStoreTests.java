@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import com.microsoft.rest.RestClient;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import retrofit2.Response;
+import rx.Observable;
+import rx.functions.Func1;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FilePollingStateStoreTests {
+    @Test
+    public void reloadsThePendingOperations() throws Exception {
+        File journal = File.createTempFile("polling", ".journal");
+        try {
+            FilePollingStateStore store = new FilePollingStateStore(journal);
+            store.save("a", "{\"status\":\"InProgress\"}");
+            store.save("b", "{\"status\":\"InProgress\"}");
+            store.save("a", "{\"status\":\"Creating\"}");
+            store.save("c", "{\"status\":\"InProgress\"}");
+            store.remove("b");
+            store.close();
+            // A line cut short by a crash
+            FileOutputStream out = new FileOutputStream(journal, true);
+            out.write("S\td".getBytes(Charset.forName("UTF-8")));
+            out.close();
+
+            store = new FilePollingStateStore(journal);
+            Map<String, String> pending = store.pendingOperations();
+            store.close();
+
+            Assert.assertEquals(2, pending.size());
+            Assert.assertEquals("{\"status\":\"Creating\"}", pending.get("a"));
+            Assert.assertEquals("{\"status\":\"InProgress\"}", pending.get("c"));
+            // Rewritten with the pending operations only
+            Assert.assertEquals(2, Files.readAllLines(journal.toPath(), Charset.forName("UTF-8")).size());
+        } finally {
+            Assert.assertTrue(journal.delete());
+        }
+    }
+
+    @Test
+    public void ignoresALineCutMidJson() throws Exception {
+        File journal = File.createTempFile("polling", ".journal");
+        try {
+            FilePollingStateStore store = new FilePollingStateStore(journal);
+            store.save("a", "{\"status\":\"Creating\"}");
+            store.close();
+            // A crash while appending a new state of the same operation, after its fields were written
+            FileOutputStream out = new FileOutputStream(journal, true);
+            out.write("S\ta\t{\"stat".getBytes(Charset.forName("UTF-8")));
+            out.close();
+
+            store = new FilePollingStateStore(journal);
+            Assert.assertEquals("{\"status\":\"Creating\"}", store.pendingOperations().get("a"));
+            store.close();
+            // The compacted journal keeps the last complete state
+            store = new FilePollingStateStore(journal);
+            Assert.assertEquals("{\"status\":\"Creating\"}", store.pendingOperations().get("a"));
+            store.close();
+            Assert.assertEquals(1, Files.readAllLines(journal.toPath(), Charset.forName("UTF-8")).size());
+        } finally {
+            Assert.assertTrue(journal.delete());
+        }
+    }
+
+    @Test
+    public void batchesTheWritesOfConcurrentOperations() throws Exception {
+        File journal = File.createTempFile("polling", ".journal");
+        try {
+            final FilePollingStateStore store = new FilePollingStateStore(journal, 20, TimeUnit.MILLISECONDS);
+            final CountDownLatch done = new CountDownLatch(8);
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 250; i++) {
+                            store.save(thread + "-" + i, "{\"status\":\"InProgress\"}");
+                            if (i % 2 == 0) {
+                                store.remove(thread + "-" + i);
+                            }
+                        }
+                        done.countDown();
+                    }
+                }).start();
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            store.flush();
+
+            Assert.assertEquals(3000, store.lineCount());
+            Assert.assertTrue("Written in " + store.batchCount() + " batches", store.batchCount() < 100);
+            Assert.assertEquals(1000, store.pendingOperations().size());
+            store.close();
+        } finally {
+            Assert.assertTrue(journal.delete());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void writesTheBatchWhenTheWriterIsInterrupted() throws Exception {
+        File journal = File.createTempFile("polling", ".journal");
+        try {
+            FilePollingStateStore store = new FilePollingStateStore(journal, 1, TimeUnit.MINUTES);
+            store.save("a", "{\"status\":\"InProgress\"}");
+            Thread writer = null;
+            while (writer == null) {
+                for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                    if (thread.getName().equals("azure-polling-state-journal")
+                            && thread.getState() == Thread.State.TIMED_WAITING) {
+                        writer = thread;
+                    }
+                }
+                Thread.sleep(5);
+            }
+            // Interrupted while gathering the lines of a batch
+            writer.interrupt();
+            store.flush();
+
+            Assert.assertEquals(1, store.lineCount());
+            store.close();
+            store = new FilePollingStateStore(journal);
+            Assert.assertEquals("{\"status\":\"InProgress\"}", store.pendingOperations().get("a"));
+            store.close();
+        } finally {
+            Assert.assertTrue(journal.delete());
+        }
+    }
+
+    @Test
+    public void resumesTheOperationsInProgressAfterARestart() throws Exception {
+        File journal = File.createTempFile("polling", ".journal");
+        try {
+            PollingServer server = new PollingServer();
+            AzureClient client = client(server);
+            FilePollingStateStore store = new FilePollingStateStore(journal);
+            client.setPollingStateStore(store);
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                PollingState<Map<String, Object>> state = client.<Map<String, Object>>beginPutOrPatchAsync(
+                        Observable.just(initialResponse("vm" + i)), Map.class).toBlocking().value();
+                ids.add(state.operationId());
+            }
+            // The process stops before polling
+            store.close();
+
+            store = new FilePollingStateStore(journal);
+            Assert.assertTrue(store.pendingOperations().keySet().containsAll(ids));
+            client = client(server);
+            client.setPollingStateStore(store);
+            List<PollingState<Object>> resumed = client.resumePendingOperationsAsync(new Func1<PollingState<Object>, Type>() {
+                @Override
+                public Type call(PollingState<Object> pollingState) {
+                    Assert.assertEquals("PUT Microsoft.Compute/virtualMachines", pollingState.operationType());
+                    return Map.class;
+                }
+            }).toList().timeout(10, TimeUnit.SECONDS).toBlocking().single();
+
+            Assert.assertEquals(3, resumed.size());
+            for (PollingState<Object> state : resumed) {
+                Assert.assertEquals("Succeeded", state.status());
+                Assert.assertNotNull(state.resource());
+            }
+            Assert.assertEquals(6, server.polls.get());
+            Assert.assertTrue(store.pendingOperations().isEmpty());
+            store.close();
+            store = new FilePollingStateStore(journal);
+            Assert.assertTrue(store.pendingOperations().isEmpty());
+            store.close();
+        } finally {
+            Assert.assertTrue(journal.delete());
+        }
+    }
+
+    private static AzureClient client(Interceptor server) {
+        RestClient restClient = new RestClient.Builder()
+                .withBaseUrl("https://management.azure.com/")
+                .withSerializerAdapter(new AzureJacksonAdapter())
+                .withResponseBuilderFactory(new AzureResponseBuilder.Factory())
+                .withInterceptor(server)
+                .build();
+        return new AzureClient(new AzureServiceClient(restClient) { });
+    }
+
+    private static Response<ResponseBody> initialResponse(String name) {
+        Request request = new Request.Builder()
+                .url("https://management.azure.com/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/" + name)
+                .put(RequestBody.create(MediaType.parse("application/json"), "{}"))
+                .build();
+        okhttp3.Response raw = new okhttp3.Response.Builder()
+                .request(request)
+                .code(201)
+                .message("Created")
+                .protocol(Protocol.HTTP_1_1)
+                .header("Azure-AsyncOperation", "https://management.azure.com/operations/" + name)
+                .build();
+        return Response.success(ResponseBody.create(MediaType.parse("application/json"),
+                "{\"name\":\"" + name + "\",\"properties\":{\"provisioningState\":\"Creating\"}}"), raw);
+    }
+
+    /**
+     * Answers each operation as in progress on the first poll and as succeeded on the second one.
+     */
+    private static class PollingServer implements Interceptor {
+        private final Map<String, AtomicInteger> operations = new ConcurrentHashMap<>();
+        private final AtomicInteger polls = new AtomicInteger();
+
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            List<String> segments = request.url().pathSegments();
+            String name = segments.get(segments.size() - 1);
+            okhttp3.Response.Builder response = new okhttp3.Response.Builder()
+                    .request(request)
+                    .code(200)
+                    .message("OK")
+                    .protocol(Protocol.HTTP_1_1);
+            if (segments.get(0).equals("operations")) {
+                operations.putIfAbsent(name, new AtomicInteger());
+                polls.incrementAndGet();
+                String status = operations.get(name).incrementAndGet() == 1 ? "InProgress" : "Succeeded";
+                return response
+                        .header("Retry-After", "0")
+                        .body(ResponseBody.create(MediaType.parse("application/json"), "{\"status\":\"" + status + "\"}"))
+                        .build();
+            }
+            return response
+                    .body(ResponseBody.create(MediaType.parse("application/json"),
+                            "{\"name\":\"" + name + "\",\"properties\":{\"provisioningState\":\"Succeeded\"}}"))
+                    .build();
+        }
+    }
+}
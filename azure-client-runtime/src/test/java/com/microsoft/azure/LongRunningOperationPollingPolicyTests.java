@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import com.microsoft.rest.RestClient;
+import com.microsoft.rest.ServiceResponse;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import retrofit2.Response;
+import rx.Observable;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LongRunningOperationPollingPolicyTests {
+    private static final String VM_PUT = "PUT Microsoft.Compute/virtualMachines";
+
+    @Test
+    public void exponentialDoublesTheDelayUpToTheMaximum() {
+        LongRunningOperationPollingPolicy policy = LongRunningOperationPollingPolicy.exponential(1, 10, TimeUnit.SECONDS);
+        PollingState<Object> state = state(0, -1, 0);
+        long[] expected = {1000, 2000, 4000, 8000, 10000, 10000};
+        for (long delay : expected) {
+            state.recordPoll();
+            Assert.assertEquals(delay, policy.delayInMilliseconds(state));
+        }
+    }
+
+    @Test
+    public void retryAfterFirstFallsBackWithoutRetryAfter() {
+        LongRunningOperationPollingPolicy policy = LongRunningOperationPollingPolicy.retryAfterFirst(
+                LongRunningOperationPollingPolicy.exponential(1, 10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(5000, policy.delayInMilliseconds(state(1, 5000, 0)));
+        Assert.assertEquals(4000, policy.delayInMilliseconds(state(3, -1, 0)));
+    }
+
+    @Test
+    public void historyBasedPollsDenselyNearTheExpectedEnd() {
+        LongRunningOperationPollingPolicy.HistoryBased policy = LongRunningOperationPollingPolicy
+                .historyBased(5, 120, TimeUnit.SECONDS)
+                .withObservedDuration(VM_PUT, TimeUnit.MINUTES.toMillis(10));
+
+        // Sparse at the start, denser as the end nears, backing off past it
+        Assert.assertEquals(120000, policy.delayInMilliseconds(state(1, -1, TimeUnit.MINUTES.toMillis(1))));
+        assertAround(30000, policy.delayInMilliseconds(state(5, -1, TimeUnit.MINUTES.toMillis(9))));
+        Assert.assertEquals(5000, policy.delayInMilliseconds(state(8, -1, TimeUnit.SECONDS.toMillis(595))));
+        assertAround(15000, policy.delayInMilliseconds(state(9, -1, TimeUnit.MINUTES.toMillis(11))));
+
+        // Unknown operation types start at the smallest delay
+        PollingState<Object> other = PollingState.createFromJSONString(
+                "{\"initialHttpMethod\":\"DELETE\",\"status\":\"InProgress\",\"operationType\":\"DELETE Microsoft.Network/loadBalancers\",\"pollCount\":1}");
+        Assert.assertEquals(5000, policy.delayInMilliseconds(other));
+
+        policy.withObservedDuration(VM_PUT, TimeUnit.MINUTES.toMillis(5));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(9), policy.expectedDurationMillis(VM_PUT));
+    }
+
+    @Test
+    public void buildsTheOperationTypeFromTheRequest() {
+        Request request = new Request.Builder()
+                .url("https://management.azure.com/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/vm/extensions/ext?api-version=2018-06-01")
+                .delete()
+                .build();
+        Assert.assertEquals("DELETE Microsoft.Compute/virtualMachines/extensions", PollingState.operationType(request));
+    }
+
+    @Test
+    public void historyBasedLearnsFromTheOperationsItPolls() throws Exception {
+        final AtomicInteger polls = new AtomicInteger();
+        RestClient restClient = new RestClient.Builder()
+                .withBaseUrl("https://management.azure.com/")
+                .withSerializerAdapter(new AzureJacksonAdapter())
+                .withResponseBuilderFactory(new AzureResponseBuilder.Factory())
+                .withInterceptor(new Interceptor() {
+                    @Override
+                    public okhttp3.Response intercept(Chain chain) throws IOException {
+                        boolean operation = chain.request().url().encodedPath().startsWith("/operations");
+                        String body = !operation
+                                ? "{\"properties\":{\"provisioningState\":\"Succeeded\"}}"
+                                : polls.incrementAndGet() < 3 ? "{\"status\":\"InProgress\"}" : "{\"status\":\"Succeeded\"}";
+                        return new okhttp3.Response.Builder()
+                                .request(chain.request())
+                                .code(200)
+                                .message("OK")
+                                .protocol(Protocol.HTTP_1_1)
+                                .body(ResponseBody.create(MediaType.parse("application/json"), body))
+                                .build();
+                    }
+                })
+                .build();
+        AzureClient client = new AzureClient(new AzureServiceClient(restClient) { });
+        LongRunningOperationPollingPolicy.HistoryBased policy = LongRunningOperationPollingPolicy.historyBased(10, 1000, TimeUnit.MILLISECONDS);
+
+        ServiceResponse<Map<String, Object>> result = client.<Map<String, Object>>getPutOrPatchResultAsync(
+                Observable.just(initialResponse()), new LongRunningOperationOptions().withPollingPolicy(policy), Map.class)
+                .timeout(10, TimeUnit.SECONDS).toBlocking().last();
+
+        Assert.assertNotNull(result.body());
+        Assert.assertEquals(3, polls.get());
+        // Without history the delays were 10 and 20 ms
+        Assert.assertTrue(policy.expectedDurationMillis(VM_PUT) >= 30);
+    }
+
+    private static PollingState<Object> state(int pollCount, int retryAfterMillis, long elapsedMillis) {
+        return PollingState.createFromJSONString("{\"initialHttpMethod\":\"PUT\",\"status\":\"InProgress\""
+                + ",\"operationType\":\"" + VM_PUT + "\""
+                + ",\"pollCount\":" + pollCount
+                + ",\"retryTimeout\":" + retryAfterMillis
+                + ",\"startedAt\":" + (System.currentTimeMillis() - elapsedMillis) + "}");
+    }
+
+    private static void assertAround(long expected, long actual) {
+        Assert.assertTrue("Expected about " + expected + " but was " + actual, Math.abs(expected - actual) < 1000);
+    }
+
+    private static Response<ResponseBody> initialResponse() {
+        Request request = new Request.Builder()
+                .url("https://management.azure.com/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/vm")
+                .put(RequestBody.create(MediaType.parse("application/json"), "{}"))
+                .build();
+        okhttp3.Response raw = new okhttp3.Response.Builder()
+                .request(request)
+                .code(201)
+                .message("Created")
+                .protocol(Protocol.HTTP_1_1)
+                .header("Azure-AsyncOperation", "https://management.azure.com/operations/op")
+                .build();
+        return Response.success(ResponseBody.create(MediaType.parse("application/json"),
+                "{\"properties\":{\"provisioningState\":\"Creating\"}}"), raw);
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import com.microsoft.rest.RestClient;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import retrofit2.Response;
+import rx.Observable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LroTrackerTests {
+    @Test
+    public void capsThePollsInFlightPerSubscription() throws Exception {
+        PollingServer server = new PollingServer(3);
+        AzureClient client = client(server);
+        LroTracker tracker = new LroTracker(client, 8).withMaxInFlightPollsPerSubscription(2);
+        try {
+            List<Observable<PollingState<Map<String, Object>>>> results = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                PollingState<Map<String, Object>> state = client.<Map<String, Object>>beginPutOrPatchAsync(
+                        Observable.just(initialResponse("sub" + (i % 2), "vm" + i)), Map.class).toBlocking().value();
+                results.add(tracker.track(state, Map.class));
+            }
+            Assert.assertEquals(40, tracker.trackedCount());
+
+            List<PollingState<Map<String, Object>>> states = Observable.merge(results).toList()
+                    .timeout(20, TimeUnit.SECONDS).toBlocking().single();
+
+            Assert.assertEquals(40, states.size());
+            for (PollingState<Map<String, Object>> state : states) {
+                Assert.assertEquals("Succeeded", state.status());
+            }
+            Assert.assertEquals(2, server.maxInFlight("sub0"));
+            Assert.assertEquals(2, server.maxInFlight("sub1"));
+            // Three polls per operation, the last one also getting the resource
+            Assert.assertEquals(120, tracker.pollCount());
+            Assert.assertTrue(tracker.pollRate() > 0);
+            Assert.assertEquals(0, tracker.trackedCount());
+            Assert.assertEquals(0, tracker.queueDepth());
+            Assert.assertEquals(0, tracker.oldestOperationAgeMillis());
+        } finally {
+            tracker.shutdown();
+        }
+    }
+
+    @Test
+    public void pollsOperationsSharingAPollingUrlOnce() throws Exception {
+        PollingServer server = new PollingServer(2);
+        AzureClient client = client(server);
+        LroTracker tracker = new LroTracker(client, 2);
+        try {
+            PollingState<Map<String, Object>> first = client.<Map<String, Object>>beginPutOrPatchAsync(
+                    Observable.just(initialResponse("sub0", "vm")), Map.class).toBlocking().value();
+            PollingState<Map<String, Object>> second = client.<Map<String, Object>>beginPutOrPatchAsync(
+                    Observable.just(initialResponse("sub0", "vm")), Map.class).toBlocking().value();
+            Observable<PollingState<Map<String, Object>>> firstResult = tracker.track(first, Map.class);
+            Observable<PollingState<Map<String, Object>>> secondResult = tracker.track(second, Map.class);
+            Assert.assertEquals(1, tracker.trackedCount());
+
+            PollingState<Map<String, Object>> firstState = firstResult.timeout(10, TimeUnit.SECONDS).toBlocking().single();
+            PollingState<Map<String, Object>> secondState = secondResult.timeout(10, TimeUnit.SECONDS).toBlocking().single();
+
+            Assert.assertSame(firstState, secondState);
+            Assert.assertEquals("Succeeded", firstState.status());
+            Assert.assertEquals(2, server.operationPolls.get());
+        } finally {
+            tracker.shutdown();
+        }
+    }
+
+    @Test
+    public void findsTheSubscriptionOfAPollingUrl() {
+        Assert.assertEquals("1234", LroTracker.subscriptionId(
+                "https://management.azure.com/subscriptions/1234/providers/Microsoft.Compute/locations/westus/operations/op?api-version=2018-06-01"));
+        Assert.assertEquals("", LroTracker.subscriptionId("https://management.azure.com/operations/op"));
+        Assert.assertEquals("", LroTracker.subscriptionId(null));
+    }
+
+    private static AzureClient client(Interceptor server) {
+        RestClient restClient = new RestClient.Builder()
+                .withBaseUrl("https://management.azure.com/")
+                .withSerializerAdapter(new AzureJacksonAdapter())
+                .withResponseBuilderFactory(new AzureResponseBuilder.Factory())
+                .withInterceptor(server)
+                .build();
+        return new AzureClient(new AzureServiceClient(restClient) { });
+    }
+
+    private static Response<ResponseBody> initialResponse(String subscription, String name) {
+        Request request = new Request.Builder()
+                .url("https://management.azure.com/subscriptions/" + subscription
+                        + "/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/" + name)
+                .put(RequestBody.create(MediaType.parse("application/json"), "{}"))
+                .build();
+        okhttp3.Response raw = new okhttp3.Response.Builder()
+                .request(request)
+                .code(201)
+                .message("Created")
+                .protocol(Protocol.HTTP_1_1)
+                .header("Azure-AsyncOperation", "https://management.azure.com/subscriptions/" + subscription
+                        + "/providers/Microsoft.Compute/operations/" + name)
+                .build();
+        return Response.success(ResponseBody.create(MediaType.parse("application/json"),
+                "{\"name\":\"" + name + "\",\"properties\":{\"provisioningState\":\"Creating\"}}"), raw);
+    }
+
+    /**
+     * Answers each operation as in progress until its last poll, without Retry-After delay,
+     * and records the polls in flight per subscription.
+     */
+    private static class PollingServer implements Interceptor {
+        private final int pollsPerOperation;
+        private final Map<String, AtomicInteger> operations = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+        private final AtomicInteger operationPolls = new AtomicInteger();
+
+        PollingServer(int pollsPerOperation) {
+            this.pollsPerOperation = pollsPerOperation;
+        }
+
+        int maxInFlight(String subscription) {
+            return maxInFlight.get(subscription).get();
+        }
+
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            List<String> segments = request.url().pathSegments();
+            String subscription = segments.get(1);
+            String name = segments.get(segments.size() - 1);
+            AtomicInteger current = counter(inFlight, subscription);
+            int count = current.incrementAndGet();
+            AtomicInteger max = counter(maxInFlight, subscription);
+            while (max.get() < count && !max.compareAndSet(max.get(), count)) {
+                continue;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                current.decrementAndGet();
+            }
+            okhttp3.Response.Builder response = new okhttp3.Response.Builder()
+                    .request(request)
+                    .code(200)
+                    .message("OK")
+                    .protocol(Protocol.HTTP_1_1);
+            if (segments.contains("operations")) {
+                operationPolls.incrementAndGet();
+                String status = counter(operations, name).incrementAndGet() < pollsPerOperation ? "InProgress" : "Succeeded";
+                return response
+                        .header("Retry-After", "0")
+                        .body(ResponseBody.create(MediaType.parse("application/json"), "{\"status\":\"" + status + "\"}"))
+                        .build();
+            }
+            return response
+                    .body(ResponseBody.create(MediaType.parse("application/json"),
+                            "{\"name\":\"" + name + "\",\"properties\":{\"provisioningState\":\"Succeeded\"}}"))
+                    .build();
+        }
+
+        private static AtomicInteger counter(Map<String, AtomicInteger> counters, String key) {
+            AtomicInteger counter = counters.get(key);
+            if (counter == null) {
+                counters.putIfAbsent(key, new AtomicInteger());
+                counter = counters.get(key);
+            }
+            return counter;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import retrofit2.Response;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+public class PollingResponseBodyTests {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void picksUpTheStatusAndTheErrorWhileTokenizing() throws Exception {
+        PollingResponseBody body = PollingResponseBody.parse(new AzureJacksonAdapter(),
+                ("{\"id\":\"op\",\"status\":\"Failed\",\"error\":{\"code\":\"Conflict\",\"message\":\"busy\""
+                        + ",\"details\":[{\"code\":\"Inner\",\"message\":\"locked\"}]}}").getBytes(UTF_8));
+
+        Assert.assertEquals("Failed", body.status());
+        Assert.assertNull(body.provisioningState());
+        Assert.assertEquals("Conflict", body.error().code());
+        Assert.assertEquals("busy", body.error().message());
+        Assert.assertEquals("Inner", body.error().details().get(0).code());
+        // The tokens are kept whole
+        Map<String, Object> resource = body.resource(Map.class);
+        Assert.assertEquals("op", resource.get("id"));
+        Assert.assertEquals("Conflict", ((Map<?, ?>) resource.get("error")).get("code"));
+    }
+
+    @Test
+    public void picksUpTheProvisioningStateWhileTokenizing() throws Exception {
+        PollingResponseBody body = PollingResponseBody.parse(new AzureJacksonAdapter(),
+                "{\"name\":\"vm\",\"properties\":{\"vmId\":\"1\",\"provisioningState\":\"Creating\",\"tags\":{\"a\":\"b\"}}}".getBytes(UTF_8));
+
+        Assert.assertNull(body.status());
+        Assert.assertEquals("Creating", body.provisioningState());
+        Map<String, Object> resource = body.resource(Map.class);
+        Assert.assertEquals("vm", resource.get("name"));
+        Map<?, ?> properties = (Map<?, ?>) resource.get("properties");
+        Assert.assertEquals("1", properties.get("vmId"));
+        Assert.assertEquals("b", ((Map<?, ?>) properties.get("tags")).get("a"));
+    }
+
+    @Test
+    public void deserializesTheResourceOfTerminalPollsOnly() throws Exception {
+        PollingState<Map<String, Object>> pollingState = PollingState.create(
+                response(201, "{\"name\":\"vm\",\"properties\":{\"provisioningState\":\"Creating\"}}"),
+                LongRunningOperationOptions.DEFAULT, 0, Map.class, new AzureJacksonAdapter());
+        // The resource of the initial response is kept for the begin methods
+        Assert.assertEquals("vm", pollingState.resource().get("name"));
+
+        pollingState.updateFromResponseOnPutPatch(
+                response(200, "{\"name\":\"vm\",\"properties\":{\"provisioningState\":\"Updating\"}}"));
+        Assert.assertEquals("Updating", pollingState.status());
+        Assert.assertNull(pollingState.resource());
+
+        pollingState.updateFromResponseOnPutPatch(
+                response(200, "{\"name\":\"vm\",\"properties\":{\"provisioningState\":\"Succeeded\"}}"));
+        Assert.assertEquals("Succeeded", pollingState.status());
+        Assert.assertEquals("vm", pollingState.resource().get("name"));
+    }
+
+    @Test
+    public void readsAnAsyncOperationFromTheBody() throws Exception {
+        AzureAsyncOperation asyncOperation = AzureAsyncOperation.fromResponse(new AzureJacksonAdapter(),
+                response(200, "{\"status\":\"InProgress\"}"));
+        Assert.assertEquals("InProgress", asyncOperation.status());
+        Assert.assertNull(asyncOperation.getError());
+
+        try {
+            AzureAsyncOperation.fromResponse(new AzureJacksonAdapter(), response(200, "{\"name\":\"vm\"}"));
+            Assert.fail();
+        } catch (CloudException e) {
+            Assert.assertTrue(e.getMessage().contains("{\"name\":\"vm\"}"));
+        }
+    }
+
+    private static Response<ResponseBody> response(int code, String body) {
+        Request request = new Request.Builder()
+                .url("https://management.azure.com/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/vm")
+                .put(RequestBody.create(MediaType.parse("application/json"), "{}"))
+                .build();
+        okhttp3.Response raw = new okhttp3.Response.Builder()
+                .request(request)
+                .code(code)
+                .message("OK")
+                .protocol(Protocol.HTTP_1_1)
+                .build();
+        return Response.success(ResponseBody.create(MediaType.parse("application/json"), body), raw);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure;
+
+import org.junit.Assert;
+import org.junit.Test;
+import rx.Subscription;
+import rx.functions.Action1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PollingTimerTests {
+    @Test
+    public void firesDelaysInOrderAcrossWheelRounds() throws Exception {
+        // 8 buckets of 5 ms: delays over 40 ms take more than one round of the wheel
+        PollingTimer timer = new PollingTimer(5, TimeUnit.MILLISECONDS, 8);
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(5);
+        long start = System.nanoTime();
+        for (final int delay : new int[] {120, 30, 200, 75, 10}) {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.add(delay);
+                    done.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        Assert.assertEquals(Arrays.asList(10, 30, 75, 120, 200), fired);
+        Assert.assertEquals(0, timer.pendingCount());
+    }
+
+    @Test
+    public void firesDelaysShorterThanARoundWithinTheirRound() throws Exception {
+        // A round of 640 ms: a delay ending between two ticks must not wait for the next round
+        PollingTimer timer = new PollingTimer(10, TimeUnit.MILLISECONDS, 64);
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            timer.delay(33).toBlocking().single();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue("Fired after " + elapsed + " ms", elapsed >= 33 && elapsed < 300);
+        }
+    }
+
+    @Test
+    public void unsubscribingCancelsTheDelay() throws Exception {
+        PollingTimer timer = new PollingTimer(5, TimeUnit.MILLISECONDS, 8);
+        final AtomicBoolean fired = new AtomicBoolean();
+        Subscription subscription = timer.delay(50).subscribe(new Action1<Long>() {
+            @Override
+            public void call(Long tick) {
+                fired.set(true);
+            }
+        });
+        Assert.assertEquals(1, timer.pendingCount());
+
+        subscription.unsubscribe();
+        Thread.sleep(150);
+
+        Assert.assertFalse(fired.get());
+        Assert.assertEquals(0, timer.pendingCount());
+    }
+}
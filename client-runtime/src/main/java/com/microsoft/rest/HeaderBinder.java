@@ -0,0 +1,443 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.fasterxml.jackson.annotation.JacksonAnnotation;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.serializer.JsonFlatten;
+import okhttp3.Headers;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Binds the headers of a REST response onto a header object. The fields of a
+ * header class are looked up once: each field is bound to the header named by
+ * its {@link JsonProperty} annotation, or by the field name, and values of
+ * common types are converted without going through the serializer.
+ *
+ * The fields carrying other Jackson annotations, such as a custom
+ * {@code @JsonDeserialize}, are bound by the serializer so that their
+ * annotations are honored. Header classes with Jackson annotations on the
+ * class, its methods or its constructors are built by the serializer alone.
+ *
+ * @param <T> the type of the header object
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class HeaderBinder<T> {
+    /**
+     * The binders already created. Each binder is attached to its header class, which it refers to,
+     * so a map from classes to binders would keep the class loaders of the headers alive.
+     */
+    private static final ClassValue<HeaderBinder<?>> BINDERS = new ClassValue<HeaderBinder<?>>() {
+        @Override
+        protected HeaderBinder<?> computeValue(Class<?> type) {
+            return new HeaderBinder<>(type);
+        }
+    };
+
+    /**
+     * The converters of header values to the common field types.
+     */
+    private static final ImmutableMap<Class<?>, Converter> CONVERTERS = ImmutableMap.<Class<?>, Converter>builder()
+            .put(String.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return value;
+                }
+            })
+            .put(DateTimeRfc1123.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return new DateTimeRfc1123(value);
+                }
+            })
+            .put(UUID.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return UUID.fromString(value);
+                }
+            })
+            .put(Integer.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return Integer.valueOf(value);
+                }
+            })
+            .put(Long.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return Long.valueOf(value);
+                }
+            })
+            .put(Double.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return Double.valueOf(value);
+                }
+            })
+            .put(Float.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return Float.valueOf(value);
+                }
+            })
+            .put(Boolean.class, new Converter() {
+                @Override
+                public Object convert(String value) {
+                    return Boolean.valueOf(value);
+                }
+            })
+            .build();
+
+    /**
+     * The header class.
+     */
+    private final Class<T> headerType;
+
+    /**
+     * The no-argument constructor of the header class, adapted to ()Object,
+     * or null if the header object has to be built by the serializer.
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * The bindings of the header names to the fields of the header class.
+     */
+    private final ImmutableList<FieldBinding> bindings;
+
+    /**
+     * The names of the headers bound by the serializer, for fields with annotations the binder cannot honor.
+     */
+    private final ImmutableList<String> serializerBoundNames;
+
+    /**
+     * Looks up the fields of a header class.
+     *
+     * @param headerType the header class
+     */
+    @SuppressWarnings("unchecked")
+    private HeaderBinder(Class<?> headerType) {
+        this.headerType = (Class<T>) headerType;
+        MethodHandle handle = null;
+        ImmutableList.Builder<FieldBinding> fields = ImmutableList.builder();
+        ImmutableList.Builder<String> serializerBound = ImmutableList.builder();
+        if (!headerType.isInterface() && !Modifier.isAbstract(headerType.getModifiers())
+                && !headerType.getName().startsWith("java.")) {
+            try {
+                Constructor<?> c = headerType.getDeclaredConstructor();
+                c.setAccessible(true);
+                handle = MethodHandles.lookup().unreflectConstructor(c)
+                        .asType(MethodType.methodType(Object.class));
+                Set<String> names = new HashSet<>();
+                for (Class<?> clazz : TypeToken.of(headerType).getTypes().classes().rawTypes()) {
+                    if (clazz == Object.class) {
+                        continue;
+                    }
+                    if (!plain(clazz)) {
+                        // Not a plain header class. Let the serializer build it.
+                        handle = null;
+                        break;
+                    }
+                    for (Field field : clazz.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())
+                                || field.isSynthetic() || field.isAnnotationPresent(JsonIgnore.class)) {
+                            continue;
+                        }
+                        JsonProperty property = field.getAnnotation(JsonProperty.class);
+                        String name = property != null && !property.value().isEmpty() ? property.value() : field.getName();
+                        if (!names.add(name.toLowerCase())) {
+                            continue;
+                        }
+                        if (honored(field) && !name.contains(".")) {
+                            field.setAccessible(true);
+                            fields.add(new FieldBinding(name, field));
+                        } else {
+                            // Escaped dots name the header, unescaped ones a flattened path the header never matches
+                            serializerBound.add(name.replace("\\.", "."));
+                        }
+                    }
+                }
+            } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+                // Not a plain header class. Let the serializer build it.
+                handle = null;
+            }
+        }
+        this.constructor = handle;
+        this.bindings = handle == null ? ImmutableList.<FieldBinding>of() : fields.build();
+        this.serializerBoundNames = handle == null ? ImmutableList.<String>of() : serializerBound.build();
+    }
+
+    /**
+     * Checks whether a class of the hierarchy of a header class can be bound without the
+     * serializer: it must not carry Jackson annotations on itself, its methods or its constructors.
+     *
+     * @param clazz the class
+     * @return true if the fields of the class can be bound directly
+     */
+    private static boolean plain(Class<?> clazz) {
+        if (clazz.isAnnotationPresent(JsonFlatten.class) || hasJacksonAnnotations(clazz)) {
+            return false;
+        }
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (hasJacksonAnnotations(method)) {
+                return false;
+            }
+        }
+        for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+            if (hasJacksonAnnotations(constructor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the annotations of a field are all honored by the binder: only
+     * {@link JsonProperty} naming a header, read and written.
+     *
+     * @param field the field
+     * @return true if the field can be bound directly
+     */
+    private static boolean honored(Field field) {
+        for (Annotation annotation : field.getDeclaredAnnotations()) {
+            if (annotation instanceof JsonProperty) {
+                if (((JsonProperty) annotation).access() == JsonProperty.Access.READ_ONLY) {
+                    return false;
+                }
+            } else if (isJacksonAnnotation(annotation)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param element a class, method or constructor
+     * @return true if the element carries a Jackson annotation
+     */
+    private static boolean hasJacksonAnnotations(AnnotatedElement element) {
+        for (Annotation annotation : element.getDeclaredAnnotations()) {
+            if (isJacksonAnnotation(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param annotation an annotation
+     * @return true if the annotation is interpreted by Jackson
+     */
+    private static boolean isJacksonAnnotation(Annotation annotation) {
+        return annotation.annotationType().isAnnotationPresent(JacksonAnnotation.class);
+    }
+
+    /**
+     * Gets the binder for a header class, creating it on first use.
+     *
+     * @param headerType the header class
+     * @param <T> the type of the header object
+     * @return the binder for the header class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> HeaderBinder<T> forType(Class<T> headerType) {
+        return (HeaderBinder<T>) BINDERS.get(headerType);
+    }
+
+    /**
+     * @return the header class
+     */
+    public Class<T> headerType() {
+        return headerType;
+    }
+
+    /**
+     * Binds the headers of a response onto a new header object.
+     *
+     * @param headers the response headers
+     * @param serializerAdapter the serializer for the header values of uncommon types
+     * @return the header object
+     * @throws IOException thrown if a header value cannot be converted
+     */
+    public T bind(final Headers headers, SerializerAdapter<?> serializerAdapter) throws IOException {
+        if (constructor == null) {
+            return serializerAdapter.deserialize(
+                    serializerAdapter.serialize(Maps.asMap(headers.names(), new Function<String, String>() {
+                        @Override
+                        public String apply(String s) {
+                            return headers.get(s);
+                        }
+                    })),
+                    headerType);
+        }
+        Map<String, String> serializerBound = new HashMap<>();
+        for (String name : serializerBoundNames) {
+            String value = headers.get(name);
+            if (value != null) {
+                serializerBound.put(name, value);
+            }
+        }
+        Object result;
+        if (!serializerBound.isEmpty()) {
+            // The serializer builds the object from the headers whose fields it has to bind
+            result = serializerAdapter.deserialize(serializerAdapter.serialize(serializerBound), headerType);
+        } else {
+            try {
+                result = constructor.invokeExact();
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IOException("Cannot create an instance of " + headerType.getCanonicalName(), t);
+            }
+        }
+        for (FieldBinding binding : bindings) {
+            String value = headers.get(binding.name);
+            if (value != null) {
+                binding.bind(result, value, serializerAdapter);
+            }
+        }
+        return headerType.cast(result);
+    }
+
+    /**
+     * Defers the binding of the headers of a response until the header object
+     * is requested. Each call to the supplier binds a new header object; it is
+     * meant to be handed to {@link ServiceResponseWithHeaders#withLazyHeaders},
+     * which calls it at most once.
+     *
+     * @param headers the response headers
+     * @param serializerAdapter the serializer for the header values of uncommon types
+     * @return the supplier of the header object, throwing a RuntimeException if a header value cannot be converted
+     */
+    public Supplier<T> lazyBind(final Headers headers, final SerializerAdapter<?> serializerAdapter) {
+        return new Supplier<T>() {
+            @Override
+            public T get() {
+                try {
+                    return bind(headers, serializerAdapter);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Converts a header value to a field type.
+     */
+    private interface Converter {
+        /**
+         * @param value the header value, never empty
+         * @return the converted value
+         */
+        Object convert(String value);
+    }
+
+    /**
+     * The binding of a header name to a field of the header class.
+     */
+    private static final class FieldBinding {
+        /**
+         * The header name.
+         */
+        private final String name;
+
+        /**
+         * The generic type of the field.
+         */
+        private final Type type;
+
+        /**
+         * True if the field has a primitive type and cannot be set to null.
+         */
+        private final boolean primitive;
+
+        /**
+         * The converter for the field type, or null if values are converted by the serializer.
+         */
+        private final Converter converter;
+
+        /**
+         * The setter of the field, adapted to (Object, Object)void.
+         */
+        private final MethodHandle setter;
+
+        /**
+         * Creates the binding of a header to a field.
+         *
+         * @param name the header name
+         * @param field the accessible field
+         * @throws IllegalAccessException thrown if the field cannot be set
+         */
+        private FieldBinding(String name, Field field) throws IllegalAccessException {
+            this.name = name;
+            this.type = field.getGenericType();
+            this.primitive = field.getType().isPrimitive();
+            this.converter = CONVERTERS.get(TypeToken.of(field.getType()).wrap().getRawType());
+            this.setter = MethodHandles.lookup().unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+
+        /**
+         * Converts a header value and sets it on a header object.
+         *
+         * @param target the header object
+         * @param value the header value
+         * @param serializerAdapter the serializer for the header values of uncommon types
+         * @throws IOException thrown if the header value cannot be converted
+         */
+        private void bind(Object target, String value, SerializerAdapter<?> serializerAdapter) throws IOException {
+            Object converted;
+            if (converter == null) {
+                converted = serializerAdapter.deserialize(serializerAdapter.serialize(value), type);
+            } else if (value.isEmpty() && converter != CONVERTERS.get(String.class)) {
+                converted = null;
+            } else {
+                try {
+                    converted = converter.convert(value);
+                } catch (RuntimeException e) {
+                    throw new IOException("Cannot convert the value of header " + name + ": " + value, e);
+                }
+            }
+            if (converted == null && primitive) {
+                return;
+            }
+            try {
+                setter.invokeExact(target, converted);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IOException("Cannot set the value of header " + name, t);
+            }
+        }
+    }
+}
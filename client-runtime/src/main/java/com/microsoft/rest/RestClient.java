@@ -10,6 +10,7 @@ import com.microsoft.azure.management.apigeneration.Beta;
 import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
 import com.microsoft.rest.credentials.ServiceClientCredentials;
 import com.microsoft.rest.interceptors.BaseUrlHandler;
+import com.microsoft.rest.interceptors.CoalescingInterceptor;
 import com.microsoft.rest.interceptors.CustomHeadersInterceptor;
 import com.microsoft.rest.interceptors.LoggingInterceptor;
 import com.microsoft.rest.interceptors.RequestIdHeaderInterceptor;
@@ -17,6 +18,7 @@ import com.microsoft.rest.interceptors.UserAgentInterceptor;
 import com.microsoft.rest.protocol.Environment;
 import com.microsoft.rest.protocol.ResponseBuilder;
 import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.retry.RetryCallAdapterFactory;
 import com.microsoft.rest.retry.RetryHandler;
 import com.microsoft.rest.retry.RetryStrategy;
 import okhttp3.Authenticator;
@@ -61,6 +63,14 @@ public final class RestClient {
         return builder.customHeadersInterceptor;
     }
 
+    /**
+     * @return the retry handler, exposing the retry counters of this client.
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public RetryHandler retryHandler() {
+        return builder.retryHandler;
+    }
+
     /**
      * @return the current serializer adapter.
      */
@@ -175,6 +185,8 @@ public final class RestClient {
         private LoggingInterceptor loggingInterceptor;
         /** The strategy used for retry failed requests. */
         private RetryStrategy retryStrategy;
+        /** The retry handler created when building the client. */
+        private RetryHandler retryHandler;
         /** The dispatcher for OkHttp to handle requests. */
         private Dispatcher dispatcher;
         /** If set to true, the dispatcher thread pool rather than RxJava schedulers will be used to schedule requests. */
@@ -213,6 +225,10 @@ public final class RestClient {
                 } else if (interceptor instanceof CustomHeadersInterceptor) {
                     this.customHeadersInterceptor = new CustomHeadersInterceptor();
                     this.customHeadersInterceptor.addHeaderMultimap(((CustomHeadersInterceptor) interceptor).headers());
+                } else if (interceptor instanceof CoalescingInterceptor) {
+                    // Runs before the credentials are applied, so it must not share responses with a client using other ones
+                    this.withInterceptor(new CoalescingInterceptor()
+                            .withMaxBufferedBytes(((CoalescingInterceptor) interceptor).maxBufferedBytes()));
                 } else if (interceptor != restClient.builder.credentialsInterceptor) {
                     this.withInterceptor(interceptor);
                 }
@@ -511,7 +527,6 @@ public final class RestClient {
                 }
             }
 
-            RetryHandler retryHandler;
             if (retryStrategy == null) {
                 retryHandler = new RetryHandler();
             } else {
@@ -544,7 +559,7 @@ public final class RestClient {
                             .baseUrl(baseUrl)
                             .client(httpClient)
                             .addConverterFactory(serializerAdapter.converterFactory())
-                            .addCallAdapterFactory(callAdapterFactory)
+                            .addCallAdapterFactory(new RetryCallAdapterFactory(callAdapterFactory, retryHandler))
                             .build(),
                     this);
         }
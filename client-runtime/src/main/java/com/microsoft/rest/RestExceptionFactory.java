@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Creates instances of a {@link RestException} type. The constructors and the
+ * body type of an exception type are looked up once, and the factory is shared
+ * by all the response builders that throw that type.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class RestExceptionFactory {
+    /**
+     * The factories already created, held by their exception class rather than by a map,
+     * so that the class and its factory can be unloaded together.
+     */
+    private static final ClassValue<RestExceptionFactory> FACTORIES = new ClassValue<RestExceptionFactory>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected RestExceptionFactory computeValue(Class<?> type) {
+            return new RestExceptionFactory((Class<? extends RestException>) type);
+        }
+    };
+
+    /**
+     * The exception type.
+     */
+    private final Class<? extends RestException> exceptionType;
+
+    /**
+     * The type of the body of the exception.
+     */
+    private final Class<?> bodyType;
+
+    /**
+     * The constructor taking a message, a response and a body, adapted to
+     * (String, Response, Object)RestException, or null if there is none.
+     */
+    private final MethodHandle bodyConstructor;
+
+    /**
+     * The constructor taking a message and a response, adapted to
+     * (String, Response)RestException, or null if there is none.
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * The reason the constructor with body could not be looked up, or null.
+     */
+    private final ReflectiveOperationException bodyConstructorError;
+
+    /**
+     * The reason the constructor without body could not be looked up, or null.
+     */
+    private final ReflectiveOperationException constructorError;
+
+    /**
+     * Looks up the constructors of an exception type.
+     *
+     * @param exceptionType the exception type
+     */
+    private RestExceptionFactory(Class<? extends RestException> exceptionType) {
+        this.exceptionType = exceptionType;
+        Class<?> body;
+        try {
+            Method f = exceptionType.getDeclaredMethod("body");
+            body = f.getReturnType();
+        } catch (NoSuchMethodException e) {
+            // AutoRestException always has a body. Register Object as a fallback plan.
+            body = Object.class;
+        }
+        this.bodyType = body;
+
+        MethodHandle handle = null;
+        ReflectiveOperationException error = null;
+        try {
+            handle = MethodHandles.publicLookup()
+                    .unreflectConstructor(exceptionType.getConstructor(String.class, Response.class, bodyType))
+                    .asType(MethodType.methodType(RestException.class, String.class, Response.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            error = e;
+        }
+        this.bodyConstructor = handle;
+        this.bodyConstructorError = error;
+
+        handle = null;
+        error = null;
+        try {
+            handle = MethodHandles.publicLookup()
+                    .unreflectConstructor(exceptionType.getConstructor(String.class, Response.class))
+                    .asType(MethodType.methodType(RestException.class, String.class, Response.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            error = e;
+        }
+        this.constructor = handle;
+        this.constructorError = error;
+    }
+
+    /**
+     * Gets the factory for an exception type, creating it on first use.
+     *
+     * @param exceptionType the exception type
+     * @return the factory for the exception type
+     */
+    public static RestExceptionFactory forType(Class<? extends RestException> exceptionType) {
+        return FACTORIES.get(exceptionType);
+    }
+
+    /**
+     * @return the exception type
+     */
+    public Class<? extends RestException> exceptionType() {
+        return exceptionType;
+    }
+
+    /**
+     * @return the type of the body of the exception, the return type of its body() method
+     * or Object if it does not declare one
+     */
+    public Class<?> bodyType() {
+        return bodyType;
+    }
+
+    /**
+     * Creates an exception with a body.
+     *
+     * @param statusCode the HTTP status code of the response
+     * @param message the exception message
+     * @param response the response
+     * @param body the deserialized body of the response
+     * @return the exception
+     * @throws IOException thrown if the exception type cannot be instantiated
+     */
+    public RestException create(int statusCode, String message, Response<?> response, Object body) throws IOException {
+        if (bodyConstructor == null) {
+            throw cannotCreate(statusCode, bodyConstructorError);
+        }
+        try {
+            return (RestException) bodyConstructor.invokeExact(message, (Response) response, body);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw cannotCreate(statusCode, t);
+        }
+    }
+
+    /**
+     * Creates an exception without a body.
+     *
+     * @param statusCode the HTTP status code of the response
+     * @param message the exception message
+     * @param response the response
+     * @return the exception
+     * @throws IOException thrown if the exception type cannot be instantiated
+     */
+    public RestException create(int statusCode, String message, Response<?> response) throws IOException {
+        if (constructor == null) {
+            throw cannotCreate(statusCode, constructorError);
+        }
+        try {
+            return (RestException) constructor.invokeExact(message, (Response) response);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw cannotCreate(statusCode, t);
+        }
+    }
+
+    /**
+     * Creates the exception reporting that the exception type cannot be instantiated.
+     *
+     * @param statusCode the HTTP status code of the response
+     * @param cause the reason
+     * @return the exception to throw
+     */
+    private IOException cannotCreate(int statusCode, Throwable cause) {
+        return new IOException("Status code " + statusCode + ", but an instance of " + exceptionType.getCanonicalName()
+                + " cannot be created.", cause);
+    }
+}
@@ -7,18 +7,17 @@
 package com.microsoft.rest;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.google.common.base.Function;
-import com.google.common.collect.Maps;
 import com.microsoft.rest.protocol.ResponseBuilder;
 import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.protocol.StreamingSerializerAdapter;
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,9 +34,9 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
     private final Map<Integer, Type> responseTypes;
 
     /**
-     * The exception type to thrown in case of error.
+     * The factory of the exception to throw in case of error.
      */
-    private Class<? extends RestException> exceptionType;
+    private RestExceptionFactory exceptionFactory;
 
     /**
      * The mapperAdapter used for deserializing the response.
@@ -54,7 +53,7 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
     private ServiceResponseBuilder(SerializerAdapter<?> serializerAdapter) {
         this.serializerAdapter = serializerAdapter;
         this.responseTypes = new HashMap<>();
-        this.exceptionType = RestException.class;
+        this.exceptionFactory = RestExceptionFactory.forType(RestException.class);
         this.responseTypes.put(0, Object.class);
         this.throwOnGet404 = false;
     }
@@ -68,14 +67,8 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
 
     @Override
     public ServiceResponseBuilder<T, E> registerError(final Class<? extends RestException> type) {
-        this.exceptionType = type;
-        try {
-            Method f = type.getDeclaredMethod("body");
-            this.responseTypes.put(0, f.getReturnType());
-        } catch (NoSuchMethodException e) {
-            // AutoRestException always has a body. Register Object as a fallback plan.
-            this.responseTypes.put(0, Object.class);
-        }
+        this.exceptionFactory = RestExceptionFactory.forType(type);
+        this.responseTypes.put(0, exceptionFactory.bodyType());
         return this;
     }
 
@@ -113,17 +106,10 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
         } else if (!throwOnGet404 && "GET".equals(response.raw().request().method()) && statusCode == 404) {
             return new ServiceResponse<>(null, response);
         } else {
-            try {
-                String responseContent = "";
-                if (responseBody != null) {
-                    responseContent = responseBody.source().buffer().clone().readUtf8();
-                }
-                throw exceptionType.getConstructor(String.class, Response.class, (Class<?>) responseTypes.get(0))
-                        .newInstance("Status code " + statusCode + ", " + responseContent, response, buildBody(statusCode, responseBody));
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                throw new IOException("Status code " + statusCode + ", but an instance of " + exceptionType.getCanonicalName()
-                    + " cannot be created.", e);
-            }
+            // read the error body once, for both the message and the typed body
+            byte[] responseContent = responseBody != null ? responseBody.bytes() : new byte[0];
+            Object body = responseBody != null ? buildBody(statusCode, responseContent) : null;
+            throw exceptionFactory.create(statusCode, "Status code " + statusCode + ", " + new String(responseContent, StandardCharsets.UTF_8), response, body);
         }
     }
 
@@ -136,42 +122,24 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
         } else if (response.isSuccessful() && responseTypes.size() == 1) {
             return new ServiceResponse<>(response);
         } else {
-            try {
-                throw exceptionType.getConstructor(String.class, Response.class)
-                        .newInstance("Status code " + statusCode, response);
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                throw new IOException("Status code " + statusCode + ", but an instance of " + exceptionType.getCanonicalName()
-                        + " cannot be created.", e);
-            }
+            throw exceptionFactory.create(statusCode, "Status code " + statusCode, response);
         }
     }
 
     @Override
-    public <THeader> ServiceResponseWithHeaders<T, THeader> buildWithHeaders(final Response<ResponseBody> response, Class<THeader> headerType) throws IOException {
+    public <THeader> ServiceResponseWithHeaders<T, THeader> buildWithHeaders(Response<ResponseBody> response, Class<THeader> headerType) throws IOException {
         ServiceResponse<T> bodyResponse = build(response);
-        THeader headers = serializerAdapter.deserialize(
-                serializerAdapter.serialize(Maps.asMap(response.headers().names(), new Function<String, String>() {
-                    @Override
-                    public String apply(String s) {
-                        return response.headers().get(s);
-                    }
-                })),
-                headerType);
-        return new ServiceResponseWithHeaders<>(bodyResponse.body(), headers, bodyResponse.response());
+        return ServiceResponseWithHeaders.withLazyHeaders(bodyResponse.body(),
+                HeaderBinder.forType(headerType).lazyBind(response.headers(), serializerAdapter),
+                bodyResponse.response());
     }
 
     @Override
-    public <THeader> ServiceResponseWithHeaders<T, THeader> buildEmptyWithHeaders(final Response<Void> response, Class<THeader> headerType) throws IOException {
+    public <THeader> ServiceResponseWithHeaders<T, THeader> buildEmptyWithHeaders(Response<Void> response, Class<THeader> headerType) throws IOException {
         ServiceResponse<T> bodyResponse = buildEmpty(response);
-        THeader headers = serializerAdapter.deserialize(
-                serializerAdapter.serialize(Maps.asMap(response.headers().names(), new Function<String, String>() {
-                    @Override
-                    public String apply(String s) {
-                        return response.headers().get(s);
-                    }
-                })),
-                headerType);
-        ServiceResponseWithHeaders<T, THeader> serviceResponse = new ServiceResponseWithHeaders<>(headers, bodyResponse.headResponse());
+        ServiceResponseWithHeaders<T, THeader> serviceResponse = ServiceResponseWithHeaders.withLazyHeaders(
+                HeaderBinder.forType(headerType).lazyBind(response.headers(), serializerAdapter),
+                bodyResponse.headResponse());
         serviceResponse.withBody(bodyResponse.body());
         return serviceResponse;
     }
@@ -190,15 +158,7 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
             return null;
         }
 
-        Type type;
-        if (responseTypes.containsKey(statusCode)) {
-            type = responseTypes.get(statusCode);
-        } else if (responseTypes.get(0) != Object.class) {
-            type = responseTypes.get(0);
-        } else {
-            type = new TypeReference<T>() { }.getType();
-        }
-
+        Type type = bodyType(statusCode);
         // Void response
         if (type == Void.class) {
             return null;
@@ -208,7 +168,9 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
             return responseBody.byteStream();
         }
         // Deserialize
-        else {
+        else if (serializerAdapter instanceof StreamingSerializerAdapter) {
+            return ((StreamingSerializerAdapter<?>) serializerAdapter).deserialize(responseBody.byteStream(), type);
+        } else {
             String responseContent = responseBody.source().buffer().readUtf8();
             if (responseContent.length() <= 0) {
                 return null;
@@ -217,11 +179,58 @@ public final class ServiceResponseBuilder<T, E extends RestException> implements
         }
     }
 
+    /**
+     * Builds the body object from the HTTP status code and the content of the
+     * returned response body, already read.
+     *
+     * @param statusCode the HTTP status code
+     * @param responseContent the content of the response body
+     * @return the response body, deserialized
+     * @throws IOException thrown for any deserialization errors
+     */
+    private Object buildBody(int statusCode, byte[] responseContent) throws IOException {
+        Type type = bodyType(statusCode);
+        if (type == Void.class) {
+            return null;
+        } else if (type == InputStream.class) {
+            return new ByteArrayInputStream(responseContent);
+        } else if (serializerAdapter instanceof StreamingSerializerAdapter) {
+            return ((StreamingSerializerAdapter<?>) serializerAdapter).deserialize(new ByteArrayInputStream(responseContent), type);
+        } else if (responseContent.length <= 0) {
+            return null;
+        } else {
+            return serializerAdapter.deserialize(new String(responseContent, StandardCharsets.UTF_8), type);
+        }
+    }
+
+    /**
+     * Gets the type to deserialize the response body into for an HTTP status code.
+     *
+     * @param statusCode the HTTP status code
+     * @return the type of the response body
+     */
+    private Type bodyType(int statusCode) {
+        if (responseTypes.containsKey(statusCode)) {
+            return responseTypes.get(statusCode);
+        } else if (responseTypes.get(0) != Object.class) {
+            return responseTypes.get(0);
+        } else {
+            return new TypeReference<T>() { }.getType();
+        }
+    }
+
     /**
      * @return the exception type to thrown in case of error.
      */
     public Class<? extends RestException> exceptionType() {
-        return exceptionType;
+        return exceptionFactory.exceptionType();
+    }
+
+    /**
+     * @return the factory of the exception to throw in case of error.
+     */
+    public RestExceptionFactory exceptionFactory() {
+        return exceptionFactory;
     }
 
     /**
@@ -6,6 +6,10 @@
 
 package com.microsoft.rest;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 
@@ -17,9 +21,9 @@ import retrofit2.Response;
  */
 public final class ServiceResponseWithHeaders<TBody, THeader> extends ServiceResponse<TBody> {
     /**
-     * The response headers object.
+     * The supplier of the response headers object.
      */
-    private THeader headers;
+    private Supplier<THeader> headers;
 
     /**
      * Instantiate a ServiceResponse instance with a response object and a raw REST response.
@@ -30,7 +34,7 @@ public final class ServiceResponseWithHeaders<TBody, THeader> extends ServiceRes
      */
     public ServiceResponseWithHeaders(TBody body, THeader headers, Response<ResponseBody> response) {
         super(body, response);
-        this.headers = headers;
+        this.headers = Suppliers.ofInstance(headers);
     }
 
     /**
@@ -41,7 +45,42 @@ public final class ServiceResponseWithHeaders<TBody, THeader> extends ServiceRes
      */
     public ServiceResponseWithHeaders(THeader headers, Response<Void> response) {
         super(response);
-        this.headers = headers;
+        this.headers = Suppliers.ofInstance(headers);
+    }
+
+    /**
+     * Creates a ServiceResponse instance whose header object is only
+     * materialized when {@link #headers()} is first called.
+     *
+     * @param body deserialized response object
+     * @param headers supplier of the response header object, called at most once
+     * @param response raw REST response
+     * @param <TBody> the type of the response
+     * @param <THeader> the type of the response header object
+     * @return the service response
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public static <TBody, THeader> ServiceResponseWithHeaders<TBody, THeader> withLazyHeaders(TBody body, Supplier<THeader> headers, Response<ResponseBody> response) {
+        ServiceResponseWithHeaders<TBody, THeader> serviceResponse = new ServiceResponseWithHeaders<>(body, null, response);
+        serviceResponse.headers = Suppliers.memoize(headers);
+        return serviceResponse;
+    }
+
+    /**
+     * Creates a ServiceResponse instance for a HEAD operation whose header object
+     * is only materialized when {@link #headers()} is first called.
+     *
+     * @param headers supplier of the response header object, called at most once
+     * @param response raw REST response from a HEAD operation
+     * @param <TBody> the type of the response
+     * @param <THeader> the type of the response header object
+     * @return the service response
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public static <TBody, THeader> ServiceResponseWithHeaders<TBody, THeader> withLazyHeaders(Supplier<THeader> headers, Response<Void> response) {
+        ServiceResponseWithHeaders<TBody, THeader> serviceResponse = new ServiceResponseWithHeaders<>(null, response);
+        serviceResponse.headers = Suppliers.memoize(headers);
+        return serviceResponse;
     }
 
     /**
@@ -49,6 +88,6 @@ public final class ServiceResponseWithHeaders<TBody, THeader> extends ServiceRes
      * @return the response headers. Null if there isn't one.
      */
     public THeader headers() {
-        return this.headers;
+        return this.headers.get();
     }
 }
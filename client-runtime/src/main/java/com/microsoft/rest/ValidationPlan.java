@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Primitives;
+import com.google.common.reflect.TypeToken;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.Period;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The immutable description of what {@link Validator} checks on instances of a
+ * class: the properties it reads, which of them are required, and which of
+ * them can hold values that need to be validated in turn. A plan is computed
+ * once per class.
+ */
+final class ValidationPlan {
+    /**
+     * The plans already computed, stored with the model class itself so that they go away with it.
+     */
+    private static final ClassValue<ValidationPlan> PLANS = new ClassValue<ValidationPlan>() {
+        @Override
+        protected ValidationPlan computeValue(Class<?> clazz) {
+            return new ValidationPlan(clazz);
+        }
+    };
+
+    /**
+     * The properties to check, in the order the validator visits them.
+     */
+    private final ImmutableList<Property> properties;
+
+    /**
+     * Creates the plan for a class by walking its hierarchy.
+     *
+     * @param clazz the runtime class of the validated objects
+     */
+    private ValidationPlan(Class<?> clazz) {
+        ImmutableList.Builder<Property> builder = ImmutableList.builder();
+        if (!isLeaf(clazz)) {
+            if (clazz.getAnnotation(SkipParentValidation.class) == null) {
+                for (Class<?> c : TypeToken.of(clazz).getTypes().classes().rawTypes()) {
+                    addProperties(c, builder);
+                }
+            } else {
+                addProperties(clazz, builder);
+            }
+        }
+        this.properties = builder.build();
+    }
+
+    /**
+     * Adds the properties declared by one class of the hierarchy.
+     *
+     * @param c the class declaring the properties
+     * @param builder the properties of the plan
+     */
+    private static void addProperties(Class<?> c, ImmutableList.Builder<Property> builder) {
+        // Ignore checks for Object type.
+        if (c.isAssignableFrom(Object.class)) {
+            return;
+        }
+        for (Field field : c.getDeclaredFields()) {
+            int mod = field.getModifiers();
+            // Skip static fields since we don't have any, skip final fields since users can't modify them
+            if (Modifier.isFinal(mod) || Modifier.isStatic(mod)) {
+                continue;
+            }
+            JsonProperty annotation = field.getAnnotation(JsonProperty.class);
+            // Skip read-only properties (WRITE_ONLY)
+            if (annotation != null && annotation.access().equals(JsonProperty.Access.WRITE_ONLY)) {
+                continue;
+            }
+            builder.add(new Property(field, annotation != null && annotation.required()));
+        }
+    }
+
+    /**
+     * Gets the validation plan for a class, computing it on first use.
+     *
+     * @param clazz the runtime class of the validated objects
+     * @return the validation plan
+     */
+    static ValidationPlan forClass(Class<?> clazz) {
+        return PLANS.get(clazz);
+    }
+
+    /**
+     * @return the properties to check, empty for types that are never validated
+     */
+    ImmutableList<Property> properties() {
+        return properties;
+    }
+
+    /**
+     * Checks whether instances of a class are never validated: primitives and
+     * their wrappers, enums, strings and date and time types.
+     *
+     * @param type the runtime class of a value
+     * @return true if values of the class are not validated
+     */
+    private static boolean isLeaf(Class<?> type) {
+        TypeToken<?> token = TypeToken.of(type);
+        if (Primitives.isWrapperType(type)) {
+            token = token.unwrap();
+        }
+        return token.isPrimitive()
+                || type.isEnum()
+                || type == Class.class
+                || token.isSupertypeOf(LocalDate.class)
+                || token.isSupertypeOf(DateTime.class)
+                || token.isSupertypeOf(String.class)
+                || token.isSupertypeOf(DateTimeRfc1123.class)
+                || token.isSupertypeOf(Period.class);
+    }
+
+    /**
+     * Checks whether every value of a declared type is of a class that is never validated.
+     *
+     * @param type the declared type of a field or of an element
+     * @return true if no value of the type needs to be validated
+     */
+    private static boolean holdsLeaves(Type type) {
+        Class<?> raw = TypeToken.of(type).getRawType();
+        return raw.isPrimitive() || (Modifier.isFinal(raw.getModifiers()) && isLeaf(raw));
+    }
+
+    /**
+     * A property checked by the validator.
+     */
+    static final class Property {
+        /**
+         * The field name, used in error messages.
+         */
+        private final String name;
+
+        /**
+         * The getter of the field, adapted to (Object)Object.
+         */
+        private final MethodHandle getter;
+
+        /**
+         * True if the property cannot be null.
+         */
+        private final boolean required;
+
+        /**
+         * False if the value of the property never needs to be validated.
+         */
+        private final boolean nested;
+
+        /**
+         * False if the elements of a list value never need to be validated.
+         */
+        private final boolean nestedElements;
+
+        /**
+         * False if the keys of a map value never need to be validated.
+         */
+        private final boolean nestedKeys;
+
+        /**
+         * False if the values of a map value never need to be validated.
+         */
+        private final boolean nestedValues;
+
+        /**
+         * Creates the description of a property.
+         *
+         * @param field the field backing the property
+         * @param required true if the property cannot be null
+         */
+        private Property(Field field, boolean required) {
+            this.name = field.getName();
+            this.required = required;
+            field.setAccessible(true);
+            try {
+                this.getter = MethodHandles.lookup().unreflectGetter(field)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            TypeToken<?> type = TypeToken.of(field.getGenericType());
+            this.nested = !holdsLeaves(field.getGenericType());
+            this.nestedElements = !type.isSubtypeOf(List.class)
+                    || !holdsLeaves(type.resolveType(List.class.getTypeParameters()[0]).getType());
+            this.nestedKeys = !type.isSubtypeOf(Map.class)
+                    || !holdsLeaves(type.resolveType(Map.class.getTypeParameters()[0]).getType());
+            this.nestedValues = !type.isSubtypeOf(Map.class)
+                    || !holdsLeaves(type.resolveType(Map.class.getTypeParameters()[1]).getType());
+        }
+
+        /**
+         * @return the field name
+         */
+        String name() {
+            return name;
+        }
+
+        /**
+         * @return true if the property cannot be null
+         */
+        boolean required() {
+            return required;
+        }
+
+        /**
+         * @return false if the value of the property never needs to be validated
+         */
+        boolean nested() {
+            return nested;
+        }
+
+        /**
+         * @return false if the elements of a list value never need to be validated
+         */
+        boolean nestedElements() {
+            return nestedElements;
+        }
+
+        /**
+         * @return false if the keys of a map value never need to be validated
+         */
+        boolean nestedKeys() {
+            return nestedKeys;
+        }
+
+        /**
+         * @return false if the values of a map value never need to be validated
+         */
+        boolean nestedValues() {
+            return nestedValues;
+        }
+
+        /**
+         * Reads the property of an object.
+         *
+         * @param target the object
+         * @return the value of the property
+         */
+        Object get(Object target) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (Error | RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException(t.getMessage(), t);
+            }
+        }
+    }
+}
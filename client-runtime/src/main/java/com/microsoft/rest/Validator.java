@@ -6,16 +6,6 @@
 
 package com.microsoft.rest;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.primitives.Primitives;
-import com.google.common.reflect.TypeToken;
-import org.joda.time.DateTime;
-import org.joda.time.LocalDate;
-import org.joda.time.Period;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.List;
 import java.util.Map;
 
@@ -41,86 +31,51 @@ public final class Validator {
             return;
         }
 
-        Class parameterType = parameter.getClass();
-        TypeToken<?> parameterToken = TypeToken.of(parameterType);
-        if (Primitives.isWrapperType(parameterType)) {
-            parameterToken = parameterToken.unwrap();
-        }
-        if (parameterToken.isPrimitive()
-                || parameterType.isEnum()
-                || parameterType == Class.class
-                || parameterToken.isSupertypeOf(LocalDate.class)
-                || parameterToken.isSupertypeOf(DateTime.class)
-                || parameterToken.isSupertypeOf(String.class)
-                || parameterToken.isSupertypeOf(DateTimeRfc1123.class)
-                || parameterToken.isSupertypeOf(Period.class)) {
-            return;
-        }
-
-        Annotation skipParentAnnotation = parameterType.getAnnotation(SkipParentValidation.class);
-
-        if (skipParentAnnotation == null) {
-            for (Class<?> c : parameterToken.getTypes().classes().rawTypes()) {
-                validateClass(c, parameter);
-            }
-        } else {
-            validateClass(parameterType, parameter);
+        for (ValidationPlan.Property property : ValidationPlan.forClass(parameter.getClass()).properties()) {
+            validateProperty(property, parameter);
         }
     }
 
-    private static void validateClass(Class<?> c, Object parameter) {
-        // Ignore checks for Object type.
-        if (c.isAssignableFrom(Object.class)) {
-            return;
-        }
-        for (Field field : c.getDeclaredFields()) {
-            field.setAccessible(true);
-            int mod = field.getModifiers();
-            // Skip static fields since we don't have any, skip final fields since users can't modify them
-            if (Modifier.isFinal(mod) || Modifier.isStatic(mod)) {
-                continue;
-            }
-            JsonProperty annotation = field.getAnnotation(JsonProperty.class);
-            // Skip read-only properties (WRITE_ONLY)
-            if (annotation != null && annotation.access().equals(JsonProperty.Access.WRITE_ONLY)) {
-                continue;
+    /**
+     * Validates one property of a parameter, following the plan of the parameter class.
+     *
+     * @param property the property to validate
+     * @param parameter the object holding the property
+     */
+    private static void validateProperty(ValidationPlan.Property property, Object parameter) {
+        Object value = property.get(parameter);
+        if (value == null) {
+            if (property.required()) {
+                throw new IllegalArgumentException(property.name() + " is required and cannot be null.");
             }
-            Object property;
+        } else if (property.nested()) {
             try {
-                property = field.get(parameter);
-            } catch (IllegalAccessException e) {
-                throw new IllegalArgumentException(e.getMessage(), e);
-            }
-            if (property == null) {
-                if (annotation != null && annotation.required()) {
-                    throw new IllegalArgumentException(field.getName() + " is required and cannot be null.");
-                }
-            } else {
-                try {
-                    Class<?> propertyType = property.getClass();
-                    if (TypeToken.of(List.class).isSupertypeOf(propertyType)) {
-                        List<?> items = (List<?>) property;
-                        for (Object item : items) {
+                if (value instanceof List) {
+                    if (property.nestedElements()) {
+                        for (Object item : (List<?>) value) {
                             Validator.validate(item);
                         }
                     }
-                    else if (TypeToken.of(Map.class).isSupertypeOf(propertyType)) {
-                        Map<?, ?> entries = (Map<?, ?>) property;
-                        for (Map.Entry<?, ?> entry : entries.entrySet()) {
-                            Validator.validate(entry.getKey());
-                            Validator.validate(entry.getValue());
+                } else if (value instanceof Map) {
+                    if (property.nestedKeys() || property.nestedValues()) {
+                        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                            if (property.nestedKeys()) {
+                                Validator.validate(entry.getKey());
+                            }
+                            if (property.nestedValues()) {
+                                Validator.validate(entry.getValue());
+                            }
                         }
                     }
-                    else if (parameter.getClass() != propertyType) {
-                        Validator.validate(property);
-                    }
-                } catch (IllegalArgumentException ex) {
-                    if (ex.getCause() == null) {
-                        // Build property chain
-                        throw new IllegalArgumentException(field.getName() + "." + ex.getMessage());
-                    } else {
-                        throw ex;
-                    }
+                } else if (parameter.getClass() != value.getClass()) {
+                    Validator.validate(value);
+                }
+            } catch (IllegalArgumentException ex) {
+                if (ex.getCause() == null) {
+                    // Build property chain
+                    throw new IllegalArgumentException(property.name() + "." + ex.getMessage());
+                } else {
+                    throw ex;
                 }
             }
         }
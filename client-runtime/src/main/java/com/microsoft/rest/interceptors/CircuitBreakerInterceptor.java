@@ -0,0 +1,674 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.interceptors;
+
+import com.google.common.collect.ImmutableSet;
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An instance of this interceptor keeps a circuit breaker per host, so that an
+ * unhealthy host fails fast instead of holding dispatcher threads until its
+ * calls time out. A closed circuit lets all calls through and records their
+ * outcome in a sliding window of the most recent calls. When the failure rate
+ * or the slow call rate of the window reaches its threshold, the circuit opens
+ * and calls are rejected with a {@link CircuitBreakerOpenException}. After the
+ * open duration, the circuit is half-open and lets a few trial calls through:
+ * it closes again if they all succeed, and opens again otherwise.
+ *
+ * Failures are IO errors, except for canceled calls, and responses with a 5xx
+ * status code. Add the interceptor with {@code RestClient.Builder.withInterceptor}
+ * so that it runs before the retry handler and also spares the retries.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class CircuitBreakerInterceptor implements Interceptor {
+    /**
+     * The states of a circuit.
+     */
+    public enum State {
+        /** Calls go through and their outcome is recorded. */
+        CLOSED,
+        /** Calls are rejected. */
+        OPEN,
+        /** A limited number of trial calls go through. */
+        HALF_OPEN
+    }
+
+    /**
+     * The circuits of the hosts called so far.
+     */
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    /**
+     * The state transitions of all the circuits.
+     */
+    private final Subject<StateTransition, StateTransition> transitions = PublishSubject.<StateTransition>create().toSerialized();
+
+    /**
+     * The failure rate opening a circuit, between 0 and 1.
+     */
+    private volatile double failureRateThreshold = 0.5;
+
+    /**
+     * The rate of slow calls opening a circuit, between 0 and 1.
+     */
+    private volatile double slowCallRateThreshold = 1.0;
+
+    /**
+     * The duration from which a call is slow, in nanoseconds.
+     */
+    private volatile long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(60);
+
+    /**
+     * The number of most recent calls the rates are computed on.
+     */
+    private volatile int windowSize = 100;
+
+    /**
+     * The number of calls to record before the rates are computed.
+     */
+    private volatile int minimumCalls = 20;
+
+    /**
+     * How long a circuit stays open before letting trial calls through, in nanoseconds.
+     */
+    private volatile long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * The number of trial calls in the half-open state.
+     */
+    private volatile int halfOpenCalls = 5;
+
+    /**
+     * Sets the failure rate opening a circuit.
+     *
+     * @param failureRateThreshold the failure rate, between 0 (excluded) and 1. Default is 0.5.
+     * @return the interceptor instance itself.
+     */
+    public CircuitBreakerInterceptor withFailureRateThreshold(double failureRateThreshold) {
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 1)) {
+            throw new IllegalArgumentException("failureRateThreshold must be greater than 0 and at most 1.");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    /**
+     * Sets when calls are slow and the rate of slow calls opening a circuit.
+     *
+     * @param slowCallDuration the duration from which a call is slow. Default is 60 seconds.
+     * @param unit the unit of the duration
+     * @param slowCallRateThreshold the slow call rate, between 0 (excluded) and 1. Default is 1.
+     * @return the interceptor instance itself.
+     */
+    public CircuitBreakerInterceptor withSlowCallThreshold(long slowCallDuration, TimeUnit unit, double slowCallRateThreshold) {
+        if (slowCallDuration <= 0) {
+            throw new IllegalArgumentException("slowCallDuration must be positive.");
+        }
+        if (!(slowCallRateThreshold > 0 && slowCallRateThreshold <= 1)) {
+            throw new IllegalArgumentException("slowCallRateThreshold must be greater than 0 and at most 1.");
+        }
+        this.slowCallDurationNanos = unit.toNanos(slowCallDuration);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the sliding window the rates are computed on. It only applies to circuits created afterwards.
+     *
+     * @param windowSize the number of most recent calls in the window. Default is 100.
+     * @param minimumCalls the number of calls to record before the rates are computed. Default is 20.
+     * @return the interceptor instance itself.
+     */
+    public CircuitBreakerInterceptor withWindow(int windowSize, int minimumCalls) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("minimumCalls must be between 1 and windowSize.");
+        }
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * Sets how long a circuit stays open before letting trial calls through.
+     *
+     * @param openDuration the open duration. Default is 30 seconds.
+     * @param unit the unit of the duration
+     * @return the interceptor instance itself.
+     */
+    public CircuitBreakerInterceptor withOpenDuration(long openDuration, TimeUnit unit) {
+        this.openDurationNanos = unit.toNanos(openDuration);
+        return this;
+    }
+
+    /**
+     * Sets the number of trial calls in the half-open state.
+     *
+     * @param halfOpenCalls the number of trial calls. Default is 5.
+     * @return the interceptor instance itself.
+     */
+    public CircuitBreakerInterceptor withHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) {
+            throw new IllegalArgumentException("halfOpenCalls must be positive.");
+        }
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+    /**
+     * @return the state transitions of all the circuits, emitted on the thread making the transition
+     */
+    public Observable<StateTransition> stateTransitions() {
+        return transitions;
+    }
+
+    /**
+     * @return the hosts called so far
+     */
+    public ImmutableSet<String> hosts() {
+        return ImmutableSet.copyOf(circuits.keySet());
+    }
+
+    /**
+     * Gets the metrics of the circuit of a host.
+     *
+     * @param host the host, with its port if it is not the default port of the scheme
+     * @return the metrics, or null if the host was not called
+     */
+    public Metrics metrics(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? null : circuit.metrics();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Circuit circuit = circuit(chain.request().url());
+        long admission = circuit.acquire();
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                circuit.release(admission);
+            } else {
+                circuit.record(admission, true, System.nanoTime() - start >= slowCallDurationNanos);
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            circuit.release(admission);
+            throw e;
+        }
+        //CHECKSTYLE IGNORE MagicNumber FOR NEXT 1 LINE
+        circuit.record(admission, response.code() >= 500, System.nanoTime() - start >= slowCallDurationNanos);
+        return response;
+    }
+
+    /**
+     * Gets the circuit of the host of a URL, creating it on first use.
+     *
+     * @param url the URL called
+     * @return the circuit
+     */
+    private Circuit circuit(HttpUrl url) {
+        String host = url.port() == HttpUrl.defaultPort(url.scheme()) ? url.host() : url.host() + ":" + url.port();
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            Circuit created = new Circuit(host, windowSize);
+            circuit = circuits.putIfAbsent(host, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * The circuit of one host.
+     */
+    private final class Circuit {
+        /**
+         * The host.
+         */
+        private final String host;
+
+        /**
+         * The outcomes of the most recent calls, a ring buffer of flags.
+         */
+        private final byte[] window;
+
+        /**
+         * The position of the next outcome in the window.
+         */
+        private int next;
+
+        /**
+         * The number of outcomes in the window.
+         */
+        private int buffered;
+
+        /**
+         * The number of failures in the window.
+         */
+        private int windowFailures;
+
+        /**
+         * The number of slow calls in the window.
+         */
+        private int windowSlowCalls;
+
+        /**
+         * The current state.
+         */
+        private State state = State.CLOSED;
+
+        /**
+         * The number of state transitions so far, which tells apart the calls admitted
+         * in the current state from the calls admitted before a transition.
+         */
+        private long generation;
+
+        /**
+         * When the circuit last opened, from {@link System#nanoTime()}.
+         */
+        private long openedAt;
+
+        /**
+         * The trial calls not started yet in the half-open state.
+         */
+        private int trialPermits;
+
+        /**
+         * The trial calls completed in the half-open state.
+         */
+        private int trialsCompleted;
+
+        /**
+         * The calls that succeeded.
+         */
+        private long successfulCalls;
+
+        /**
+         * The calls that failed.
+         */
+        private long failedCalls;
+
+        /**
+         * The calls that were slow.
+         */
+        private long slowCalls;
+
+        /**
+         * The calls that were rejected.
+         */
+        private long rejectedCalls;
+
+        /**
+         * Creates a closed circuit.
+         *
+         * @param host the host
+         * @param windowSize the number of most recent calls the rates are computed on
+         */
+        private Circuit(String host, int windowSize) {
+            this.host = host;
+            this.window = new byte[windowSize];
+        }
+
+        /**
+         * Lets a call through, or rejects it.
+         *
+         * @return the generation of the state the call is admitted in
+         * @throws CircuitBreakerOpenException thrown if the circuit rejects the call
+         */
+        long acquire() throws CircuitBreakerOpenException {
+            StateTransition transition = null;
+            long retryAfterNanos = -1;
+            long admission;
+            synchronized (this) {
+                if (state == State.OPEN) {
+                    long elapsed = System.nanoTime() - openedAt;
+                    if (elapsed >= openDurationNanos) {
+                        transition = moveTo(State.HALF_OPEN);
+                        trialPermits = halfOpenCalls;
+                        trialsCompleted = 0;
+                    } else {
+                        retryAfterNanos = openDurationNanos - elapsed;
+                    }
+                }
+                if (state == State.HALF_OPEN) {
+                    if (trialPermits > 0) {
+                        trialPermits--;
+                    } else {
+                        retryAfterNanos = 0;
+                    }
+                }
+                if (retryAfterNanos >= 0) {
+                    rejectedCalls++;
+                }
+                admission = generation;
+            }
+            publish(transition);
+            if (retryAfterNanos >= 0) {
+                throw new CircuitBreakerOpenException(host, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+            }
+            return admission;
+        }
+
+        /**
+         * Gives back the permit of a call whose outcome says nothing about the host.
+         *
+         * @param admission the generation of the state the call was admitted in
+         */
+        synchronized void release(long admission) {
+            if (state == State.HALF_OPEN && admission == generation) {
+                trialPermits++;
+            }
+        }
+
+        /**
+         * Records the outcome of a call and moves the circuit accordingly. Only the calls
+         * admitted in the current state move it: a call admitted while the circuit was
+         * closed is no trial call of a later half-open state.
+         *
+         * @param admission the generation of the state the call was admitted in
+         * @param failure true if the call failed
+         * @param slow true if the call was slow
+         */
+        void record(long admission, boolean failure, boolean slow) {
+            StateTransition transition = null;
+            synchronized (this) {
+                if (failure) {
+                    failedCalls++;
+                } else {
+                    successfulCalls++;
+                }
+                if (slow) {
+                    slowCalls++;
+                }
+                if (admission == generation) {
+                    transition = move(failure, slow);
+                }
+            }
+            publish(transition);
+        }
+
+        /**
+         * Moves the circuit on the outcome of a call admitted in its current state.
+         *
+         * @param failure true if the call failed
+         * @param slow true if the call was slow
+         * @return the state transition, or null if there was none
+         */
+        private StateTransition move(boolean failure, boolean slow) {
+            if (state == State.CLOSED) {
+                add(failure, slow);
+                if (buffered >= minimumCalls
+                        && (windowFailures >= failureRateThreshold * buffered
+                            || windowSlowCalls >= slowCallRateThreshold * buffered)) {
+                    return open();
+                }
+            } else if (state == State.HALF_OPEN) {
+                if (failure || slow) {
+                    return open();
+                } else if (++trialsCompleted >= halfOpenCalls) {
+                    StateTransition transition = moveTo(State.CLOSED);
+                    next = 0;
+                    buffered = 0;
+                    windowFailures = 0;
+                    windowSlowCalls = 0;
+                    return transition;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds an outcome to the sliding window, evicting the oldest one if the window is full.
+         *
+         * @param failure true if the call failed
+         * @param slow true if the call was slow
+         */
+        private void add(boolean failure, boolean slow) {
+            if (buffered == window.length) {
+                byte evicted = window[next];
+                windowFailures -= evicted & 1;
+                windowSlowCalls -= (evicted >> 1) & 1;
+            } else {
+                buffered++;
+            }
+            window[next] = (byte) ((failure ? 1 : 0) | (slow ? 2 : 0));
+            windowFailures += failure ? 1 : 0;
+            windowSlowCalls += slow ? 1 : 0;
+            next = (next + 1) % window.length;
+        }
+
+        /**
+         * Opens the circuit.
+         *
+         * @return the state transition
+         */
+        private StateTransition open() {
+            openedAt = System.nanoTime();
+            return moveTo(State.OPEN);
+        }
+
+        /**
+         * Moves the circuit to a new state.
+         *
+         * @param to the new state
+         * @return the state transition
+         */
+        private StateTransition moveTo(State to) {
+            StateTransition transition = new StateTransition(host, state, to);
+            state = to;
+            generation++;
+            return transition;
+        }
+
+        /**
+         * Emits a state transition, outside of the lock of the circuit.
+         *
+         * @param transition the state transition, or null if there was none
+         */
+        private void publish(StateTransition transition) {
+            if (transition != null) {
+                transitions.onNext(transition);
+            }
+        }
+
+        /**
+         * @return a snapshot of the metrics of the circuit
+         */
+        synchronized Metrics metrics() {
+            return new Metrics(state,
+                    buffered == 0 ? 0 : (double) windowFailures / buffered,
+                    buffered == 0 ? 0 : (double) windowSlowCalls / buffered,
+                    successfulCalls, failedCalls, slowCalls, rejectedCalls);
+        }
+    }
+
+    /**
+     * A change of state of the circuit of a host.
+     */
+    public static final class StateTransition {
+        /**
+         * The host.
+         */
+        private final String host;
+
+        /**
+         * The previous state.
+         */
+        private final State from;
+
+        /**
+         * The new state.
+         */
+        private final State to;
+
+        /**
+         * Creates a state transition.
+         *
+         * @param host the host
+         * @param from the previous state
+         * @param to the new state
+         */
+        private StateTransition(String host, State from, State to) {
+            this.host = host;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the host
+         */
+        public String host() {
+            return host;
+        }
+
+        /**
+         * @return the previous state
+         */
+        public State from() {
+            return from;
+        }
+
+        /**
+         * @return the new state
+         */
+        public State to() {
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return host + ": " + from + " -> " + to;
+        }
+    }
+
+    /**
+     * A snapshot of the metrics of the circuit of a host.
+     */
+    public static final class Metrics {
+        /**
+         * The state of the circuit.
+         */
+        private final State state;
+
+        /**
+         * The failure rate in the sliding window.
+         */
+        private final double failureRate;
+
+        /**
+         * The slow call rate in the sliding window.
+         */
+        private final double slowCallRate;
+
+        /**
+         * The calls that succeeded.
+         */
+        private final long successfulCalls;
+
+        /**
+         * The calls that failed.
+         */
+        private final long failedCalls;
+
+        /**
+         * The calls that were slow.
+         */
+        private final long slowCalls;
+
+        /**
+         * The calls that were rejected.
+         */
+        private final long rejectedCalls;
+
+        /**
+         * Creates a snapshot of the metrics of a circuit.
+         *
+         * @param state the state of the circuit
+         * @param failureRate the failure rate in the sliding window
+         * @param slowCallRate the slow call rate in the sliding window
+         * @param successfulCalls the calls that succeeded
+         * @param failedCalls the calls that failed
+         * @param slowCalls the calls that were slow
+         * @param rejectedCalls the calls that were rejected
+         */
+        private Metrics(State state, double failureRate, double slowCallRate,
+                        long successfulCalls, long failedCalls, long slowCalls, long rejectedCalls) {
+            this.state = state;
+            this.failureRate = failureRate;
+            this.slowCallRate = slowCallRate;
+            this.successfulCalls = successfulCalls;
+            this.failedCalls = failedCalls;
+            this.slowCalls = slowCalls;
+            this.rejectedCalls = rejectedCalls;
+        }
+
+        /**
+         * @return the state of the circuit
+         */
+        public State state() {
+            return state;
+        }
+
+        /**
+         * @return the failure rate in the sliding window, while the circuit is closed
+         */
+        public double failureRate() {
+            return failureRate;
+        }
+
+        /**
+         * @return the slow call rate in the sliding window, while the circuit is closed
+         */
+        public double slowCallRate() {
+            return slowCallRate;
+        }
+
+        /**
+         * @return the number of calls that succeeded
+         */
+        public long successfulCalls() {
+            return successfulCalls;
+        }
+
+        /**
+         * @return the number of calls that failed
+         */
+        public long failedCalls() {
+            return failedCalls;
+        }
+
+        /**
+         * @return the number of calls that were slow, whether they failed or not
+         */
+        public long slowCalls() {
+            return slowCalls;
+        }
+
+        /**
+         * @return the number of calls that were rejected
+         */
+        public long rejectedCalls() {
+            return rejectedCalls;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.interceptors;
+
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown by {@link CircuitBreakerInterceptor} when a request is not
+ * sent because the circuit of its host is open.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class CircuitBreakerOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The host whose circuit is open.
+     */
+    private final String host;
+
+    /**
+     * The time left until the circuit lets trial requests through, in milliseconds.
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * Initializes a new instance of the {@link CircuitBreakerOpenException} class.
+     *
+     * @param host the host whose circuit is open
+     * @param retryAfterMillis the time left until the circuit lets trial requests through, in milliseconds
+     */
+    public CircuitBreakerOpenException(String host, long retryAfterMillis) {
+        super("The circuit breaker for " + host + " is open, requests are rejected for the next " + retryAfterMillis + " ms.");
+        this.host = host;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the host whose circuit is open
+     */
+    public String host() {
+        return host;
+    }
+
+    /**
+     * @return the time left until the circuit lets trial requests through, in milliseconds
+     */
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
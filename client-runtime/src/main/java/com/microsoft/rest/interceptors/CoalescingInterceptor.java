@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.interceptors;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An instance of this interceptor collapses identical GET requests in flight
+ * at the same time into a single call: the first request is sent and the
+ * ones arriving while it is pending wait for its response. The body is
+ * buffered once and every request gets its own copy of it, so each caller
+ * can read and close its response independently.
+ *
+ * Requests are identical when they have the same URL and the same
+ * Authorization header. When the interceptor is added with
+ * {@code RestClient.Builder.withInterceptor} it runs before the credentials
+ * are applied, so the key is the URL alone: an instance must not be shared
+ * by clients using different credentials. {@code RestClient.newBuilder()}
+ * gives the derived client an instance of its own for that reason. It cannot
+ * be added as a network interceptor, which must send exactly one call.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class CoalescingInterceptor implements Interceptor {
+    /**
+     * How often a waiting call checks whether it was canceled, in milliseconds.
+     */
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    /**
+     * The largest body buffered for sharing, in bytes.
+     */
+    private volatile long maxBufferedBytes = 4 * 1024 * 1024;
+
+    /**
+     * The calls in flight, by request key.
+     */
+    private final ConcurrentMap<String, SettableFuture<SharedResponse>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The number of GET requests seen.
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * The number of GET requests answered with the response of another request.
+     */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Sets the largest response body buffered to be shared. Requests waiting
+     * for a response with a larger body send their own call.
+     *
+     * @param maxBufferedBytes the size in bytes, 4 MB by default
+     * @return the interceptor instance itself.
+     */
+    public CoalescingInterceptor withMaxBufferedBytes(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        return this;
+    }
+
+    /**
+     * @return the largest response body buffered to be shared, in bytes
+     */
+    public long maxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /**
+     * @return the number of GET requests seen
+     */
+    public long requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of GET requests answered with the response of another request
+     */
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the share of GET requests answered with the response of another request
+     */
+    public double coalescedRate() {
+        long count = requests.get();
+        return count == 0 ? 0 : (double) coalesced.get() / count;
+    }
+
+    /**
+     * @return the number of distinct GET requests in flight
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+        String key = key(request);
+        SettableFuture<SharedResponse> flight = SettableFuture.create();
+        SettableFuture<SharedResponse> leader = inFlight.putIfAbsent(key, flight);
+        requests.incrementAndGet();
+        if (leader != null) {
+            SharedResponse shared = await(leader, chain);
+            if (shared == null) {
+                return chain.proceed(request);
+            }
+            coalesced.incrementAndGet();
+            return shared.copyFor(request);
+        }
+
+        SharedResponse shared = null;
+        Throwable failure = null;
+        try {
+            Response response = chain.proceed(request);
+            ResponseBody body = response.body();
+            if (body == null || body.contentLength() > maxBufferedBytes || body.source().request(maxBufferedBytes + 1)) {
+                // Too large to be buffered, the waiting requests send their own call
+                return response;
+            }
+            shared = new SharedResponse(response, body.contentType(), body.bytes());
+            return shared.copyFor(request);
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            // Removed before completion, so requests arriving from now on get a fresh response
+            inFlight.remove(key, flight);
+            if (failure == null || chain.call().isCanceled()) {
+                // Requests waiting on a canceled call send their own instead of failing with it
+                flight.set(shared);
+            } else {
+                flight.setException(failure);
+            }
+        }
+    }
+
+    /**
+     * Builds the key identical requests share.
+     *
+     * @param request the GET request
+     * @return the key
+     */
+    private static String key(Request request) {
+        String authorization = request.header("Authorization");
+        return authorization == null ? request.url().toString() : request.url() + "\n" + authorization;
+    }
+
+    /**
+     * Waits for the response of the identical request in flight.
+     *
+     * @param leader the future of the request in flight
+     * @param chain the interceptor chain of the waiting request
+     * @return the shared response, or null if the waiting request must send its own call
+     * @throws IOException thrown if the request in flight failed, or if the waiting call is canceled
+     */
+    private static SharedResponse await(SettableFuture<SharedResponse> leader, Chain chain) throws IOException {
+        try {
+            while (true) {
+                try {
+                    return leader.get(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (chain.call().isCanceled()) {
+                        throw new IOException("Canceled");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an identical request");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * A response whose body is buffered so that it can be handed out several times.
+     */
+    private static final class SharedResponse {
+        /**
+         * The response received, whose body is consumed.
+         */
+        private final Response response;
+
+        /**
+         * The media type of the body.
+         */
+        private final MediaType contentType;
+
+        /**
+         * The content of the body.
+         */
+        private final byte[] content;
+
+        SharedResponse(Response response, MediaType contentType, byte[] content) {
+            this.response = response;
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        /**
+         * Creates a copy of the response for a request, with its own body.
+         *
+         * @param request the request the copy answers
+         * @return the copy
+         */
+        Response copyFor(Request request) {
+            return response.newBuilder()
+                    .request(request)
+                    .body(ResponseBody.create(contentType, content))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.interceptors;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An instance of this interceptor caches the responses of GET requests
+ * carrying an ETag, and revalidates them with If-None-Match: when the
+ * service answers 304 Not Modified, the cached body is served instead, as a
+ * 200 response. The cache is bounded by the total size of the bodies it
+ * holds, the least recently used entries being evicted first.
+ *
+ * A PUT, PATCH or DELETE sent through the interceptor removes the entries of
+ * the resource it targets and of the collection holding it, so an instance
+ * should belong to a single {@code RestClient}, which must send all the
+ * writes of the cached resources.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class ConditionalGetCacheInterceptor implements Interceptor {
+    /**
+     * The default maximum total size of the cached bodies, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The cached responses.
+     */
+    private final Cache<CacheKey, CachedResponse> cache;
+
+    /**
+     * The largest body cached, in bytes.
+     */
+    private volatile long maxEntryBytes = 1024 * 1024;
+
+    /**
+     * The total size of the cached bodies, in bytes.
+     */
+    private final AtomicLong sizeBytes = new AtomicLong();
+
+    /**
+     * The number of GET requests seen.
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * The number of GET requests served from the cache after a 304.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of entries removed by writes.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates an interceptor caching up to {@link #DEFAULT_MAX_BYTES} of bodies.
+     */
+    public ConditionalGetCacheInterceptor() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates an interceptor caching up to the given size of bodies.
+     *
+     * @param maxBytes the maximum total size of the cached bodies, in bytes
+     */
+    public ConditionalGetCacheInterceptor(long maxBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<CacheKey, CachedResponse>() {
+                    @Override
+                    public int weigh(CacheKey key, CachedResponse value) {
+                        return value.content.length;
+                    }
+                })
+                .removalListener(new RemovalListener<CacheKey, CachedResponse>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<CacheKey, CachedResponse> notification) {
+                        sizeBytes.addAndGet(-notification.getValue().content.length);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Sets the largest body cached. Larger responses are passed through.
+     *
+     * @param maxEntryBytes the size in bytes, 1 MB by default
+     * @return the interceptor instance itself.
+     */
+    public ConditionalGetCacheInterceptor withMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+        return this;
+    }
+
+    /**
+     * @return the number of GET requests seen
+     */
+    public long requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of GET requests served from the cache after the service answered 304
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the share of GET requests served from the cache
+     */
+    public double hitRate() {
+        long count = requests.get();
+        return count == 0 ? 0 : (double) hits.get() / count;
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the size limit
+     */
+    public long evictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * @return the number of entries removed because their resource was written to
+     */
+    public long invalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public long entryCount() {
+        return cache.size();
+    }
+
+    /**
+     * @return the total size of the cached bodies, in bytes
+     */
+    public long sizeBytes() {
+        return sizeBytes.get();
+    }
+
+    /**
+     * Removes all the cached responses.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String method = request.method();
+        if ("PUT".equals(method) || "PATCH".equals(method) || "DELETE".equals(method)) {
+            invalidate(request.url());
+            try {
+                return chain.proceed(request);
+            } finally {
+                // Again, in case a GET running alongside cached the state before the write
+                invalidate(request.url());
+            }
+        }
+        if (!"GET".equals(method) || request.header("If-None-Match") != null) {
+            return chain.proceed(request);
+        }
+        requests.incrementAndGet();
+
+        CacheKey key = new CacheKey(request);
+        CachedResponse cached = cache.getIfPresent(key);
+        Response response = cached == null
+                ? chain.proceed(request)
+                : chain.proceed(request.newBuilder().header("If-None-Match", cached.etag).build());
+        if (cached != null && response.code() == 304) {
+            response.close();
+            hits.incrementAndGet();
+            return cached.copyFor(request, response);
+        }
+
+        String etag = response.header("ETag");
+        ResponseBody body = response.body();
+        if (response.code() != 200 || etag == null || body == null
+                || body.contentLength() > maxEntryBytes || body.source().request(maxEntryBytes + 1)) {
+            if (cached != null) {
+                cache.invalidate(key);
+            }
+            return response;
+        }
+        cached = new CachedResponse(response, etag, body.contentType(), body.bytes());
+        sizeBytes.addAndGet(cached.content.length);
+        cache.put(key, cached);
+        return cached.copyFor(request, response);
+    }
+
+    /**
+     * Removes the cached responses of a resource and of the collection holding it.
+     *
+     * @param url the URL of the resource written to
+     */
+    private void invalidate(HttpUrl url) {
+        String path = url.encodedPath();
+        List<String> segments = url.encodedPathSegments();
+        String parent = path.substring(0, Math.max(0, path.length() - segments.get(segments.size() - 1).length() - 1));
+        for (CacheKey key : cache.asMap().keySet()) {
+            if (key.host.equals(url.host()) && (key.path.equalsIgnoreCase(path) || key.path.equalsIgnoreCase(parent))) {
+                if (cache.asMap().remove(key) != null) {
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * The key of a cached response: the URL and the Authorization header of the GET request.
+     */
+    private static final class CacheKey {
+        /**
+         * The host of the request.
+         */
+        private final String host;
+
+        /**
+         * The path of the request, matched against the writes.
+         */
+        private final String path;
+
+        /**
+         * The full URL of the request.
+         */
+        private final String url;
+
+        /**
+         * The Authorization header of the request, may be null.
+         */
+        private final String authorization;
+
+        CacheKey(Request request) {
+            this.host = request.url().host();
+            this.path = request.url().encodedPath();
+            this.url = request.url().toString();
+            this.authorization = request.header("Authorization");
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return url.equals(other.url)
+                    && (authorization == null ? other.authorization == null : authorization.equals(other.authorization));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * url.hashCode() + (authorization == null ? 0 : authorization.hashCode());
+        }
+    }
+
+    /**
+     * A cached response with its buffered body.
+     */
+    private static final class CachedResponse {
+        /**
+         * The response received, whose body is consumed.
+         */
+        private final Response response;
+
+        /**
+         * The entity tag of the response.
+         */
+        private final String etag;
+
+        /**
+         * The media type of the body.
+         */
+        private final MediaType contentType;
+
+        /**
+         * The content of the body.
+         */
+        private final byte[] content;
+
+        CachedResponse(Response response, String etag, MediaType contentType, byte[] content) {
+            this.response = response;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        /**
+         * Creates a copy of the cached response for a request, with its own body.
+         *
+         * @param request the request the copy answers
+         * @param received the response actually received for the request
+         * @return the copy
+         */
+        Response copyFor(Request request, Response received) {
+            return response.newBuilder()
+                    .request(request)
+                    .sentRequestAtMillis(received.sentRequestAtMillis())
+                    .receivedResponseAtMillis(received.receivedResponseAtMillis())
+                    .body(ResponseBody.create(contentType, content))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.interceptors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import com.microsoft.rest.retry.RetryBudget;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An instance of this interceptor hedges GET requests: when a GET has not
+ * received its response headers after a delay, a second attempt is sent and
+ * the first attempt to get a response wins, the other one being canceled.
+ * The delay is a percentile of the recent latencies of the host, and hedges
+ * are capped by a {@link RetryBudget} so that they stay a small share of the
+ * traffic.
+ *
+ * The primary attempt goes down the chain on the calling thread. The hedge
+ * is a clone of the intercepted call, so it is sent by the client the call
+ * belongs to, with its credentials and interceptors, and skips the hedging.
+ * Hedges run on a pool of the interceptor, as large as the number of hedges
+ * its budget can save up. When the hedge wins, the intercepted call is
+ * canceled to stop the primary attempt, and the response of the hedge is
+ * returned; when the primary attempt completes first, the hedge is canceled.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class HedgingInterceptor implements Interceptor {
+    /**
+     * The number of recent latencies kept per host.
+     */
+    private static final int SAMPLES = 256;
+
+    /**
+     * The number of new latencies after which the hedge delay of a host is recomputed.
+     */
+    private static final int RECOMPUTE_EVERY = 16;
+
+    /**
+     * The timer firing the hedges, shared by all the interceptors.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("autorest-hedge-timer-%d").build());
+
+    /**
+     * The calls sent by the interceptor itself, which are not hedged.
+     */
+    private final Set<Call> attemptCalls = Collections.newSetFromMap(new ConcurrentHashMap<Call, Boolean>());
+
+    /**
+     * The budget hedges are withdrawn from.
+     */
+    private volatile RetryBudget budget = new RetryBudget(0.05, 1, 10);
+
+    /**
+     * The threads sending the hedges, as many as the hedges the budget can save up.
+     * Hedges beyond the bound are denied rather than queued.
+     */
+    private final ThreadPoolExecutor hedgePool = new ThreadPoolExecutor(0, budget.maxRetries(),
+            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("autorest-hedge-%d").build());
+
+    /**
+     * The percentile of the latencies used as hedge delay, between 0 and 1.
+     */
+    private volatile double percentile = 0.95;
+
+    /**
+     * The number of latencies to record for a host before the percentile is used.
+     */
+    private volatile int minimumSamples = 20;
+
+    /**
+     * The minimum hedge delay, in nanoseconds.
+     */
+    private volatile long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The maximum hedge delay, also used until enough latencies are recorded, in nanoseconds.
+     */
+    private volatile long maxDelayNanos = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The latencies of the hosts called so far.
+     */
+    private final ConcurrentMap<String, Latencies> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * The number of GET requests hedged or considered for hedging.
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * The number of hedges sent.
+     */
+    private final AtomicLong hedges = new AtomicLong();
+
+    /**
+     * The number of hedges whose response was used.
+     */
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * The number of hedges denied by the budget or the bound on the hedges in flight.
+     */
+    private final AtomicLong deniedHedges = new AtomicLong();
+
+    /**
+     * Sets the budget hedges are withdrawn from.
+     *
+     * @param budget the budget, by default 5% of the GET requests
+     * @return the interceptor instance itself.
+     */
+    public HedgingInterceptor withBudget(RetryBudget budget) {
+        this.budget = budget;
+        hedgePool.setMaximumPoolSize(Math.max(1, budget.maxRetries()));
+        return this;
+    }
+
+    /**
+     * Sets the percentile of the recent latencies of a host after which a GET is hedged.
+     *
+     * @param percentile the percentile, between 0 and 1. Default is 0.95.
+     * @param minimumSamples the number of latencies to record before using the percentile. Default is 20.
+     * @return the interceptor instance itself.
+     */
+    public HedgingInterceptor withPercentile(double percentile, int minimumSamples) {
+        if (percentile <= 0 || percentile > 1 || minimumSamples < 1 || minimumSamples > SAMPLES) {
+            throw new IllegalArgumentException("percentile must be in (0, 1] and minimumSamples in [1, " + SAMPLES + "].");
+        }
+        this.percentile = percentile;
+        this.minimumSamples = minimumSamples;
+        return this;
+    }
+
+    /**
+     * Sets the bounds of the hedge delay. The maximum is also the delay used
+     * until enough latencies are recorded for a host.
+     *
+     * @param minDelay the minimum delay. Default is 10 milliseconds.
+     * @param maxDelay the maximum delay. Default is 2 seconds.
+     * @param unit the unit of the delays
+     * @return the interceptor instance itself.
+     */
+    public HedgingInterceptor withDelayBounds(long minDelay, long maxDelay, TimeUnit unit) {
+        if (minDelay < 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("The delays must satisfy 0 <= minDelay <= maxDelay.");
+        }
+        this.minDelayNanos = unit.toNanos(minDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        return this;
+    }
+
+    /**
+     * @return the number of GET requests considered for hedging
+     */
+    public long requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of hedges sent
+     */
+    public long hedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the number of hedges whose response was used
+     */
+    public long hedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return the number of hedges denied by the budget or the bound on the hedges in flight
+     */
+    public long deniedHedgeCount() {
+        return deniedHedges.get();
+    }
+
+    /**
+     * @return the share of the hedges sent whose response was used, 0 if no hedge was sent
+     */
+    public double hedgeWinRate() {
+        long sent = hedges.get();
+        return sent == 0 ? 0 : (double) hedgeWins.get() / sent;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        final Call outer = chain.call();
+        if (!"GET".equals(request.method()) || attemptCalls.contains(outer)) {
+            return chain.proceed(request);
+        }
+        requests.incrementAndGet();
+        budget.deposit();
+
+        final Race race = new Race();
+        final Latencies hostLatencies = latencies(request.url());
+        final long start = System.nanoTime();
+        ScheduledFuture<?> hedge = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                startHedge(race, outer);
+            }
+        }, hostLatencies.hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            // Also thrown when the hedge won and canceled the call
+            Response hedged = race.primaryDone();
+            if (hedged == null) {
+                throw e;
+            }
+            hedgeWins.incrementAndGet();
+            return hedged;
+        } catch (RuntimeException | Error e) {
+            race.primaryDone();
+            throw e;
+        } finally {
+            hedge.cancel(false);
+        }
+        Response hedged = race.primaryDone();
+        if (hedged != null) {
+            response.close();
+            hedgeWins.incrementAndGet();
+            return hedged;
+        }
+        hostLatencies.add(System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Sends the hedge of a request on the hedge pool, if the request is still pending and the budget allows it.
+     *
+     * @param race the race between the attempts of the request
+     * @param outer the intercepted call
+     */
+    private void startHedge(final Race race, final Call outer) {
+        if (race.isSettled()) {
+            return;
+        }
+        if (!budget.tryWithdraw()) {
+            deniedHedges.incrementAndGet();
+            return;
+        }
+        final Call call = outer.clone();
+        if (!race.hedgeStarted(call)) {
+            return;
+        }
+        attemptCalls.add(call);
+        try {
+            hedgePool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Response response = null;
+                    try {
+                        response = call.execute();
+                    } catch (IOException e) {
+                        // The primary attempt goes on
+                    } finally {
+                        attemptCalls.remove(call);
+                    }
+                    race.hedgeDone(response, outer);
+                }
+            });
+            hedges.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            attemptCalls.remove(call);
+            deniedHedges.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the latencies of the host of a URL, creating them on first use.
+     *
+     * @param url the URL called
+     * @return the latencies
+     */
+    private Latencies latencies(HttpUrl url) {
+        String host = url.host() + ":" + url.port();
+        Latencies hostLatencies = latencies.get(host);
+        if (hostLatencies == null) {
+            Latencies created = new Latencies();
+            hostLatencies = latencies.putIfAbsent(host, created);
+            if (hostLatencies == null) {
+                hostLatencies = created;
+            }
+        }
+        return hostLatencies;
+    }
+
+    /**
+     * The race between the primary attempt and the hedge of a request: the first response wins.
+     */
+    private static final class Race {
+        /**
+         * The hedge, or null if it was not sent.
+         */
+        private Call hedge;
+
+        /**
+         * True once an attempt completed: no hedge can be sent any more.
+         */
+        private boolean settled;
+
+        /**
+         * The response of the hedge, if it won.
+         */
+        private Response hedgeResponse;
+
+        /**
+         * @return true once an attempt completed
+         */
+        synchronized boolean isSettled() {
+            return settled;
+        }
+
+        /**
+         * Records the hedge about to be sent, unless an attempt already completed.
+         *
+         * @param call the call of the hedge
+         * @return true if the hedge can be sent
+         */
+        synchronized boolean hedgeStarted(Call call) {
+            if (settled) {
+                return false;
+            }
+            hedge = call;
+            return true;
+        }
+
+        /**
+         * Records the outcome of the hedge. If it is the first response, the intercepted call is
+         * canceled to stop the primary attempt.
+         *
+         * @param response the response of the hedge, or null if it failed
+         * @param outer the intercepted call
+         */
+        void hedgeDone(Response response, Call outer) {
+            boolean won;
+            synchronized (this) {
+                won = response != null && !settled;
+                if (won) {
+                    settled = true;
+                    hedgeResponse = response;
+                }
+            }
+            if (won) {
+                outer.cancel();
+            } else if (response != null) {
+                response.close();
+            }
+        }
+
+        /**
+         * Records the completion of the primary attempt, canceling the hedge unless it won.
+         *
+         * @return the response of the hedge if it won, otherwise null
+         */
+        Response primaryDone() {
+            Call loser;
+            synchronized (this) {
+                if (hedgeResponse != null) {
+                    return hedgeResponse;
+                }
+                settled = true;
+                loser = hedge;
+            }
+            if (loser != null) {
+                loser.cancel();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The recent latencies of a host and the hedge delay derived from them.
+     */
+    private final class Latencies {
+        /**
+         * The recent latencies in nanoseconds, a ring buffer.
+         */
+        private final long[] samples = new long[SAMPLES];
+
+        /**
+         * The number of latencies recorded.
+         */
+        private long count;
+
+        /**
+         * The current hedge delay in nanoseconds, or -1 until enough latencies are recorded.
+         */
+        private volatile long delayNanos = -1;
+
+        /**
+         * Records the latency of a primary attempt.
+         *
+         * @param nanos the time until the response headers were received
+         */
+        synchronized void add(long nanos) {
+            samples[(int) (count % SAMPLES)] = nanos;
+            count++;
+            if (count >= minimumSamples && (delayNanos < 0 || count % RECOMPUTE_EVERY == 0)) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLES));
+                Arrays.sort(sorted);
+                delayNanos = sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+            }
+        }
+
+        /**
+         * @return the delay after which a pending GET to the host is hedged, in nanoseconds
+         */
+        long hedgeDelayNanos() {
+            long delay = delayNanos;
+            return delay < 0 ? maxDelayNanos : Math.max(minDelayNanos, Math.min(maxDelayNanos, delay));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.protocol;
+
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+/**
+ * This interface defines an optional behavior of a serializer adapter able
+ * to deserialize a stream without first decoding it into a string. Response
+ * bodies are deserialized from their byte stream when the adapter implements
+ * it, and from a string otherwise.
+ *
+ * @param <T> the original serializer
+ */
+@Beta(SinceVersion.V1_7_0)
+public interface StreamingSerializerAdapter<T> extends SerializerAdapter<T> {
+    /**
+     * Deserializes a UTF-8 encoded stream into a {@link U} object using the current {@link T}.
+     * The content is read directly from the stream without first being decoded into a string.
+     * The stream is not closed by this method.
+     *
+     * @param value the stream to deserialize.
+     * @param <U> the type of the deserialized object.
+     * @param type the type to deserialize.
+     * @return the deserialized object. Null if the stream is empty.
+     * @throws IOException exception in deserialization
+     */
+    <U> U deserialize(InputStream value, final Type type) throws IOException;
+}
@@ -6,10 +6,25 @@
 
 package com.microsoft.rest.retry;
 
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import okhttp3.Request;
 import okhttp3.Response;
 
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.security.cert.CertificateException;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * A retry strategy with backoff parameters for calculating the exponential delay between retries.
+ * Delays use decorrelated jitter: each one is drawn at random between the minimum backoff and
+ * three times the previous delay, the upper bound growing by at most the delta backoff per retry
+ * and never exceeding the maximum backoff. A delay asked for by the service through the
+ * x-ms-retry-after-ms or Retry-After headers takes precedence.
  */
 public final class ExponentialBackoffRetryStrategy extends RetryStrategy {
     /**
@@ -45,6 +60,10 @@ public final class ExponentialBackoffRetryStrategy extends RetryStrategy {
      * The maximum number of retry attempts.
      */
     private final int retryCount;
+    /**
+     * Whether requests failing without a response are retried.
+     */
+    private boolean retryTransportFailures;
 
     /**
      * Initializes a new instance of the {@link ExponentialBackoffRetryStrategy} class.
@@ -102,4 +121,77 @@ public final class ExponentialBackoffRetryStrategy extends RetryStrategy {
         return retryCount < this.retryCount
                 && (code == 408 || (code >= 500 && code != 501 && code != 505));
     }
+
+    /**
+     * Specifies whether idempotent requests failing without a response, on
+     * timeouts, connection failures or TLS handshake failures, are retried.
+     * The retries made by the {@link RetryHandler} send the same request, with
+     * the same x-ms-client-request-id; the retries of the service methods
+     * returning an Observable are new calls, with a new x-ms-client-request-id.
+     *
+     * @param retryTransportFailures true to retry such failures. Default is false.
+     * @return the retry strategy itself
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public ExponentialBackoffRetryStrategy withTransportRetries(boolean retryTransportFailures) {
+        this.retryTransportFailures = retryTransportFailures;
+        return this;
+    }
+
+    @Override
+    public boolean shouldRetry(int retryCount, Request request, IOException exception) {
+        return retryTransportFailures
+                && retryCount < this.retryCount
+                && isIdempotent(request)
+                && isTransient(exception);
+    }
+
+    /**
+     * Checks whether a failure without response is likely to go away on retry.
+     *
+     * @param exception the exception that caused the failure
+     * @return true if the failure is transient
+     */
+    private static boolean isTransient(IOException exception) {
+        if (exception instanceof SSLHandshakeException) {
+            return !(exception.getCause() instanceof CertificateException);
+        }
+        return exception instanceof SocketTimeoutException
+                || exception instanceof SocketException
+                || exception instanceof UnknownHostException;
+    }
+
+    @Override
+    public long retryDelayMillis(int retryCount, long previousDelayMillis, Response response) {
+        long serverDelay = serverRetryDelayMillis(response);
+        if (serverDelay >= 0) {
+            return serverDelay;
+        }
+        return backoffMillis(retryCount, previousDelayMillis);
+    }
+
+    @Override
+    public long retryDelayMillis(int retryCount, long previousDelayMillis, IOException exception) {
+        return backoffMillis(retryCount, previousDelayMillis);
+    }
+
+    /**
+     * Draws the delay before a retry.
+     *
+     * @param retryCount The current retry attempt count.
+     * @param previousDelayMillis The delay before the previous retry attempt in milliseconds, 0 for the first retry.
+     * @return the delay in milliseconds
+     */
+    private long backoffMillis(int retryCount, long previousDelayMillis) {
+        if (retryCount == 0 && isFastFirstRetry()) {
+            return 0;
+        }
+        long previous = Math.max(minBackoff, previousDelayMillis);
+        //CHECKSTYLE IGNORE MagicNumber FOR NEXT 1 LINE
+        long upper = Math.min(maxBackoff, Math.min(previous * 3, previous + deltaBackoff));
+        if (upper <= minBackoff) {
+            return Math.max(0, Math.min(minBackoff, maxBackoff));
+        }
+        return minBackoff + ThreadLocalRandom.current().nextLong(upper - minBackoff + 1);
+    }
 }
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.retry;
+
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket capping retries to a share of the healthy traffic. Every
+ * healthy response deposits a fraction of a token, every retry withdraws a
+ * whole one, and a small number of tokens is granted per second so that
+ * clients with little traffic can still retry. A budget can be shared by all
+ * the calls of a client through {@link RetryBudgetStrategy}, or by all the
+ * clients of the JVM through {@link #shared()}.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class RetryBudget {
+    /**
+     * Represents the default share of the healthy traffic that can be retried.
+     */
+    public static final double DEFAULT_RETRY_RATIO = 0.1;
+
+    /**
+     * Represents the default number of retries granted per second regardless of the traffic.
+     */
+    public static final double DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+
+    /**
+     * Represents the default maximum number of retries that can be saved up.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 100;
+
+    /**
+     * The number of milli-tokens in a token, i.e. in a retry.
+     */
+    private static final long TOKEN = 1000;
+
+    /**
+     * The budget shared by the whole JVM.
+     */
+    private static final RetryBudget SHARED = new RetryBudget();
+
+    /**
+     * The milli-tokens deposited per healthy response.
+     */
+    private final long deposit;
+
+    /**
+     * The milli-tokens granted per second.
+     */
+    private final double grantPerNano;
+
+    /**
+     * The maximum balance in milli-tokens.
+     */
+    private final long capacity;
+
+    /**
+     * The current balance in milli-tokens.
+     */
+    private long balance;
+
+    /**
+     * The time of the last grant, from {@link System#nanoTime()}.
+     */
+    private long lastGrant;
+
+    /**
+     * The number of retries allowed.
+     */
+    private final AtomicLong allowed = new AtomicLong();
+
+    /**
+     * The number of retries denied.
+     */
+    private final AtomicLong denied = new AtomicLong();
+
+    /**
+     * Initializes a new instance of the {@link RetryBudget} class with the default settings.
+     */
+    public RetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Initializes a new instance of the {@link RetryBudget} class.
+     *
+     * @param retryRatio the share of the healthy traffic that can be retried, e.g. 0.1 for 10%
+     * @param minRetriesPerSecond the number of retries granted per second regardless of the traffic
+     * @param maxRetries the maximum number of retries that can be saved up
+     */
+    public RetryBudget(double retryRatio, double minRetriesPerSecond, int maxRetries) {
+        if (retryRatio < 0 || minRetriesPerSecond < 0 || maxRetries < 1) {
+            throw new IllegalArgumentException("retryRatio and minRetriesPerSecond cannot be negative and maxRetries must be positive.");
+        }
+        this.deposit = Math.round(retryRatio * TOKEN);
+        this.grantPerNano = minRetriesPerSecond * TOKEN / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = maxRetries * TOKEN;
+        this.balance = Math.min(capacity, Math.round(minRetriesPerSecond * TOKEN));
+        this.lastGrant = System.nanoTime();
+    }
+
+    /**
+     * @return the budget shared by all the clients of the JVM
+     */
+    public static RetryBudget shared() {
+        return SHARED;
+    }
+
+    /**
+     * Records a healthy response, saving up a fraction of a retry.
+     */
+    public synchronized void deposit() {
+        balance = Math.min(capacity, balance + deposit);
+    }
+
+    /**
+     * Withdraws one retry from the budget if there is one left.
+     *
+     * @return true if the retry can be made; false if it is denied
+     */
+    public boolean tryWithdraw() {
+        boolean granted;
+        synchronized (this) {
+            grant();
+            granted = balance >= TOKEN;
+            if (granted) {
+                balance -= TOKEN;
+            }
+        }
+        (granted ? allowed : denied).incrementAndGet();
+        return granted;
+    }
+
+    /**
+     * Adds the tokens granted since the last grant.
+     */
+    private void grant() {
+        long now = System.nanoTime();
+        long granted = (long) ((now - lastGrant) * grantPerNano);
+        if (granted > 0) {
+            balance = Math.min(capacity, balance + granted);
+            lastGrant = now;
+        } else if (grantPerNano == 0) {
+            lastGrant = now;
+        }
+    }
+
+    /**
+     * @return the number of retries that can currently be made
+     */
+    public synchronized long availableRetries() {
+        grant();
+        return balance / TOKEN;
+    }
+
+    /**
+     * @return the maximum number of retries that can be saved up
+     */
+    public int maxRetries() {
+        return (int) (capacity / TOKEN);
+    }
+
+    /**
+     * @return the number of retries allowed by this budget
+     */
+    public long allowedRetries() {
+        return allowed.get();
+    }
+
+    /**
+     * @return the number of retries denied by this budget
+     */
+    public long deniedRetries() {
+        return denied.get();
+    }
+}
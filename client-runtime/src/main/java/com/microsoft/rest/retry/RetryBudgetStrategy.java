@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.retry;
+
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A retry strategy that only retries when another strategy would and a
+ * {@link RetryBudget} allows it. Since a client uses one retry strategy for
+ * all its calls, the budget is at least shared by all the calls of the
+ * client, which bounds the extra load retries put on an overloaded service.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class RetryBudgetStrategy extends RetryStrategy {
+    /**
+     * The strategy deciding whether and when a response is worth retrying.
+     */
+    private final RetryStrategy strategy;
+
+    /**
+     * The budget retries are withdrawn from.
+     */
+    private final RetryBudget budget;
+
+    /**
+     * Initializes a new instance of the {@link RetryBudgetStrategy} class with a budget of its own.
+     *
+     * @param strategy the strategy deciding whether and when a response is worth retrying
+     */
+    public RetryBudgetStrategy(RetryStrategy strategy) {
+        this(strategy, new RetryBudget());
+    }
+
+    /**
+     * Initializes a new instance of the {@link RetryBudgetStrategy} class.
+     *
+     * @param strategy the strategy deciding whether and when a response is worth retrying
+     * @param budget the budget retries are withdrawn from, possibly shared with other clients
+     */
+    public RetryBudgetStrategy(RetryStrategy strategy, RetryBudget budget) {
+        super(strategy.name(), strategy.isFastFirstRetry());
+        this.strategy = strategy;
+        this.budget = budget;
+    }
+
+    /**
+     * @return the strategy deciding whether and when a response is worth retrying
+     */
+    public RetryStrategy strategy() {
+        return strategy;
+    }
+
+    /**
+     * @return the budget retries are withdrawn from
+     */
+    public RetryBudget budget() {
+        return budget;
+    }
+
+    @Override
+    public boolean shouldRetry(int retryCount, Response response) {
+        if (!strategy.shouldRetry(retryCount, response)) {
+            int code = response.code();
+            //CHECKSTYLE IGNORE MagicNumber FOR NEXT 1 LINE
+            if (code < 500 && code != 408 && code != 429) {
+                budget.deposit();
+            }
+            return false;
+        }
+        return budget.tryWithdraw();
+    }
+
+    @Override
+    public boolean shouldRetry(int retryCount, Request request, IOException exception) {
+        return strategy.shouldRetry(retryCount, request, exception) && budget.tryWithdraw();
+    }
+
+    @Override
+    public long retryDelayMillis(int retryCount, long previousDelayMillis, Response response) {
+        return strategy.retryDelayMillis(retryCount, previousDelayMillis, response);
+    }
+
+    @Override
+    public long retryDelayMillis(int retryCount, long previousDelayMillis, IOException exception) {
+        return strategy.retryDelayMillis(retryCount, previousDelayMillis, exception);
+    }
+
+    @Override
+    public RetryStrategy withMaxServerRetryDelay(long maxServerRetryDelay, TimeUnit unit) {
+        // The delays are computed by the other strategy
+        strategy.withMaxServerRetryDelay(maxServerRetryDelay, unit);
+        return super.withMaxServerRetryDelay(maxServerRetryDelay, unit);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.retry;
+
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.HttpException;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A call adapter factory retrying the calls of the service methods returning an
+ * {@link Observable} with the strategy of a {@link RetryHandler}. The delay
+ * between two attempts is a timer on a shared scheduler, so no thread waits for
+ * it, and unsubscribing cancels it. The retry handler lets the calls of these
+ * methods through, and keeps retrying the other calls itself.
+ *
+ * Each attempt is a new call of the service method, which goes through all the
+ * interceptors of the client again and gets its own x-ms-client-request-id.
+ */
+@Beta(SinceVersion.V1_7_0)
+public final class RetryCallAdapterFactory extends CallAdapter.Factory {
+    /**
+     * The factory creating the adapters of the attempts.
+     */
+    private final CallAdapter.Factory delegate;
+
+    /**
+     * The retry handler whose strategy is used and whose counters are updated.
+     */
+    private final RetryHandler retryHandler;
+
+    /**
+     * The scheduler the delays are waited on.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * Initializes a new instance of the {@link RetryCallAdapterFactory} class, waiting on the
+     * computation scheduler.
+     *
+     * @param delegate the factory creating the adapters of the attempts
+     * @param retryHandler the retry handler of the client
+     */
+    public RetryCallAdapterFactory(CallAdapter.Factory delegate, RetryHandler retryHandler) {
+        this(delegate, retryHandler, Schedulers.computation());
+    }
+
+    /**
+     * Initializes a new instance of the {@link RetryCallAdapterFactory} class.
+     *
+     * @param delegate the factory creating the adapters of the attempts
+     * @param retryHandler the retry handler of the client
+     * @param scheduler the scheduler the delays are waited on
+     */
+    public RetryCallAdapterFactory(CallAdapter.Factory delegate, RetryHandler retryHandler, Scheduler scheduler) {
+        this.delegate = delegate;
+        this.retryHandler = retryHandler;
+        this.scheduler = scheduler;
+        retryHandler.deferObservableRetries();
+    }
+
+    @Override
+    public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+        CallAdapter<?, ?> adapter = delegate.get(returnType, annotations, retrofit);
+        if (adapter == null || getRawType(returnType) != Observable.class) {
+            return adapter;
+        }
+        return new RetryingCallAdapter<>(adapter);
+    }
+
+    /**
+     * Sends an attempt, and schedules the next one if its outcome is worth retrying.
+     *
+     * @param attempt the observable sending a new call on each subscription
+     * @param call the call of the service method
+     * @param retryCount the number of retries made so far
+     * @param previousDelayMillis the delay before the previous retry, in milliseconds
+     * @param <T> the type of the items emitted
+     * @return the observable of the first outcome not retried
+     */
+    private <T> Observable<T> attempt(final Observable<T> attempt, final Call<?> call, final int retryCount,
+            final long previousDelayMillis) {
+        final RetryStrategy strategy = retryHandler.strategy();
+        return attempt.flatMap(new Func1<T, Observable<T>>() {
+            @Override
+            public Observable<T> call(T item) {
+                if (item instanceof Response && strategy.shouldRetry(retryCount, ((Response<?>) item).raw())) {
+                    Response<?> response = (Response<?>) item;
+                    close(response);
+                    long delay = strategy.retryDelayMillis(retryCount, previousDelayMillis, response.raw());
+                    return retry(attempt, call, retryCount, delay, false);
+                }
+                return Observable.just(item);
+            }
+        }, new Func1<Throwable, Observable<T>>() {
+            @Override
+            public Observable<T> call(Throwable error) {
+                if (error instanceof HttpException) {
+                    okhttp3.Response raw = ((HttpException) error).response().raw();
+                    if (strategy.shouldRetry(retryCount, raw)) {
+                        long delay = strategy.retryDelayMillis(retryCount, previousDelayMillis, raw);
+                        return retry(attempt, call, retryCount, delay, false);
+                    }
+                } else if (error instanceof IOException
+                        && strategy.shouldRetry(retryCount, call.request(), (IOException) error)) {
+                    long delay = strategy.retryDelayMillis(retryCount, previousDelayMillis, (IOException) error);
+                    return retry(attempt, call, retryCount, delay, true);
+                }
+                return Observable.error(error);
+            }
+        }, new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                return Observable.empty();
+            }
+        });
+    }
+
+    /**
+     * Sends the next attempt after a delay.
+     */
+    private <T> Observable<T> retry(final Observable<T> attempt, final Call<?> call, final int retryCount,
+            final long delayMillis, final boolean transport) {
+        return Observable.timer(delayMillis, TimeUnit.MILLISECONDS, scheduler)
+                .concatMap(new Func1<Long, Observable<T>>() {
+                    @Override
+                    public Observable<T> call(Long tick) {
+                        retryHandler.recordRetry(delayMillis, transport);
+                        return attempt(attempt, call, retryCount + 1, delayMillis);
+                    }
+                });
+    }
+
+    /**
+     * Closes the bodies of a response which is not handed out.
+     */
+    private static void close(Response<?> response) {
+        if (response.body() instanceof ResponseBody) {
+            ((ResponseBody) response.body()).close();
+        }
+        if (response.errorBody() != null) {
+            response.errorBody().close();
+        }
+    }
+
+    /**
+     * Adapts the calls of a service method returning an {@link Observable}, retrying them.
+     *
+     * @param <R> the type of the body of the responses
+     */
+    private final class RetryingCallAdapter<R> implements CallAdapter<R, Object> {
+        /**
+         * The adapter creating the observable of an attempt.
+         */
+        private final CallAdapter<R, ?> adapter;
+
+        @SuppressWarnings("unchecked")
+        RetryingCallAdapter(CallAdapter<?, ?> adapter) {
+            this.adapter = (CallAdapter<R, ?>) adapter;
+        }
+
+        @Override
+        public Type responseType() {
+            return adapter.responseType();
+        }
+
+        @Override
+        public Object adapt(Call<R> call) {
+            // The observable clones the call on each subscription, so resubscribing sends a new call
+            return attempt((Observable<?>) adapter.adapt(call), call, 0, 0);
+        }
+    }
+}
@@ -6,14 +6,28 @@
 
 package com.microsoft.rest.retry;
 
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
 import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
+import retrofit2.Invocation;
+import rx.Observable;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An instance of this interceptor placed in the request pipeline handles retriable errors.
+ * Between attempts, it waits for the delay given by the retry strategy on the thread of
+ * the call, and gives up waiting if the call is canceled or the thread interrupted.
+ *
+ * Once a {@link RetryCallAdapterFactory} uses this handler, the calls of the service
+ * methods returning an {@link Observable} are let through and retried by the factory
+ * without holding a thread. The other calls, such as plain OkHttp calls and Retrofit
+ * {@link retrofit2.Call}s, are still retried here.
  */
 public final class RetryHandler implements Interceptor {
     /**
@@ -33,12 +47,38 @@ public final class RetryHandler implements Interceptor {
      * Represents the default minimum backoff time.
      */
     private static final int DEFAULT_MIN_BACKOFF = 1000;
+    /**
+     * How often a waiting call checks whether it was canceled, in milliseconds.
+     * OkHttp does not notify cancellations, so they can only be polled.
+     */
+    private static final long CANCEL_CHECK_MILLIS = 100;
 
     /**
      * The retry strategy to use.
      */
     private RetryStrategy retryStrategy;
 
+    /**
+     * The number of retries made by this handler.
+     */
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * The number of retries made by this handler after failures without a response.
+     */
+    private final AtomicLong transportRetries = new AtomicLong();
+
+    /**
+     * The total time spent backing off before retries, in milliseconds.
+     */
+    private final AtomicLong backoffMillis = new AtomicLong();
+
+    /**
+     * Whether the calls of the service methods returning an {@link Observable} are retried
+     * by a {@link RetryCallAdapterFactory}.
+     */
+    private volatile boolean observableRetriesDeferred;
+
     /**
      * @return the strategy used by this handler
      */
@@ -67,24 +107,116 @@ public final class RetryHandler implements Interceptor {
         this.retryStrategy = retryStrategy;
     }
 
+    /**
+     * @return the number of retries made by this handler
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public long retryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return the number of retries made by this handler after failures without a response
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public long transportRetryCount() {
+        return transportRetries.get();
+    }
+
+    /**
+     * @return the total time spent backing off before retries, in milliseconds
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public long totalBackoffMillis() {
+        return backoffMillis.get();
+    }
+
+    /**
+     * Lets the calls of the service methods returning an {@link Observable} through, as a
+     * {@link RetryCallAdapterFactory} retries them.
+     */
+    void deferObservableRetries() {
+        observableRetriesDeferred = true;
+    }
+
+    /**
+     * Records a retry.
+     *
+     * @param delay the delay before the retry in milliseconds
+     * @param transport whether the retry follows a failure without a response
+     */
+    void recordRetry(long delay, boolean transport) {
+        retries.incrementAndGet();
+        backoffMillis.addAndGet(delay);
+        if (transport) {
+            transportRetries.incrementAndGet();
+        }
+    }
+
     @Override
     public Response intercept(Chain chain) throws IOException {
         Request request = chain.request();
-
-        // try the request
-        Response response = chain.proceed(request);
+        if (observableRetriesDeferred) {
+            Invocation invocation = request.tag(Invocation.class);
+            if (invocation != null && invocation.method().getReturnType() == Observable.class) {
+                return chain.proceed(request);
+            }
+        }
 
         int tryCount = 0;
-        while (retryStrategy.shouldRetry(tryCount, response)) {
+        long delay = 0;
+        while (true) {
+            Response response;
+            try {
+                // try the request
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (chain.call().isCanceled() || !retryStrategy.shouldRetry(tryCount, request, e)) {
+                    throw e;
+                }
+                delay = retryStrategy.retryDelayMillis(tryCount, delay, e);
+                tryCount++;
+                backOff(delay, chain);
+                recordRetry(delay, true);
+                continue;
+            }
+            if (!retryStrategy.shouldRetry(tryCount, response)) {
+                // otherwise just pass the response on
+                return response;
+            }
+            delay = retryStrategy.retryDelayMillis(tryCount, delay, response);
             tryCount++;
             if (response.body() != null) {
                 response.body().close();
             }
-            // retry the request
-            response = chain.proceed(request);
+            backOff(delay, chain);
+            recordRetry(delay, false);
         }
+    }
 
-        // otherwise just pass the original response on
-        return response;
+    /**
+     * Waits before a retry.
+     *
+     * @param delay the delay in milliseconds
+     * @param chain the interceptor chain of the call
+     * @throws IOException thrown if the call is canceled or the thread interrupted while waiting
+     */
+    private void backOff(long delay, Chain chain) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        try {
+            while (true) {
+                if (chain.call().isCanceled()) {
+                    throw new IOException("Canceled");
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(CANCEL_CHECK_MILLIS)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
     }
 }
@@ -6,7 +6,16 @@
 
 package com.microsoft.rest.retry;
 
+import com.microsoft.azure.management.apigeneration.Beta;
+import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
+import com.microsoft.rest.DateTimeRfc1123;
+import com.google.common.collect.ImmutableSet;
+import okhttp3.Request;
 import okhttp3.Response;
+import retrofit2.Invocation;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a retry strategy that determines the number of retry attempts and the interval
@@ -28,6 +37,26 @@ public abstract class RetryStrategy {
      */
     public static final boolean DEFAULT_FIRST_FAST_RETRY = true;
 
+    /**
+     * The header in which Azure services return the number of milliseconds to wait before retrying.
+     */
+    public static final String RETRY_AFTER_MS_HEADER = "x-ms-retry-after-ms";
+
+    /**
+     * The standard header in which services return the number of seconds, or the date, to wait until before retrying.
+     */
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    /**
+     * Represents the default maximum delay honored from the retry headers of a service, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_SERVER_RETRY_DELAY = 1000 * 60;
+
+    /**
+     * The HTTP methods that are safe to send again by default.
+     */
+    private static final ImmutableSet<String> IDEMPOTENT_METHODS = ImmutableSet.of("GET", "HEAD", "OPTIONS", "DELETE", "TRACE");
+
     /**
      * The name of the retry strategy.
      */
@@ -39,6 +68,11 @@ public abstract class RetryStrategy {
      */
     private boolean fastFirstRetry;
 
+    /**
+     * The maximum delay honored from the retry headers of a service, in milliseconds.
+     */
+    private long maxServerRetryDelayMillis = DEFAULT_MAX_SERVER_RETRY_DELAY;
+
     /**
      * Initializes a new instance of the {@link RetryStrategy} class.
      *
@@ -60,6 +94,132 @@ public abstract class RetryStrategy {
      */
     public abstract boolean shouldRetry(int retryCount, Response response);
 
+    /**
+     * Returns how long to wait before retrying a request. By default, this is the
+     * delay asked for by the service, if any, and no delay otherwise.
+     *
+     * @param retryCount The current retry attempt count.
+     * @param previousDelayMillis The delay before the previous retry attempt in milliseconds, 0 for the first retry.
+     * @param response The response that caused the retry conditions to occur.
+     * @return the delay in milliseconds; 0 to retry immediately.
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public long retryDelayMillis(int retryCount, long previousDelayMillis, Response response) {
+        return Math.max(0, serverRetryDelayMillis(response));
+    }
+
+    /**
+     * Returns if a request should be retried after it failed without a response,
+     * e.g. on a timeout or a connection reset. By default, such failures are not retried.
+     *
+     * @param retryCount The current retry attempt count.
+     * @param request The request that failed.
+     * @param exception The exception that caused the retry conditions to occur.
+     * @return true if the request should be retried; false otherwise.
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public boolean shouldRetry(int retryCount, Request request, IOException exception) {
+        return false;
+    }
+
+    /**
+     * Returns how long to wait before retrying a request that failed without a response.
+     *
+     * @param retryCount The current retry attempt count.
+     * @param previousDelayMillis The delay before the previous retry attempt in milliseconds, 0 for the first retry.
+     * @param exception The exception that caused the retry conditions to occur.
+     * @return the delay in milliseconds; 0 to retry immediately.
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public long retryDelayMillis(int retryCount, long previousDelayMillis, IOException exception) {
+        return 0;
+    }
+
+    /**
+     * Checks whether a request can be sent again without side effects: GET, HEAD,
+     * OPTIONS, DELETE and TRACE requests, and PUT requests made by a service method
+     * annotated with {@link IdempotentOperation}.
+     *
+     * @param request the request
+     * @return true if the request is idempotent
+     */
+    protected static boolean isIdempotent(Request request) {
+        if (IDEMPOTENT_METHODS.contains(request.method())) {
+            return true;
+        }
+        Invocation invocation = request.tag(Invocation.class);
+        return "PUT".equals(request.method())
+                && invocation != null
+                && invocation.method().isAnnotationPresent(IdempotentOperation.class);
+    }
+
+    /**
+     * Sets the maximum delay honored from the x-ms-retry-after-ms and Retry-After
+     * headers. Longer delays asked for by a service are shortened to it, so that a
+     * wrong header cannot stall a call indefinitely.
+     *
+     * @param maxServerRetryDelay the maximum delay. Default is 60 seconds.
+     * @param unit the time unit of the delay
+     * @return the retry strategy itself
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public RetryStrategy withMaxServerRetryDelay(long maxServerRetryDelay, TimeUnit unit) {
+        this.maxServerRetryDelayMillis = unit.toMillis(maxServerRetryDelay);
+        return this;
+    }
+
+    /**
+     * @return the maximum delay honored from the retry headers of a service, in milliseconds
+     */
+    @Beta(SinceVersion.V1_7_0)
+    public long maxServerRetryDelayMillis() {
+        return maxServerRetryDelayMillis;
+    }
+
+    /**
+     * Reads the delay asked for by the service from the x-ms-retry-after-ms
+     * header, or else from the Retry-After header, bounded by the maximum
+     * server retry delay.
+     *
+     * @param response The response that caused the retry conditions to occur.
+     * @return the delay in milliseconds, or -1 if the service did not ask for one.
+     */
+    protected long serverRetryDelayMillis(Response response) {
+        long delay = headerRetryDelayMillis(response);
+        return delay < 0 ? delay : Math.min(delay, maxServerRetryDelayMillis);
+    }
+
+    /**
+     * Reads the delay asked for by the service from the x-ms-retry-after-ms
+     * header, or else from the Retry-After header.
+     *
+     * @param response The response that caused the retry conditions to occur.
+     * @return the delay in milliseconds, or -1 if the service did not ask for one.
+     */
+    private static long headerRetryDelayMillis(Response response) {
+        String retryAfterMs = response.header(RETRY_AFTER_MS_HEADER);
+        if (retryAfterMs != null) {
+            try {
+                return Math.max(0, (long) Double.parseDouble(retryAfterMs.trim()));
+            } catch (NumberFormatException e) {
+                // Fall back to Retry-After
+            }
+        }
+        String retryAfter = response.header(RETRY_AFTER_HEADER);
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException e) {
+                try {
+                    return Math.max(0, new DateTimeRfc1123(retryAfter.trim()).dateTime().getMillis() - System.currentTimeMillis());
+                } catch (IllegalArgumentException ex) {
+                    // Not a date either, ignore the header
+                }
+            }
+        }
+        return -1;
+    }
+
     /**
      * Gets the name of the retry strategy.
      *
@@ -6,9 +6,8 @@
 
 package com.microsoft.rest.serializer;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.DeserializationConfig;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -19,13 +18,11 @@ import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
 import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.reflect.TypeToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.microsoft.azure.management.apigeneration.Beta;
 import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 
 /**
  * Custom serializer for deserializing complex types with additional properties.
@@ -45,6 +42,11 @@ public final class AdditionalPropertiesDeserializer extends StdDeserializer<Obje
      */
     private final ObjectMapper mapper;
 
+    /**
+     * The additional properties plan of the handled type.
+     */
+    private final AdditionalPropertiesPlan plan;
+
     /**
      * Creates an instance of FlatteningDeserializer.
      * @param vc handled type
@@ -55,6 +57,7 @@ public final class AdditionalPropertiesDeserializer extends StdDeserializer<Obje
         super(vc);
         this.defaultDeserializer = defaultDeserializer;
         this.mapper = mapper;
+        this.plan = AdditionalPropertiesPlan.forClass(defaultDeserializer.handledType());
     }
 
     /**
@@ -69,16 +72,8 @@ public final class AdditionalPropertiesDeserializer extends StdDeserializer<Obje
         module.setDeserializerModifier(new BeanDeserializerModifier() {
             @Override
             public JsonDeserializer<?> modifyDeserializer(DeserializationConfig config, BeanDescription beanDesc, JsonDeserializer<?> deserializer) {
-                for (Class<?> c : TypeToken.of(beanDesc.getBeanClass()).getTypes().classes().rawTypes()) {
-                    Field[] fields = c.getDeclaredFields();
-                    for (Field field : fields) {
-                        if ("additionalProperties".equalsIgnoreCase(field.getName())) {
-                            JsonProperty property = field.getAnnotation(JsonProperty.class);
-                            if (property != null && property.value().isEmpty()) {
-                                return new AdditionalPropertiesDeserializer(beanDesc.getBeanClass(), deserializer, mapper);
-                            }
-                        }
-                    }
+                if (AdditionalPropertiesPlan.forClass(beanDesc.getBeanClass()).hasAdditionalProperties()) {
+                    return new AdditionalPropertiesDeserializer(beanDesc.getBeanClass(), deserializer, mapper);
                 }
                 return deserializer;
             }
@@ -86,31 +81,35 @@ public final class AdditionalPropertiesDeserializer extends StdDeserializer<Obje
         return module;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Object deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
-        ObjectNode root = mapper.readTree(jp);
-        ObjectNode copy = root.deepCopy();
-
-        // compare top level fields and keep only missing fields
-        final Class<?> tClass = this.defaultDeserializer.handledType();
-        for (Class<?> c : TypeToken.of(tClass).getTypes().classes().rawTypes()) {
-            Field[] fields = c.getDeclaredFields();
-            for (Field field : fields) {
-                JsonProperty property = field.getAnnotation(JsonProperty.class);
-                String key = property.value().split("((?<!\\\\))\\.")[0];
-                if (!key.isEmpty()) {
-                    if (copy.has(key)) {
-                        copy.remove(key);
-                    }
-                }
-            }
+        JsonToken token = jp.getCurrentToken();
+        if (token != JsonToken.START_OBJECT && token != JsonToken.FIELD_NAME) {
+            return defaultDeserializer.deserialize(jp, ctxt);
+        }
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
+        // route top level fields the type does not declare into additional properties
+        TokenBuffer buffer = new TokenBuffer(jp, ctxt);
+        TokenBuffer additionalProperties = new TokenBuffer(jp, ctxt);
+        buffer.writeStartObject();
+        additionalProperties.writeStartObject();
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            jp.nextToken();
+            TokenBuffer target = plan.declaredKeys().contains(fieldName) ? buffer : additionalProperties;
+            target.writeFieldName(fieldName);
+            target.copyCurrentStructure(jp);
         }
+        additionalProperties.writeEndObject();
 
         // put into additional properties
-        root.put("additionalProperties", copy);
+        buffer.writeFieldName(plan.fieldName());
+        additionalProperties.serialize(buffer);
+        buffer.writeEndObject();
 
-        JsonParser parser = new JsonFactory().createParser(root.toString());
+        JsonParser parser = buffer.asParser(jp.getCodec());
         parser.nextToken();
         return defaultDeserializer.deserialize(parser, ctxt);
     }
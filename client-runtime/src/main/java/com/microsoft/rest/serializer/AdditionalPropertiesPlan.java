@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.serializer;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * The immutable description of the additional properties of a POJO class, i.e.
+ * of its field named "additionalProperties" with serialized name empty (""), and
+ * of the top level keys its declared properties take on the wire. A plan is
+ * computed once per class and shared by the serializer and the deserializer.
+ */
+final class AdditionalPropertiesPlan {
+    /**
+     * The plans already computed, one per model class and stored with it.
+     */
+    private static final ClassValue<AdditionalPropertiesPlan> PLANS = new ClassValue<AdditionalPropertiesPlan>() {
+        @Override
+        protected AdditionalPropertiesPlan computeValue(Class<?> clazz) {
+            return new AdditionalPropertiesPlan(clazz);
+        }
+    };
+
+    /**
+     * The name of the field holding the additional properties, or null if the class has none.
+     */
+    private final String fieldName;
+
+    /**
+     * The top level keys on the wire of the properties declared by the class.
+     */
+    private final ImmutableSet<String> declaredKeys;
+
+    /**
+     * Creates the plan for a class by walking its hierarchy.
+     *
+     * @param clazz the POJO class
+     */
+    private AdditionalPropertiesPlan(Class<?> clazz) {
+        String additionalPropertiesField = null;
+        ImmutableSet.Builder<String> keys = ImmutableSet.builder();
+        for (Class<?> c : TypeToken.of(clazz).getTypes().classes().rawTypes()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                JsonProperty property = field.getAnnotation(JsonProperty.class);
+                if (additionalPropertiesField == null
+                        && "additionalProperties".equalsIgnoreCase(field.getName())
+                        && property != null
+                        && property.value().isEmpty()) {
+                    additionalPropertiesField = field.getName();
+                }
+                String key = property != null ? property.value().split("((?<!\\\\))\\.")[0] : field.getName();
+                if (!key.isEmpty()) {
+                    keys.add(key);
+                }
+            }
+        }
+        this.fieldName = additionalPropertiesField;
+        this.declaredKeys = keys.build();
+    }
+
+    /**
+     * Gets the additional properties plan for a class, computing it on first use.
+     *
+     * @param clazz the POJO class
+     * @return the additional properties plan
+     */
+    static AdditionalPropertiesPlan forClass(Class<?> clazz) {
+        return PLANS.get(clazz);
+    }
+
+    /**
+     * @return true if the class has a field holding additional properties
+     */
+    boolean hasAdditionalProperties() {
+        return fieldName != null;
+    }
+
+    /**
+     * @return the name of the field holding the additional properties, or null if the class has none
+     */
+    String fieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @return the top level keys on the wire of the properties declared by the class
+     */
+    ImmutableSet<String> declaredKeys() {
+        return declaredKeys;
+    }
+}
@@ -6,29 +6,27 @@
 
 package com.microsoft.rest.serializer;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
 import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationConfig;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
 import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
-import com.google.common.reflect.TypeToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.microsoft.azure.management.apigeneration.Beta;
 import com.microsoft.azure.management.apigeneration.Beta.SinceVersion;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.util.Iterator;
-import java.util.Map.Entry;
 
 /**
  * Custom serializer for serializing complex types with additional properties.
@@ -48,6 +46,11 @@ public class AdditionalPropertiesSerializer extends StdSerializer<Object> implem
      */
     private final ObjectMapper mapper;
 
+    /**
+     * The additional properties plan of the handled type.
+     */
+    private final AdditionalPropertiesPlan plan;
+
     /**
      * Creates an instance of FlatteningSerializer.
      * @param vc handled type
@@ -58,6 +61,7 @@ public class AdditionalPropertiesSerializer extends StdSerializer<Object> implem
         super(vc, false);
         this.defaultSerializer = defaultSerializer;
         this.mapper = mapper;
+        this.plan = AdditionalPropertiesPlan.forClass(vc);
     }
 
     /**
@@ -72,19 +76,8 @@ public class AdditionalPropertiesSerializer extends StdSerializer<Object> implem
         module.setSerializerModifier(new BeanSerializerModifier() {
             @Override
             public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription beanDesc, JsonSerializer<?> serializer) {
-                for (Class<?> c : TypeToken.of(beanDesc.getBeanClass()).getTypes().classes().rawTypes()) {
-                    if (c.isAssignableFrom(Object.class)) {
-                        continue;
-                    }
-                    Field[] fields = c.getDeclaredFields();
-                    for (Field field : fields) {
-                        if ("additionalProperties".equalsIgnoreCase(field.getName())) {
-                            JsonProperty property = field.getAnnotation(JsonProperty.class);
-                            if (property != null && property.value().isEmpty()) {
-                                return new AdditionalPropertiesSerializer(beanDesc.getBeanClass(), serializer, mapper);
-                            }
-                        }
-                    }
+                if (AdditionalPropertiesPlan.forClass(beanDesc.getBeanClass()).hasAdditionalProperties()) {
+                    return new AdditionalPropertiesSerializer(beanDesc.getBeanClass(), serializer, mapper);
                 }
                 return serializer;
             }
@@ -93,31 +86,11 @@ public class AdditionalPropertiesSerializer extends StdSerializer<Object> implem
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void serialize(Object value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
-        // serialize the original object into JsonNode
-        ObjectNode root = mapper.valueToTree(value);
-        // take additional properties node out
-        Entry<String, JsonNode> additionalPropertiesField = null;
-        Iterator<Entry<String, JsonNode>> fields = root.fields();
-        while (fields.hasNext()) {
-            Entry<String, JsonNode> field = fields.next();
-            if ("additionalProperties".equalsIgnoreCase(field.getKey())) {
-                additionalPropertiesField = field;
-                break;
-            }
-        }
-        if (additionalPropertiesField != null) {
-            root.remove(additionalPropertiesField.getKey());
-            // put each item back in
-            ObjectNode extraProperties = (ObjectNode) additionalPropertiesField.getValue();
-            fields = extraProperties.fields();
-            while (fields.hasNext()) {
-                Entry<String, JsonNode> field = fields.next();
-                root.put(field.getKey(), field.getValue());
-            }
-        }
-
-        jgen.writeTree(root);
+        // write the object as usual, moving the additional properties to its top level as they go by
+        AdditionalPropertiesGenerator generator = new AdditionalPropertiesGenerator(jgen, plan.fieldName());
+        ((JsonSerializer<Object>) defaultSerializer).serialize(value, generator, provider);
     }
 
     @Override
@@ -129,4 +102,101 @@ public class AdditionalPropertiesSerializer extends StdSerializer<Object> implem
     public void serializeWithType(Object value, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
         serialize(value, gen, provider);
     }
+
+    /**
+     * A generator that writes an object to another generator, except for the field
+     * holding the additional properties: the properties in it are buffered as they
+     * are written and are written at the top level of the object right before it ends.
+     */
+    private static final class AdditionalPropertiesGenerator extends JsonGeneratorDelegate {
+        /** The generator the object is written to. */
+        private final JsonGenerator target;
+        /** The name of the field holding the additional properties. */
+        private final String fieldName;
+        /** The additional properties written so far, or null. */
+        private TokenBuffer additionalProperties;
+        /** The nesting depth of the current write, 1 for the top level fields of the object. */
+        private int depth;
+
+        /**
+         * Creates an instance of AdditionalPropertiesGenerator.
+         *
+         * @param target the generator the object is written to
+         * @param fieldName the name of the field holding the additional properties
+         */
+        private AdditionalPropertiesGenerator(JsonGenerator target, String fieldName) {
+            super(target, false);
+            this.target = target;
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        public void writeFieldName(String name) throws IOException {
+            if (depth == 1 && delegate == target && fieldName.equals(name)) {
+                additionalProperties = new TokenBuffer(target.getCodec(), false);
+                delegate = additionalProperties;
+                return;
+            }
+            super.writeFieldName(name);
+        }
+
+        @Override
+        public void writeFieldName(SerializableString name) throws IOException {
+            if (depth == 1 && delegate == target && fieldName.equals(name.getValue())) {
+                writeFieldName(name.getValue());
+                return;
+            }
+            super.writeFieldName(name);
+        }
+
+        @Override
+        public void writeStartObject() throws IOException {
+            ++depth;
+            super.writeStartObject();
+        }
+
+        @Override
+        public void writeStartObject(Object forValue) throws IOException {
+            ++depth;
+            super.writeStartObject(forValue);
+        }
+
+        @Override
+        public void writeStartArray() throws IOException {
+            ++depth;
+            super.writeStartArray();
+        }
+
+        @Override
+        public void writeStartArray(int size) throws IOException {
+            ++depth;
+            super.writeStartArray(size);
+        }
+
+        @Override
+        public void writeEndArray() throws IOException {
+            --depth;
+            super.writeEndArray();
+        }
+
+        @Override
+        public void writeEndObject() throws IOException {
+            --depth;
+            if (depth == 1 && delegate != target) {
+                // the additional properties are buffered, back to the object
+                super.writeEndObject();
+                delegate = target;
+                return;
+            }
+            if (depth == 0 && additionalProperties != null) {
+                JsonParser parser = additionalProperties.asParser(target.getCodec());
+                parser.nextToken();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    target.copyCurrentStructure(parser);
+                }
+                additionalProperties = null;
+            }
+            super.writeEndObject();
+        }
+    }
 }
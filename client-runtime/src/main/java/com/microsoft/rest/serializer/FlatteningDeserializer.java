@@ -6,28 +6,25 @@
 
 package com.microsoft.rest.serializer;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.DeserializationConfig;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.deser.BeanDeserializer;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBase;
 import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
 import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.reflect.TypeToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.util.Map;
 
 /**
  * Custom serializer for deserializing complex types with wrapped properties.
@@ -45,6 +42,11 @@ public final class FlatteningDeserializer extends StdDeserializer<Object> implem
      */
     private final ObjectMapper mapper;
 
+    /**
+     * The flattening plan of the handled type.
+     */
+    private final FlatteningPlan plan;
+
     /**
      * Creates an instance of FlatteningDeserializer.
      * @param vc handled type
@@ -55,6 +57,7 @@ public final class FlatteningDeserializer extends StdDeserializer<Object> implem
         super(vc);
         this.defaultDeserializer = defaultDeserializer;
         this.mapper = mapper;
+        this.plan = FlatteningPlan.forClass(defaultDeserializer.handledType());
     }
 
     /**
@@ -80,55 +83,87 @@ public final class FlatteningDeserializer extends StdDeserializer<Object> implem
         return module;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Object deserializeWithType(JsonParser jp, DeserializationContext cxt, TypeDeserializer tDeserializer) throws IOException {
         // This method will be called by Jackson for each "Json object with TypeId" in the input wire stream
         // it is trying to deserialize.
-        // The below variable 'currentJsonNode' will hold the JsonNode corresponds to current
-        // Json object this method is called to handle.
         //
-        JsonNode currentJsonNode = mapper.readTree(jp);
-        final Class<?> tClass = this.defaultDeserializer.handledType();
-        for (Class<?> c : TypeToken.of(tClass).getTypes().classes().rawTypes()) {
-            if (c.isAssignableFrom(Object.class)) {
-                continue;
-            } else {
-                final JsonTypeInfo typeInfo = c.getAnnotation(com.fasterxml.jackson.annotation.JsonTypeInfo.class);
-                if (typeInfo != null) {
-                    String typeId = typeInfo.property();
-                    if (containsDot(typeId)) {
-                        final String typeIdOnWire = unescapeEscapedDots(typeId);
-                        JsonNode typeIdValue = ((ObjectNode) currentJsonNode).remove(typeIdOnWire);
-                        if (typeIdValue != null) {
-                            ((ObjectNode) currentJsonNode).put(typeId, typeIdValue);
-                        }
-                    }
-                }
-            }
+        final Map<String, String> typeIdRemaps = this.plan.typeIdRemaps();
+        JsonToken token = jp.getCurrentToken();
+        if (typeIdRemaps.isEmpty() || (token != JsonToken.START_OBJECT && token != JsonToken.FIELD_NAME)) {
+            return tDeserializer.deserializeTypedFromAny(jp, cxt);
+        }
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
+        // Copy the current Json object, renaming the type id property from its name on
+        // the wire to the escaped name the type deserializer expects.
+        //
+        TokenBuffer buffer = new TokenBuffer(jp, cxt);
+        buffer.writeStartObject();
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            String typeId = typeIdRemaps.get(fieldName);
+            buffer.writeFieldName(typeId != null ? typeId : fieldName);
+            jp.nextToken();
+            buffer.copyCurrentStructure(jp);
         }
-        return tDeserializer.deserializeTypedFromAny(newJsonParserForNode(currentJsonNode), cxt);
+        buffer.writeEndObject();
+        return tDeserializer.deserializeTypedFromAny(parserForBuffer(buffer, jp), cxt);
     }
 
     @Override
     public Object deserialize(JsonParser jp, DeserializationContext cxt) throws IOException {
         // This method will be called by Jackson for each "Json object" in the input wire stream
         // it is trying to deserialize.
-        // The below variable 'currentJsonNode' will hold the JsonNode corresponds to current
-        // Json object this method is called to handle.
         //
-        JsonNode currentJsonNode = mapper.readTree(jp);
-        final Class<?> tClass = this.defaultDeserializer.handledType();
-        for (Class<?> c : TypeToken.of(tClass).getTypes().classes().rawTypes()) {
-            if (c.isAssignableFrom(Object.class)) {
-                continue;
-            } else {
-                for (Field classField : c.getDeclaredFields()) {
-                    handleFlatteningForField(classField, currentJsonNode);
+        JsonToken token = jp.getCurrentToken();
+        if (!this.plan.hasFlattenedProperties() || (token != JsonToken.START_OBJECT && token != JsonToken.FIELD_NAME)) {
+            return this.defaultDeserializer.deserialize(jp, cxt);
+        }
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
+        // Copy the current Json object into a token buffer, replacing the nested objects
+        // on the path of flattened properties with top level properties named after the
+        // flattened ones, in a single pass over the input.
+        //
+        final FlatteningPlan.PathNode root = this.plan.root();
+        final boolean[] found = new boolean[this.plan.flattenedProperties().size()];
+        TokenBuffer buffer = new TokenBuffer(jp, cxt);
+        buffer.writeStartObject();
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            jp.nextToken();
+            FlatteningPlan.PathNode child = root.child(fieldName);
+            if (child != null) {
+                if (hasBeanProperty(fieldName)) {
+                    // The nested object is also a property of its own, keep it as is.
+                    TokenBuffer nested = new TokenBuffer(jp, cxt);
+                    nested.copyCurrentStructure(jp);
+                    buffer.writeFieldName(fieldName);
+                    buffer.copyCurrentStructure(parserForBuffer(nested, jp));
+                    flattenValue(parserForBuffer(nested, jp), child, buffer, found, cxt);
+                } else {
+                    flattenValue(jp, child, buffer, found, cxt);
                 }
+            } else if (isFlattenedPropertyName(fieldName)) {
+                // A top level key spelled like a flattened property is overridden by the nested value.
+                jp.skipChildren();
+            } else {
+                buffer.writeFieldName(fieldName);
+                buffer.copyCurrentStructure(jp);
+            }
+        }
+        // Flattened properties absent on the wire are explicitly set to null.
+        for (int i = 0; i < found.length; i++) {
+            if (!found[i]) {
+                buffer.writeFieldName(this.plan.flattenedProperties().get(i).name());
+                buffer.writeNull();
             }
         }
-        return this.defaultDeserializer.deserialize(newJsonParserForNode(currentJsonNode), cxt);
+        buffer.writeEndObject();
+        return this.defaultDeserializer.deserialize(parserForBuffer(buffer, jp), cxt);
     }
 
     @Override
@@ -137,97 +172,81 @@ public final class FlatteningDeserializer extends StdDeserializer<Object> implem
     }
 
     /**
-     * Given a field of a POJO class and JsonNode corresponds to the same POJO class,
-     * check field's {@link JsonProperty} has flattening dots in it if so
-     * flatten the nested child JsonNode corresponds to the field in the given JsonNode.
+     * Given the value of a wire key on the path of flattened properties, write the
+     * values of the flattened properties found in it as top level properties.
      *
-     * @param classField the field in a POJO class
-     * @param jsonNode the json node corresponds to POJO class that field belongs to
+     * @param jp the parser positioned at the value
+     * @param node the node of the wire key in the flattening plan
+     * @param buffer the buffer holding the top level properties
+     * @param found the flags of the flattened properties already written
+     * @param cxt the deserialization context
+     * @throws IOException thrown if the value cannot be read
      */
-    @SuppressWarnings("unchecked")
-    private static void handleFlatteningForField(Field classField, JsonNode jsonNode) {
-        final JsonProperty jsonProperty = classField.getAnnotation(JsonProperty.class);
-        if (jsonProperty != null) {
-            final String jsonPropValue = jsonProperty.value();
-            if (containsFlatteningDots(jsonPropValue)) {
-                JsonNode childJsonNode = findNestedNode(jsonNode, jsonPropValue);
-                ((ObjectNode) jsonNode).put(jsonPropValue, childJsonNode);
+    private static void flattenValue(JsonParser jp, FlatteningPlan.PathNode node, TokenBuffer buffer, boolean[] found, DeserializationContext cxt) throws IOException {
+        final boolean isObject = jp.getCurrentToken() == JsonToken.START_OBJECT;
+        if (node.property() != null) {
+            found[node.index()] = true;
+            buffer.writeFieldName(node.property().name());
+            if (!node.hasChildren() || !isObject) {
+                buffer.copyCurrentStructure(jp);
+                return;
             }
+            // The value is a flattened property and also contains other flattened properties.
+            TokenBuffer nested = new TokenBuffer(jp, cxt);
+            nested.copyCurrentStructure(jp);
+            buffer.copyCurrentStructure(parserForBuffer(nested, jp));
+            jp = parserForBuffer(nested, jp);
+        } else if (!isObject) {
+            jp.skipChildren();
+            return;
         }
-    }
-
-    /**
-     * Given a json node, find a nested node using given composed key.
-     *
-     * @param jsonNode the parent json node
-     * @param composedKey a key combines multiple keys using flattening dots.
-     *                    Flattening dots are dot character '.' those are not preceded by slash '\'
-     *                    Each flattening dot represents a level with following key as field key in that level
-     * @return nested json node located using given composed key
-     */
-    private static JsonNode findNestedNode(JsonNode jsonNode, String composedKey) {
-        String[] jsonNodeKeys = splitKeyByFlatteningDots(composedKey);
-        for (String jsonNodeKey : jsonNodeKeys) {
-            jsonNode = jsonNode.get(unescapeEscapedDots(jsonNodeKey));
-            if (jsonNode == null) {
-                return null;
+        for (JsonToken token = jp.nextToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            FlatteningPlan.PathNode child = node.child(jp.getCurrentName());
+            jp.nextToken();
+            if (child != null) {
+                flattenValue(jp, child, buffer, found, cxt);
+            } else {
+                jp.skipChildren();
             }
         }
-        return jsonNode;
     }
 
     /**
-     * Checks whether the given key has flattening dots in it.
-     * Flattening dots are dot character '.' those are not preceded by slash '\'
+     * Checks whether a top level key on the wire is a property of the handled type.
      *
-     * @param key the key
-     * @return true if the key has flattening dots, false otherwise.
+     * @param fieldName the top level key
+     * @return true if the handled type has a property for the key
      */
-    private static boolean containsFlatteningDots(String key) {
-        return key.matches(".+[^\\\\]\\..+");
+    private boolean hasBeanProperty(String fieldName) {
+        return this.defaultDeserializer instanceof BeanDeserializerBase
+                && ((BeanDeserializerBase) this.defaultDeserializer).findProperty(fieldName) != null;
     }
 
     /**
-     * Split the key by flattening dots.
-     * Flattening dots are dot character '.' those are not preceded by slash '\'
+     * Checks whether a top level key on the wire is the name of a flattened property.
      *
-     * @param key the key to split
-     * @return the array of sub keys
+     * @param fieldName the top level key
+     * @return true if the key is the serialized name of a flattened property
      */
-    private static String[] splitKeyByFlatteningDots(String key) {
-        return key.split("((?<!\\\\))\\.");
-    }
-
-    /**
-     * Unescape the escaped dots in the key.
-     * Escaped dots are non-flattening dots those are preceded by slash '\'
-     *
-     * @param key the key unescape
-     * @return unescaped key
-     */
-    private static String unescapeEscapedDots(String key) {
-        // Replace '\.' with '.'
-        return key.replace("\\.", ".");
+    private boolean isFlattenedPropertyName(String fieldName) {
+        for (FlatteningPlan.FlattenedProperty property : this.plan.flattenedProperties()) {
+            if (property.name().equals(fieldName)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Checks the given string contains 0 or more dots.
+     * Create a JsonParser positioned at the first token of a buffer.
      *
-     * @param str the string to check
-     * @return true if at least one dot found
-     */
-    private static boolean containsDot(String str) {
-       return str != null && str != "" && str.contains(".");
-    }
-
-    /**
-     * Create a JsonParser for a given json node.
-     * @param jsonNode the json node
+     * @param buffer the token buffer
+     * @param jp the parser the buffer was read from
      * @return the json parser
-     * @throws IOException
+     * @throws IOException thrown if the buffer cannot be read
      */
-    private static JsonParser newJsonParserForNode(JsonNode jsonNode) throws IOException {
-        JsonParser parser = new JsonFactory().createParser(jsonNode.toString());
+    private static JsonParser parserForBuffer(TokenBuffer buffer, JsonParser jp) throws IOException {
+        JsonParser parser = buffer.asParser(jp.getCodec());
         parser.nextToken();
         return parser;
     }
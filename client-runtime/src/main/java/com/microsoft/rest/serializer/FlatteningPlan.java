@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.serializer;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The immutable description of how the properties of a POJO class are flattened
+ * on the wire. A plan is computed once per class from its {@link JsonProperty}
+ * and {@link JsonTypeInfo} annotations and reused for every object of that class.
+ */
+final class FlatteningPlan {
+    /**
+     * Matches keys that contain at least one flattening dot, i.e. a dot character '.'
+     * that is not preceded by slash '\'.
+     */
+    private static final Pattern FLATTENING_DOTS = Pattern.compile(".+[^\\\\]\\..+");
+
+    /**
+     * Splits keys by flattening dots.
+     */
+    private static final Pattern FLATTENING_DOT_SPLITTER = Pattern.compile("((?<!\\\\))\\.");
+
+    /**
+     * The plans already computed. A plan keeps the fields of its class, so it is stored with the
+     * class rather than in a map that would hold on to the class.
+     */
+    private static final ClassValue<FlatteningPlan> PLANS = new ClassValue<FlatteningPlan>() {
+        @Override
+        protected FlatteningPlan computeValue(Class<?> clazz) {
+            return new FlatteningPlan(clazz);
+        }
+    };
+
+    /**
+     * The properties of the class with flattening dots in their serialized names.
+     */
+    private final ImmutableList<FlattenedProperty> flattenedProperties;
+
+    /**
+     * The mapping from type id property names as they appear on the wire to
+     * the escaped names declared in {@link JsonTypeInfo}.
+     */
+    private final ImmutableMap<String, String> typeIdRemaps;
+
+    /**
+     * The root of the tree of wire keys leading to the flattened properties.
+     */
+    private final PathNode root;
+
+    /**
+     * Creates the plan for a class by walking its hierarchy.
+     *
+     * @param clazz the POJO class
+     */
+    private FlatteningPlan(Class<?> clazz) {
+        ImmutableList.Builder<FlattenedProperty> properties = ImmutableList.builder();
+        Map<String, String> remaps = new LinkedHashMap<>();
+        for (Class<?> c : TypeToken.of(clazz).getTypes().classes().rawTypes()) {
+            if (c.isAssignableFrom(Object.class)) {
+                continue;
+            }
+            final JsonTypeInfo typeInfo = c.getAnnotation(JsonTypeInfo.class);
+            if (typeInfo != null) {
+                String typeId = typeInfo.property();
+                if (typeId != null && typeId.contains(".")) {
+                    remaps.put(unescapeEscapedDots(typeId), typeId);
+                }
+            }
+            for (Field field : c.getDeclaredFields()) {
+                final JsonProperty jsonProperty = field.getAnnotation(JsonProperty.class);
+                if (jsonProperty != null && containsFlatteningDots(jsonProperty.value())) {
+                    properties.add(new FlattenedProperty(jsonProperty.value()));
+                }
+            }
+        }
+        this.flattenedProperties = properties.build();
+        this.typeIdRemaps = ImmutableMap.copyOf(remaps);
+        this.root = new PathNode();
+        for (int i = 0; i < flattenedProperties.size(); i++) {
+            PathNode node = root;
+            for (String key : flattenedProperties.get(i).path()) {
+                node = node.childOrCreate(key);
+            }
+            node.property = flattenedProperties.get(i);
+            node.index = i;
+        }
+    }
+
+    /**
+     * Gets the flattening plan for a class, computing it on first use.
+     *
+     * @param clazz the POJO class
+     * @return the flattening plan
+     */
+    static FlatteningPlan forClass(Class<?> clazz) {
+        return PLANS.get(clazz);
+    }
+
+    /**
+     * @return the properties of the class with flattening dots in their serialized names
+     */
+    ImmutableList<FlattenedProperty> flattenedProperties() {
+        return flattenedProperties;
+    }
+
+    /**
+     * @return true if no property of the class is flattened
+     */
+    boolean hasFlattenedProperties() {
+        return !flattenedProperties.isEmpty();
+    }
+
+    /**
+     * @return the root of the tree of wire keys leading to the flattened properties
+     */
+    PathNode root() {
+        return root;
+    }
+
+    /**
+     * @return the mapping from type id property names on the wire to the escaped
+     * names declared in {@link JsonTypeInfo}
+     */
+    ImmutableMap<String, String> typeIdRemaps() {
+        return typeIdRemaps;
+    }
+
+    /**
+     * Checks whether the given key has flattening dots in it.
+     * Flattening dots are dot character '.' those are not preceded by slash '\'
+     *
+     * @param key the key
+     * @return true if the key has flattening dots, false otherwise.
+     */
+    static boolean containsFlatteningDots(String key) {
+        return FLATTENING_DOTS.matcher(key).matches();
+    }
+
+    /**
+     * Split the key by flattening dots and unescape the escaped dots in each sub key.
+     * Flattening dots are dot character '.' those are not preceded by slash '\'
+     *
+     * @param key the key to split
+     * @return the array of unescaped sub keys
+     */
+    static String[] splitKeyByFlatteningDots(String key) {
+        String[] values = FLATTENING_DOT_SPLITTER.split(key);
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = unescapeEscapedDots(values[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Unescape the escaped dots in the key.
+     * Escaped dots are non-flattening dots those are preceded by slash '\'
+     *
+     * @param key the key unescape
+     * @return unescaped key
+     */
+    static String unescapeEscapedDots(String key) {
+        // Replace '\.' with '.'
+        return key.replace("\\.", ".");
+    }
+
+    /**
+     * A property whose serialized name contains flattening dots.
+     */
+    static final class FlattenedProperty {
+        /** The serialized name as declared in {@link JsonProperty}. */
+        private final String name;
+        /** The unescaped keys of each nesting level on the wire. */
+        private final String[] path;
+
+        /**
+         * Creates a flattened property.
+         *
+         * @param name the serialized name as declared in {@link JsonProperty}
+         */
+        private FlattenedProperty(String name) {
+            this.name = name;
+            this.path = splitKeyByFlatteningDots(name);
+        }
+
+        /**
+         * @return the serialized name as declared in {@link JsonProperty}
+         */
+        String name() {
+            return name;
+        }
+
+        /**
+         * @return the unescaped keys of each nesting level on the wire
+         */
+        String[] path() {
+            return path;
+        }
+    }
+
+    /**
+     * A node in the tree of wire keys leading to the flattened properties. A node
+     * is a leaf for a flattened property when the keys from the root to it form
+     * the property's path; a node can be both a leaf and lead to other properties.
+     */
+    static final class PathNode {
+        /** The child nodes by unescaped wire key. */
+        private final Map<String, PathNode> children = new HashMap<>();
+        /** The flattened property this node is the leaf of, or null. */
+        private FlattenedProperty property;
+        /** The index of the property in {@link FlatteningPlan#flattenedProperties()}. */
+        private int index = -1;
+
+        /**
+         * Gets the child node for a wire key, creating it if absent. Only used while
+         * the plan is being built.
+         *
+         * @param key the unescaped wire key
+         * @return the child node
+         */
+        private PathNode childOrCreate(String key) {
+            PathNode child = children.get(key);
+            if (child == null) {
+                child = new PathNode();
+                children.put(key, child);
+            }
+            return child;
+        }
+
+        /**
+         * @param key the unescaped wire key
+         * @return the child node for the key, or null if no flattened property goes through it
+         */
+        PathNode child(String key) {
+            return children.get(key);
+        }
+
+        /**
+         * @return true if other flattened properties are nested below this node
+         */
+        boolean hasChildren() {
+            return !children.isEmpty();
+        }
+
+        /**
+         * @return the flattened property this node is the leaf of, or null
+         */
+        FlattenedProperty property() {
+            return property;
+        }
+
+        /**
+         * @return the index of the property in {@link FlatteningPlan#flattenedProperties()}
+         */
+        int index() {
+            return index;
+        }
+    }
+}
@@ -7,37 +7,35 @@
 package com.microsoft.rest.serializer;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.WritableTypeId;
 import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationConfig;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
 import com.fasterxml.jackson.databind.ser.BeanSerializer;
 import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
 import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
-import com.google.common.collect.Sets;
-import com.microsoft.rest.DateTimeRfc1123;
-import org.joda.time.DateTime;
-import org.joda.time.LocalDate;
-import org.joda.time.Period;
+import com.fasterxml.jackson.databind.util.NameTransformer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Custom serializer for serializing types with wrapped properties.
@@ -56,6 +54,21 @@ public class FlatteningSerializer extends StdSerializer<Object> implements Resol
      */
     private final ObjectMapper mapper;
 
+    /**
+     * The properties of the handled type in the order they are written, null until first used.
+     */
+    private volatile List<PropertyNode> propertyNodes;
+
+    /**
+     * Whether any property of the handled type is flattened or has escaped dots in its name.
+     */
+    private volatile boolean rewritten;
+
+    /**
+     * The serializer of the type id of the handled type, null until first used.
+     */
+    private volatile Optional<TypeSerializer> typeSerializer;
+
     /**
      * Creates an instance of FlatteningSerializer.
      * @param vc handled type
@@ -85,143 +98,164 @@ public class FlatteningSerializer extends StdSerializer<Object> implements Resol
                 }
                 return serializer;
             }
-        });
-        return module;
-    }
 
-    private List<Field> getAllDeclaredFields(Class<?> clazz) {
-        List<Field> fields = new ArrayList<Field>();
-        while (clazz != null && !clazz.equals(Object.class)) {
-            for (Field f : clazz.getDeclaredFields()) {
-                int mod = f.getModifiers();
-                if (!Modifier.isFinal(mod) && !Modifier.isStatic(mod)) {
-                    fields.add(f);
+            @Override
+            public JsonSerializer<?> modifyKeySerializer(SerializationConfig config, JavaType valueType, BeanDescription beanDesc, JsonSerializer<?> serializer) {
+                if (String.class.equals(valueType.getRawClass())) {
+                    return new EscapedMapKeySerializer(serializer);
                 }
+                return serializer;
             }
-            clazz = clazz.getSuperclass();
-        }
-        return fields;
+        });
+        return module;
     }
 
-    @SuppressWarnings("unchecked")
-    private void escapeMapKeys(Object value) {
+    @Override
+    public void serialize(Object value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
         if (value == null) {
+            jgen.writeNull();
             return;
         }
+        // Like a root level value, the object carries the type id of its runtime class
+        serializeObject(value, jgen, provider, typeSerializer(value.getClass(), provider));
+    }
 
-        if (value.getClass().isPrimitive()
-                || value.getClass().isEnum()
-                || value instanceof LocalDate
-                || value instanceof DateTime
-                || value instanceof String
-                || value instanceof DateTimeRfc1123
-                || value instanceof Period) {
-            return;
+    /**
+     * Gets the serializer of the type id of a class, remembering it for the handled type.
+     *
+     * @param clazz the runtime class of the object being serialized
+     * @param provider the serializer provider
+     * @return the serializer of the type id, or null if the class has no type id
+     * @throws JsonMappingException thrown when the type id annotations are invalid
+     */
+    private TypeSerializer typeSerializer(Class<?> clazz, SerializerProvider provider) throws JsonMappingException {
+        if (clazz != handledType()) {
+            return provider.findTypeSerializer(provider.constructType(clazz));
         }
-
-        int mod = value.getClass().getModifiers();
-        if (Modifier.isFinal(mod) || Modifier.isStatic(mod)) {
-            return;
+        Optional<TypeSerializer> cached = typeSerializer;
+        if (cached == null) {
+            cached = Optional.fromNullable(provider.findTypeSerializer(provider.constructType(clazz)));
+            typeSerializer = cached;
         }
+        return cached.orNull();
+    }
 
-        if (value instanceof List<?>) {
-            for (Object val : ((List<?>) value)) {
-                escapeMapKeys(val);
+    /**
+     * Writes an object with its flattened properties nested under their wire keys.
+     *
+     * @param value the object to serialize
+     * @param jgen the generator to write to
+     * @param provider the serializer provider
+     * @param typeSerializer the serializer of the type id, or null if the object has no type id
+     * @throws IOException thrown when the object cannot be written
+     */
+    @SuppressWarnings("unchecked")
+    private void serializeObject(Object value, JsonGenerator jgen, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+        List<PropertyNode> nodes = propertyNodes();
+        boolean escapedTypeId = typeSerializer != null
+                && typeSerializer.getPropertyName() != null
+                && typeSerializer.getPropertyName().contains("\\.");
+        if (!rewritten && !escapedTypeId) {
+            // Nothing to nest or unescape, the default serializer writes the same payload
+            if (typeSerializer == null) {
+                ((JsonSerializer<Object>) defaultSerializer).serialize(value, jgen, provider);
+            } else {
+                ((JsonSerializer<Object>) defaultSerializer).serializeWithType(value, jgen, provider, typeSerializer);
             }
             return;
         }
 
-        if (value instanceof Map<?, ?>) {
-            for (String key : Sets.newHashSet(((Map<String, Object>) value).keySet())) {
-                if (key.contains(".")) {
-                    String newKey = key.replaceAll("((?<!\\\\))\\.", "\\\\.");
-                    Object val = ((Map<String, Object>) value).remove(key);
-                    ((Map<String, Object>) value).put(newKey, val);
-                }
+        jgen.setCurrentValue(value);
+        WritableTypeId typeId = null;
+        if (typeSerializer != null) {
+            typeId = typeSerializer.typeId(value, JsonToken.START_OBJECT);
+            if (typeId.asProperty != null) {
+                typeId.asProperty = FlatteningPlan.unescapeEscapedDots(typeId.asProperty);
             }
-            for (Object val : ((Map<?, ?>) value).values()) {
-                escapeMapKeys(val);
-            }
-            return;
+            typeSerializer.writeTypePrefix(jgen, typeId);
+        } else {
+            jgen.writeStartObject(value);
         }
-
-        for (Field f : getAllDeclaredFields(value.getClass())) {
-            f.setAccessible(true);
-            try {
-                escapeMapKeys(f.get(value));
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
+        String name = null;
+        try {
+            for (PropertyNode node : nodes) {
+                name = node.name;
+                node.write(value, jgen, provider);
             }
+        } catch (Exception e) {
+            wrapAndThrow(provider, e, value, name);
+        }
+        if (typeId != null) {
+            typeSerializer.writeTypeSuffix(jgen, typeId);
+        } else {
+            jgen.writeEndObject();
         }
     }
 
-    @Override
-    public void serialize(Object value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
-        if (value == null) {
-            jgen.writeNull();
-            return;
+    /**
+     * Gets the properties of the handled type in the order they are written, computing
+     * them on first use from the property writers of the default serializer. Properties
+     * are written in declaration order, except that flattened properties and properties
+     * with escaped dots in their names come after the others, grouped by their first
+     * wire key.
+     *
+     * @return the properties of the handled type
+     */
+    private List<PropertyNode> propertyNodes() {
+        List<PropertyNode> nodes = propertyNodes;
+        if (nodes != null) {
+            return nodes;
         }
-        escapeMapKeys(value);
-        // BFS for all collapsed properties
-        ObjectNode root = mapper.valueToTree(value);
-        ObjectNode res = root.deepCopy();
-        Queue<ObjectNode> source = new LinkedBlockingQueue<ObjectNode>();
-        Queue<ObjectNode> target = new LinkedBlockingQueue<ObjectNode>();
-        source.add(root);
-        target.add(res);
-        while (!source.isEmpty()) {
-            ObjectNode current = source.poll();
-            ObjectNode resCurrent = target.poll();
-            Iterator<Map.Entry<String, JsonNode>> fields = current.fields();
-            while (fields.hasNext()) {
-                Map.Entry<String, JsonNode> field = fields.next();
-                ObjectNode node = resCurrent;
-                String key = field.getKey();
-                JsonNode outNode = resCurrent.get(key);
-                if (key.matches(".+[^\\\\]\\..+")) {
-                    // Handle flattening properties
-                    //
-                    String[] values = key.split("((?<!\\\\))\\.");
-                    for (int i = 0; i < values.length; ++i) {
-                        values[i] = values[i].replace("\\.", ".");
-                        if (i == values.length - 1) {
-                            break;
-                        }
-                        String val = values[i];
-                        if (node.has(val)) {
-                            node = (ObjectNode) node.get(val);
-                        } else {
-                            ObjectNode child = new ObjectNode(JsonNodeFactory.instance);
-                            node.put(val, child);
-                            node = child;
-                        }
-                    }
-                    node.set(values[values.length - 1], resCurrent.get(key));
-                    resCurrent.remove(key);
-                    outNode = node.get(values[values.length - 1]);
-                } else if (key.matches(".*[^\\\\]\\\\..+")) {
-                    // Handle escaped map key
-                    //
-                    String originalKey = key.replaceAll("\\\\.", ".");
-                    resCurrent.remove(key);
-                    resCurrent.put(originalKey, outNode);
-                }
-                if (field.getValue() instanceof ObjectNode) {
-                    source.add((ObjectNode) field.getValue());
-                    target.add((ObjectNode) outNode);
-                } else if (field.getValue() instanceof ArrayNode
-                        && (field.getValue()).size() > 0
-                        && (field.getValue()).get(0) instanceof ObjectNode) {
-                    Iterator<JsonNode> sourceIt = field.getValue().elements();
-                    Iterator<JsonNode> targetIt = outNode.elements();
-                    while (sourceIt.hasNext()) {
-                        source.add((ObjectNode) sourceIt.next());
-                        target.add((ObjectNode) targetIt.next());
-                    }
-                }
+        Map<String, PropertyNode> roots = new LinkedHashMap<>();
+        List<BeanPropertyWriter> nested = new ArrayList<>();
+        Iterator<PropertyWriter> writers = defaultSerializer.properties();
+        while (writers.hasNext()) {
+            BeanPropertyWriter writer = (BeanPropertyWriter) writers.next();
+            if (FlatteningPlan.containsFlatteningDots(writer.getName()) || writer.getName().contains("\\.")) {
+                nested.add(writer);
+            } else {
+                roots.put(writer.getName(), new PropertyNode(writer.getName(), writer));
+            }
+        }
+        for (BeanPropertyWriter writer : nested) {
+            String[] path = FlatteningPlan.containsFlatteningDots(writer.getName())
+                    ? FlatteningPlan.splitKeyByFlatteningDots(writer.getName())
+                    : new String[] {FlatteningPlan.unescapeEscapedDots(writer.getName())};
+            PropertyNode node = roots.get(path[0]);
+            if (node == null) {
+                node = new PropertyNode(path[0], null);
+                roots.put(path[0], node);
             }
+            for (int i = 1; i < path.length; ++i) {
+                node = node.childOrCreate(path[i]);
+            }
+            node.writer = renamed(writer, path[path.length - 1]);
         }
-        jgen.writeTree(res);
+        nodes = ImmutableList.copyOf(roots.values());
+        rewritten = !nested.isEmpty();
+        propertyNodes = nodes;
+        return nodes;
+    }
+
+    /**
+     * Creates a copy of a property writer that writes the property under another name.
+     *
+     * @param writer the property writer
+     * @param name the name to write the property under
+     * @return the renamed property writer
+     */
+    private static BeanPropertyWriter renamed(BeanPropertyWriter writer, final String name) {
+        return writer.rename(new NameTransformer() {
+            @Override
+            public String transform(String original) {
+                return name;
+            }
+
+            @Override
+            public String reverse(String transformed) {
+                return null;
+            }
+        });
     }
 
     @Override
@@ -233,4 +267,153 @@ public class FlatteningSerializer extends StdSerializer<Object> implements Resol
     public void serializeWithType(Object value, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
         serialize(value, gen, provider);
     }
+
+    /**
+     * Serializer for map keys that unescapes escaped dots in the keys as they are
+     * written, so that "a\.b" is written as "a.b" while the map itself is left as is.
+     */
+    private static final class EscapedMapKeySerializer extends StdSerializer<Object> {
+        /** The default serializer for the keys. */
+        private final JsonSerializer<Object> defaultSerializer;
+
+        /**
+         * Creates an instance of EscapedMapKeySerializer.
+         *
+         * @param defaultSerializer the default serializer for the keys
+         */
+        @SuppressWarnings("unchecked")
+        private EscapedMapKeySerializer(JsonSerializer<?> defaultSerializer) {
+            super(String.class, false);
+            this.defaultSerializer = (JsonSerializer<Object>) defaultSerializer;
+        }
+
+        @Override
+        public void serialize(Object value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            String key = (String) value;
+            if (key.contains("\\.")) {
+                key = FlatteningPlan.unescapeEscapedDots(key);
+            }
+            defaultSerializer.serialize(key, jgen, provider);
+        }
+    }
+
+    /**
+     * A key in the serialized payload, written either by a property writer, or as
+     * an object holding the flattened properties nested under it, or both when the
+     * value of a property is an object that flattened properties are merged into.
+     */
+    private static final class PropertyNode {
+        /** The unescaped wire key. */
+        private final String name;
+        /** The writer of the property serialized under the key, or null. */
+        private BeanPropertyWriter writer;
+        /** The keys nested under this key, in the order they are written. */
+        private final Map<String, PropertyNode> children = new LinkedHashMap<>();
+
+        /**
+         * Creates a node.
+         *
+         * @param name the unescaped wire key
+         * @param writer the writer of the property serialized under the key, or null
+         */
+        private PropertyNode(String name, BeanPropertyWriter writer) {
+            this.name = name;
+            this.writer = writer;
+        }
+
+        /**
+         * Gets the node nested under this key, creating it if absent.
+         *
+         * @param key the unescaped wire key
+         * @return the nested node
+         */
+        private PropertyNode childOrCreate(String key) {
+            PropertyNode child = children.get(key);
+            if (child == null) {
+                child = new PropertyNode(key, null);
+                children.put(key, child);
+            }
+            return child;
+        }
+
+        /**
+         * Checks whether anything is written for this key, so that objects are only
+         * created for flattened properties that have values.
+         *
+         * @param bean the object being serialized
+         * @return true if the key will be written
+         * @throws Exception thrown when a property cannot be read
+         */
+        private boolean hasValue(Object bean) throws Exception {
+            if (writer != null && (!writer.willSuppressNulls() || writer.get(bean) != null)) {
+                return true;
+            }
+            for (PropertyNode child : children.values()) {
+                if (child.hasValue(bean)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Writes the key and its value.
+         *
+         * @param bean the object being serialized
+         * @param jgen the generator to write to
+         * @param provider the serializer provider
+         * @throws Exception thrown when the value cannot be written
+         */
+        private void write(Object bean, JsonGenerator jgen, SerializerProvider provider) throws Exception {
+            if (children.isEmpty()) {
+                writer.serializeAsField(bean, jgen, provider);
+            } else if (writer == null || writer.get(bean) == null) {
+                if (hasValue(bean)) {
+                    jgen.writeFieldName(name);
+                    jgen.writeStartObject();
+                    writeChildren(bean, jgen, provider);
+                    jgen.writeEndObject();
+                }
+            } else {
+                // The property value is an object too, merge the nested keys into it
+                TokenBuffer buffer = new TokenBuffer(jgen.getCodec(), false);
+                writer.serializeAsElement(bean, buffer, provider);
+                JsonParser parser = buffer.asParser(jgen.getCodec());
+                parser.nextToken();
+                jgen.writeFieldName(name);
+                if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                    jgen.copyCurrentStructure(parser);
+                    return;
+                }
+                jgen.writeStartObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = parser.getCurrentName();
+                    parser.nextToken();
+                    PropertyNode child = children.get(key);
+                    if (child != null && child.hasValue(bean)) {
+                        parser.skipChildren();
+                    } else {
+                        jgen.writeFieldName(key);
+                        jgen.copyCurrentStructure(parser);
+                    }
+                }
+                writeChildren(bean, jgen, provider);
+                jgen.writeEndObject();
+            }
+        }
+
+        /**
+         * Writes the keys nested under this key.
+         *
+         * @param bean the object being serialized
+         * @param jgen the generator to write to
+         * @param provider the serializer provider
+         * @throws Exception thrown when a value cannot be written
+         */
+        private void writeChildren(Object bean, JsonGenerator jgen, SerializerProvider provider) throws Exception {
+            for (PropertyNode child : children.values()) {
+                child.write(bean, jgen, provider);
+            }
+        }
+    }
 }
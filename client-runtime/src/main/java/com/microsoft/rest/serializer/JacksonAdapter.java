@@ -8,18 +8,25 @@ package com.microsoft.rest.serializer;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.type.TypeBindings;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Joiner;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import com.microsoft.rest.CollectionFormat;
-import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.protocol.StreamingSerializerAdapter;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -29,7 +36,12 @@ import java.util.List;
 /**
  * A serialization helper class wrapped around {@link JacksonConverterFactory} and {@link ObjectMapper}.
  */
-public class JacksonAdapter implements SerializerAdapter<ObjectMapper> {
+public class JacksonAdapter implements StreamingSerializerAdapter<ObjectMapper> {
+    /**
+     * The maximum number of types whose readers are cached.
+     */
+    private static final int MAX_CACHED_READERS = 1024;
+
     /**
      * An instance of {@link ObjectMapper} to serialize/deserialize objects.
      */
@@ -45,6 +57,20 @@ public class JacksonAdapter implements SerializerAdapter<ObjectMapper> {
      */
     private JacksonConverterFactory converterFactory;
 
+    /**
+     * The readers already resolved for the types passed to deserialize, which are
+     * typically the same few hundred model types over and over.
+     */
+    private final LoadingCache<Type, ObjectReader> readers = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_READERS)
+            .recordStats()
+            .build(new CacheLoader<Type, ObjectReader>() {
+                @Override
+                public ObjectReader load(Type type) {
+                    return serializer().readerFor(constructJavaType(type));
+                }
+            });
+
     /**
      * Creates a new JacksonAdapter instance with default mapper settings.
      */
@@ -61,6 +87,18 @@ public class JacksonAdapter implements SerializerAdapter<ObjectMapper> {
                 .registerModule(FlatteningDeserializer.getModule(simpleMapper()));
     }
 
+    /**
+     * Gets the statistics of the cache of readers resolved for the types passed to
+     * deserialize, such as its hit and miss counts. Readers are resolved from the
+     * object mapper on first use of a type, so the mapper returned by
+     * {@link #serializer()} should be configured before deserializing.
+     *
+     * @return the statistics of the reader cache
+     */
+    public CacheStats readerCacheStats() {
+        return readers.stats();
+    }
+
     /**
      * Gets a static instance of {@link ObjectMapper} that doesn't handle flattening.
      *
@@ -128,13 +166,42 @@ public class JacksonAdapter implements SerializerAdapter<ObjectMapper> {
         }
     }
 
+    /**
+     * Gets the reader for a type, resolving it on first use.
+     *
+     * @param type the type to read
+     * @return the reader for the type
+     */
+    private ObjectReader reader(Type type) {
+        return readers.getUnchecked(type);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public <T> T deserialize(String value, final Type type) throws IOException {
         if (value == null || value.isEmpty()) {
             return null;
         }
-        return (T) serializer().readValue(value, constructJavaType(type));
+        return (T) reader(type).readValue(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(InputStream value, final Type type) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        JsonParser parser = serializer().getFactory().createParser(value);
+        // The caller owns the stream, let it decide when to close it
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        try {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            return (T) reader(type).readValue(parser);
+        } finally {
+            parser.close();
+        }
     }
 
     /**
@@ -13,7 +13,10 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class AdditionalPropertiesSerializerTests {
     @Test
@@ -34,7 +37,7 @@ public class AdditionalPropertiesSerializerTests {
         foo.additionalProperties.put("properties.bar", "barbar");
 
         String serialized = new JacksonAdapter().serialize(foo);
-        Assert.assertEquals("{\"$type\":\"foo\",\"properties\":{\"bar\":\"hello.world\",\"props\":{\"baz\":[\"hello\",\"hello.world\"],\"q\":{\"qux\":{\"hello\":\"world\",\"a.b\":\"c.d\",\"bar.b\":\"uuzz\",\"bar.a\":\"ttyy\"}}}},\"bar\":\"baz\",\"a.b\":\"c.d\",\"properties.bar\":\"barbar\"}", serialized);
+        Assert.assertEquals("{\"$type\":\"foo\",\"properties\":{\"bar\":\"hello.world\",\"props\":{\"baz\":[\"hello\",\"hello.world\"],\"q\":{\"qux\":{\"a.b\":\"c.d\",\"bar.a\":\"ttyy\",\"bar.b\":\"uuzz\",\"hello\":\"world\"}}}},\"bar\":\"baz\",\"a.b\":\"c.d\",\"properties.bar\":\"barbar\"}", serialized);
     }
 
     @Test
@@ -65,7 +68,7 @@ public class AdditionalPropertiesSerializerTests {
         foo.additionalProperties.put("properties.bar", "barbar");
 
         String serialized = new JacksonAdapter().serialize(foo);
-        Assert.assertEquals("{\"$type\":\"foochild\",\"properties\":{\"bar\":\"hello.world\",\"props\":{\"baz\":[\"hello\",\"hello.world\"],\"q\":{\"qux\":{\"hello\":\"world\",\"a.b\":\"c.d\",\"bar.b\":\"uuzz\",\"bar.a\":\"ttyy\"}}}},\"bar\":\"baz\",\"a.b\":\"c.d\",\"properties.bar\":\"barbar\"}", serialized);
+        Assert.assertEquals("{\"$type\":\"foochild\",\"properties\":{\"bar\":\"hello.world\",\"props\":{\"baz\":[\"hello\",\"hello.world\"],\"q\":{\"qux\":{\"a.b\":\"c.d\",\"bar.a\":\"ttyy\",\"bar.b\":\"uuzz\",\"hello\":\"world\"}}}},\"bar\":\"baz\",\"a.b\":\"c.d\",\"properties.bar\":\"barbar\"}", serialized);
     }
 
     @Test
@@ -78,4 +81,28 @@ public class AdditionalPropertiesSerializerTests {
         Assert.assertEquals("barbar", deserialized.additionalProperties.get("properties.bar"));
         Assert.assertTrue(deserialized instanceof FooChild);
     }
+
+    @Test
+    public void canRoundTripNestedAdditionalProperties() throws Exception {
+        Foo foo = new Foo();
+        foo.bar = "hello.world";
+        foo.additionalProperties = new LinkedHashMap<>();
+        Map<String, Object> outputs = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            outputs.put("output" + i, Collections.singletonMap("value", i));
+        }
+        foo.additionalProperties.put("outputs", outputs);
+        foo.additionalProperties.put("tags", Collections.singletonMap("a.b", "c"));
+
+        JacksonAdapter adapter = new JacksonAdapter();
+        String serialized = adapter.serialize(Collections.singletonList(foo));
+        Assert.assertTrue(serialized.startsWith("[{\"$type\":\"foo\",\"properties\":{\"bar\":\"hello.world\"},\"outputs\":{\"output0\":{\"value\":0},"));
+        Assert.assertTrue(serialized.endsWith("\"output999\":{\"value\":999}},\"tags\":{\"a.b\":\"c\"}}]"));
+
+        Foo deserialized = adapter.deserialize(serialized.substring(1, serialized.length() - 1), Foo.class);
+        Assert.assertEquals("hello.world", deserialized.bar);
+        Assert.assertEquals(2, deserialized.additionalProperties.size());
+        Assert.assertEquals(1000, ((Map<?, ?>) deserialized.additionalProperties.get("outputs")).size());
+        Assert.assertEquals("c", ((Map<?, ?>) deserialized.additionalProperties.get("tags")).get("a.b"));
+    }
 }
@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.microsoft.rest.interceptors.CircuitBreakerInterceptor;
+import com.microsoft.rest.interceptors.CircuitBreakerInterceptor.State;
+import com.microsoft.rest.interceptors.CircuitBreakerInterceptor.StateTransition;
+import com.microsoft.rest.interceptors.CircuitBreakerOpenException;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import rx.functions.Action1;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CircuitBreakerInterceptorTests {
+    @Test
+    public void opensOnFailuresPerHostAndRecovers() throws Exception {
+        CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor()
+                .withWindow(4, 4)
+                .withOpenDuration(200, TimeUnit.MILLISECONDS)
+                .withHalfOpenCalls(1);
+        final List<StateTransition> transitions = new ArrayList<>();
+        breaker.stateTransitions().subscribe(new Action1<StateTransition>() {
+            @Override
+            public void call(StateTransition transition) {
+                transitions.add(transition);
+            }
+        });
+        final AtomicInteger unhealthyCode = new AtomicInteger(503);
+        final AtomicInteger calls = new AtomicInteger();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(breaker)
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        calls.incrementAndGet();
+                        int code = chain.request().url().host().equals("unhealthy") ? unhealthyCode.get() : 200;
+                        return response(chain.request(), code);
+                    }
+                })
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(503, client.newCall(get("http://unhealthy/")).execute().code());
+        }
+        try {
+            client.newCall(get("http://unhealthy/")).execute();
+            Assert.fail();
+        } catch (CircuitBreakerOpenException e) {
+            Assert.assertEquals("unhealthy", e.host());
+            Assert.assertTrue(e.retryAfterMillis() <= 200);
+        }
+        Assert.assertEquals(4, calls.get());
+        Assert.assertEquals(200, client.newCall(get("http://healthy/")).execute().code());
+        Assert.assertEquals(State.OPEN, breaker.metrics("unhealthy").state());
+        Assert.assertEquals(1.0, breaker.metrics("unhealthy").failureRate(), 0);
+        Assert.assertEquals(1, breaker.metrics("unhealthy").rejectedCalls());
+        Assert.assertEquals(State.CLOSED, breaker.metrics("healthy").state());
+
+        Thread.sleep(250);
+        unhealthyCode.set(200);
+        Assert.assertEquals(200, client.newCall(get("http://unhealthy/")).execute().code());
+        Assert.assertEquals(State.CLOSED, breaker.metrics("unhealthy").state());
+        Assert.assertEquals(3, transitions.size());
+        Assert.assertEquals(State.OPEN, transitions.get(0).to());
+        Assert.assertEquals(State.HALF_OPEN, transitions.get(1).to());
+        Assert.assertEquals(State.CLOSED, transitions.get(2).to());
+    }
+
+    @Test
+    public void reopensWhenTrialCallFails() throws Exception {
+        CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor()
+                .withWindow(2, 2)
+                .withOpenDuration(100, TimeUnit.MILLISECONDS)
+                .withHalfOpenCalls(2);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(breaker)
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        throw new IOException("connection reset");
+                    }
+                })
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                client.newCall(get("http://localhost:8080/")).execute();
+                Assert.fail();
+            } catch (CircuitBreakerOpenException e) {
+                Assert.assertEquals(2, i);
+            } catch (IOException e) {
+                Assert.assertTrue(i < 2);
+            }
+        }
+        Thread.sleep(150);
+        try {
+            client.newCall(get("http://localhost:8080/")).execute();
+            Assert.fail();
+        } catch (CircuitBreakerOpenException e) {
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("connection reset", e.getMessage());
+        }
+        Assert.assertEquals(State.OPEN, breaker.metrics("localhost:8080").state());
+        Assert.assertEquals(3, breaker.metrics("localhost:8080").failedCalls());
+    }
+
+    @Test
+    public void opensOnSlowCalls() throws Exception {
+        CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor()
+                .withWindow(2, 2)
+                .withSlowCallThreshold(20, TimeUnit.MILLISECONDS, 0.5);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(breaker)
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        try {
+                            Thread.sleep(40);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return response(chain.request(), 200);
+                    }
+                })
+                .build();
+
+        Assert.assertEquals(200, client.newCall(get("http://slow/")).execute().code());
+        Assert.assertEquals(200, client.newCall(get("http://slow/")).execute().code());
+        Assert.assertEquals(State.OPEN, breaker.metrics("slow").state());
+        Assert.assertEquals(2, breaker.metrics("slow").slowCalls());
+        Assert.assertEquals(0, breaker.metrics("slow").failedCalls());
+    }
+
+    @Test
+    public void callsAdmittedBeforeHalfOpenAreNoTrialCalls() throws Exception {
+        CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor()
+                .withWindow(2, 2)
+                .withOpenDuration(100, TimeUnit.MILLISECONDS)
+                .withHalfOpenCalls(1);
+        final CountDownLatch entered = new CountDownLatch(2);
+        final CountDownLatch releaseStraggler = new CountDownLatch(1);
+        final CountDownLatch releaseTrial = new CountDownLatch(1);
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(breaker)
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        String path = chain.request().url().encodedPath();
+                        CountDownLatch release = path.equals("/straggler") ? releaseStraggler
+                                : path.equals("/trial") ? releaseTrial : null;
+                        if (release == null) {
+                            return response(chain.request(), 503);
+                        }
+                        entered.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return response(chain.request(), 200);
+                    }
+                })
+                .build();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<Integer> straggler = executor.submit(call(client, "http://host/straggler"));
+            while (entered.getCount() > 1) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals(503, client.newCall(get("http://host/")).execute().code());
+            Assert.assertEquals(503, client.newCall(get("http://host/")).execute().code());
+            Assert.assertEquals(State.OPEN, breaker.metrics("host").state());
+
+            Thread.sleep(150);
+            Future<Integer> trial = executor.submit(call(client, "http://host/trial"));
+            Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(State.HALF_OPEN, breaker.metrics("host").state());
+
+            // The straggler was admitted while the circuit was closed, it does not close it
+            releaseStraggler.countDown();
+            Assert.assertEquals(200, straggler.get().intValue());
+            Assert.assertEquals(State.HALF_OPEN, breaker.metrics("host").state());
+            Assert.assertEquals(1, breaker.metrics("host").successfulCalls());
+
+            releaseTrial.countDown();
+            Assert.assertEquals(200, trial.get().intValue());
+            Assert.assertEquals(State.CLOSED, breaker.metrics("host").state());
+        } finally {
+            releaseStraggler.countDown();
+            releaseTrial.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsThresholdsOutOfRange() {
+        CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor();
+        for (double threshold : new double[] {0, -0.5, 1.5, Double.NaN}) {
+            try {
+                breaker.withFailureRateThreshold(threshold);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().startsWith("failureRateThreshold"));
+            }
+            try {
+                breaker.withSlowCallThreshold(1, TimeUnit.SECONDS, threshold);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().startsWith("slowCallRateThreshold"));
+            }
+        }
+        for (long duration : new long[] {0, -1}) {
+            try {
+                breaker.withSlowCallThreshold(duration, TimeUnit.SECONDS, 0.5);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().startsWith("slowCallDuration"));
+            }
+        }
+        breaker.withFailureRateThreshold(1).withSlowCallThreshold(1, TimeUnit.SECONDS, 1);
+    }
+
+    private static Callable<Integer> call(final OkHttpClient client, final String url) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return client.newCall(get(url)).execute().code();
+            }
+        };
+    }
+
+    private static Request get(String url) {
+        return new Request.Builder().url(url).get().build();
+    }
+
+    private static Response response(Request request, int code) {
+        return new Response.Builder()
+                .request(request)
+                .code(code)
+                .message("Scripted")
+                .protocol(Protocol.HTTP_1_1)
+                .body(ResponseBody.create(MediaType.parse("text/plain"), "azure rocks"))
+                .build();
+    }
+}
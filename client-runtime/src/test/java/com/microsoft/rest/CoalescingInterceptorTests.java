@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.microsoft.rest.credentials.BasicAuthenticationCredentials;
+import com.microsoft.rest.interceptors.CoalescingInterceptor;
+import com.microsoft.rest.serializer.JacksonAdapter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Credentials;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoalescingInterceptorTests {
+    private static final int CALLERS = 5;
+
+    @Test
+    public void identicalGetsShareOneCall() throws Exception {
+        CoalescingInterceptor coalescing = new CoalescingInterceptor();
+        BlockingServer server = new BlockingServer(false);
+        final OkHttpClient client = client(coalescing, server);
+
+        List<Future<String>> bodies = runConcurrently(client, "http://localhost/vm1", coalescing, server);
+
+        for (Future<String> body : bodies) {
+            Assert.assertEquals("vm1 #1", body.get());
+        }
+        Assert.assertEquals(1, server.calls.get());
+        Assert.assertEquals(CALLERS, coalescing.requestCount());
+        Assert.assertEquals(CALLERS - 1, coalescing.coalescedCount());
+        Assert.assertEquals(0, coalescing.inFlightCount());
+
+        // Once the call is done, the next request gets a fresh response
+        Assert.assertEquals("vm1 #2", client.newCall(new Request.Builder().url("http://localhost/vm1").get().build()).execute().body().string());
+    }
+
+    @Test
+    public void waitingRequestsShareTheFailure() throws Exception {
+        CoalescingInterceptor coalescing = new CoalescingInterceptor();
+        BlockingServer server = new BlockingServer(true);
+        OkHttpClient client = client(coalescing, server);
+
+        List<Future<String>> bodies = runConcurrently(client, "http://localhost/vm1", coalescing, server);
+
+        for (Future<String> body : bodies) {
+            try {
+                body.get();
+                Assert.fail();
+            } catch (Exception e) {
+                Assert.assertEquals("connection reset", e.getCause().getMessage());
+            }
+        }
+        Assert.assertEquals(1, server.calls.get());
+    }
+
+    @Test
+    public void differentRequestsAreNotCoalesced() throws Exception {
+        CoalescingInterceptor coalescing = new CoalescingInterceptor();
+        OkHttpClient client = client(coalescing, new BlockingServer(false).release());
+
+        client.newCall(new Request.Builder().url("http://localhost/vm1").get().build()).execute().close();
+        client.newCall(new Request.Builder().url("http://localhost/vm1").header("Authorization", "Bearer other").get().build()).execute().close();
+        client.newCall(new Request.Builder().url("http://localhost/vm2").get().build()).execute().close();
+
+        Assert.assertEquals(3, coalescing.requestCount());
+        Assert.assertEquals(0, coalescing.coalescedCount());
+    }
+
+    @Test
+    public void derivedClientsGetTheirOwnInstance() throws Exception {
+        CoalescingInterceptor coalescing = new CoalescingInterceptor().withMaxBufferedBytes(1024);
+        RestClient restClient = new RestClient.Builder()
+                .withBaseUrl("http://localhost")
+                .withSerializerAdapter(new JacksonAdapter())
+                .withResponseBuilderFactory(new ServiceResponseBuilder.Factory())
+                .withCredentials(new BasicAuthenticationCredentials("alice", "a"))
+                .withInterceptor(coalescing)
+                .build();
+
+        RestClient derived = restClient.newBuilder().withCredentials(new BasicAuthenticationCredentials("bob", "b")).build();
+
+        CoalescingInterceptor copy = null;
+        for (Interceptor interceptor : derived.httpClient().interceptors()) {
+            Assert.assertNotSame(coalescing, interceptor);
+            if (interceptor instanceof CoalescingInterceptor) {
+                copy = (CoalescingInterceptor) interceptor;
+            }
+        }
+        Assert.assertNotNull(copy);
+        Assert.assertEquals(1024, copy.maxBufferedBytes());
+    }
+
+    @Test
+    public void derivedClientsDoNotShareResponses() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                calls.incrementAndGet();
+                try {
+                    released.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Answer now
+                }
+                byte[] body = exchange.getRequestHeaders().getFirst("Authorization").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            final String url = "http://localhost:" + server.getAddress().getPort() + "/vm1";
+            CoalescingInterceptor coalescing = new CoalescingInterceptor();
+            RestClient alice = new RestClient.Builder()
+                    .withBaseUrl("http://localhost:" + server.getAddress().getPort() + "/")
+                    .withSerializerAdapter(new JacksonAdapter())
+                    .withResponseBuilderFactory(new ServiceResponseBuilder.Factory())
+                    .withCredentials(new BasicAuthenticationCredentials("alice", "a"))
+                    .withInterceptor(coalescing)
+                    .build();
+            RestClient bob = alice.newBuilder().withCredentials(new BasicAuthenticationCredentials("bob", "b")).build();
+
+            ExecutorService callers = Executors.newFixedThreadPool(4);
+            List<Future<String>> aliceBodies = new ArrayList<>();
+            List<Future<String>> bobBodies = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                aliceBodies.add(callers.submit(get(alice.httpClient(), url)));
+                bobBodies.add(callers.submit(get(bob.httpClient(), url)));
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (calls.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            released.countDown();
+
+            for (Future<String> body : aliceBodies) {
+                Assert.assertEquals(Credentials.basic("alice", "a"), body.get(5, TimeUnit.SECONDS));
+            }
+            for (Future<String> body : bobBodies) {
+                Assert.assertEquals(Credentials.basic("bob", "b"), body.get(5, TimeUnit.SECONDS));
+            }
+            callers.shutdown();
+            // The requests of each client share one call
+            Assert.assertEquals(2, calls.get());
+            Assert.assertEquals(1, coalescing.coalescedCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static Callable<String> get(final OkHttpClient client, final String url) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return client.newCall(new Request.Builder().url(url).get().build()).execute().body().string();
+            }
+        };
+    }
+
+    private static OkHttpClient client(CoalescingInterceptor coalescing, Interceptor server) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(coalescing)
+                .addInterceptor(server)
+                .build();
+    }
+
+    /**
+     * Sends the same GET from several threads while the server holds the first call, then lets it answer.
+     */
+    private static List<Future<String>> runConcurrently(final OkHttpClient client, final String url,
+            CoalescingInterceptor coalescing, BlockingServer server) throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        List<Future<String>> bodies = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            bodies.add(callers.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    Response response = client.newCall(new Request.Builder().url(url).get().build()).execute();
+                    return response.body().string();
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (coalescing.requestCount() < CALLERS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        server.release();
+        callers.shutdown();
+        Assert.assertTrue(callers.awaitTermination(5, TimeUnit.SECONDS));
+        return bodies;
+    }
+
+    /**
+     * Holds the calls until released, then answers with the path and the call number, or fails.
+     */
+    private static class BlockingServer implements Interceptor {
+        private final boolean fail;
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+
+        BlockingServer(boolean fail) {
+            this.fail = fail;
+        }
+
+        BlockingServer release() {
+            released.countDown();
+            return this;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            int call = calls.incrementAndGet();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (fail) {
+                throw new IOException("connection reset");
+            }
+            return new Response.Builder()
+                    .request(chain.request())
+                    .code(200)
+                    .message("OK")
+                    .protocol(Protocol.HTTP_1_1)
+                    .body(ResponseBody.create(MediaType.parse("text/plain"), chain.request().url().encodedPath().substring(1) + " #" + call))
+                    .build();
+        }
+    }
+}
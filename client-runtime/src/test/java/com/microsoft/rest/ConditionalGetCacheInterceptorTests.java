@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.microsoft.rest.interceptors.ConditionalGetCacheInterceptor;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ConditionalGetCacheInterceptorTests {
+    private static final String VM = "http://localhost/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/vm1";
+    private static final String VMS = "http://localhost/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines";
+
+    @Test
+    public void revalidatesAndServesCachedBodyOn304() throws Exception {
+        ConditionalGetCacheInterceptor cache = new ConditionalGetCacheInterceptor();
+        EtagServer server = new EtagServer();
+        OkHttpClient client = client(cache, server);
+
+        Response first = client.newCall(get(VM)).execute();
+        Assert.assertEquals("{\"name\":\"vm1\",\"version\":1}", first.body().string());
+        Response second = client.newCall(get(VM)).execute();
+
+        Assert.assertEquals(200, second.code());
+        Assert.assertEquals("\"1\"", second.header("ETag"));
+        Assert.assertEquals("{\"name\":\"vm1\",\"version\":1}", second.body().string());
+        Assert.assertEquals(2, server.requests.size());
+        Assert.assertNull(server.requests.get(0).header("If-None-Match"));
+        Assert.assertEquals("\"1\"", server.requests.get(1).header("If-None-Match"));
+        Assert.assertEquals(1, server.notModified);
+        Assert.assertEquals(1, cache.hitCount());
+        Assert.assertEquals(0.5, cache.hitRate(), 0);
+        Assert.assertEquals(1, cache.entryCount());
+        Assert.assertEquals("{\"name\":\"vm1\",\"version\":1}".length(), cache.sizeBytes());
+    }
+
+    @Test
+    public void writesInvalidateResourceAndCollection() throws Exception {
+        ConditionalGetCacheInterceptor cache = new ConditionalGetCacheInterceptor();
+        EtagServer server = new EtagServer();
+        OkHttpClient client = client(cache, server);
+
+        client.newCall(get(VM)).execute().close();
+        client.newCall(get(VMS)).execute().close();
+        Assert.assertEquals(2, cache.entryCount());
+
+        client.newCall(new Request.Builder().url(VM + "?api-version=2018-06-01")
+                .put(RequestBody.create(MediaType.parse("application/json"), "{}")).build()).execute().close();
+        Assert.assertEquals(0, cache.entryCount());
+        Assert.assertEquals(2, cache.invalidationCount());
+        Assert.assertEquals(0, cache.sizeBytes());
+
+        Response response = client.newCall(get(VM)).execute();
+        Assert.assertNull(server.requests.get(server.requests.size() - 1).header("If-None-Match"));
+        Assert.assertEquals("{\"name\":\"vm1\",\"version\":2}", response.body().string());
+        Assert.assertEquals(0, cache.hitCount());
+    }
+
+    @Test
+    public void staysWithinSizeLimit() throws Exception {
+        ConditionalGetCacheInterceptor cache = new ConditionalGetCacheInterceptor(400);
+        OkHttpClient client = client(cache, new EtagServer());
+
+        for (int i = 0; i < 30; i++) {
+            client.newCall(get(VMS + "/vm" + (10 + i))).execute().close();
+        }
+
+        Assert.assertTrue(cache.entryCount() > 0);
+        Assert.assertTrue(cache.sizeBytes() <= 400);
+        Assert.assertEquals(30, cache.entryCount() + cache.evictionCount());
+        Assert.assertEquals(cache.entryCount() * "{\"name\":\"vm10\",\"version\":1}".length(), cache.sizeBytes());
+    }
+
+    private static OkHttpClient client(ConditionalGetCacheInterceptor cache, Interceptor server) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(cache)
+                .addInterceptor(server)
+                .build();
+    }
+
+    private static Request get(String url) {
+        return new Request.Builder().url(url + "?api-version=2018-06-01").get().build();
+    }
+
+    /**
+     * Serves resources whose version, used as ETag, is bumped by each PUT.
+     */
+    private static class EtagServer implements Interceptor {
+        private final Map<String, Integer> versions = new ConcurrentHashMap<>();
+        private final List<Request> requests = new ArrayList<>();
+        private int notModified;
+
+        @Override
+        public synchronized Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            requests.add(request);
+            String path = request.url().encodedPath();
+            Integer version = versions.get(path);
+            if (version == null) {
+                version = 1;
+            }
+            if ("PUT".equals(request.method())) {
+                versions.put(path, version + 1);
+                return response(request, 200, null, "{}");
+            }
+            String etag = "\"" + version + "\"";
+            if (etag.equals(request.header("If-None-Match"))) {
+                notModified++;
+                return response(request, 304, etag, "");
+            }
+            String name = request.url().pathSegments().get(request.url().pathSegments().size() - 1);
+            return response(request, 200, etag, "{\"name\":\"" + name + "\",\"version\":" + version + "}");
+        }
+
+        private static Response response(Request request, int code, String etag, String body) {
+            Response.Builder builder = new Response.Builder()
+                    .request(request)
+                    .code(code)
+                    .message(code == 304 ? "Not Modified" : "OK")
+                    .protocol(Protocol.HTTP_1_1)
+                    .body(ResponseBody.create(MediaType.parse("application/json"), body));
+            if (etag != null) {
+                builder.header("ETag", etag);
+            }
+            return builder.build();
+        }
+    }
+}
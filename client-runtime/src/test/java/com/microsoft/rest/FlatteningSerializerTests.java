@@ -8,19 +8,27 @@ package com.microsoft.rest;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 import com.microsoft.rest.serializer.JacksonAdapter;
 import com.microsoft.rest.serializer.JsonFlatten;
 import com.microsoft.rest.util.Foo;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class FlatteningSerializerTests {
     @Test
@@ -40,7 +48,7 @@ public class FlatteningSerializerTests {
 
         // serialization
         String serialized = adapter.serialize(foo);
-        Assert.assertEquals("{\"$type\":\"foo\",\"properties\":{\"bar\":\"hello.world\",\"props\":{\"baz\":[\"hello\",\"hello.world\"],\"q\":{\"qux\":{\"hello\":\"world\",\"a.b\":\"c.d\",\"bar.b\":\"uuzz\",\"bar.a\":\"ttyy\"}}}}}", serialized);
+        Assert.assertEquals("{\"$type\":\"foo\",\"properties\":{\"bar\":\"hello.world\",\"props\":{\"baz\":[\"hello\",\"hello.world\"],\"q\":{\"qux\":{\"a.b\":\"c.d\",\"bar.a\":\"ttyy\",\"bar.b\":\"uuzz\",\"hello\":\"world\"}}}}}", serialized);
 
         // deserialization
         Foo deserialized = adapter.deserialize(serialized, Foo.class);
@@ -53,10 +61,94 @@ public class FlatteningSerializerTests {
         Assert.assertEquals("uuzz", deserialized.qux.get("bar.b"));
     }
 
+    @Test
+    public void canDeserializeFromStream() throws Exception {
+        JacksonAdapter adapter = new JacksonAdapter();
+        String serialized = "{\"$type\":\"foo\",\"properties\":{\"bar\":\"hello.world\",\"props\":{\"baz\":[\"hello\",\"hello.world\"],\"q\":{\"qux\":{\"a.b\":\"c.d\"}}}}}";
+
+        Foo deserialized = adapter.deserialize(new ByteArrayInputStream(serialized.getBytes(StandardCharsets.UTF_8)), Foo.class);
+        Assert.assertEquals("hello.world", deserialized.bar);
+        Assert.assertArrayEquals(new String[]{"hello", "hello.world"}, deserialized.baz.toArray());
+        Assert.assertEquals("c.d", deserialized.qux.get("a.b"));
+
+        Object empty = adapter.deserialize(new ByteArrayInputStream(new byte[0]), Foo.class);
+        Assert.assertNull(empty);
+    }
+
     @Test
     public void canSerializeMapKeysWithDotAndSlash() throws Exception {
         String serialized = new JacksonAdapter().serialize(prepareSchoolModel());
-        Assert.assertEquals("{\"teacher\":{\"students\":{\"af.B/D\":{},\"af.B/C\":{}}},\"tags\":{\"foo.aa\":\"bar\",\"x.y\":\"zz\"},\"properties\":{\"name\":\"school1\"}}", serialized);
+        Assert.assertEquals("{\"teacher\":{\"students\":{\"af.B/C\":{},\"af.B/D\":{}}},\"tags\":{\"x.y\":\"zz\",\"foo.aa\":\"bar\"},\"properties\":{\"name\":\"school1\"}}", serialized);
+    }
+
+    @Test
+    public void canSerializeWithoutModifyingMaps() throws Exception {
+        School school = prepareSchoolModel();
+        new JacksonAdapter().serialize(school);
+        Assert.assertEquals(Sets.newHashSet("foo.aa", "x.y"), school.tags.keySet());
+        Assert.assertEquals(Sets.newHashSet("af.B/C", "af.B/D"), school.teacher.students.keySet());
+    }
+
+    @Test
+    public void canSerializeEscapedMapKeys() throws Exception {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("foo\\.aa", "bar");
+        School school = new School().withName("school1").withTags(tags);
+
+        String serialized = new JacksonAdapter().serialize(school);
+        Assert.assertEquals("{\"tags\":{\"foo.aa\":\"bar\"},\"properties\":{\"name\":\"school1\"}}", serialized);
+        Assert.assertEquals(Sets.newHashSet("foo\\.aa"), tags.keySet());
+    }
+
+    @Test
+    public void canSerializeSharedModelConcurrently() throws Exception {
+        final Map<String, String> tags = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            tags.put("tag" + i + ".key." + i, "value." + i);
+        }
+        final School school = prepareSchoolModel().withTags(tags);
+        final JacksonAdapter adapter = new JacksonAdapter();
+        final String expected = adapter.serialize(school);
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return adapter.serialize(school);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(500, tags.size());
+        Assert.assertEquals("value.7", tags.get("tag7.key.7"));
+    }
+
+    @Test
+    public void canSerializeOverlappingFlattenedProperties() throws Exception {
+        OverlappingModel model = new OverlappingModel();
+        model.name = "vm1";
+        model.profile = new LinkedHashMap<>();
+        model.profile.put("size", "small");
+        model.profile.put("zone", "1");
+        model.size = "large";
+        model.state = null;
+
+        String serialized = new JacksonAdapter().serialize(model);
+        Assert.assertEquals("{\"name\":\"vm1\",\"properties\":{\"profile\":{\"zone\":\"1\",\"size\":\"large\"}}}", serialized);
+
+        model.state = "running";
+        model.profile = null;
+        model.size = null;
+        serialized = new JacksonAdapter().serialize(model);
+        Assert.assertEquals("{\"name\":\"vm1\",\"properties\":{\"state\":\"running\"}}", serialized);
     }
 
     /**
@@ -400,6 +492,38 @@ public class FlatteningSerializerTests {
         Assert.assertEquals(productDeserialized.productType, "chai");
     }
 
+    @Test
+    public void canDeserializeOverlappingFlattenedProperties() throws IOException {
+        String wireValue = "{\"name\":\"vm1\",\"properties\":{\"profile\":{\"size\":\"large\",\"zone\":\"1\"},\"ignored\":[1,2]},\"properties.state\":\"bogus\"}";
+        OverlappingModel deserialized = new JacksonAdapter().deserialize(wireValue, OverlappingModel.class);
+        Assert.assertEquals("vm1", deserialized.name);
+        Assert.assertNotNull(deserialized.profile);
+        Assert.assertEquals("large", deserialized.profile.get("size"));
+        Assert.assertEquals("1", deserialized.profile.get("zone"));
+        Assert.assertEquals("large", deserialized.size);
+        Assert.assertNull(deserialized.state);
+        Assert.assertNotNull(deserialized.properties);
+        Assert.assertEquals(2, deserialized.properties.size());
+    }
+
+    @JsonFlatten
+    public static class OverlappingModel {
+        @JsonProperty(value = "name")
+        private String name;
+
+        @JsonProperty(value = "properties")
+        private Map<String, Object> properties;
+
+        @JsonProperty(value = "properties.profile")
+        private Map<String, String> profile;
+
+        @JsonProperty(value = "properties.profile.size")
+        private String size;
+
+        @JsonProperty(value = "properties.state")
+        private String state = "default";
+    }
+
     @JsonFlatten
     private class School {
         @JsonProperty(value = "teacher")
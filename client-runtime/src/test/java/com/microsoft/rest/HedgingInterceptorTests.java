@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.microsoft.rest.credentials.BasicAuthenticationCredentials;
+import com.microsoft.rest.interceptors.HedgingInterceptor;
+import com.microsoft.rest.retry.RetryBudget;
+import com.microsoft.rest.serializer.JacksonAdapter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgingInterceptorTests {
+    @Test
+    public void hedgeWinsOverSlowAttempt() throws Exception {
+        HedgingInterceptor hedging = new HedgingInterceptor().withDelayBounds(50, 50, TimeUnit.MILLISECONDS);
+        SlowFirstAttempt server = new SlowFirstAttempt(5000);
+        RestClient restClient = restClient(hedging, server);
+
+        long start = System.currentTimeMillis();
+        Response response = restClient.httpClient().newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals("attempt 2", response.body().string());
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        Assert.assertEquals(1, hedging.hedgeCount());
+        Assert.assertEquals(1, hedging.hedgeWinCount());
+        Assert.assertEquals(1.0, hedging.hedgeWinRate(), 0);
+        Thread.sleep(200);
+        Assert.assertTrue(server.firstAttemptCanceled.get());
+    }
+
+    @Test
+    public void fastAttemptIsNotHedged() throws Exception {
+        HedgingInterceptor hedging = new HedgingInterceptor().withDelayBounds(500, 500, TimeUnit.MILLISECONDS);
+        SlowFirstAttempt server = new SlowFirstAttempt(0);
+        RestClient restClient = restClient(hedging, server);
+
+        Response response = restClient.httpClient().newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+
+        Assert.assertEquals("attempt 1", response.body().string());
+        Assert.assertEquals(1, hedging.requestCount());
+        Assert.assertEquals(0, hedging.hedgeCount());
+        Assert.assertEquals(1, server.attempts.get());
+    }
+
+    @Test
+    public void primaryAttemptRunsOnTheCallingThread() throws Exception {
+        HedgingInterceptor hedging = new HedgingInterceptor().withDelayBounds(500, 500, TimeUnit.MILLISECONDS);
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        RestClient restClient = restClient(hedging, new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                threads.add(Thread.currentThread());
+                return new Response.Builder()
+                        .request(chain.request())
+                        .code(200)
+                        .message("OK")
+                        .protocol(Protocol.HTTP_1_1)
+                        .body(ResponseBody.create(MediaType.parse("text/plain"), "done"))
+                        .build();
+            }
+        });
+
+        restClient.httpClient().newCall(new Request.Builder().url("http://localhost").get().build()).execute().close();
+
+        Assert.assertEquals(Arrays.asList(Thread.currentThread()), threads);
+        Assert.assertEquals(0, hedging.hedgeCount());
+    }
+
+    @Test
+    public void hedgesAreCappedByBudget() throws Exception {
+        HedgingInterceptor hedging = new HedgingInterceptor()
+                .withDelayBounds(20, 20, TimeUnit.MILLISECONDS)
+                .withBudget(new RetryBudget(0, 0, 1));
+        SlowFirstAttempt server = new SlowFirstAttempt(200);
+        RestClient restClient = restClient(hedging, server);
+
+        Response response = restClient.httpClient().newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+
+        Assert.assertEquals("attempt 1", response.body().string());
+        Assert.assertEquals(0, hedging.hedgeCount());
+        Assert.assertEquals(1, hedging.deniedHedgeCount());
+        Assert.assertEquals(1, server.attempts.get());
+    }
+
+    @Test
+    public void onlyGetIsHedged() throws Exception {
+        HedgingInterceptor hedging = new HedgingInterceptor().withDelayBounds(20, 20, TimeUnit.MILLISECONDS);
+        SlowFirstAttempt server = new SlowFirstAttempt(200);
+        RestClient restClient = restClient(hedging, server);
+
+        Response response = restClient.httpClient().newCall(new Request.Builder().url("http://localhost")
+                .post(RequestBody.create(MediaType.parse("application/json"), "{}")).build()).execute();
+
+        Assert.assertEquals("attempt 1", response.body().string());
+        Assert.assertEquals(0, hedging.requestCount());
+        Assert.assertEquals(1, server.attempts.get());
+    }
+
+    @Test
+    public void cancelingTheCallCancelsTheAttempts() throws Exception {
+        HedgingInterceptor hedging = new HedgingInterceptor().withDelayBounds(5000, 5000, TimeUnit.MILLISECONDS);
+        SlowFirstAttempt server = new SlowFirstAttempt(5000);
+        RestClient restClient = restClient(hedging, server);
+        final Call call = restClient.httpClient().newCall(new Request.Builder().url("http://localhost").get().build());
+        Executors.newSingleThreadScheduledExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+
+        long start = System.currentTimeMillis();
+        try {
+            call.execute();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        }
+        Thread.sleep(200);
+        Assert.assertTrue(server.firstAttemptCanceled.get());
+    }
+
+    @Test
+    public void attemptsAreSentByTheClientOfTheCall() throws Exception {
+        final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger attempts = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                authorizations.add(authorization == null ? "none" : authorization);
+                if (attempts.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        // Answer now
+                    }
+                }
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/";
+            HedgingInterceptor hedging = new HedgingInterceptor().withDelayBounds(50, 50, TimeUnit.MILLISECONDS);
+            RestClient restClient = new RestClient.Builder()
+                    .withBaseUrl(url)
+                    .withSerializerAdapter(new JacksonAdapter())
+                    .withResponseBuilderFactory(new ServiceResponseBuilder.Factory())
+                    .withInterceptor(hedging)
+                    .build();
+            // A derived client shares the interceptor but not its credentials
+            restClient.newBuilder().withCredentials(new BasicAuthenticationCredentials("user", "pass")).build();
+
+            Response response = restClient.httpClient().newCall(new Request.Builder().url(url).get().build()).execute();
+            response.close();
+
+            Assert.assertEquals(1, hedging.hedgeCount());
+            Assert.assertEquals(Arrays.asList("none", "none"), authorizations);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static RestClient restClient(HedgingInterceptor hedging, Interceptor server) {
+        return new RestClient.Builder()
+                .withBaseUrl("http://localhost")
+                .withSerializerAdapter(new JacksonAdapter())
+                .withResponseBuilderFactory(new ServiceResponseBuilder.Factory())
+                .withInterceptor(hedging)
+                .withInterceptor(server)
+                .build();
+    }
+
+    /**
+     * Answers the first attempt after a delay, unless it is canceled, and the next ones immediately.
+     */
+    private static class SlowFirstAttempt implements Interceptor {
+        private final long delayMillis;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicBoolean firstAttemptCanceled = new AtomicBoolean();
+
+        SlowFirstAttempt(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            int attempt = attempts.incrementAndGet();
+            if (attempt == 1) {
+                long deadline = System.currentTimeMillis() + delayMillis;
+                while (System.currentTimeMillis() < deadline) {
+                    if (chain.call().isCanceled()) {
+                        firstAttemptCanceled.set(true);
+                        throw new IOException("Canceled");
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+            return new Response.Builder()
+                    .request(chain.request())
+                    .code(200)
+                    .message("OK")
+                    .protocol(Protocol.HTTP_1_1)
+                    .body(ResponseBody.create(MediaType.parse("text/plain"), "attempt " + attempt))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.google.common.reflect.TypeToken;
+import com.microsoft.rest.serializer.JacksonAdapter;
+import com.microsoft.rest.util.Foo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+public class JacksonAdapterTests {
+    @Test
+    public void canReuseReadersForEqualTypes() throws Exception {
+        JacksonAdapter adapter = new JacksonAdapter();
+        String json = "[{\"$type\":\"foo\",\"properties\":{\"bar\":\"hello\"}}]";
+
+        List<Foo> first = adapter.deserialize(json, new TypeToken<List<Foo>>() { }.getType());
+        List<Foo> second = adapter.deserialize(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), new TypeToken<List<Foo>>() { }.getType());
+        Map<String, Integer> map = adapter.deserialize("{\"a\":1}", new TypeToken<Map<String, Integer>>() { }.getType());
+
+        Assert.assertEquals("hello", first.get(0).bar);
+        Assert.assertEquals("hello", second.get(0).bar);
+        Assert.assertEquals(Integer.valueOf(1), map.get("a"));
+        Assert.assertEquals(2, adapter.readerCacheStats().missCount());
+        Assert.assertEquals(1, adapter.readerCacheStats().hitCount());
+    }
+}
@@ -6,19 +6,48 @@
 
 package com.microsoft.rest;
 
+import com.microsoft.rest.interceptors.RequestIdHeaderInterceptor;
+import com.microsoft.rest.serializer.JacksonAdapter;
+import com.microsoft.rest.retry.ExponentialBackoffRetryStrategy;
+import com.microsoft.rest.retry.IdempotentOperation;
+import com.microsoft.rest.retry.RetryBudget;
+import com.microsoft.rest.retry.RetryBudgetStrategy;
 import com.microsoft.rest.retry.RetryHandler;
+import com.microsoft.rest.retry.RetryStrategy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import org.junit.Assert;
 import org.junit.Test;
 import retrofit2.Retrofit;
+import retrofit2.http.Body;
+import retrofit2.http.GET;
+import retrofit2.http.POST;
+import retrofit2.http.PUT;
+import rx.Observable;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class RetryHandlerTests {
     @Test
@@ -74,4 +103,335 @@ public class RetryHandlerTests {
                 new Request.Builder().url("http://localhost").get().build()).execute();
         Assert.assertEquals(500, response.code());
     }
+
+    @Test
+    public void exponentialRetryHonorsRetryAfter() throws Exception {
+        RetryHandler retryHandler = new RetryHandler();
+        ScriptedInterceptor server = new ScriptedInterceptor(
+                new Response.Builder().code(503).header("x-ms-retry-after-ms", "300"),
+                new Response.Builder().code(503).header("Retry-After", "1"),
+                new Response.Builder().code(200));
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(retryHandler).addInterceptor(server).build();
+
+        Response response = client.newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals(3, server.times.size());
+        Assert.assertTrue(server.times.get(1) - server.times.get(0) >= 300);
+        Assert.assertTrue(server.times.get(2) - server.times.get(1) >= 1000);
+        Assert.assertEquals(2, retryHandler.retryCount());
+        Assert.assertEquals(1300, retryHandler.totalBackoffMillis());
+    }
+
+    @Test
+    public void exponentialRetryBoundsTheServerDelay() throws Exception {
+        RetryStrategy strategy = new ExponentialBackoffRetryStrategy().withMaxServerRetryDelay(200, TimeUnit.MILLISECONDS);
+        RetryHandler retryHandler = new RetryHandler(new RetryBudgetStrategy(strategy).withMaxServerRetryDelay(200, TimeUnit.MILLISECONDS));
+        ScriptedInterceptor server = new ScriptedInterceptor(
+                new Response.Builder().code(503).header("Retry-After", "3600"),
+                new Response.Builder().code(200));
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(retryHandler).addInterceptor(server).build();
+
+        Response response = client.newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals(200, retryHandler.totalBackoffMillis());
+        Assert.assertEquals(RetryStrategy.DEFAULT_MAX_SERVER_RETRY_DELAY, new ExponentialBackoffRetryStrategy().maxServerRetryDelayMillis());
+    }
+
+    @Test
+    public void exponentialRetryBacksOffWithJitter() throws Exception {
+        RetryHandler retryHandler = new RetryHandler(new ExponentialBackoffRetryStrategy(null, 3, 50, 400, 200, false));
+        ScriptedInterceptor server = new ScriptedInterceptor(
+                new Response.Builder().code(500),
+                new Response.Builder().code(502),
+                new Response.Builder().code(503),
+                new Response.Builder().code(200));
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(retryHandler).addInterceptor(server).build();
+
+        Response response = client.newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals(3, retryHandler.retryCount());
+        for (int i = 1; i < server.times.size(); i++) {
+            Assert.assertTrue(server.times.get(i) - server.times.get(i - 1) >= 50);
+        }
+        Assert.assertTrue(retryHandler.totalBackoffMillis() >= 150);
+        Assert.assertTrue(retryHandler.totalBackoffMillis() <= 1200);
+    }
+
+    @Test
+    public void exponentialRetryStopsWaitingWhenCanceled() throws Exception {
+        RetryHandler retryHandler = new RetryHandler();
+        ScriptedInterceptor server = new ScriptedInterceptor(
+                new Response.Builder().code(503).header("Retry-After", "30"),
+                new Response.Builder().code(200));
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(retryHandler).addInterceptor(server).build();
+        final Call call = client.newCall(new Request.Builder().url("http://localhost").get().build());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                call.cancel();
+            }
+        }).start();
+
+        long start = System.currentTimeMillis();
+        try {
+            call.execute();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        }
+        Assert.assertEquals(1, server.times.size());
+        Assert.assertEquals(0, retryHandler.retryCount());
+    }
+
+    @Test
+    public void retryBudgetDeniesRetriesBeyondHealthyTraffic() throws Exception {
+        RetryBudget budget = new RetryBudget(0.5, 0, 10);
+        RetryHandler retryHandler = new RetryHandler(
+                new RetryBudgetStrategy(new ExponentialBackoffRetryStrategy(null, 3, 0, 0, 0, true), budget));
+        ScriptedInterceptor server = new ScriptedInterceptor(
+                new Response.Builder().code(200),
+                new Response.Builder().code(200),
+                new Response.Builder().code(503),
+                new Response.Builder().code(503));
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(retryHandler).addInterceptor(server).build();
+
+        Assert.assertEquals(0, budget.availableRetries());
+        Assert.assertEquals(200, client.newCall(new Request.Builder().url("http://localhost").get().build()).execute().code());
+        Assert.assertEquals(200, client.newCall(new Request.Builder().url("http://localhost").get().build()).execute().code());
+        Assert.assertEquals(1, budget.availableRetries());
+        Assert.assertEquals(503, client.newCall(new Request.Builder().url("http://localhost").get().build()).execute().code());
+
+        Assert.assertEquals(4, server.times.size());
+        Assert.assertEquals(1, budget.allowedRetries());
+        Assert.assertEquals(1, budget.deniedRetries());
+        Assert.assertEquals(0, budget.availableRetries());
+        Assert.assertEquals(1, retryHandler.retryCount());
+    }
+
+    @Test
+    public void transportRetryReusesRequestId() throws Exception {
+        RetryHandler retryHandler = new RetryHandler(
+                new ExponentialBackoffRetryStrategy(null, 3, 0, 0, 0, true).withTransportRetries(true));
+        FlakyInterceptor server = new FlakyInterceptor();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RequestIdHeaderInterceptor())
+                .addInterceptor(retryHandler)
+                .addInterceptor(server)
+                .build();
+
+        Response response = client.newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals(2, server.requestIds.size());
+        Assert.assertNotNull(server.requestIds.get(0));
+        Assert.assertEquals(server.requestIds.get(0), server.requestIds.get(1));
+        Assert.assertEquals(1, retryHandler.transportRetryCount());
+    }
+
+    @Test
+    public void transportRetryOnlyForIdempotentOperations() throws Exception {
+        FlakyInterceptor server = new FlakyInterceptor();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RequestIdHeaderInterceptor())
+                .addInterceptor(new RetryHandler(
+                        new ExponentialBackoffRetryStrategy(null, 3, 0, 0, 0, true).withTransportRetries(true)))
+                .addInterceptor(server)
+                .build();
+        Resources resources = new Retrofit.Builder().baseUrl("http://localhost/").client(client).build().create(Resources.class);
+        RequestBody body = RequestBody.create(MediaType.parse("application/json"), "{}");
+
+        try {
+            resources.create(body).execute();
+            Assert.fail();
+        } catch (SocketTimeoutException e) {
+            Assert.assertEquals(1, server.requestIds.size());
+        }
+        try {
+            resources.put(body).execute();
+            Assert.fail();
+        } catch (SocketTimeoutException e) {
+            Assert.assertEquals(2, server.requestIds.size());
+        }
+        Assert.assertEquals(200, resources.idempotentPut(body).execute().code());
+        Assert.assertEquals(4, server.requestIds.size());
+    }
+
+    @Test
+    public void transportFailuresNotRetriedByDefault() throws Exception {
+        FlakyInterceptor server = new FlakyInterceptor();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RequestIdHeaderInterceptor())
+                .addInterceptor(new RetryHandler())
+                .addInterceptor(server)
+                .build();
+        try {
+            client.newCall(new Request.Builder().url("http://localhost").get().build()).execute();
+            Assert.fail();
+        } catch (SocketTimeoutException e) {
+            Assert.assertEquals(1, server.requestIds.size());
+        }
+    }
+
+    @Test
+    public void observableRetryBacksOffWithoutHoldingAThread() throws Exception {
+        ScriptedServer server = new ScriptedServer(503, 503, 200);
+        Dispatcher dispatcher = new Dispatcher();
+        RestClient restClient = server.restClient(dispatcher);
+        try {
+            TestSubscriber<retrofit2.Response<ResponseBody>> subscriber = new TestSubscriber<>();
+            restClient.retrofit().create(ObservableResources.class).get().subscribe(subscriber);
+
+            Assert.assertTrue(server.served.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            // Backing off, the call is not running anymore and no thread waits for the retry
+            Assert.assertEquals(0, dispatcher.runningCallsCount());
+            Assert.assertEquals(1, server.requestIds.size());
+
+            subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+            subscriber.assertNoErrors();
+            Assert.assertEquals(200, subscriber.getOnNextEvents().get(0).code());
+            Assert.assertEquals(3, server.requestIds.size());
+            Assert.assertEquals(3, new HashSet<>(server.requestIds).size());
+            Assert.assertEquals(2, restClient.retryHandler().retryCount());
+            Assert.assertEquals(600, restClient.retryHandler().totalBackoffMillis());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void observableRetryCanceledOnUnsubscribe() throws Exception {
+        ScriptedServer server = new ScriptedServer(503, 200);
+        RestClient restClient = server.restClient(new Dispatcher());
+        try {
+            Subscription subscription = restClient.retrofit().create(ObservableResources.class).get()
+                    .subscribe(new TestSubscriber<retrofit2.Response<ResponseBody>>());
+
+            Assert.assertTrue(server.served.await(5, TimeUnit.SECONDS));
+            subscription.unsubscribe();
+            Thread.sleep(600);
+
+            Assert.assertEquals(1, server.requestIds.size());
+            Assert.assertEquals(0, restClient.retryHandler().retryCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private interface ObservableResources {
+        @GET("resources")
+        Observable<retrofit2.Response<ResponseBody>> get();
+    }
+
+    private interface Resources {
+        @POST("resources")
+        retrofit2.Call<ResponseBody> create(@Body RequestBody body);
+
+        @PUT("resources/1")
+        retrofit2.Call<ResponseBody> put(@Body RequestBody body);
+
+        @IdempotentOperation
+        @PUT("resources/2")
+        retrofit2.Call<ResponseBody> idempotentPut(@Body RequestBody body);
+    }
+
+    /**
+     * Times out the first attempt of every request and records the request ids it sees.
+     */
+    private static class FlakyInterceptor implements Interceptor {
+        private final List<String> requestIds = new ArrayList<>();
+        private final Set<String> seen = new HashSet<>();
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            String requestId = chain.request().header("x-ms-client-request-id");
+            requestIds.add(requestId);
+            if (seen.add(requestId)) {
+                throw new SocketTimeoutException("timeout");
+            }
+            return new Response.Builder()
+                    .request(chain.request())
+                    .code(200)
+                    .message("OK")
+                    .protocol(Protocol.HTTP_1_1)
+                    .body(ResponseBody.create(MediaType.parse("text/plain"), "azure rocks"))
+                    .build();
+        }
+    }
+
+    /**
+     * Returns a scripted sequence of responses and records when each request arrived.
+     */
+    private static class ScriptedInterceptor implements Interceptor {
+        private final Response.Builder[] responses;
+        private final List<Long> times = new ArrayList<>();
+
+        ScriptedInterceptor(Response.Builder... responses) {
+            this.responses = responses;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            times.add(System.currentTimeMillis());
+            return responses[times.size() - 1]
+                    .request(chain.request())
+                    .message("Scripted")
+                    .protocol(Protocol.HTTP_1_1)
+                    .body(ResponseBody.create(MediaType.parse("text/plain"), "azure rocks"))
+                    .build();
+        }
+    }
+
+    /**
+     * A local server answering with a scripted sequence of status codes and recording the
+     * request ids it sees. Its latch is released once the first response is sent.
+     */
+    private static class ScriptedServer implements HttpHandler {
+        private final int[] codes;
+        private final HttpServer server;
+        private final List<String> requestIds = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch served = new CountDownLatch(1);
+
+        ScriptedServer(int... codes) throws IOException {
+            this.codes = codes;
+            // Answer without waiting for delayed acknowledgments, which add tens of milliseconds to each request
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", this);
+            server.start();
+        }
+
+        RestClient restClient(Dispatcher dispatcher) {
+            return new RestClient.Builder()
+                    .withBaseUrl("http://localhost:" + server.getAddress().getPort() + "/")
+                    .withSerializerAdapter(new JacksonAdapter())
+                    .withResponseBuilderFactory(new ServiceResponseBuilder.Factory())
+                    .withRetryStrategy(new ExponentialBackoffRetryStrategy(null, 3, 300, 300, 0, false))
+                    .withDispatcher(dispatcher)
+                    .useHttpClientThreadPool(true)
+                    .build();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requestIds.add(exchange.getRequestHeaders().getFirst("x-ms-client-request-id"));
+            byte[] body = "{}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(codes[Math.min(requestIds.size(), codes.length) - 1], body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+            served.countDown();
+        }
+    }
 }
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.serializer.JacksonAdapter;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+import retrofit2.Converter;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class ServiceResponseBuilderTests {
+    @Test
+    public void canThrowTypedErrorWithMessage() throws Exception {
+        Response<ResponseBody> response = Response.error(409,
+                ResponseBody.create(MediaType.parse("application/json"), "{\"code\":\"Conflict\",\"message\":\"in use\"}"));
+        try {
+            new ServiceResponseBuilder.Factory().<Object, ErrorException>newInstance(new JacksonAdapter())
+                    .register(200, Object.class)
+                    .registerError(ErrorException.class)
+                    .build(response);
+            Assert.fail();
+        } catch (ErrorException e) {
+            Assert.assertEquals("Status code 409, {\"code\":\"Conflict\",\"message\":\"in use\"}", e.getMessage());
+            Assert.assertEquals("Conflict", e.body().code);
+            Assert.assertEquals("in use", e.body().message);
+        }
+    }
+
+    @Test
+    public void canThrowErrorWithoutBody() throws Exception {
+        Response<Void> response = Response.error(500, ResponseBody.create(MediaType.parse("application/json"), ""));
+        try {
+            new ServiceResponseBuilder.Factory().<Void, ErrorException>newInstance(new JacksonAdapter())
+                    .register(204, Void.class)
+                    .registerError(ErrorException.class)
+                    .buildEmpty(response);
+            Assert.fail();
+        } catch (ErrorException e) {
+            Assert.assertEquals("Status code 500", e.getMessage());
+            Assert.assertNull(e.body());
+        }
+    }
+
+    @Test
+    public void reportsExceptionTypesWithoutConstructors() throws Exception {
+        Response<ResponseBody> response = Response.error(400, ResponseBody.create(MediaType.parse("application/json"), "{}"));
+        try {
+            new ServiceResponseBuilder.Factory().<Object, NoConstructorException>newInstance(new JacksonAdapter())
+                    .register(200, Object.class)
+                    .registerError(NoConstructorException.class)
+                    .build(response);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Status code 400, but an instance of"));
+        }
+    }
+
+    @Test
+    public void deserializesFromStringsWithAdaptersWithoutStreamSupport() throws Exception {
+        final JacksonAdapter jackson = new JacksonAdapter();
+        SerializerAdapter<Object> adapter = new SerializerAdapter<Object>() {
+            @Override
+            public Object serializer() {
+                return null;
+            }
+
+            @Override
+            public Converter.Factory converterFactory() {
+                return jackson.converterFactory();
+            }
+
+            @Override
+            public String serialize(Object object) throws IOException {
+                return jackson.serialize(object);
+            }
+
+            @Override
+            public String serializeRaw(Object object) {
+                return jackson.serializeRaw(object);
+            }
+
+            @Override
+            public String serializeList(List<?> list, CollectionFormat format) {
+                return jackson.serializeList(list, format);
+            }
+
+            @Override
+            public <U> U deserialize(String value, Type type) throws IOException {
+                return jackson.deserialize(value, type);
+            }
+        };
+        ServiceResponse<Error> serviceResponse = new ServiceResponseBuilder.Factory()
+                .<Error, RestException>newInstance(adapter)
+                .register(200, Error.class)
+                .build(Response.success(ResponseBody.create(MediaType.parse("application/json"), "{\"code\":\"none\"}")));
+        Assert.assertEquals("none", serviceResponse.body().code);
+
+        serviceResponse = new ServiceResponseBuilder.Factory()
+                .<Error, RestException>newInstance(adapter)
+                .register(200, Error.class)
+                .build(Response.success(ResponseBody.create(MediaType.parse("application/json"), "")));
+        Assert.assertNull(serviceResponse.body());
+    }
+
+    @Test
+    public void canBindTypedHeaders() throws Exception {
+        Headers headers = new Headers.Builder()
+                .add("x-ms-request-id", "7d2a6b8e-7f1e-4a57-9c3b-0d7a5c2b1e4f")
+                .add("date", "Tue, 15 Nov 1994 08:12:31 GMT")
+                .add("Retry-After", "30")
+                .add("Content-Length", "1024")
+                .add("Last-Modified", "2018-01-02T03:04:05Z")
+                .add("ETag", "\"abc\"")
+                .build();
+        ServiceResponseWithHeaders<Object, TypedHeaders> serviceResponse = new ServiceResponseBuilder.Factory()
+                .<Object, RestException>newInstance(new JacksonAdapter())
+                .register(200, Object.class)
+                .buildWithHeaders(success(headers), TypedHeaders.class);
+
+        TypedHeaders typed = serviceResponse.headers();
+        Assert.assertSame(typed, serviceResponse.headers());
+        Assert.assertEquals(UUID.fromString("7d2a6b8e-7f1e-4a57-9c3b-0d7a5c2b1e4f"), typed.requestId);
+        Assert.assertEquals(new DateTimeRfc1123("Tue, 15 Nov 1994 08:12:31 GMT").dateTime(), typed.date.dateTime());
+        Assert.assertEquals(Integer.valueOf(30), typed.retryAfter);
+        Assert.assertEquals(1024L, typed.contentLength);
+        Assert.assertEquals(new DateTime("2018-01-02T03:04:05Z").getMillis(), typed.lastModified.getMillis());
+        Assert.assertEquals("\"abc\"", typed.eTag);
+        Assert.assertNull(typed.location);
+    }
+
+    @Test
+    public void bindsHeadersOnlyWhenAccessed() throws Exception {
+        Headers headers = new Headers.Builder().add("Retry-After", "soon").build();
+        ServiceResponseWithHeaders<Object, TypedHeaders> serviceResponse = new ServiceResponseBuilder.Factory()
+                .<Object, RestException>newInstance(new JacksonAdapter())
+                .register(200, Object.class)
+                .buildWithHeaders(success(headers), TypedHeaders.class);
+        Assert.assertEquals(200, serviceResponse.response().code());
+        try {
+            serviceResponse.headers();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void bindsAnnotatedHeadersThroughTheSerializer() throws Exception {
+        Headers headers = new Headers.Builder()
+                .add("x-ms-request-id", "abc")
+                .add("x-ms-tags", "a,b")
+                .add("x-ms-count", "3")
+                .build();
+        ServiceResponseWithHeaders<Object, AnnotatedHeaders> serviceResponse = new ServiceResponseBuilder.Factory()
+                .<Object, RestException>newInstance(new JacksonAdapter())
+                .register(200, Object.class)
+                .buildWithHeaders(success(headers), AnnotatedHeaders.class);
+        Assert.assertEquals("abc", serviceResponse.headers().requestId);
+        Assert.assertEquals(Arrays.asList("a", "b"), serviceResponse.headers().tags);
+        Assert.assertEquals(3, serviceResponse.headers().count);
+
+        ServiceResponseWithHeaders<Object, SetterHeaders> setterResponse = new ServiceResponseBuilder.Factory()
+                .<Object, RestException>newInstance(new JacksonAdapter())
+                .register(200, Object.class)
+                .buildWithHeaders(success(headers), SetterHeaders.class);
+        Assert.assertEquals("ABC", setterResponse.headers().requestId);
+    }
+
+    private static Response<ResponseBody> success(Headers headers) {
+        return Response.success(ResponseBody.create(MediaType.parse("application/json"), "{}"),
+                new okhttp3.Response.Builder()
+                        .code(200)
+                        .message("OK")
+                        .protocol(Protocol.HTTP_1_1)
+                        .request(new Request.Builder().url("http://localhost/").build())
+                        .headers(headers)
+                        .build());
+    }
+
+    public static class TypedHeaders {
+        @JsonProperty(value = "x-ms-request-id")
+        private UUID requestId;
+
+        @JsonProperty(value = "Date")
+        private DateTimeRfc1123 date;
+
+        @JsonProperty(value = "Retry-After")
+        private Integer retryAfter;
+
+        @JsonProperty(value = "Content-Length")
+        private long contentLength;
+
+        @JsonProperty(value = "Last-Modified")
+        private DateTime lastModified;
+
+        @JsonProperty(value = "ETag")
+        private String eTag;
+
+        @JsonProperty(value = "Location")
+        private String location;
+    }
+
+    public static class AnnotatedHeaders {
+        @JsonProperty(value = "x-ms-request-id")
+        private String requestId;
+
+        @JsonProperty(value = "x-ms-tags")
+        @JsonDeserialize(using = CommaSeparatedDeserializer.class)
+        private List<String> tags;
+
+        @JsonProperty(value = "x-ms-count")
+        private int count;
+    }
+
+    public static class CommaSeparatedDeserializer extends JsonDeserializer<List<String>> {
+        @Override
+        public List<String> deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return Arrays.asList(parser.getText().split(","));
+        }
+    }
+
+    public static class SetterHeaders {
+        private String requestId;
+
+        @JsonSetter(value = "x-ms-request-id")
+        private void setRequestId(String requestId) {
+            this.requestId = requestId.toUpperCase();
+        }
+    }
+
+    public static class Error {
+        @JsonProperty(value = "code")
+        private String code;
+
+        @JsonProperty(value = "message")
+        private String message;
+    }
+
+    public static class ErrorException extends RestException {
+        public ErrorException(String message, Response<ResponseBody> response) {
+            super(message, response);
+        }
+
+        public ErrorException(String message, Response<ResponseBody> response, Error body) {
+            super(message, response, body);
+        }
+
+        @Override
+        public Error body() {
+            return (Error) super.body();
+        }
+    }
+
+    public static class NoConstructorException extends RestException {
+        public NoConstructorException(String message) {
+            super(message, null);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.primitives.Primitives;
+import com.google.common.reflect.TypeToken;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.Period;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Validator} and its cached {@link ValidationPlan} against the
+ * per-object reflective walk it used to do, on a large PUT payload.
+ *
+ * Run with:
+ * <pre>
+ * mvn -pl client-runtime test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp client-runtime/target/test-classes:client-runtime/target/classes:$(cat client-runtime/target/cp.txt) \
+ *     org.openjdk.jmh.Main ValidatorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+    /** The number of rules and of tags in the payload. */
+    private static final int SIZE = 1000;
+
+    /** The payload to validate. */
+    private SecurityGroup payload;
+
+    /**
+     * Prepares a network security group with many rules and tags.
+     */
+    @Setup
+    public void setup() {
+        payload = new SecurityGroup();
+        Resource resource = payload;
+        resource.location = "westus";
+        resource.tags = new HashMap<>();
+        payload.rules = new ArrayList<>();
+        payload.addressPrefixes = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            resource.tags.put("tag" + i, "value" + i);
+            payload.addressPrefixes.add("10.0." + (i % 256) + ".0/24");
+            SecurityRule rule = new SecurityRule();
+            rule.name = "rule" + i;
+            rule.priority = 100 + i;
+            rule.access = Access.ALLOW;
+            rule.ports = new ArrayList<>();
+            rule.ports.add("443");
+            rule.ports.add("8080-8090");
+            payload.rules.add(rule);
+        }
+    }
+
+    /**
+     * Validates the payload with the reflective walk the validator did before plans were cached.
+     */
+    @Benchmark
+    public void legacyValidate() {
+        LegacyValidator.validate(payload);
+    }
+
+    /**
+     * Validates the payload with the cached plans.
+     */
+    @Benchmark
+    public void plannedValidate() {
+        Validator.validate(payload);
+    }
+
+    /**
+     * The validator as it was before plans were cached.
+     */
+    private static final class LegacyValidator {
+        private LegacyValidator() { }
+
+        static void validate(Object parameter) {
+            if (parameter == null) {
+                return;
+            }
+            Class<?> parameterType = parameter.getClass();
+            TypeToken<?> parameterToken = TypeToken.of(parameterType);
+            if (Primitives.isWrapperType(parameterType)) {
+                parameterToken = parameterToken.unwrap();
+            }
+            if (parameterToken.isPrimitive()
+                    || parameterType.isEnum()
+                    || parameterType == Class.class
+                    || parameterToken.isSupertypeOf(LocalDate.class)
+                    || parameterToken.isSupertypeOf(DateTime.class)
+                    || parameterToken.isSupertypeOf(String.class)
+                    || parameterToken.isSupertypeOf(DateTimeRfc1123.class)
+                    || parameterToken.isSupertypeOf(Period.class)) {
+                return;
+            }
+            if (parameterType.getAnnotation(SkipParentValidation.class) == null) {
+                for (Class<?> c : parameterToken.getTypes().classes().rawTypes()) {
+                    validateClass(c, parameter);
+                }
+            } else {
+                validateClass(parameterType, parameter);
+            }
+        }
+
+        private static void validateClass(Class<?> c, Object parameter) {
+            if (c.isAssignableFrom(Object.class)) {
+                return;
+            }
+            for (Field field : c.getDeclaredFields()) {
+                field.setAccessible(true);
+                int mod = field.getModifiers();
+                if (Modifier.isFinal(mod) || Modifier.isStatic(mod)) {
+                    continue;
+                }
+                JsonProperty annotation = field.getAnnotation(JsonProperty.class);
+                if (annotation != null && annotation.access().equals(JsonProperty.Access.WRITE_ONLY)) {
+                    continue;
+                }
+                Object property;
+                try {
+                    property = field.get(parameter);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException(e.getMessage(), e);
+                }
+                if (property == null) {
+                    if (annotation != null && annotation.required()) {
+                        throw new IllegalArgumentException(field.getName() + " is required and cannot be null.");
+                    }
+                } else {
+                    Class<?> propertyType = property.getClass();
+                    if (TypeToken.of(List.class).isSupertypeOf(propertyType)) {
+                        for (Object item : (List<?>) property) {
+                            validate(item);
+                        }
+                    } else if (TypeToken.of(Map.class).isSupertypeOf(propertyType)) {
+                        for (Map.Entry<?, ?> entry : ((Map<?, ?>) property).entrySet()) {
+                            validate(entry.getKey());
+                            validate(entry.getValue());
+                        }
+                    } else if (parameter.getClass() != propertyType) {
+                        validate(property);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a rule allows or denies traffic.
+     */
+    public enum Access {
+        ALLOW, DENY
+    }
+
+    /**
+     * A tracked ARM resource.
+     */
+    public static class Resource {
+        @JsonProperty(value = "id", access = JsonProperty.Access.WRITE_ONLY)
+        private String id;
+
+        @JsonProperty(value = "location", required = true)
+        private String location;
+
+        @JsonProperty(value = "tags")
+        private Map<String, String> tags;
+    }
+
+    /**
+     * A network security group.
+     */
+    public static class SecurityGroup extends Resource {
+        @JsonProperty(value = "properties.securityRules")
+        private List<SecurityRule> rules;
+
+        @JsonProperty(value = "properties.addressPrefixes")
+        private List<String> addressPrefixes;
+    }
+
+    /**
+     * A security rule.
+     */
+    public static class SecurityRule {
+        @JsonProperty(value = "name", required = true)
+        private String name;
+
+        @JsonProperty(value = "properties.priority", required = true)
+        private Integer priority;
+
+        @JsonProperty(value = "properties.access", required = true)
+        private Access access;
+
+        @JsonProperty(value = "properties.destinationPortRanges")
+        private List<String> ports;
+    }
+}
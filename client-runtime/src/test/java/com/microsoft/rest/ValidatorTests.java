@@ -125,6 +125,23 @@ public class ValidatorTests {
         }
     }
 
+    @Test
+    public void validateGenericList() throws Exception {
+        StringWrapperPage page = new StringWrapperPage();
+        page.items = new ArrayList<StringWrapper>();
+        page.items.add(new StringWrapper());
+        page.names = new ArrayList<String>();
+        page.names.add(null);
+        try {
+            Validator.validate(page); // fail
+            fail();
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().contains("items.value is required"));
+        }
+        page.items.get(0).value = "valid";
+        Validator.validate(page); // pass
+    }
+
     @Test
     public void validateObject() throws Exception {
         Product product = new Product();
@@ -180,6 +197,15 @@ public class ValidatorTests {
         public Map<LocalDate, StringWrapper> map;
     }
 
+    public class GenericPage<T> {
+        // CHECKSTYLE IGNORE VisibilityModifier FOR NEXT 2 LINES
+        public List<T> items;
+        public List<String> names;
+    }
+
+    public final class StringWrapperPage extends GenericPage<StringWrapper> {
+    }
+
     public enum Color {
         RED,
         GREEN,
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.rest.serializer;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cached {@link FlatteningPlan} against the per-object reflection and
+ * regex walk {@link FlatteningDeserializer} used to do, on nested ARM-like models.
+ *
+ * Run with:
+ * <pre>
+ * mvn -pl client-runtime test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp client-runtime/target/test-classes:client-runtime/target/classes:$(cat client-runtime/target/cp.txt) \
+ *     org.openjdk.jmh.Main FlatteningDeserializerBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlatteningDeserializerBenchmark {
+    /** The number of virtual machines in the page. */
+    private static final int PAGE_SIZE = 1000;
+
+    /** The adapter used for deserialization. */
+    private JacksonAdapter adapter;
+
+    /** A page of serialized virtual machines. */
+    private String page;
+
+    /**
+     * Prepares a page of virtual machines on the wire.
+     */
+    @Setup
+    public void setup() {
+        adapter = new JacksonAdapter();
+        StringBuilder builder = new StringBuilder("{\"value\":[");
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"/subscriptions/sub/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/vm").append(i).append("\",")
+                    .append("\"name\":\"vm").append(i).append("\",\"location\":\"westus\",")
+                    .append("\"tags\":{\"env\":\"prod\",\"owner.team\":\"compute\"},")
+                    .append("\"properties\":{\"vmId\":\"").append(i).append("\",\"provisioningState\":\"Succeeded\",")
+                    .append("\"hardwareProfile\":{\"vmSize\":\"Standard_D2_v2\"},")
+                    .append("\"storageProfile\":{\"osDisk\":{\"name\":\"osdisk").append(i).append("\",\"properties\":{\"diskSizeGB\":128}},")
+                    .append("\"dataDisks\":[{\"name\":\"data0\",\"properties\":{\"diskSizeGB\":512}}]},")
+                    .append("\"networkProfile\":{\"networkInterfaces\":[{\"id\":\"nic").append(i).append("\",\"properties\":{\"primary\":true}}]}}}");
+        }
+        builder.append("],\"nextLink\":\"https://management.azure.com/next\"}");
+        page = builder.toString();
+    }
+
+    /**
+     * Walks the class hierarchy, annotations and regular expressions for every object,
+     * which is what the deserializer did before plans were cached.
+     *
+     * @param blackhole sink for the computed paths
+     */
+    @Benchmark
+    public void legacyReflectionWalk(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            for (Class<?> c : TypeToken.of(VirtualMachine.class).getTypes().classes().rawTypes()) {
+                if (c.isAssignableFrom(Object.class)) {
+                    continue;
+                }
+                for (Field field : c.getDeclaredFields()) {
+                    JsonProperty jsonProperty = field.getAnnotation(JsonProperty.class);
+                    if (jsonProperty != null && jsonProperty.value().matches(".+[^\\\\]\\..+")) {
+                        for (String key : jsonProperty.value().split("((?<!\\\\))\\.")) {
+                            blackhole.consume(key.replace("\\.", "."));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the cached plan for every object.
+     *
+     * @param blackhole sink for the computed paths
+     */
+    @Benchmark
+    public void cachedPlanLookup(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            for (FlatteningPlan.FlattenedProperty property : FlatteningPlan.forClass(VirtualMachine.class).flattenedProperties()) {
+                blackhole.consume(property.path());
+            }
+        }
+    }
+
+    /**
+     * Deserializes a full page of virtual machines.
+     *
+     * @return the deserialized page
+     * @throws IOException thrown by deserialization
+     */
+    @Benchmark
+    public VirtualMachinePage deserializePage() throws IOException {
+        return adapter.deserialize(page, VirtualMachinePage.class);
+    }
+
+    /**
+     * A page of virtual machines.
+     */
+    public static class VirtualMachinePage {
+        @JsonProperty(value = "value")
+        private List<VirtualMachine> value;
+
+        @JsonProperty(value = "nextLink")
+        private String nextLink;
+    }
+
+    /**
+     * A tracked ARM resource.
+     */
+    public static class Resource {
+        @JsonProperty(value = "id")
+        private String id;
+
+        @JsonProperty(value = "name")
+        private String name;
+
+        @JsonProperty(value = "location")
+        private String location;
+
+        @JsonProperty(value = "tags")
+        private Map<String, String> tags;
+    }
+
+    /**
+     * A virtual machine with flattened properties.
+     */
+    @JsonFlatten
+    public static class VirtualMachine extends Resource {
+        @JsonProperty(value = "properties.vmId")
+        private String vmId;
+
+        @JsonProperty(value = "properties.provisioningState")
+        private String provisioningState;
+
+        @JsonProperty(value = "properties.hardwareProfile.vmSize")
+        private String vmSize;
+
+        @JsonProperty(value = "properties.storageProfile")
+        private StorageProfile storageProfile;
+
+        @JsonProperty(value = "properties.networkProfile.networkInterfaces")
+        private List<NetworkInterfaceReference> networkInterfaces;
+    }
+
+    /**
+     * The storage profile of a virtual machine.
+     */
+    public static class StorageProfile {
+        @JsonProperty(value = "osDisk")
+        private Disk osDisk;
+
+        @JsonProperty(value = "dataDisks")
+        private List<Disk> dataDisks;
+    }
+
+    /**
+     * A disk with flattened properties.
+     */
+    @JsonFlatten
+    public static class Disk {
+        @JsonProperty(value = "name")
+        private String name;
+
+        @JsonProperty(value = "properties.diskSizeGB")
+        private Integer diskSizeGB;
+    }
+
+    /**
+     * A network interface reference with flattened properties.
+     */
+    @JsonFlatten
+    public static class NetworkInterfaceReference {
+        @JsonProperty(value = "id")
+        private String id;
+
+        @JsonProperty(value = "properties.primary")
+        private Boolean primary;
+    }
+}